@@ -0,0 +1,381 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:           FocusMetrics.java
+//PROJECT:        Micro-Manager
+//SUBSYSTEM:      Autofocusing plug-in for micro-manager and ImageJ
+//-----------------------------------------------------------------------------
+//
+//COPYRIGHT:      Micro-Manager contributors, 2026
+//
+//LICENSE:        This file is distributed under the BSD license.
+//                License text is included with the source distribution.
+//
+//                This file is distributed in the hope that it will be useful,
+//                but WITHOUT ANY WARRANTY; without even the implied warranty
+//                of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//                IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//                CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//                INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+package org.micromanager.autofocus;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Focus scores calculated directly on pixel arrays.
+ *
+ * The region of interest is first copied (and optionally binned) into a
+ * float plane.  The plane is then scanned once, collecting the intensity
+ * statistics and the sums of the requested metric at the same time.  Both
+ * steps are split in blocks of rows over all cores for large images.
+ *
+ * Without binning, scores follow the ImageJ based implementations that
+ * OughtaFocus used before, including the clipping to the pixel type of
+ * ImageJ's convolve3x3 in Tenengrad and the asymmetric kernel of Redondo.
+ * Only the handling of edge pixels in Tenengrad may differ slightly.
+ */
+final class FocusMetrics {
+
+   public static final String MEAN = "Mean";
+   public static final String STDDEV = "StdDev";
+   public static final String NORMALIZED_VARIANCE = "NormalizedVariance";
+   public static final String REDONDO = "Redondo";
+   public static final String VOLATH = "Volath";
+   public static final String VOLATH5 = "Volath5";
+   public static final String TENENGRAD = "Tenengrad";
+
+   // Images with fewer pixels are not worth splitting over threads
+   private static final int MIN_PIXELS_PER_TASK = 1 << 16;
+   private static final int NR_THREADS = Runtime.getRuntime().availableProcessors();
+   private static ExecutorService executor_;
+
+   // Indices in the partial sums of each block of rows
+   private static final int SUM = 0;
+   private static final int SUM2 = 1;
+   private static final int METRIC1 = 2;
+   private static final int METRIC2 = 3;
+
+   private FocusMetrics() {
+   }
+
+   /**
+    * Region of an image as floats, after binning
+    */
+   static final class Plane {
+      final float[] pixels;
+      final int width;
+      final int height;
+      // range of the original pixel type
+      final float minValue;
+      final float maxValue;
+
+      Plane(float[] pixels, int width, int height, float minValue,
+              float maxValue) {
+         this.pixels = pixels;
+         this.width = width;
+         this.height = height;
+         this.minValue = minValue;
+         this.maxValue = maxValue;
+      }
+   }
+
+   public static boolean isSupported(String method) {
+      return MEAN.equals(method) || STDDEV.equals(method)
+              || NORMALIZED_VARIANCE.equals(method) || REDONDO.equals(method)
+              || VOLATH.equals(method) || VOLATH5.equals(method)
+              || TENENGRAD.equals(method);
+   }
+
+   public static boolean canExtract(Object pixels) {
+      return pixels instanceof byte[] || pixels instanceof short[]
+              || pixels instanceof float[];
+   }
+
+   /**
+    * Copies a region of an image into a float plane, averaging blocks of
+    * binning x binning pixels
+    *
+    * @param pixels byte[], short[] or float[] pixels of the image
+    * @param width width of the image
+    * @param height height of the image
+    * @param roi region to copy, null for the whole image
+    * @param binning 1, 2, 4, ...
+    * @return plane of roi.width / binning by roi.height / binning pixels
+    */
+   public static Plane extract(final Object pixels, final int width, int height,
+           Rectangle roi, final int binning) throws InterruptedException,
+           ExecutionException {
+      Rectangle frame = new Rectangle(0, 0, width, height);
+      roi = roi == null ? frame : roi.intersection(frame);
+      if (roi.isEmpty()) {
+         roi = frame;
+      }
+      final int x0 = roi.x;
+      final int y0 = roi.y;
+      final int bin = Math.max(1, Math.min(binning,
+              Math.min(roi.width, roi.height)));
+      final int w = roi.width / bin;
+      final int h = roi.height / bin;
+      final float[] plane = new float[w * h];
+      final float scale = 1.0f / (bin * bin);
+      float minValue = pixels instanceof float[] ? -Float.MAX_VALUE : 0;
+      float maxValue = pixels instanceof byte[] ? 0xff
+              : pixels instanceof short[] ? 0xffff : Float.MAX_VALUE;
+
+      forEachRowBlock(h, w, new RowBlock() {
+         @Override
+         double[] run(int rowStart, int rowEnd) {
+            if (bin == 1) {
+               copyRows(pixels, width, x0, y0, plane, w, rowStart, rowEnd);
+               return null;
+            }
+            for (int j = rowStart; j < rowEnd; j++) {
+               for (int i = 0; i < w; i++) {
+                  float sum = 0;
+                  for (int dy = 0; dy < bin; dy++) {
+                     int index = (y0 + j * bin + dy) * width + x0 + i * bin;
+                     for (int dx = 0; dx < bin; dx++) {
+                        sum += value(pixels, index + dx);
+                     }
+                  }
+                  plane[j * w + i] = sum * scale;
+               }
+            }
+            return null;
+         }
+      });
+      return new Plane(plane, w, h, minValue, maxValue);
+   }
+
+   private static void copyRows(Object pixels, int width, int x0, int y0,
+           float[] plane, int w, int rowStart, int rowEnd) {
+      for (int j = rowStart; j < rowEnd; j++) {
+         int index = (y0 + j) * width + x0;
+         int target = j * w;
+         if (pixels instanceof byte[]) {
+            byte[] p = (byte[]) pixels;
+            for (int i = 0; i < w; i++) {
+               plane[target + i] = p[index + i] & 0xff;
+            }
+         } else if (pixels instanceof short[]) {
+            short[] p = (short[]) pixels;
+            for (int i = 0; i < w; i++) {
+               plane[target + i] = p[index + i] & 0xffff;
+            }
+         } else {
+            System.arraycopy((float[]) pixels, index, plane, target, w);
+         }
+      }
+   }
+
+   /**
+    * Calculates a focus score
+    * @param method one of the metrics for which isSupported returns true
+    * @param plane pixels to score
+    * @return focus score, larger is better
+    */
+   public static double score(final String method, final Plane plane)
+           throws InterruptedException, ExecutionException {
+      final int w = plane.width;
+      final int h = plane.height;
+      double[] sums = forEachRowBlock(h, w, new RowBlock() {
+         @Override
+         double[] run(int rowStart, int rowEnd) {
+            double[] partial = new double[4];
+            for (int j = rowStart; j < rowEnd; j++) {
+               scoreRow(method, plane, j, partial);
+            }
+            return partial;
+         }
+      });
+      double n = (double) w * h;
+      double mean = sums[SUM] / n;
+      double variance = 0.0;
+      if (n > 1) {
+         // same as ImageJ's ImageStatistics
+         variance = (n * sums[SUM2] - sums[SUM] * sums[SUM]) / n / (n - 1.0);
+         variance = Math.max(0.0, variance);
+      }
+      if (MEAN.equals(method)) {
+         return mean;
+      } else if (STDDEV.equals(method)) {
+         return Math.sqrt(variance) / mean;
+      } else if (NORMALIZED_VARIANCE.equals(method)) {
+         return variance / mean;
+      } else if (VOLATH.equals(method)) {
+         return sums[METRIC1] - sums[METRIC2];
+      } else if (VOLATH5.equals(method)) {
+         return sums[METRIC1] - ((w - 1) * h * mean * mean);
+      }
+      return sums[METRIC1];
+   }
+
+   /**
+    * Adds the statistics of row j to the partial sums
+    */
+   private static void scoreRow(String method, Plane plane, int j,
+           double[] partial) {
+      final float[] p = plane.pixels;
+      final int w = plane.width;
+      final int h = plane.height;
+      final int row = j * w;
+      double sum = 0.0;
+      double sum2 = 0.0;
+      for (int i = 0; i < w; i++) {
+         double v = p[row + i];
+         sum += v;
+         sum2 += v * v;
+      }
+      partial[SUM] += sum;
+      partial[SUM2] += sum2;
+
+      double m1 = 0.0;
+      double m2 = 0.0;
+      if (REDONDO.equals(method)) {
+         // this is NOT a traditional Laplace filter; the "center" weight is
+         // actually the left neighbor (left + right + up + down - 4 * left).
+         // It is a typo in the source paper, but works better than the
+         // traditional Laplace filter.
+         //
+         // Redondo R, Bueno G, Valdiviezo J et al.  "Autofocus evaluation for
+         // brightfield microscopy pathology", J Biomed Opt 17(3) 036008 (2012)
+         //
+         // from
+         //
+         // Russel M, Douglas T.  "Evaluation of autofocus algorithms for
+         // tuberculosis microscopy". Proc 29th International Conference of the
+         // IEEE EMBS, Lyon, 3489-3492 (22-26 Aug 2007)
+         if (j > 0 && j < h - 1) {
+            for (int i = 1; i < w - 1; i++) {
+               double d = p[row + i + 1] + p[row - w + i] + p[row + w + i]
+                       - 3.0 * p[row + i - 1];
+               m1 += d * d;
+            }
+         }
+      } else if (VOLATH.equals(method)) {
+         // Volath's 1D autocorrelation
+         // Volath  D., "The influence of the scene parameters and of noise on
+         // the behavior of automatic focusing algorithms,"
+         // J. Microsc. 151, (2), 133-146 (1988).
+         for (int i = 1; i < w - 1; i++) {
+            m1 += (double) p[row + i] * p[row + i + 1];
+         }
+         for (int i = 0; i < w - 2; i++) {
+            m2 += (double) p[row + i] * p[row + i + 2];
+         }
+      } else if (VOLATH5.equals(method)) {
+         // Volath 5 - smooths out high-frequency (suppresses noise)
+         for (int i = 0; i < w - 1; i++) {
+            m1 += (double) p[row + i] * p[row + i + 1];
+         }
+      } else if (TENENGRAD.equals(method)) {
+         // From "Autofocusing Algorithm Selection in Computer Microscopy"
+         // (doi: 10.1109/IROS.2005.1545017).
+         // Sobel gradients with edge pixels repeated, and results clipped
+         // to the pixel type like ImageJ's convolve3x3 does
+         final float min = plane.minValue;
+         final float max = plane.maxValue;
+         final int up = Math.max(j - 1, 0) * w;
+         final int down = Math.min(j + 1, h - 1) * w;
+         for (int i = 0; i < w; i++) {
+            int left = Math.max(i - 1, 0);
+            int right = Math.min(i + 1, w - 1);
+            float p1 = p[up + left];
+            float p2 = p[up + i];
+            float p3 = p[up + right];
+            float p4 = p[row + left];
+            float p6 = p[row + right];
+            float p7 = p[down + left];
+            float p8 = p[down + i];
+            float p9 = p[down + right];
+            double gx = clip(-p1 + p3 - 2 * p4 + 2 * p6 - p7 + p9, min, max);
+            double gy = clip(p1 + 2 * p2 + p3 - p7 - 2 * p8 - p9, min, max);
+            m1 += gx * gx + gy * gy;
+         }
+      }
+      partial[METRIC1] += m1;
+      partial[METRIC2] += m2;
+   }
+
+   private static float clip(float value, float min, float max) {
+      return value < min ? min : (value > max ? max : value);
+   }
+
+   private static float value(Object pixels, int index) {
+      if (pixels instanceof byte[]) {
+         return ((byte[]) pixels)[index] & 0xff;
+      } else if (pixels instanceof short[]) {
+         return ((short[]) pixels)[index] & 0xffff;
+      }
+      return ((float[]) pixels)[index];
+   }
+
+   private abstract static class RowBlock {
+      /**
+       * Processes rows [rowStart, rowEnd)
+       * @return partial sums, or null
+       */
+      abstract double[] run(int rowStart, int rowEnd);
+   }
+
+   /**
+    * Runs the block over all rows, split over threads for large images,
+    * and returns the element-wise sum of the partial sums
+    */
+   private static double[] forEachRowBlock(int height, int width,
+           final RowBlock block) throws InterruptedException,
+           ExecutionException {
+      int nrBlocks = (int) Math.min(Math.min(NR_THREADS, height),
+              (long) width * height / MIN_PIXELS_PER_TASK);
+      if (nrBlocks <= 1) {
+         return block.run(0, height);
+      }
+      List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(nrBlocks);
+      for (int b = 0; b < nrBlocks; b++) {
+         final int rowStart = (int) ((long) height * b / nrBlocks);
+         final int rowEnd = (int) ((long) height * (b + 1) / nrBlocks);
+         tasks.add(new Callable<double[]>() {
+            @Override
+            public double[] call() {
+               return block.run(rowStart, rowEnd);
+            }
+         });
+      }
+      double[] total = null;
+      for (Future<double[]> f : getExecutor().invokeAll(tasks)) {
+         double[] partial = f.get();
+         if (partial == null) {
+            continue;
+         }
+         if (total == null) {
+            total = partial;
+         } else {
+            for (int i = 0; i < total.length; i++) {
+               total[i] += partial[i];
+            }
+         }
+      }
+      return total;
+   }
+
+   private static synchronized ExecutorService getExecutor() {
+      if (executor_ == null) {
+         executor_ = Executors.newFixedThreadPool(NR_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "OughtaFocus scoring thread");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      return executor_;
+   }
+}
@@ -40,10 +40,18 @@ import ij.process.ShortProcessor;
 
 import java.awt.Rectangle;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.SwingUtilities;
 
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
+import mmcorej.DoubleVector;
 import mmcorej.StrVector;
 import mmcorej.TaggedImage;
 
@@ -84,6 +92,12 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    private static final String CHANNEL = "Channel";
    private static final String EXPOSURE = "Exposure";
    private static final String SHOW_IMAGES = "ShowImages";
+   private static final String SCORING_BINNING = "ScoringBinning";
+   private static final String[] BINNINGVALUES = {"1", "2", "4"};
+   private static final String SCORING_ROI = "ScoringROI";
+   private static final String FULL_ROI = "Full";
+   private static final String[] ROIVALUES = {FULL_ROI, "Center 1/2", 
+      "Center 1/4"};
    private static final String SCORING_METHOD = "Maximize";
    private static final String[] SHOWVALUES = {"Yes", "No"};
    private final static String[] SCORINGMETHODS = {"Edges", "StdDev", "Mean", 
@@ -91,6 +105,17 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       "MedianEdges", "Tenengrad", "FFTBandpass"};
    private final static String FFT_UPPER_CUTOFF = "FFTUpperCutoff(%)";
    private final static String FFT_LOWER_CUTOFF = "FFTLowerCutoff(%)";
+   private static final String SEARCH_METHOD = "SearchMethod";
+   private final static String BRENT_SEARCH = "Brent";
+   private final static String COARSE_TO_FINE_SEARCH = "CoarseToFine";
+   private final static String[] SEARCHMETHODS = {BRENT_SEARCH, 
+      COARSE_TO_FINE_SEARCH};
+   // Maximum number of images taken in the coarse step of the CoarseToFine
+   // search.  Fewer are used when the tolerance is not much smaller than the
+   // search range.
+   private static final int MAX_COARSE_IMAGES = 21;
+   // Time to wait for a sequenced image on top of the exposure time
+   private static final long SEQUENCE_TIMEOUT_MS = 5000;
 
    // Note on the tolerance settings for the Brent optimizer:
    //
@@ -143,6 +168,9 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    private double exposure = 100;
    private String show = "No";
    private String scoringMethod = "Edges";
+   private String searchMethod = BRENT_SEARCH;
+   private int scoringBinning = 1;
+   private String scoringRoi = FULL_ROI;
    private double fftUpperCutoff = 14;
    private double fftLowerCutoff = 2.5;
    private int imageCount_;
@@ -159,6 +187,10 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       super.createProperty(FFT_UPPER_CUTOFF, NumberUtils.doubleToDisplayString(fftUpperCutoff));
       super.createProperty(SHOW_IMAGES, show, SHOWVALUES);
       super.createProperty(SCORING_METHOD, scoringMethod, SCORINGMETHODS);
+      super.createProperty(SEARCH_METHOD, searchMethod, SEARCHMETHODS);
+      super.createProperty(SCORING_BINNING, Integer.toString(scoringBinning), 
+              BINNINGVALUES);
+      super.createProperty(SCORING_ROI, scoringRoi, ROIVALUES);
       super.createProperty(CHANNEL, "");
    }
 
@@ -177,6 +209,9 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
          fftUpperCutoff = clip(0.0, fftUpperCutoff, 100.0);
          show = getPropertyValue(SHOW_IMAGES);
          scoringMethod = getPropertyValue(SCORING_METHOD);
+         searchMethod = getPropertyValue(SEARCH_METHOD);
+         scoringBinning = Integer.parseInt(getPropertyValue(SCORING_BINNING));
+         scoringRoi = getPropertyValue(SCORING_ROI);
 
       } catch (MMException ex) {
          studio_.logs().logError(ex);
@@ -249,6 +284,23 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
  }
    
    private double runAutofocusAlgorithm() throws Exception {
+      imageCount_ = 0;
+
+      CMMCore core = studio_.getCMMCore();
+      double z = core.getPosition(core.getFocusDevice());
+      startZUm_ = z;
+
+      if (searchMethod.contentEquals(COARSE_TO_FINE_SEARCH)) {
+         return runCoarseToFineAlgorithm(z);
+      }
+
+      UnivariatePointValuePair result = runBrentOptimizer(
+              z - searchRange / 2, z + searchRange / 2, z);
+      return result.getPoint();
+   }
+
+   private UnivariatePointValuePair runBrentOptimizer(double lower,
+           double upper, double start) {
       UnivariateFunction scoreFun = new UnivariateFunction() {
 
          @Override
@@ -266,23 +318,166 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       BrentOptimizer brentOptimizer =
          new BrentOptimizer(BRENT_RELATIVE_TOLERANCE, absTolerance);
 
-      imageCount_ = 0;
-
-      CMMCore core = studio_.getCMMCore();
-      double z = core.getPosition(core.getFocusDevice());
-      startZUm_ = z;
-      
       UnivariatePointValuePair result = brentOptimizer.optimize(uof, 
               GoalType.MAXIMIZE,
               new MaxEval(100),
-              new SearchInterval(z - searchRange / 2, z + searchRange / 2));
+              new SearchInterval(lower, upper, start));
       studio_.logs().logMessage("OughtaFocus Iterations: " + brentOptimizer.getIterations()
               + ", z=" + TextUtils.FMT2.format(result.getPoint())
               + ", dz=" + TextUtils.FMT2.format(result.getPoint() - startZUm_)
               + ", t=" + (System.currentTimeMillis() - startTimeMs_));
+      return result;
+   }
+
+   /**
+    * Scores a coarse grid of z positions over the search range, and refines
+    * the best one with the Brent optimizer between its neighbors.
+    * Images of the coarse grid are scored on a worker thread while the next
+    * image is acquired.  When the focus drive can be sequenced, the whole
+    * grid is acquired as a hardware-triggered sequence.
+    * 
+    * @param z current z position, the center of the search range
+    * @return z position with the best focus score
+    */
+   private double runCoarseToFineAlgorithm(double z) throws Exception {
+      CMMCore core = studio_.getCMMCore();
+      String focusDevice = core.getFocusDevice();
+      int nrSteps = (int) Math.ceil(searchRange / absTolerance);
+      nrSteps = Math.max(2, Math.min(MAX_COARSE_IMAGES - 1, nrSteps));
+      double step = searchRange / nrSteps;
+      double[] positions = new double[nrSteps + 1];
+      for (int i = 0; i < positions.length; i++) {
+         positions[i] = z - searchRange / 2 + i * step;
+      }
+
+      double[] scores;
+      if (!liveModeOn_ && core.isStageSequenceable(focusDevice)
+              && core.getStageSequenceMaxLength(focusDevice) >= positions.length) {
+         scores = measureSequencedFocusScores(positions);
+      } else {
+         scores = measurePipelinedFocusScores(positions);
+      }
+
+      int best = 0;
+      for (int i = 1; i < scores.length; i++) {
+         if (scores[i] > scores[best]) {
+            best = i;
+         }
+      }
+      studio_.logs().logMessage("OughtaFocus coarse search: z="
+              + TextUtils.FMT2.format(positions[best])
+              + ", score=" + TextUtils.FMT2.format(scores[best])
+              + ", step=" + TextUtils.FMT2.format(step)
+              + ", t=" + (System.currentTimeMillis() - startTimeMs_));
+      if (step <= absTolerance) {
+         return positions[best];
+      }
+
+      UnivariatePointValuePair result = runBrentOptimizer(
+              positions[Math.max(0, best - 1)],
+              positions[Math.min(positions.length - 1, best + 1)],
+              positions[best]);
+      if (result.getValue() < scores[best]) {
+         return positions[best];
+      }
       return result.getPoint();
    }
 
+   /**
+    * Moves to each position and acquires an image, while the image of the
+    * previous position is scored on a worker thread
+    */
+   private double[] measurePipelinedFocusScores(double[] positions)
+           throws Exception {
+      ExecutorService scorer = Executors.newSingleThreadExecutor();
+      List<Future<Double>> futures = new ArrayList<Future<Double>>();
+      try {
+         for (double z : positions) {
+            long start = System.currentTimeMillis();
+            setZPosition(z);
+            long tZ = System.currentTimeMillis() - start;
+            TaggedImage img = acquireImage();
+            long tI = System.currentTimeMillis() - start - tZ;
+            futures.add(scorer.submit(scoreTask(img, z, tZ, tI)));
+         }
+         return getScores(futures);
+      } finally {
+         scorer.shutdownNow();
+      }
+   }
+
+   /**
+    * Acquires images at all positions in a single sequence acquisition
+    * with the focus drive sequenced along, scoring images as they arrive
+    */
+   private double[] measureSequencedFocusScores(double[] positions)
+           throws Exception {
+      CMMCore core = studio_.getCMMCore();
+      String focusDevice = core.getFocusDevice();
+      DoubleVector sequence = new DoubleVector();
+      for (double z : positions) {
+         sequence.add(z);
+      }
+      setZPosition(positions[0]);
+      core.waitForDevice(core.getCameraDevice());
+
+      ExecutorService scorer = Executors.newSingleThreadExecutor();
+      List<Future<Double>> futures = new ArrayList<Future<Double>>();
+      try {
+         core.loadStageSequence(focusDevice, sequence);
+         core.startStageSequence(focusDevice);
+         core.startSequenceAcquisition(positions.length, 0, true);
+         try {
+            long timeoutMs = (long) core.getExposure() + SEQUENCE_TIMEOUT_MS;
+            for (double z : positions) {
+               long start = System.currentTimeMillis();
+               while (core.getRemainingImageCount() == 0) {
+                  if (System.currentTimeMillis() - start > timeoutMs) {
+                     throw new MMException("OughtaFocus: timed out waiting for image "
+                             + futures.size() + " of the z sequence");
+                  }
+                  Thread.sleep(1);
+               }
+               TaggedImage img = core.popNextTaggedImage();
+               showImage(img);
+               long tI = System.currentTimeMillis() - start;
+               futures.add(scorer.submit(scoreTask(img, z, 0, tI)));
+            }
+         } finally {
+            core.stopSequenceAcquisition();
+            core.stopStageSequence(focusDevice);
+         }
+         return getScores(futures);
+      } finally {
+         scorer.shutdownNow();
+      }
+   }
+
+   private Callable<Double> scoreTask(final TaggedImage img, final double z,
+           final long tZ, final long tI) {
+      return new Callable<Double>() {
+         @Override
+         public Double call() throws Exception {
+            return scoreImage(img, z, tZ, tI);
+         }
+      };
+   }
+
+   private double[] getScores(List<Future<Double>> futures) throws Exception {
+      double[] scores = new double[futures.size()];
+      try {
+         for (int i = 0; i < scores.length; i++) {
+            scores[i] = futures.get(i).get();
+         }
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof Exception) {
+            throw (Exception) ex.getCause();
+         }
+         throw ex;
+      }
+      return scores;
+   }
+
    private void setZPosition(double z) throws Exception {
       CMMCore core = studio_.getCMMCore();
       String focusDevice = core.getFocusDevice();
@@ -327,53 +522,69 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
 
 
    public double measureFocusScore(double z) throws Exception {
-      CMMCore core = studio_.getCMMCore();
       long start = System.currentTimeMillis();
       try {
          setZPosition(z);
          long tZ = System.currentTimeMillis() - start;
-
-         TaggedImage img;
-         if (liveModeOn_) {
-            img = core.getLastTaggedImage();
-         } else {
-            core.waitForDevice(core.getCameraDevice());
-            core.snapImage();
-            final TaggedImage img1 = core.getTaggedImage();
-            img = img1;
-            if (show.contentEquals("Yes")) {
-               SwingUtilities.invokeLater(new Runnable() {
-
-                  @Override
-                  public void run() {
-                     try {
-                        studio_.live().displayImage(studio_.data().convertTaggedImage(img1));
-                     }
-                     catch (JSONException e) {
-                        studio_.logs().showError(e);
-                     } catch (IllegalArgumentException e) {
-                        studio_.logs().showError(e);
-                     }
-                  }
-               });
-            }
-         }
+         TaggedImage img = acquireImage();
          long tI = System.currentTimeMillis() - start - tZ;
-         ImageProcessor proc = makeMonochromeProcessor(core, getMonochromePixels(img));
-         double score = computeScore(proc);
-         long tC = System.currentTimeMillis() - start - tZ - tI;
-         studio_.logs().logMessage("OughtaFocus: image=" + imageCount_++
-                 + ", t=" + (System.currentTimeMillis() - startTimeMs_)
-                 + ", z=" + TextUtils.FMT2.format(z)
-                 + ", score=" + TextUtils.FMT2.format(score)
-                 + ", Tz=" + tZ + ", Ti=" + tI + ", Tc=" + tC);
-         return score;
+         return scoreImage(img, z, tZ, tI);
       } catch (Exception e) {
          studio_.logs().logError(e);
          throw e;
       }
    }
 
+   /**
+    * Snaps an image at the current position (or takes the last image when
+    * live mode is running), and shows it if requested
+    */
+   private TaggedImage acquireImage() throws Exception {
+      CMMCore core = studio_.getCMMCore();
+      if (liveModeOn_) {
+         return core.getLastTaggedImage();
+      }
+      core.waitForDevice(core.getCameraDevice());
+      core.snapImage();
+      TaggedImage img = core.getTaggedImage();
+      showImage(img);
+      return img;
+   }
+
+   private void showImage(final TaggedImage img) {
+      if (show.contentEquals("Yes")) {
+         SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+               try {
+                  studio_.live().displayImage(studio_.data().convertTaggedImage(img));
+               }
+               catch (JSONException e) {
+                  studio_.logs().showError(e);
+               } catch (IllegalArgumentException e) {
+                  studio_.logs().showError(e);
+               }
+            }
+         });
+      }
+   }
+
+   private double scoreImage(TaggedImage img, double z, long tZ, long tI)
+           throws Exception {
+      long start = System.currentTimeMillis();
+      CMMCore core = studio_.getCMMCore();
+      ImageProcessor proc = makeMonochromeProcessor(core, getMonochromePixels(img));
+      double score = computeScore(proc);
+      long tC = System.currentTimeMillis() - start;
+      studio_.logs().logMessage("OughtaFocus: image=" + imageCount_++
+              + ", t=" + (System.currentTimeMillis() - startTimeMs_)
+              + ", z=" + TextUtils.FMT2.format(z)
+              + ", score=" + TextUtils.FMT2.format(score)
+              + ", Tz=" + tZ + ", Ti=" + tI + ", Tc=" + tC);
+      return score;
+   }
+
    @Override
    public double incrementalFocus() throws Exception {
       throw new UnsupportedOperationException("Not supported yet.");
@@ -434,126 +645,6 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       return meanEdge / meanIntensity;
    }
 
-   private double computeMean(ImageProcessor proc) {
-      return proc.getStatistics().mean;
-   }
-
-   private double computeNormalizedStdDev(ImageProcessor proc) {
-      ImageStatistics stats = proc.getStatistics();
-      return stats.stdDev / stats.mean;
-   }
-
-   private double computeNormalizedVariance(ImageProcessor proc) {
-      ImageStatistics stats = proc.getStatistics();
-      return (stats.stdDev * stats.stdDev) / stats.mean;
-   }
-
-   
-   // this is NOT a traditional Laplace filter; the "center" weight is
-   // actually the bottom-center cell of the 3x3 matrix.  AFAICT it's a
-   // typo in the source paper, but works better than the traditional
-   // Laplace filter.
-   //
-   // Redondo R, Bueno G, Valdiviezo J et al.  "Autofocus evaluation for
-   // brightfield microscopy pathology", J Biomed Opt 17(3) 036008 (2012)
-   //
-   // from
-   //
-   // Russel M, Douglas T.  "Evaluation of autofocus algorithms for
-   // tuberculosis microscopy". Proc 29th International Conference of the
-   // IEEE EMBS, Lyon, 3489-3492 (22-26 Aug 2007)
-   private double computeRedondo(ImageProcessor proc) {
-      int h = proc.getHeight();
-      int w = proc.getWidth();
-      double sum = 0.0;
-
-      for (int i = 1; i < w - 1; ++i) {
-         for (int j = 1; j < h - 1; ++j) {
-            double p = proc.getPixel(i - 1, j)
-                    + proc.getPixel(i + 1, j)
-                    + proc.getPixel(i, j - 1)
-                    + proc.getPixel(i, j + 1)
-                    - 4 * (proc.getPixel(i - 1, j));
-            sum += (p * p);
-         }
-      }
-
-      return sum;
-   }
-
-     
-   /**
-    * From "Autofocusing Algorithm Selection in Computer Microscopy" 
-    * (doi: 10.1109/IROS.2005.1545017). 
-    * 2016 paper (doi:10.1038/nbt.3708) concludes this is best  most 
-    * non-spectral metric for their light sheet microscopy application
-    * @author Jon
-    */
-   private double computeTenengrad(ImageProcessor proc) {
-      int h = proc.getHeight();
-      int w = proc.getWidth();
-      double sum = 0.0;
-      int[] ken1 = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
-      int[] ken2 = {1, 2, 1, 0, 0, 0, -1, -2, -1};
-
-      ImageProcessor proc2 = proc.duplicate();
-      proc.convolve3x3(ken1);
-      proc2.convolve3x3(ken2);
-      for (int i=0; i<w; i++){
-         for (int j=0; j<h; j++){
-            sum += Math.pow(proc.getPixel(i,j),2) + Math.pow(proc2.getPixel(i, j), 2);
-         }
-      }
-      return sum;
-   }
-   
-   // Volath's 1D autocorrelation
-   // Volath  D., "The influence of the scene parameters and of noise on
-   // the behavior of automatic focusing algorithms,"
-   // J. Microsc. 151, (2), 133 –146 (1988).
-   private double computeVolath(ImageProcessor proc) {
-      int h = proc.getHeight();
-      int w = proc.getWidth();
-      double sum1 = 0.0;
-      double sum2 = 0.0;
-
-      for (int i = 1; i < w - 1; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum1 += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
-         }
-      }
-
-      for (int i = 0; i < w - 2; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum2 += proc.getPixel(i, j) * proc.getPixel(i + 2, j);
-         }
-      }
-
-      return (sum1 - sum2);
-   }
-
-   // Volath 5 - smooths out high-frequency (suppresses noise)
-   // Volath  D., "The influence of the scene parameters and of noise on
-   // the behavior of automatic focusing algorithms,"
-   // J. Microsc. 151, (2), 133 –146 (1988).
-   private double computeVolath5(ImageProcessor proc) {
-      int h = proc.getHeight();
-      int w = proc.getWidth();
-      double sum = 0.0;
-
-      for (int i = 0; i < w - 1; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
-         }
-      }
-
-      ImageStatistics stats = proc.getStatistics();
-
-      sum -= ((w - 1) * h * stats.mean * stats.mean);
-      return sum;
-   }
-   
-   
  /**
     * Modified version of the algorithm used by the AutoFocus JAF(H&P) code
     * in Micro-Manager's Autofocus.java by Pakpoom Subsoontorn & Hernan Garcia.
@@ -615,30 +706,72 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    }
    
    
+   /**
+    * Part of the image that is scored: the roi of the processor, limited to
+    * the central half or quarter (in each direction) of the image when 
+    * ScoringROI asks for it
+    */
+   private Rectangle scoringRect(ImageProcessor proc) {
+      Rectangle roi = proc.getRoi();
+      int divisor = 1;
+      if (scoringRoi.contentEquals(ROIVALUES[1])) {
+         divisor = 2;
+      } else if (scoringRoi.contentEquals(ROIVALUES[2])) {
+         divisor = 4;
+      }
+      if (divisor == 1) {
+         return roi;
+      }
+      int width = Math.max(1, proc.getWidth() / divisor);
+      int height = Math.max(1, proc.getHeight() / divisor);
+      Rectangle center = new Rectangle((proc.getWidth() - width) / 2, 
+              (proc.getHeight() - height) / 2, width, height);
+      Rectangle rect = center.intersection(roi);
+      return rect.isEmpty() ? center : rect;
+   }
+   
    @Override
    public double computeScore(final ImageProcessor proc) {
-      if (scoringMethod.contentEquals("Mean")) {
-         return computeMean(proc);
-      } else if (scoringMethod.contentEquals("StdDev")) {
-         return computeNormalizedStdDev(proc);
-      } else if (scoringMethod.contentEquals("NormalizedVariance")) {
-         return computeNormalizedVariance(proc);
-      } else if (scoringMethod.contentEquals("Edges")) {
-         return computeEdges(proc);
+      Rectangle rect = scoringRect(proc);
+      if (FocusMetrics.isSupported(scoringMethod)) {
+         Object pixels = proc.getPixels();
+         if (!FocusMetrics.canExtract(pixels)) {
+            // e.g. RGB
+            pixels = proc.convertToFloat().getPixels();
+         }
+         try {
+            FocusMetrics.Plane plane = FocusMetrics.extract(pixels,
+                    proc.getWidth(), proc.getHeight(), rect, scoringBinning);
+            return FocusMetrics.score(scoringMethod, plane);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            studio_.logs().logError(e);
+            return 0;
+         } catch (ExecutionException e) {
+            studio_.logs().logError(e);
+            return 0;
+         }
+      }
+
+      // The remaining metrics use ImageJ filters on the (binned) roi
+      ImageProcessor ip = proc;
+      if (rect.width < proc.getWidth() || rect.height < proc.getHeight()) {
+         Rectangle roi = proc.getRoi();
+         proc.setRoi(rect);
+         ip = proc.crop();
+         proc.setRoi(roi);
+      }
+      if (scoringBinning > 1) {
+         ip = ip.bin(scoringBinning);
+      }
+      if (scoringMethod.contentEquals("Edges")) {
+         return computeEdges(ip);
       } else if (scoringMethod.contentEquals("SharpEdges")) {
-         return computeSharpEdges(proc);
-      } else if (scoringMethod.contentEquals("Redondo")) {
-         return computeRedondo(proc);
-      } else if (scoringMethod.contentEquals("Volath")) {
-         return computeVolath(proc);
-      } else if (scoringMethod.contentEquals("Volath5")) {
-         return computeVolath5(proc);
+         return computeSharpEdges(ip);
       } else if (scoringMethod.contentEquals("MedianEdges")) {
-         return computeMedianEdges(proc);
-      } else if (scoringMethod.contentEquals("Tenengrad")) {
-         return computeTenengrad(proc);
+         return computeMedianEdges(ip);
       } else if (scoringMethod.contentEquals("FFTBandpass")) {
-         return computeFFTBandpass(proc);
+         return computeFFTBandpass(ip);
       } else {
          return 0;
       }
@@ -661,6 +794,13 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
     * @author Jon
     */
    static class FHT_NoScaling extends FloatProcessor {
+      // Tables only depend on the image size, and are shared between
+      // instances (they are not modified after creation)
+      private static int cachedMaxN_ = 0;
+      private static float[] cachedC_;
+      private static float[] cachedS_;
+      private static int[] cachedBitrev_;
+
       private boolean isFrequencyDomain_;
       private int maxN_;
       private float[] C_;
@@ -708,8 +848,19 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       private void initializeTables(int maxN) {
          if (maxN>0x40000000)
             throw new  IllegalArgumentException("Too large for FHT:  "+maxN+" >2^30");
-         makeSinCosTables(maxN);
-         makeBitReverseTable(maxN);
+         synchronized (FHT_NoScaling.class) {
+            if (cachedMaxN_ != maxN) {
+               makeSinCosTables(maxN);
+               makeBitReverseTable(maxN);
+               cachedC_ = C_;
+               cachedS_ = S_;
+               cachedBitrev_ = bitrev_;
+               cachedMaxN_ = maxN;
+            }
+            C_ = cachedC_;
+            S_ = cachedS_;
+            bitrev_ = cachedBitrev_;
+         }
          tempArr_ = new float[maxN];
       }
 
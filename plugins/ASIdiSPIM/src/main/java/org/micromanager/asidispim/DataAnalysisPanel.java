@@ -38,6 +38,7 @@ import org.micromanager.asidispim.data.MyStrings;
 import org.micromanager.asidispim.data.Prefs;
 import org.micromanager.asidispim.data.Properties;
 import org.micromanager.asidispim.utils.ImageJUtils.IJCommandThread;
+import org.micromanager.asidispim.utils.Deskewer;
 import org.micromanager.asidispim.utils.ImageUtils;
 import org.micromanager.asidispim.utils.ListeningJPanel;
 import org.micromanager.asidispim.utils.MyDialogUtils;
@@ -341,13 +342,14 @@ public class DataAnalysisPanel extends ListeningJPanel {
             long startTime = System.currentTimeMillis();
             final DisplayWindow currentWindow = gui_.displays().getCurrentWindow();
             final ImagePlus ip;
+            Datastore datastore = null;
             boolean firstSideIsA;
             String windowTitle;
             final AcquisitionModes.Keys acqMode;
             if (currentWindow != null) {
                ip = currentWindow.getImagePlus();
 
-               final Datastore datastore = currentWindow.getDatastore();
+               datastore = currentWindow.getDatastore();
                final SummaryMetadata summaryMetadata = datastore.getSummaryMetadata();
                PropertyMap metadata = summaryMetadata.getUserData();
 
@@ -390,50 +392,61 @@ public class DataAnalysisPanel extends ListeningJPanel {
             final String title = ip.getTitle() + "-deskewed";
             final int sx_new = sx + (int) Math.abs(Math.ceil(dx * ss));
 
-            if (sc > 1) {
-               IJ.run("Duplicate...", "title=" + title + " duplicate");
-               IJ.run("Split Channels");
-            } else {
-               IJ.run("Duplicate...", "title=C1-" + title + " duplicate");  // make it named as 1st channel would be 
-            }
-            String mergeCmd = "";
-            int dir;
-            for (int c = 0; c < sc; c++) {    // loop over channels 
-               IJ.selectWindow("C" + (c + 1) + "-" + title);
-               switch (acqMode) {
-                  case STAGE_SCAN:
-                     dir = (c % 2) * 2 - 1;  // -1 for path A which are odd channels, 1 for path B 
-                     if (!firstSideIsA) {
-                        dir *= -1;
-                     }
-                     break;
-                  case STAGE_SCAN_INTERLEAVED:
-                  case STAGE_SCAN_UNIDIRECTIONAL:
-                     // always the same direction 
-                     dir = -1;
-                     break;
-                  default:
-                     // should never make it here 
-                     throw new Exception("Can only deskew stage scanning data");
+            if (datastore != null) {
+               // Micro-Manager dataset: stream the images straight into a new datastore
+               int[] directions = new int[Math.max(1, datastore.getAxisLength(Coords.CHANNEL))];
+               for (int c = 0; c < directions.length; c++) {
+                  directions[c] = getDeskewDirection(acqMode, c, firstSideIsA);
+               }
+               Deskewer deskewer = new Deskewer(gui_, sx,
+                       Math.max(1, datastore.getAxisLength(Coords.Z)), dx,
+                       deskewInterpolate_.isSelected());
+               // saved datasets are deskewed to disk, next to the original
+               Datastore deskewed;
+               String savePath = datastore.getSavePath();
+               if (savePath == null) {
+                  deskewed = gui_.data().createRAMDatastore();
+               } else {
+                  File saveDir = new File(savePath);
+                  String newPath = gui_.data().getUniqueSaveDirectory(
+                          new File(saveDir.getParentFile(), 
+                                  saveDir.getName() + "-deskewed").getPath());
+                  deskewed = gui_.data().createMultipageTIFFDatastore(newPath,
+                          false, false);
                }
-               if (deskewInvert_.isSelected()) {
-                  dir *= -1;
+               deskewed.setSummaryMetadata(datastore.getSummaryMetadata().copy()
+                       .prefix(title).build());
+               deskewer.run(datastore, deskewed, directions);
+               deskewed.freeze();
+               gui_.displays().createDisplay(deskewed);
+               gui_.displays().manage(deskewed);
+            } else {
+               if (sc > 1) {
+                  IJ.run("Duplicate...", "title=" + title + " duplicate");
+                  IJ.run("Split Channels");
+               } else {
+                  IJ.run("Duplicate...", "title=C1-" + title + " duplicate");  // make it named as 1st channel would be 
                }
-               
-               IJ.run("Canvas Size...", "width=" + sx_new + " height=" + sy + " position=Center-"
-                       + (dir < 0 ? "Right" : "Left") + " zero");
-               for (int s = 0; s < ss; s++) {  // loop over slices in stack 
-                  IJ.setSlice(s + 1);
-                  IJ.run("Translate...", "x=" + (dx * s * dir) + " y=0 interpolation="
-                          + (deskewInterpolate_.isSelected() ? "Bilinear slice" : "None"));
+               String mergeCmd = "";
+               for (int c = 0; c < sc; c++) {    // loop over channels 
+                  IJ.selectWindow("C" + (c + 1) + "-" + title);
+                  int dir = getDeskewDirection(acqMode, c, firstSideIsA);
+
+                  IJ.run("Canvas Size...", "width=" + sx_new + " height=" + sy + " position=Center-"
+                          + (dir < 0 ? "Right" : "Left") + " zero");
+                  for (int s = 0; s < ss; s++) {  // loop over slices in stack 
+                     IJ.setSlice(s + 1);
+                     IJ.run("Translate...", "x=" + (dx * s * dir) + " y=0 interpolation="
+                             + (deskewInterpolate_.isSelected() ? "Bilinear slice" : "None"));
+                  }
+                  mergeCmd += ("c" + (c + 1) + "=C" + (c + 1) + "-" + title + " ");
                }
-               mergeCmd += ("c" + (c + 1) + "=C" + (c + 1) + "-" + title + " ");
-            }
-            IJ.run("Merge Channels...", mergeCmd + "create");
-            if (sc > 1) {
                IJ.run("Merge Channels...", mergeCmd + "create");
-            } else {
-               IJ.run("Rename...", "title=" + title);
+               if (sc > 1) {
+                  IJ.run("Merge Channels...", mergeCmd + "create");
+               } else {
+                  IJ.run("Rename...", "title=" + title);
+               }
             }
             long finishTime = System.currentTimeMillis();
             ReportingUtils.logDebugMessage("Deskew operation took " + (finishTime - startTime)
@@ -467,6 +480,39 @@ public class DataAnalysisPanel extends ListeningJPanel {
       (new DeskewTask()).execute();
    }
 
+   /**
+    * Direction in which the slices of a channel are shifted when deskewing
+    * @param acqMode acquisition mode, must be one of the stage scan modes
+    * @param channel channel index
+    * @param firstSideIsA whether the acquisition started with side A
+    * @return -1 or 1
+    * @throws Exception if the acquisition mode is not a stage scan mode
+    */
+   private int getDeskewDirection(AcquisitionModes.Keys acqMode, int channel,
+           boolean firstSideIsA) throws Exception {
+      int dir;
+      switch (acqMode) {
+         case STAGE_SCAN:
+            dir = (channel % 2) * 2 - 1;  // -1 for path A which are odd channels, 1 for path B 
+            if (!firstSideIsA) {
+               dir *= -1;
+            }
+            break;
+         case STAGE_SCAN_INTERLEAVED:
+         case STAGE_SCAN_UNIDIRECTIONAL:
+            // always the same direction 
+            dir = -1;
+            break;
+         default:
+            // should never make it here 
+            throw new Exception("Can only deskew stage scanning data");
+      }
+      if (deskewInvert_.isSelected()) {
+         dir *= -1;
+      }
+      return dir;
+   }
+
    
 
 @Override
@@ -0,0 +1,244 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          Deskewer.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+package org.micromanager.asidispim.utils;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+
+/**
+ * Deskews stage scanning data by shifting each slice sideways by a multiple
+ * of its slice index, into an image that is wider by the total shift.
+ * Gives the same result as ImageJ's "Canvas Size..." followed by
+ * "Translate..." on each slice, but the shift of every slice is calculated
+ * once and rows are copied directly between pixel arrays, with the images
+ * spread over a thread pool.
+ *
+ * Images are streamed from one datastore to the other, with only a few
+ * images per thread in memory at any time.
+ */
+public class Deskewer {
+   private final Studio gui_;
+   private final int width_;
+   private final int newWidth_;
+   private final boolean interpolate_;
+   // shift of each slice, index 0 for negative and 1 for positive direction
+   private final int[][] shifts_;
+   private final float[][] fractions_;
+
+   /**
+    * @param gui used to create the deskewed images
+    * @param width width of the original images
+    * @param nrSlices number of slices in each stack
+    * @param dx shift between consecutive slices in pixels
+    * @param interpolate use linear interpolation for fractional shifts,
+    *          otherwise shifts are truncated to whole pixels
+    */
+   public Deskewer(Studio gui, int width, int nrSlices, double dx, boolean interpolate) {
+      gui_ = gui;
+      width_ = width;
+      newWidth_ = width + (int) Math.abs(Math.ceil(dx * nrSlices));
+      interpolate_ = interpolate;
+      shifts_ = new int[2][nrSlices];
+      fractions_ = new float[2][nrSlices];
+      for (int d = 0; d < 2; d++) {
+         int dir = d * 2 - 1;
+         // like "Canvas Size..." with position Center-Right or Center-Left
+         int base = dir < 0 ? newWidth_ - width : 0;
+         for (int s = 0; s < nrSlices; s++) {
+            double shift = dx * s * dir;
+            if (interpolate) {
+               double total = base + shift;
+               shifts_[d][s] = (int) Math.floor(total);
+               fractions_[d][s] = (float) (total - Math.floor(total));
+            } else {
+               // "Translate..." without interpolation truncates the offset
+               shifts_[d][s] = base + (int) shift;
+            }
+         }
+      }
+   }
+
+   public int getNewWidth() {
+      return newWidth_;
+   }
+
+   /**
+    * Deskews all images of the source into the target datastore.  Images
+    * keep their coordinates and metadata.  The target is not frozen.
+    * @param source datastore with 8 or 16 bit images
+    * @param target empty datastore, its summary metadata should already be set
+    * @param directions direction of the shift (-1 or 1) for every channel
+    * @throws Exception if an image can not be deskewed or stored
+    */
+   public void run(Datastore source, Datastore target, int[] directions)
+           throws Exception {
+      final int nrThreads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads,
+              new ThreadFactory() {
+                 @Override
+                 public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "diSPIM deskew");
+                    t.setDaemon(true);
+                    return t;
+                 }
+              });
+      final int maxPending = 2 * nrThreads;
+      LinkedList<Image> images = new LinkedList<Image>();
+      LinkedList<Future<Object>> futures = new LinkedList<Future<Object>>();
+      try {
+         for (Coords coords : source.getUnorderedImageCoords()) {
+            final Image image = source.getImage(coords);
+            if (image == null) {
+               continue;
+            }
+            if (image.getNumComponents() != 1 || image.getBytesPerPixel() > 2) {
+               throw new NotImplementedException("Can only deskew 8 or 16 bit grayscale images");
+            }
+            if (image.getWidth() != width_) {
+               throw new Exception("Image width differs from the width of the dataset");
+            }
+            final int slice = Math.max(0, coords.getZ());
+            if (slice >= shifts_[0].length) {
+               throw new Exception("Slice index " + slice + " is outside the dataset");
+            }
+            int channel = Math.max(0, coords.getChannel());
+            final int dirIndex = directions[channel % directions.length] < 0 ? 0 : 1;
+            // read pixels here, the image's buffer is not safe to share between threads
+            final Object pixels = image.getRawPixels();
+            images.add(image);
+            futures.add(executor.submit(new Callable<Object>() {
+               @Override
+               public Object call() {
+                  return deskew(pixels, image.getHeight(), slice, dirIndex);
+               }
+            }));
+            if (futures.size() >= maxPending) {
+               putImage(target, images.removeFirst(), futures.removeFirst());
+            }
+         }
+         while (!futures.isEmpty()) {
+            putImage(target, images.removeFirst(), futures.removeFirst());
+         }
+      } finally {
+         for (Future<Object> f : futures) {
+            f.cancel(true);
+         }
+         executor.shutdown();
+      }
+   }
+
+   private void putImage(Datastore target, Image original, Future<Object> future)
+           throws Exception {
+      Object pixels;
+      try {
+         pixels = future.get();
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         throw ee;
+      }
+      target.putImage(gui_.data().createImage(pixels, newWidth_,
+              original.getHeight(), original.getBytesPerPixel(), 1,
+              original.getCoords(), original.getMetadata()));
+   }
+
+   /**
+    * Shifts one slice into a new, wider pixel array
+    * @param pixels byte[] or short[] of the original slice
+    * @param height height of the slice
+    * @param slice index of the slice in its stack
+    * @param dirIndex 0 for negative, 1 for positive direction
+    * @return byte[] or short[] of the deskewed slice
+    */
+   private Object deskew(Object pixels, int height, int slice, int dirIndex) {
+      int shift = shifts_[dirIndex][slice];
+      float fraction = fractions_[dirIndex][slice];
+      if (pixels instanceof byte[]) {
+         byte[] in = (byte[]) pixels;
+         byte[] out = new byte[newWidth_ * height];
+         if (!interpolate_ || fraction == 0.0f) {
+            copyRows(in, out, height, shift);
+         } else {
+            for (int y = 0; y < height; y++) {
+               int inRow = y * width_;
+               int outRow = y * newWidth_;
+               int start = Math.max(0, shift);
+               int end = Math.min(newWidth_ - 1, shift + width_);
+               for (int x = start; x <= end; x++) {
+                  // source position x - shift - fraction lies between these two
+                  int x1 = x - shift;
+                  int x0 = x1 - 1;
+                  int p0 = x0 >= 0 ? in[inRow + x0] & 0xff : 0;
+                  int p1 = x1 < width_ ? in[inRow + x1] & 0xff : 0;
+                  out[outRow + x] = (byte) (fraction * p0 + (1 - fraction) * p1 + 0.5f);
+               }
+            }
+         }
+         return out;
+      } else {
+         short[] in = (short[]) pixels;
+         short[] out = new short[newWidth_ * height];
+         if (!interpolate_ || fraction == 0.0f) {
+            copyRows(in, out, height, shift);
+         } else {
+            for (int y = 0; y < height; y++) {
+               int inRow = y * width_;
+               int outRow = y * newWidth_;
+               int start = Math.max(0, shift);
+               int end = Math.min(newWidth_ - 1, shift + width_);
+               for (int x = start; x <= end; x++) {
+                  int x1 = x - shift;
+                  int x0 = x1 - 1;
+                  int p0 = x0 >= 0 ? in[inRow + x0] & 0xffff : 0;
+                  int p1 = x1 < width_ ? in[inRow + x1] & 0xffff : 0;
+                  out[outRow + x] = (short) (fraction * p0 + (1 - fraction) * p1 + 0.5f);
+               }
+            }
+         }
+         return out;
+      }
+   }
+
+   /**
+    * Copies all rows of in to out, shifted by a whole number of pixels and
+    * clipped to the width of out
+    */
+   private void copyRows(Object in, Object out, int height, int shift) {
+      int srcStart = Math.max(0, -shift);
+      int dstStart = Math.max(0, shift);
+      int length = Math.min(width_ - srcStart, newWidth_ - dstStart);
+      if (length <= 0) {
+         return;
+      }
+      for (int y = 0; y < height; y++) {
+         System.arraycopy(in, y * width_ + srcStart, out, y * newWidth_ + dstStart, length);
+      }
+   }
+}
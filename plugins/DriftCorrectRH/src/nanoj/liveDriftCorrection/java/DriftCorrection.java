@@ -6,7 +6,6 @@ import ij.measure.Measurements;
 import ij.process.FloatProcessor;
 import ij.process.FloatStatistics;
 import nanoj.core.java.image.drift.EstimateShiftAndTilt;
-import nanoj.core.java.image.transform.CrossCorrelationMap;
 import org.micromanager.internal.utils.ReportingUtils;
 
 import java.awt.geom.Point2D;
@@ -87,9 +86,12 @@ public class DriftCorrection extends Observable implements Runnable {
                     }
 
                     // Calculate the Cross Correlation maps
-                    ImageStack resultStack =
-                            CrossCorrelationMap.calculateCrossCorrelationMap(
-                                    driftData.getReferenceImage(), stack, true);
+                    // The reference spectrum is cached by the processor, so each slice costs one
+                    // forward and one inverse FFT
+                    ImageStack resultStack = new ImageStack(stack.getWidth(), stack.getHeight());
+                    for (int i = 1; i <= stack.getSize(); i++)
+                        resultStack.addSlice(stack.getSliceLabel(i), processor.crossCorrelate(
+                                driftData.getReferenceImage(), (FloatProcessor) stack.getProcessor(i)));
 
                     driftData.setResultMap(resultStack);
 
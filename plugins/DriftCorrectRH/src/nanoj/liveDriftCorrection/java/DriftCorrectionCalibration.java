@@ -6,7 +6,6 @@ import ij.plugin.ZProjector;
 import ij.process.FloatProcessor;
 import nanoj.core.java.array.ArrayCasting;
 import nanoj.core.java.image.drift.EstimateShiftAndTilt;
-import nanoj.core.java.image.transform.CrossCorrelationMap;
 import org.micromanager.internal.utils.ReportingUtils;
 
 import java.awt.geom.AffineTransform;
@@ -155,18 +154,13 @@ public class DriftCorrectionCalibration {
         return newCalibration;
     }
 
-    private void calculateMovement(ArrayList<FloatProcessor> images) {
+    private void calculateMovement(ArrayList<FloatProcessor> images) throws Exception {
         ArrayList<Float> xShift = new ArrayList<Float>();
         ArrayList<Float> yShift = new ArrayList<Float>();
 
         // Calculate XY pixel displacement for each translation
         for (int i = 0; i < images.size()-1; i++) {
-            FloatProcessor map =
-                    CrossCorrelationMap.calculateCrossCorrelationMap(
-                            images.get(i),
-                            images.get(i+1),
-                            true)
-                            .convertToFloatProcessor();
+            FloatProcessor map = processor.crossCorrelate(images.get(i), images.get(i+1));
 
             if (map == null) {
                 continue;
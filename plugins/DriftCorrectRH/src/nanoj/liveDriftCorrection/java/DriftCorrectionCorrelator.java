@@ -0,0 +1,396 @@
+package nanoj.liveDriftCorrection.java;
+
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cross correlation engine for the live drift correction loop.
+ *
+ * Images are zero padded to a power of 2 size and transformed with a complex radix-2 FFT, rows and
+ * columns being split over a small thread pool. All work buffers and the spectrum of the reference
+ * image are kept between calls, so correlating a new frame costs one forward and one inverse
+ * transform and no large allocations.
+ *
+ * The optional bandpass uses the same Gaussian filter as DriftCorrectionProcess.filterLargeSmall,
+ * but is applied to the spectra while they are multiplied, instead of filtering each image in real
+ * space first. Maps are normalized by the energy of both (filtered) images, so that a perfect match
+ * scores 1.
+ *
+ * Like CrossCorrelationMap, the map has the same size as the images and zero shift sits at
+ * (width/2, height/2).
+ */
+public class DriftCorrectionCorrelator {
+
+    // Below this number of pixels the transforms are not worth splitting over threads
+    private static final int MIN_PARALLEL_PIXELS = 128 * 128;
+
+    private final ExecutorService executor;
+    private final int nrThreads;
+
+    // Image size and padded (power of 2) size
+    private int width;
+    private int height;
+    private int paddedWidth;
+    private int paddedHeight;
+
+    // FFT tables
+    private float[] cosX, sinX, cosY, sinY;
+    private int[] reverseX, reverseY;
+
+    // Work buffers, real and imaginary parts of the padded image
+    private float[] re;
+    private float[] im;
+    // One column buffer per block of columns
+    private float[][] columnRe;
+    private float[][] columnIm;
+    // Padded row holding each row of the map
+    private int[] mapRows;
+
+    // Cached reference, its spectrum already multiplied by the squared filter
+    private FloatProcessor reference;
+    private float[] referenceRe;
+    private float[] referenceIm;
+    private double referenceEnergy;
+
+    // Squared bandpass filter, null when not filtering
+    private float[] filter;
+    private boolean bandpass = false;
+    private double filterLargeDia;
+    private double filterSmallDia;
+    private int choiceIndex;
+    private double toleranceDia;
+
+    public DriftCorrectionCorrelator() {
+        nrThreads = Runtime.getRuntime().availableProcessors();
+        if (nrThreads > 1) {
+            executor = Executors.newFixedThreadPool(nrThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Drift Correction FFT");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else executor = null;
+    }
+
+    //////////////////////////// Methods
+
+    /**
+     * Sets the bandpass filter, see DriftCorrectionProcess for the meaning of the settings.
+     * Changing the settings drops the cached reference spectrum.
+     */
+    public synchronized void setFilter(boolean bandpass, double filterLargeDia, double filterSmallDia,
+                                       int choiceIndex, double toleranceDia) {
+        if (bandpass == this.bandpass && filterLargeDia == this.filterLargeDia &&
+                filterSmallDia == this.filterSmallDia && choiceIndex == this.choiceIndex &&
+                toleranceDia == this.toleranceDia)
+            return;
+        this.bandpass = bandpass;
+        this.filterLargeDia = filterLargeDia;
+        this.filterSmallDia = filterSmallDia;
+        this.choiceIndex = choiceIndex;
+        this.toleranceDia = toleranceDia;
+        if (re != null) calculateFilter();
+        reference = null;
+    }
+
+    /**
+     * Calculates the normalized cross correlation map of image against reference.
+     * The spectrum of the reference is cached for as long as the same reference is passed in.
+     */
+    public synchronized FloatProcessor calculateCrossCorrelationMap(FloatProcessor reference, FloatProcessor image)
+            throws Exception {
+        if (reference.getWidth() != image.getWidth() || reference.getHeight() != image.getHeight())
+            throw new Exception(DriftCorrectionProcess.MISMATCHED_IMAGE_SIZES);
+
+        if (image.getWidth() != width || image.getHeight() != height || re == null) {
+            allocate(image.getWidth(), image.getHeight());
+            this.reference = null;
+        }
+
+        if (reference != this.reference) {
+            transformForward(reference);
+            if (referenceRe == null) {
+                referenceRe = new float[re.length];
+                referenceIm = new float[im.length];
+            }
+            double energy = 0;
+            for (int i = 0; i < re.length; i++) {
+                float f = filter == null ? 1f : filter[i];
+                energy += (re[i] * re[i] + im[i] * im[i]) * f;
+                referenceRe[i] = re[i] * f;
+                referenceIm[i] = im[i] * f;
+            }
+            referenceEnergy = energy;
+            this.reference = reference;
+        }
+
+        transformForward(image);
+
+        // R * f^2 * conj(I), the energy of the filtered image comes for free
+        double energy = 0;
+        for (int i = 0; i < re.length; i++) {
+            float r = re[i];
+            float c = im[i];
+            energy += (r * r + c * c) * (filter == null ? 1f : filter[i]);
+            re[i] = referenceRe[i] * r + referenceIm[i] * c;
+            im[i] = referenceIm[i] * r - referenceRe[i] * c;
+        }
+
+        transformInverse();
+
+        // Parseval: energies in the frequency domain are N times those in real space, as is the
+        // map because the inverse transform is not scaled, so N cancels out
+        double norm = Math.sqrt(referenceEnergy * energy);
+        float scale = norm > 0 ? (float) (1.0 / norm) : 0f;
+
+        float[] map = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            int row = mapRows[y] * paddedWidth;
+            for (int x = 0; x < width; x++) {
+                int sx = x - width / 2;
+                if (sx < 0) sx += paddedWidth;
+                map[y * width + x] = re[row + sx] * scale;
+            }
+        }
+        return new FloatProcessor(width, height, map);
+    }
+
+    private void allocate(int width, int height) {
+        this.width = width;
+        this.height = height;
+        paddedWidth = nextPowerOf2(width);
+        paddedHeight = nextPowerOf2(height);
+
+        cosX = new float[paddedWidth / 2];
+        sinX = new float[paddedWidth / 2];
+        reverseX = calculateTables(paddedWidth, cosX, sinX);
+        cosY = new float[paddedHeight / 2];
+        sinY = new float[paddedHeight / 2];
+        reverseY = calculateTables(paddedHeight, cosY, sinY);
+
+        re = new float[paddedWidth * paddedHeight];
+        im = new float[paddedWidth * paddedHeight];
+        referenceRe = null;
+        referenceIm = null;
+
+        int blocks = getNumberOfBlocks(paddedWidth);
+        columnRe = new float[blocks][paddedHeight];
+        columnIm = new float[blocks][paddedHeight];
+
+        mapRows = new int[height];
+        for (int y = 0; y < height; y++) {
+            int sy = y - height / 2;
+            mapRows[y] = sy < 0 ? sy + paddedHeight : sy;
+        }
+
+        calculateFilter();
+    }
+
+    /**
+     * Squared bandpass factor of every frequency, built from the same separable Gaussians as
+     * DriftCorrectionProcess.filterLargeSmall.
+     */
+    private void calculateFilter() {
+        if (!bandpass) {
+            filter = null;
+            return;
+        }
+        double sharpness = (100.0 - toleranceDia) / 100.0;
+        double scaleStripes = sharpness * sharpness;
+
+        float[] largeX = new float[paddedWidth], smallX = new float[paddedWidth], stripesX = new float[paddedWidth];
+        for (int x = 0; x < paddedWidth; x++) {
+            int k = Math.min(x, paddedWidth - x);
+            double scaleLarge = 2.0 * filterLargeDia / paddedWidth;
+            double scaleSmall = 2.0 * filterSmallDia / paddedWidth;
+            largeX[x] = (float) Math.exp(-(k * k) * scaleLarge * scaleLarge);
+            smallX[x] = (float) Math.exp(-(k * k) * scaleSmall * scaleSmall);
+            stripesX[x] = choiceIndex == 1 ? 1 - (float) Math.exp(-(k * k) * scaleStripes) : 1f;
+        }
+
+        filter = new float[paddedWidth * paddedHeight];
+        for (int y = 0; y < paddedHeight; y++) {
+            int k = Math.min(y, paddedHeight - y);
+            double scaleLarge = 2.0 * filterLargeDia / paddedHeight;
+            double scaleSmall = 2.0 * filterSmallDia / paddedHeight;
+            float largeY = (float) Math.exp(-(k * k) * scaleLarge * scaleLarge);
+            float smallY = (float) Math.exp(-(k * k) * scaleSmall * scaleSmall);
+            float stripesY = choiceIndex == 2 ? 1 - (float) Math.exp(-(k * k) * scaleStripes) : 1f;
+            for (int x = 0; x < paddedWidth; x++) {
+                float factor = (1 - largeY * largeX[x]) * smallY * smallX[x] * stripesY * stripesX[x];
+                filter[y * paddedWidth + x] = factor * factor;
+            }
+        }
+    }
+
+    /**
+     * Copies the mean subtracted image into the padded buffer and transforms it.
+     */
+    private void transformForward(FloatProcessor image) throws Exception {
+        final float[] pixels = (float[]) image.getPixels();
+        double sum = 0;
+        for (float p : pixels) sum += p;
+        final float mean = (float) (sum / pixels.length);
+
+        // Rows below the image stay zero, so they need no transform
+        Arrays.fill(re, paddedWidth * height, re.length, 0f);
+        Arrays.fill(im, 0f);
+        forEachBlock(height, new Block() {
+            @Override
+            void run(int from, int to, int block) {
+                for (int y = from; y < to; y++) {
+                    int row = y * paddedWidth;
+                    int in = y * width;
+                    for (int x = 0; x < width; x++) re[row + x] = pixels[in + x] - mean;
+                    for (int x = width; x < paddedWidth; x++) re[row + x] = 0f;
+                    fft(re, im, row, paddedWidth, cosX, sinX, reverseX, false);
+                }
+            }
+        });
+        transformColumns(false);
+    }
+
+    /**
+     * Inverse transform, only the rows that end up in the map are transformed along x.
+     */
+    private void transformInverse() throws Exception {
+        transformColumns(true);
+        forEachBlock(height, new Block() {
+            @Override
+            void run(int from, int to, int block) {
+                for (int y = from; y < to; y++)
+                    fft(re, im, mapRows[y] * paddedWidth, paddedWidth, cosX, sinX, reverseX, true);
+            }
+        });
+    }
+
+    private void transformColumns(final boolean inverse) throws Exception {
+        forEachBlock(paddedWidth, new Block() {
+            @Override
+            void run(int from, int to, int block) {
+                float[] colRe = columnRe[block];
+                float[] colIm = columnIm[block];
+                for (int x = from; x < to; x++) {
+                    for (int y = 0, i = x; y < paddedHeight; y++, i += paddedWidth) {
+                        colRe[y] = re[i];
+                        colIm[y] = im[i];
+                    }
+                    fft(colRe, colIm, 0, paddedHeight, cosY, sinY, reverseY, inverse);
+                    for (int y = 0, i = x; y < paddedHeight; y++, i += paddedWidth) {
+                        re[i] = colRe[y];
+                        im[i] = colIm[y];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Unscaled in place radix-2 FFT of n elements starting at offset.
+     */
+    private static void fft(float[] re, float[] im, int offset, int n, float[] cos, float[] sin,
+                            int[] reverse, boolean inverse) {
+        for (int i = 0; i < n; i++) {
+            int j = reverse[i];
+            if (j > i) {
+                float t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+        for (int size = 2; size <= n; size *= 2) {
+            int half = size / 2;
+            int step = n / size;
+            for (int start = offset; start < offset + n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * step];
+                    float wi = inverse ? sin[k * step] : -sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = wr * re[b] - wi * im[b];
+                    float ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the twiddle factors and returns the bit reversal table for a transform of length n.
+     */
+    private static int[] calculateTables(int n, float[] cos, float[] sin) {
+        for (int k = 0; k < n / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / n);
+            sin[k] = (float) Math.sin(2 * Math.PI * k / n);
+        }
+        int bits = Integer.numberOfTrailingZeros(n);
+        int[] reverse = new int[n];
+        for (int i = 0; i < n; i++)
+            reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        return reverse;
+    }
+
+    private static int nextPowerOf2(int n) {
+        int i = 1;
+        while (i < n) i *= 2;
+        return i;
+    }
+
+    private int getNumberOfBlocks(int count) {
+        if (executor == null || paddedWidth * paddedHeight < MIN_PARALLEL_PIXELS) return 1;
+        return Math.max(1, Math.min(nrThreads, count));
+    }
+
+    /**
+     * Runs the block over [0, count) split in at most one part per thread.
+     */
+    private void forEachBlock(int count, final Block block) throws Exception {
+        int blocks = Math.min(getNumberOfBlocks(count), columnRe.length);
+        if (blocks <= 1) {
+            block.run(0, count, 0);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            final int from = (int) ((long) count * b / blocks);
+            final int to = (int) ((long) count * (b + 1) / blocks);
+            final int index = b;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    block.run(from, to, index);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    private abstract static class Block {
+        abstract void run(int from, int to, int block);
+    }
+}
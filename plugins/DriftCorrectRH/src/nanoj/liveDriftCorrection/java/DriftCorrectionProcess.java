@@ -35,8 +35,10 @@ public class DriftCorrectionProcess implements Measurements {
     private static double filterSmallDia = 2.0;
     private static int choiceIndex = 2;
     private static double toleranceDia = 5.0;
+    private static boolean bandpass = false;
     private int edgeClip;
     private DriftCorrectionData data;
+    private DriftCorrectionCorrelator correlator = new DriftCorrectionCorrelator();
 
     DriftCorrectionProcess(DriftCorrectionData theData) {
         this.data = theData;
@@ -112,6 +114,16 @@ public class DriftCorrectionProcess implements Measurements {
         return image;
     }
 
+    /**
+     * Normalized cross correlation map of image against reference, bandpass filtered in the frequency
+     * domain with the current filter settings if bandpass is enabled. The spectrum of the reference
+     * is kept until a different reference is passed in.
+     */
+    public FloatProcessor crossCorrelate(FloatProcessor reference, FloatProcessor image) throws Exception {
+        correlator.setFilter(bandpass, filterLargeDia, filterSmallDia, choiceIndex, toleranceDia);
+        return correlator.calculateCrossCorrelationMap(reference, image);
+    }
+
     /**
      * Puts FloatProcessor (ROI) into a new FloatProcessor of size width x height y at position (x,y).
      * The image is mirrored around its edges to avoid wrap around effects of the FFT.
@@ -396,6 +408,14 @@ public class DriftCorrectionProcess implements Measurements {
         DriftCorrectionProcess.choiceIndex = choiceIndex;
     }
 
+    public static boolean isBandpass() {
+        return bandpass;
+    }
+
+    public static void setBandpass(boolean bandpass) {
+        DriftCorrectionProcess.bandpass = bandpass;
+    }
+
     public static double getToleranceDia() {
         return toleranceDia;
     }
@@ -0,0 +1,247 @@
+package org.micromanager.plugins.framecombiner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.micromanager.data.Image;
+
+/**
+ * Running per-pixel sum, minimum or maximum over a group of frames.
+ *
+ * Frames are folded in as they arrive, so only one frame-sized accumulator
+ * is kept per combination instead of the whole group. The accumulator and
+ * the result array are reused from one group to the next. Large frames are
+ * split in chunks of rows that are folded in parallel.
+ *
+ * Sums are kept in ints, which is exact for up to 32768 frames of 16 bits.
+ */
+final class FrameAccumulator {
+
+   private static final int OP_UNKNOWN = 0;
+   private static final int OP_SUM = 1;
+   private static final int OP_MIN = 2;
+   private static final int OP_MAX = 3;
+
+   // Do not bother the executor with less than this number of rows per task
+   private static final int MIN_ROWS_PER_TASK = 64;
+
+   private final String processorAlgo_;
+   private final int op_;
+   private final boolean mean_;
+   private final ExecutorService executor_;
+   private final int nrThreads_;
+
+   private int width_;
+   private int height_;
+   private int bytesPerPixel_;
+   private int[] accumulator_;
+   private Object result_;
+   private int count_;
+
+   /**
+    * @param processorAlgo one of the FrameCombinerPlugin.PROCESSOR_ALGO_* names
+    * @param executor used to fold large frames in parallel, may be null
+    * @param nrThreads number of threads of the executor
+    */
+   FrameAccumulator(String processorAlgo, ExecutorService executor, int nrThreads) {
+      processorAlgo_ = processorAlgo;
+      executor_ = executor;
+      nrThreads_ = nrThreads;
+      mean_ = processorAlgo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN);
+      if (mean_ || processorAlgo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+         op_ = OP_SUM;
+      } else if (processorAlgo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+         op_ = OP_MIN;
+      } else if (processorAlgo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
+         op_ = OP_MAX;
+      } else {
+         op_ = OP_UNKNOWN;
+      }
+   }
+
+   /**
+    * Folds the pixels of the image into the accumulator.
+    *
+    * @param image 1 or 2 bytes per pixel, single component image
+    * @param first whether this image starts a new group
+    * @throws Exception when the algorithm is unknown or the image does not
+    * match the other images of the group
+    */
+   void add(Image image, final boolean first) throws Exception {
+      if (op_ == OP_UNKNOWN) {
+         throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_
+                 + " is not implemented or not found.");
+      }
+      if (image.getBytesPerPixel() != 1 && image.getBytesPerPixel() != 2) {
+         throw new Exception("FrameCombiner : Unsupported number of bytes per pixel "
+                 + image.getBytesPerPixel());
+      }
+      if (first) {
+         allocate(image.getWidth(), image.getHeight(), image.getBytesPerPixel());
+         count_ = 0;
+      } else if (count_ == 0 || image.getWidth() != width_
+              || image.getHeight() != height_
+              || image.getBytesPerPixel() != bytesPerPixel_) {
+         throw new Exception("FrameCombiner : Image does not match the other images of the stack");
+      }
+
+      final Object pixels = image.getRawPixels();
+      forEachRowChunk(new RowTask() {
+         @Override
+         void run(int start, int end) {
+            if (pixels instanceof byte[]) {
+               fold((byte[]) pixels, start, end, first);
+            } else {
+               fold((short[]) pixels, start, end, first);
+            }
+         }
+      });
+      count_++;
+   }
+
+   /**
+    * Converts the accumulated values to pixels of the original type.
+    * The returned array is reused by the next group, so it has to be copied
+    * (as DataManager.createImage does) before the next call to add.
+    *
+    * @return byte[] or short[] holding the mean, sum, min or max
+    */
+   Object result() throws InterruptedException, ExecutionException {
+      final int divisor = mean_ ? count_ : 1;
+      forEachRowChunk(new RowTask() {
+         @Override
+         void run(int start, int end) {
+            if (result_ instanceof byte[]) {
+               byte[] out = (byte[]) result_;
+               for (int i = start; i < end; i++) {
+                  out[i] = (byte) (accumulator_[i] / divisor);
+               }
+            } else {
+               short[] out = (short[]) result_;
+               for (int i = start; i < end; i++) {
+                  out[i] = (short) (accumulator_[i] / divisor);
+               }
+            }
+         }
+      });
+      count_ = 0;
+      return result_;
+   }
+
+   int getCount() {
+      return count_;
+   }
+
+   int getWidth() {
+      return width_;
+   }
+
+   int getHeight() {
+      return height_;
+   }
+
+   int getBytesPerPixel() {
+      return bytesPerPixel_;
+   }
+
+   void release() {
+      accumulator_ = null;
+      result_ = null;
+      count_ = 0;
+   }
+
+   private void allocate(int width, int height, int bytesPerPixel) {
+      if (accumulator_ != null && width == width_ && height == height_
+              && bytesPerPixel == bytesPerPixel_) {
+         return;
+      }
+      width_ = width;
+      height_ = height;
+      bytesPerPixel_ = bytesPerPixel;
+      accumulator_ = new int[width * height];
+      if (bytesPerPixel == 1) {
+         result_ = new byte[width * height];
+      } else {
+         result_ = new short[width * height];
+      }
+   }
+
+   private void fold(byte[] pixels, int start, int end, boolean first) {
+      int[] acc = accumulator_;
+      if (first) {
+         for (int i = start; i < end; i++) {
+            acc[i] = pixels[i] & 0xff;
+         }
+      } else if (op_ == OP_SUM) {
+         for (int i = start; i < end; i++) {
+            acc[i] += pixels[i] & 0xff;
+         }
+      } else if (op_ == OP_MIN) {
+         for (int i = start; i < end; i++) {
+            acc[i] = Math.min(acc[i], pixels[i] & 0xff);
+         }
+      } else {
+         for (int i = start; i < end; i++) {
+            acc[i] = Math.max(acc[i], pixels[i] & 0xff);
+         }
+      }
+   }
+
+   private void fold(short[] pixels, int start, int end, boolean first) {
+      int[] acc = accumulator_;
+      if (first) {
+         for (int i = start; i < end; i++) {
+            acc[i] = pixels[i] & 0xffff;
+         }
+      } else if (op_ == OP_SUM) {
+         for (int i = start; i < end; i++) {
+            acc[i] += pixels[i] & 0xffff;
+         }
+      } else if (op_ == OP_MIN) {
+         for (int i = start; i < end; i++) {
+            acc[i] = Math.min(acc[i], pixels[i] & 0xffff);
+         }
+      } else {
+         for (int i = start; i < end; i++) {
+            acc[i] = Math.max(acc[i], pixels[i] & 0xffff);
+         }
+      }
+   }
+
+   /**
+    * Runs the task over all pixels, split in chunks of whole rows when the
+    * frame is large enough to be worth it.
+    */
+   private void forEachRowChunk(final RowTask task)
+           throws InterruptedException, ExecutionException {
+      int nrChunks = executor_ == null ? 1
+              : Math.min(nrThreads_, height_ / MIN_ROWS_PER_TASK);
+      if (nrChunks <= 1) {
+         task.run(0, width_ * height_);
+         return;
+      }
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nrChunks);
+      for (int c = 0; c < nrChunks; c++) {
+         final int start = (int) ((long) height_ * c / nrChunks) * width_;
+         final int end = (int) ((long) height_ * (c + 1) / nrChunks) * width_;
+         tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               task.run(start, end);
+               return null;
+            }
+         });
+      }
+      for (Future<Void> f : executor_.invokeAll(tasks)) {
+         f.get();
+      }
+   }
+
+   private abstract static class RowTask {
+      abstract void run(int start, int end);
+   }
+}
@@ -6,6 +6,9 @@ import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,6 +35,10 @@ public class FrameCombiner extends Processor {
 
    private HashMap<Coords, SingleCombinationProcessor> singleAquisitions_;
 
+   // Shared by all combinations to fold large frames in parallel
+   private final int nrThreads_;
+   private final ExecutorService executor_;
+
    public FrameCombiner(Studio studio, String processorDimension, String processorAlgo,
            int numerOfImagesToProcess, String channelsToAvoidString) {
 
@@ -57,6 +64,17 @@ public class FrameCombiner extends Processor {
       // Each index will be a combination of Z, Channel and StagePosition
       singleAquisitions_ = new HashMap();
 
+      nrThreads_ = Runtime.getRuntime().availableProcessors();
+      executor_ = nrThreads_ > 1 ? Executors.newFixedThreadPool(nrThreads_,
+              new ThreadFactory() {
+                 @Override
+                 public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FrameCombiner thread");
+                    t.setDaemon(true);
+                    return t;
+                 }
+              }) : null;
+
    }
 
    @Override
@@ -101,7 +119,8 @@ public class FrameCombiner extends Processor {
          }
 
          singleAcquProc = new SingleCombinationProcessor(coords, studio_, processorAlgo_, processorDimension_,
-                 numerOfImagesToProcess_, processCombinations, !channelsToAvoid_.isEmpty());
+                 numerOfImagesToProcess_, processCombinations, !channelsToAvoid_.isEmpty(),
+                 executor_, nrThreads_);
          singleAquisitions_.put(coords, singleAcquProc);
       } else {
          singleAcquProc = singleAquisitions_.get(coords);
@@ -162,6 +181,10 @@ public class FrameCombiner extends Processor {
       }
       singleAquisitions_ = null;
 
+      if (executor_ != null) {
+         executor_.shutdown();
+      }
+
    }
 
    private static Boolean isValidIntRangeInput(String channelToAvoidString) {
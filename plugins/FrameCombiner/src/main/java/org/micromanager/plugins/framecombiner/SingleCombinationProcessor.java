@@ -1,5 +1,7 @@
 package org.micromanager.plugins.framecombiner;
 
+import java.util.concurrent.ExecutorService;
+
 import org.micromanager.LogManager;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
@@ -26,11 +28,17 @@ public class SingleCombinationProcessor {
 
    private int current_frame_index_;
    private int processed_frame_index_;
-   private Image[] bufferImages_;
    private int currentBufferIndex_;
 
+   // Frames are folded into the accumulator as they arrive, only the coords
+   // and metadata of the first frame of the stack are kept for the output
+   private final FrameAccumulator accumulator_;
+   private Coords firstCoords_;
+   private Metadata firstMetadata_;
+
    public SingleCombinationProcessor(Coords coords, Studio studio, String processorAlgo, String processorDimension,
-           int numerOfImagesToProcess, boolean processCombinations, boolean isAnyChannelToAvoid) {
+           int numerOfImagesToProcess, boolean processCombinations, boolean isAnyChannelToAvoid,
+           ExecutorService executor, int nrThreads) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -45,11 +53,7 @@ public class SingleCombinationProcessor {
 
       current_frame_index_ = 0;
       processed_frame_index_ = 0;
-      bufferImages_ = new Image[numerOfImagesToProcess_];
-
-      for (int i = 0; i < numerOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
+      accumulator_ = new FrameAccumulator(processorAlgo_, executor, nrThreads);
 
       processedImage_ = null;
 
@@ -69,20 +73,31 @@ public class SingleCombinationProcessor {
       }
 
       currentBufferIndex_ = current_frame_index_ % numerOfImagesToProcess_;
-      bufferImages_[currentBufferIndex_] = image;
+      if (currentBufferIndex_ == 0) {
+         firstCoords_ = image.getCoords();
+         firstMetadata_ = image.getMetadata();
+      }
+
+      try {
+         accumulator_.add(image, currentBufferIndex_ == 0);
+      } catch (Exception ex) {
+         log_.logError(ex);
+      }
 
       if (currentBufferIndex_ == (numerOfImagesToProcess_ - 1)) {
 
          try {
             // Process last `numerOfImagesToProcess_` images
-            processBufferImages();
+            processAccumulatedImages();
          } catch (Exception ex) {
             log_.logError(ex);
          }
+         firstCoords_ = null;
+         firstMetadata_ = null;
 
-         // Clean buffered images
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-            bufferImages_[i] = null;
+         if (processedImage_ == null) {
+            current_frame_index_ += 1;
+            return;
          }
 
          // Add metadata to the processed image
@@ -120,231 +135,19 @@ public class SingleCombinationProcessor {
    }
 
    public void clear() {
-      for (int i = 0; i < numerOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
-      bufferImages_ = null;
+      accumulator_.release();
+      firstCoords_ = null;
+      firstMetadata_ = null;
    }
 
-   public void processBufferImages() throws Exception {
-
-      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
-         meanProcessImages(false);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
-         meanProcessImages(true);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
-         extremaProcessImages("max");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
-         extremaProcessImages("min");
-      } else {
-         throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_ + " is not implemented or not found.");
-      }
-
-   }
-
-   public void meanProcessImages(boolean onlySum) {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int bitDepth = img.getMetadata().getBitDepth();
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            byte[] imgPixels = (byte[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index] / numerOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xffff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (short) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (short) (int) (newPixels[index] / numerOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
+   private void processAccumulatedImages() throws Exception {
+      if (accumulator_.getCount() != numerOfImagesToProcess_) {
+         throw new Exception("FrameCombiner : Only " + accumulator_.getCount() + " of "
+                 + numerOfImagesToProcess_ + " images could be combined, skipping stack.");
       }
-
-      // Create the processed image
-      processedImage_ = studio_.data().createImage(resultPixels, width, height,
-              bytesPerPixel, numComponents, coords, metadata);
-
-   }
-
-   public void extremaProcessImages(String extremaType) throws Exception {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int bitDepth = img.getMetadata().getBitDepth();
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         if (extremaType.equals("max")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = 0;
-            }
-         } else if (extremaType.equals("min")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = Byte.MAX_VALUE;
-            }
-         } else {
-            throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = (float) Math.max(currentValue, actualValue);
-               } else if (extremaType.equals("min")) {
-                  newPixels[index] = (float) Math.min(currentValue, actualValue);
-               } else {
-                  throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (byte) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         if (extremaType.equals("max")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = 0;
-            }
-         } else if (extremaType.equals("min")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = Byte.MAX_VALUE;
-            }
-         } else {
-            throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = (float) Math.max(currentValue, actualValue);
-               } else if (extremaType.equals("min")) {
-                  newPixels[index] = (float) Math.min(currentValue, actualValue);
-               } else {
-                  throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (short) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      }
-
-      // Create the processed image
-      processedImage_ = studio_.data().createImage(resultPixels, width, height,
-              bytesPerPixel, numComponents, coords, metadata);
-
+      // createImage copies the pixels, so the accumulator can reuse its array
+      processedImage_ = studio_.data().createImage(accumulator_.result(),
+              accumulator_.getWidth(), accumulator_.getHeight(),
+              accumulator_.getBytesPerPixel(), 1, firstCoords_, firstMetadata_);
    }
 }
@@ -0,0 +1,100 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.benchmark;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fits single spots with every fit mode (Nelder-Mead, Levenberg-Marquardt
+ * and their MLE variants) and shape (circle, asymmetric, ellipse).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GaussianFitBenchmark {
+   
+   @Param({"1", "2", "3", "4"})
+   public int fitMode;
+   
+   @Param({"1", "2", "3"})
+   public int shape;
+   
+   @Param({"10"})
+   public int boxSize;
+   
+   private static final int NRBOXES = 256;
+   private ShortProcessor[] boxes_;
+   private GaussianFit gs_;
+   
+   @Setup
+   public void setup() {
+      Random random = new Random(SyntheticData.SEED);
+      boxes_ = new ShortProcessor[NRBOXES];
+      for (int i = 0; i < NRBOXES; i++) {
+         double sigmaX = SyntheticData.SIGMA;
+         double sigmaY = SyntheticData.SIGMA;
+         double theta = 0.0;
+         if (shape >= GaussianFit.ASYMMETRIC) {
+            sigmaY *= 1.0 + 0.5 * random.nextDouble();
+         }
+         if (shape == GaussianFit.ELLIPSE) {
+            theta = random.nextDouble() * Math.PI;
+         }
+         boxes_[i] = SyntheticData.spotBox(boxSize, sigmaX, sigmaY, theta, random);
+      }
+      gs_ = new GaussianFit(shape, fitMode);
+   }
+   
+   @Benchmark
+   public void fit(SpotCounter counter, Blackhole bh) {
+      for (ShortProcessor box : boxes_) {
+         bh.consume(gs_.dogaussianfit(box, 250));
+      }
+      counter.spots += NRBOXES;
+   }
+}
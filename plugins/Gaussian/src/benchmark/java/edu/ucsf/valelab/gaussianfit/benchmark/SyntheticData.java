@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.benchmark;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import ij.process.ShortProcessor;
+import java.util.Random;
+
+/**
+ * Synthetic images and data sets for the benchmarks.  Spots are 
+ * Gaussians with Poisson (approximated as Gaussian) noise on a constant 
+ * background.  Density is expressed in spots per square micron, with
+ * a pixel size of 100 nm.  Everything is generated from a fixed seed, 
+ * so that runs are comparable.
+ */
+public class SyntheticData {
+   public static final float PIXELSIZENM = 100.0f;
+   public static final double SIGMA = 1.2;  // in pixels
+   public static final double PHOTONS = 2000.0;
+   public static final double BACKGROUND = 100.0;
+   public static final long SEED = 42;
+   
+   /**
+    * @return number of spots in an image of the given size
+    */
+   public static int nrSpots(int width, int height, double density) {
+      double areaUm2 = width * height * PIXELSIZENM * PIXELSIZENM / 1.0e6;
+      return (int) Math.round(density * areaUm2);
+   }
+   
+   /**
+    * Image with nrSpots(width, height, density) randomly placed spots
+    */
+   public static ShortProcessor image(int width, int height, double density,
+           Random random) {
+      double[] pixels = new double[width * height];
+      int nrSpots = nrSpots(width, height, density);
+      for (int i = 0; i < nrSpots; i++) {
+         drawSpot(pixels, width, height, random.nextDouble() * width,
+                 random.nextDouble() * height, SIGMA, SIGMA, 0.0, PHOTONS);
+      }
+      return addNoise(pixels, width, height, random);
+   }
+   
+   /**
+    * Image of a single spot near the center of a box, as cut out by the 
+    * spot finder
+    */
+   public static ShortProcessor spotBox(int size, double sigmaX, double sigmaY,
+           double theta, Random random) {
+      double[] pixels = new double[size * size];
+      double center = size / 2.0;
+      drawSpot(pixels, size, size, center + random.nextDouble() - 0.5,
+              center + random.nextDouble() - 0.5, sigmaX, sigmaY, theta, PHOTONS);
+      return addNoise(pixels, size, size, random);
+   }
+   
+   /**
+    * Data set of molecules at fixed positions that blink on (in about half
+    * of the frames), localized with 15 nm precision.  Contains about 
+    * nrSpots(width, height, density) spots per frame.
+    */
+   public static RowData rowData(int width, int height, int nrFrames, 
+           double density, Random random) {
+      int nrMolecules = 2 * nrSpots(width, height, density);
+      double[] xMolecule = new double[nrMolecules];
+      double[] yMolecule = new double[nrMolecules];
+      for (int m = 0; m < nrMolecules; m++) {
+         xMolecule[m] = random.nextDouble() * width * PIXELSIZENM;
+         yMolecule[m] = random.nextDouble() * height * PIXELSIZENM;
+      }
+      SpotTable spots = new SpotTable(nrFrames * nrMolecules / 2);
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         int nr = 0;
+         for (int m = 0; m < nrMolecules; m++) {
+            if (random.nextBoolean()) {
+               double xc = xMolecule[m] + 15.0 * random.nextGaussian();
+               double yc = yMolecule[m] + 15.0 * random.nextGaussian();
+               int row = spots.add(frame, 1, 1, 1, nr++, 
+                       (int) (xc / PIXELSIZENM), (int) (yc / PIXELSIZENM), 
+                       xc, yc, 0.0, PHOTONS, BACKGROUND, 
+                       2.0 * SIGMA * PIXELSIZENM, 1.0, 0.0, 15.0);
+               spots.setValue(SpotData.Keys.APERTUREINTENSITY, row, PHOTONS);
+               spots.setValue(SpotData.Keys.APERTUREBACKGROUND, row, BACKGROUND);
+               spots.setValue(SpotData.Keys.INTENSITYRATIO, row, 1.0);
+               spots.setValue(SpotData.Keys.MSIGMA, row, 15.0);
+            }
+         }
+      }
+      RowData.Builder builder = new RowData.Builder();
+      builder.setName("Synthetic").setTitle("Synthetic").setWidth(width).
+              setHeight(height).setPixelSizeNm(PIXELSIZENM).
+              setZStackStepSizeNm(0.0f).setShape(1).setHalfSize(4).
+              setNrChannels(1).setNrFrames(nrFrames).setNrSlices(1).
+              setNrPositions(1).setMaxNrSpots(spots.size()).
+              setSpotTable(spots).setIsTrack(false).
+              setCoordinate(DataCollectionForm.Coordinates.NM).
+              setHasZ(false);
+      return builder.build();
+   }
+   
+   private static void drawSpot(double[] pixels, int width, int height,
+           double xc, double yc, double sigmaX, double sigmaY, double theta,
+           double photons) {
+      double cos = Math.cos(theta);
+      double sin = Math.sin(theta);
+      double a = photons / (2.0 * Math.PI * sigmaX * sigmaY);
+      int reach = (int) Math.ceil(4.0 * Math.max(sigmaX, sigmaY));
+      int x0 = Math.max(0, (int) xc - reach);
+      int x1 = Math.min(width - 1, (int) xc + reach);
+      int y0 = Math.max(0, (int) yc - reach);
+      int y1 = Math.min(height - 1, (int) yc + reach);
+      for (int y = y0; y <= y1; y++) {
+         for (int x = x0; x <= x1; x++) {
+            double dx = x + 0.5 - xc;
+            double dy = y + 0.5 - yc;
+            double u = (cos * dx + sin * dy) / sigmaX;
+            double v = (-sin * dx + cos * dy) / sigmaY;
+            pixels[y * width + x] += a * Math.exp(-0.5 * (u * u + v * v));
+         }
+      }
+   }
+   
+   private static ShortProcessor addNoise(double[] pixels, int width, 
+           int height, Random random) {
+      short[] noisy = new short[width * height];
+      for (int i = 0; i < pixels.length; i++) {
+         double value = pixels[i] + BACKGROUND;
+         value += Math.sqrt(value) * random.nextGaussian();
+         noisy[i] = (short) Math.max(0, Math.min(65535, Math.round(value)));
+      }
+      return new ShortProcessor(width, height, noisy, null);
+   }
+}
@@ -0,0 +1,110 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.benchmark;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.TSFReader;
+import edu.ucsf.valelab.gaussianfit.data.TSFWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Saves and loads a data set in the Tagged Spot File format.  Files are
+ * written to the temp directory, so the result depends on the disk (and 
+ * on the OS file cache) as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TSFBenchmark {
+   
+   // spots per square micron per frame
+   @Param({"1.0"})
+   public double density;
+   
+   @Param({"1000"})
+   public int nrFrames;
+   
+   private RowData rowData_;
+   private File saveFile_;
+   private File loadFile_;
+   
+   @Setup
+   public void setup() throws IOException {
+      rowData_ = SyntheticData.rowData(256, 256, nrFrames, density, 
+              new Random(SyntheticData.SEED));
+      saveFile_ = File.createTempFile("benchmark-save", ".tsf");
+      loadFile_ = File.createTempFile("benchmark-load", ".tsf");
+      writeFile(loadFile_);
+   }
+   
+   @TearDown
+   public void tearDown() {
+      saveFile_.delete();
+      loadFile_.delete();
+   }
+   
+   private void writeFile(File file) throws IOException {
+      TSFWriter writer = new TSFWriter(file, rowData_.hasZ_);
+      writer.addSpots(rowData_.spotTable_, 0, rowData_.spotTable_.size());
+      writer.finish(rowData_);
+   }
+   
+   @Benchmark
+   public void save(SpotCounter counter) throws IOException {
+      writeFile(saveFile_);
+      counter.spots += rowData_.spotTable_.size();
+   }
+   
+   @Benchmark
+   public void load(SpotCounter counter, Blackhole bh) throws IOException {
+      TSFReader reader = new TSFReader(loadFile_);
+      bh.consume(reader.readSpots());
+      counter.spots += rowData_.spotTable_.size();
+   }
+}
@@ -52,6 +52,7 @@ import edu.ucsf.valelab.gaussianfit.datasettransformations.CoordinateMapper;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
 import edu.ucsf.valelab.gaussianfit.utils.DisplayUtils;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import edu.ucsf.valelab.gaussianfit.data.LoadAndSave;
 import edu.ucsf.valelab.gaussianfit.spotoperations.SpotLinker;
@@ -2244,40 +2245,58 @@ public class DataCollectionForm extends JFrame {
          @Override
          public void run() {
 
-            List<SpotData> correctedData =
-                    Collections.synchronizedList(new ArrayList<SpotData>());
-            Iterator it = rowData.spotList_.iterator();
-            int frameNr = 0;
-            while (it.hasNext()) {
-               SpotData gs = (SpotData) it.next();
-               if (gs.getFrame() != frameNr) {
-                  frameNr = gs.getFrame();
-                  ij.IJ.showStatus("Executing color correction...");
-                  ij.IJ.showProgress(frameNr, rowData.nrFrames_);
+            SpotTable spots = rowData.spotTable_;
+            ij.IJ.showStatus("Executing color correction...");
+            // channel 1 spots are transformed, channel 2 spots are kept
+            int nrCh1 = 0;
+            for (int i = 0; i < spots.size(); i++) {
+               if (spots.getChannel(i) == 1) {
+                  nrCh1++;
                }
-               if (gs.getChannel() == 1) {
-                  Point2D.Double point = new Point2D.Double(gs.getXCenter(), gs.getYCenter());
-                  try {
-                     Point2D.Double corPoint = c2t_.transform(point);
-                     SpotData gsn = new SpotData(gs);
-                     if (corPoint != null) {
-                        gsn.setXCenter(corPoint.x);
-                        gsn.setYCenter(corPoint.y);
-                        correctedData.add(gsn);
-                     } else {
-                        ReportingUtils.logError(
-                                "Failed to match spot in channel 1, at " + 
-                                gs.getX() + "-" + gs.getY() + ", micron: " +
-                                gs.getXCenter() + "-" + gs.getYCenter() );
-                     }
-                     
-                  } catch (Exception ex) {
-                     ReportingUtils.logError(ex);
+            }
+            double[] x = new double[nrCh1];
+            double[] y = new double[nrCh1];
+            int j = 0;
+            for (int i = 0; i < spots.size(); i++) {
+               if (spots.getChannel(i) == 1) {
+                  x[j] = spots.getXCenter(i);
+                  y[j] = spots.getYCenter(i);
+                  j++;
+               }
+            }
+            try {
+               c2t_.transform(x, y, x, y);
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               semaphore_.release();
+               return;
+            }
+            int[] rows = new int[spots.size()];
+            int[] ch1Index = new int[spots.size()];
+            int nrRows = 0;
+            j = 0;
+            for (int i = 0; i < spots.size(); i++) {
+               if (spots.getChannel(i) == 1) {
+                  if (!Double.isNaN(x[j])) {
+                     ch1Index[nrRows] = j;
+                     rows[nrRows++] = i;
+                  } else {
+                     ReportingUtils.logError(
+                             "Failed to match spot in channel 1, at "
+                             + spots.getX(i) + "-" + spots.getY(i) + ", micron: "
+                             + spots.getXCenter(i) + "-" + spots.getYCenter(i));
                   }
-               } else if (gs.getChannel() == 2) {
-                  correctedData.add(gs);
+                  j++;
+               } else if (spots.getChannel(i) == 2) {
+                  ch1Index[nrRows] = -1;
+                  rows[nrRows++] = i;
+               }
+            }
+            SpotTable correctedData = spots.subset(Arrays.copyOf(rows, nrRows));
+            for (int i = 0; i < nrRows; i++) {
+               if (ch1Index[i] >= 0) {
+                  correctedData.setXYCenter(i, x[ch1Index[i]], y[ch1Index[i]]);
                }
-
             }
 
             // Add transformed data to data overview window
@@ -2285,7 +2304,7 @@ public class DataCollectionForm extends JFrame {
             builder.setName(rowData.getName() + "-CC-" + reference2CName_.getText() + "-"
                     + method2CBox_.getSelectedItem()).
                     setColColorRef(reference2CName_.getText()).
-                    setSpotList(correctedData);
+                    setSpotTable(correctedData);
             addSpotData(builder);
   
             semaphore_.release();
@@ -2443,16 +2462,20 @@ public class DataCollectionForm extends JFrame {
       final int[] rows = mainTable_.getSelectedRowsSorted();
       for (int i = 0; i < rows.length; i++) {
          RowData rowData = mainTableModel_.getRow(rows[i]);
-         List<SpotData> filteredData = new ArrayList<SpotData>();
-         for (SpotData spot : rowData.spotList_) {
-            if (sf.filter(spot)) {
-               filteredData.add(new SpotData(spot));
+         SpotTable spots = rowData.spotTable_;
+         int[] accepted = new int[spots.size()];
+         int nrAccepted = 0;
+         for (int row = 0; row < spots.size(); row++) {
+            if (sf.filter(spots, row)) {
+               accepted[nrAccepted] = row;
+               nrAccepted++;
             }
          }
+         SpotTable filteredData = spots.subset(Arrays.copyOf(accepted, nrAccepted));
          // Add transformed data to data overview window
          RowData.Builder builder = rowData.copy();
          builder.setName(rowData.getName() + "-Filtered").setMaxNrSpots(filteredData.size()).
-                 setSpotList(filteredData);
+                 setSpotTable(filteredData);
          addSpotData(builder);
       }
    }
@@ -123,6 +123,7 @@ public class MainForm extends JFrame {
 
    // we are a singleton with only one window
    public static boolean WINDOWOPEN = false;
+   private static MainForm currentForm_ = null;
 
    private final Studio studio_;
    
@@ -189,6 +190,7 @@ public class MainForm extends JFrame {
    public MainForm(Studio studio) {
        
       studio_ = studio;
+      currentForm_ = this;
       int nrThreads = ij.Prefs.getThreads();
       if (nrThreads > 8) {
          nrThreads = 8;
@@ -1163,4 +1165,30 @@ public class MainForm extends JFrame {
       }
    }
 
+   /**
+    * Copies the settings of the open Localization Microscopy window, for use
+    * by code that does not run from this window (such as the pipeline 
+    * processor)
+    * @param target - receives the settings
+    * @return false if the window is not open, in which case target is unchanged
+    */
+   public static boolean copyCurrentSettings(GaussianInfo target) {
+      if (!WINDOWOPEN || currentForm_ == null) {
+         return false;
+      }
+      currentForm_.updateValues(target);
+      return true;
+   }
+   
+   /**
+    * @return pre-filter selected in the open Localization Microscopy window,
+    *          or null if the window is not open
+    */
+   public static FindLocalMaxima.FilterType getCurrentPreFilterType() {
+      if (!WINDOWOPEN || currentForm_ == null) {
+         return null;
+      }
+      return currentForm_.preFilterType_;
+   }
+
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+/**
+ * Difference of Gaussians filter used as the pre-filter for spot detection.
+ *
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.algorithm;
+
+import java.awt.Rectangle;
+
+/**
+ * Computes round(G(0.4) * image) - round(G(2.0) * image), clipped at 0, for
+ * 16-bit images in a single pass over primitive arrays.  This is what
+ * FindLocalMaxima used to do with two ImageJ GaussianBlurs and an
+ * ImageCalculator subtract; kernels and edge handling are the same as
+ * ImageJ's GaussianBlur (accuracy 0.01, edge pixels extended), and both
+ * Gaussians are applied in the same separable sweep.  Only the ROI (plus
+ * the margin needed by the kernels) is filtered.
+ *
+ * Instances hold scratch buffers and should be used by one thread at a time.
+ */
+public class DoGFilter {
+   private static final double SIGMA_SMALL = 0.4;
+   private static final double SIGMA_LARGE = 2.0;
+   private static final double ACCURACY = 0.01;
+   private static final float[][] KERNEL_SMALL = makeGaussianKernel(SIGMA_SMALL, ACCURACY);
+   private static final float[][] KERNEL_LARGE = makeGaussianKernel(SIGMA_LARGE, ACCURACY);
+
+   private float[] blurSmall_ = new float[0];
+   private float[] blurLarge_ = new float[0];
+   private float[] line_ = new float[0];
+   private float[] outSmall_ = new float[0];
+   private float[] outLarge_ = new float[0];
+
+   /**
+    * Filters the pixels within roi
+    *
+    * @param pixels 16-bit image
+    * @param width image width
+    * @param height image height
+    * @param roi area for which output is needed
+    * @param result width * height array that receives the filtered values
+    *          (only positions within the roi are written)
+    */
+   public void filter(short[] pixels, int width, int height, Rectangle roi,
+           int[] result) {
+      int margin = KERNEL_LARGE[0].length;
+      int y0 = Math.max(0, roi.y - margin);
+      int y1 = Math.min(height, roi.y + roi.height + margin);
+      int x0 = roi.x;
+      int x1 = roi.x + roi.width;
+      int lineLength = Math.max(width, height);
+      if (blurSmall_.length < width * height) {
+         blurSmall_ = new float[width * height];
+         blurLarge_ = new float[width * height];
+      }
+      if (line_.length < lineLength) {
+         line_ = new float[lineLength];
+         outSmall_ = new float[lineLength];
+         outLarge_ = new float[lineLength];
+      }
+
+      // blur in x of all rows that contribute to the roi
+      for (int y = y0; y < y1; y++) {
+         int offset = y * width;
+         for (int x = 0; x < width; x++) {
+            line_[x] = pixels[offset + x] & 0xffff;
+         }
+         convolveLine(line_, width, KERNEL_SMALL, outSmall_, x0, x1);
+         convolveLine(line_, width, KERNEL_LARGE, outLarge_, x0, x1);
+         System.arraycopy(outSmall_, x0, blurSmall_, offset + x0, x1 - x0);
+         System.arraycopy(outLarge_, x0, blurLarge_, offset + x0, x1 - x0);
+      }
+
+      // blur in y, round like ImageJ does when storing into a 16-bit image
+      // and subtract
+      for (int x = x0; x < x1; x++) {
+         for (int y = y0; y < y1; y++) {
+            line_[y] = blurSmall_[y * width + x];
+         }
+         convolveLine(line_, height, KERNEL_SMALL, outSmall_, roi.y, roi.y + roi.height);
+         for (int y = y0; y < y1; y++) {
+            line_[y] = blurLarge_[y * width + x];
+         }
+         convolveLine(line_, height, KERNEL_LARGE, outLarge_, roi.y, roi.y + roi.height);
+         for (int y = roi.y; y < roi.y + roi.height; y++) {
+            int diff = toShort(outSmall_[y]) - toShort(outLarge_[y]);
+            result[y * width + x] = diff < 0 ? 0 : diff;
+         }
+      }
+   }
+
+   private static int toShort(float value) {
+      value += 0.5f;
+      if (value < 0f) {
+         value = 0f;
+      }
+      if (value > 65535f) {
+         value = 65535f;
+      }
+      return (int) value;
+   }
+
+   /**
+    * Convolves input[0..length) with a symmetric kernel, writing
+    * output[writeFrom..writeTo).  Pixels outside the line take the value of
+    * the nearest edge pixel.  Only input within kernel reach of the written
+    * range (and the two edge pixels, when in reach) is read.
+    */
+   private static void convolveLine(float[] input, int length, float[][] kernel,
+           float[] output, int writeFrom, int writeTo) {
+      final float first = input[0];
+      final float last = input[length - 1];
+      final float[] kern = kernel[0];
+      final float kern0 = kern[0];
+      final float[] kernSum = kernel[1];
+      final int kRadius = kern.length;
+      for (int i = writeFrom; i < writeTo; i++) {
+         float result = input[i] * kern0;
+         if (i >= kRadius && i + kRadius < length) {
+            for (int k = 1; k < kRadius; k++) {
+               result += kern[k] * (input[i - k] + input[i + k]);
+            }
+         } else {
+            if (i < kRadius) {
+               result += kernSum[i] * first;
+            }
+            if (i + kRadius >= length) {
+               result += kernSum[length - i - 1] * last;
+            }
+            for (int k = 1; k < kRadius; k++) {
+               float v = 0;
+               if (i - k >= 0) {
+                  v += input[i - k];
+               }
+               if (i + k < length) {
+                  v += input[i + k];
+               }
+               result += kern[k] * v;
+            }
+         }
+         output[i] = result;
+      }
+   }
+
+   /**
+    * Gaussian kernel as constructed by ImageJ's GaussianBlur.
+    *
+    * @return kernel[0] holds the kernel from the center outwards, kernel[1]
+    *          the sum of the kernel beyond each position (used for the edges)
+    */
+   private static float[][] makeGaussianKernel(double sigma, double accuracy) {
+      final int maxRadius = 50;
+      int kRadius = (int) Math.ceil(sigma * Math.sqrt(-2 * Math.log(accuracy))) + 1;
+      if (kRadius > maxRadius) {
+         kRadius = maxRadius;
+      }
+      float[][] kernel = new float[2][kRadius];
+      for (int i = 0; i < kRadius; i++) {
+         kernel[0][i] = (float) (Math.exp(-0.5 * i * i / sigma / sigma));
+      }
+      if (kRadius < maxRadius && kRadius > 3) {
+         // smooth edge correction
+         double sqrtSlope = Double.MAX_VALUE;
+         int r = kRadius;
+         while (r > kRadius / 2) {
+            r--;
+            double a = Math.sqrt(kernel[0][r]) / (kRadius - r);
+            if (a < sqrtSlope) {
+               sqrtSlope = a;
+            } else {
+               break;
+            }
+         }
+         for (int r1 = r + 2; r1 < kRadius; r1++) {
+            kernel[0][r1] = (float) ((kRadius - r1) * (kRadius - r1) * sqrtSlope * sqrtSlope);
+         }
+      }
+      double sum;
+      if (kRadius < maxRadius) {
+         sum = kernel[0][0];
+         for (int i = 1; i < kRadius; i++) {
+            sum += 2 * kernel[0][i];
+         }
+      } else {
+         sum = sigma * Math.sqrt(2 * Math.PI);
+      }
+      double rsum = 0.5 + 0.5 * kernel[0][0] / sum;
+      for (int i = 0; i < kRadius; i++) {
+         double v = (kernel[0][i] / sum);
+         kernel[0][i] = (float) v;
+         rsum -= v;
+         kernel[1][i] = (float) rsum;
+      }
+      return kernel;
+   }
+
+}
@@ -0,0 +1,276 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+package edu.ucsf.valelab.gaussianfit.algorithm;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Measures the translation between a reference image and test images by
+ * cross-correlation.  Images of any size are zero padded to powers of two 
+ * (separately in x and y).  The transform of the reference image is 
+ * calculated once and reused for every test image, as are the FFT 
+ * twiddle factors.  The correlation peak is located with sub-pixel 
+ * accuracy by fitting a Gaussian through the peak and its neighbors.
+ * 
+ * Spectra are stored as floats (lines are transformed in double precision).
+ * After construction, getShift can be called from multiple threads
+ * simultaneously.  Every thread allocates its own work buffers once and 
+ * reuses them, see getBytesPerThread.
+ */
+public class DriftCorrelator {
+   private static final HashMap<Integer, FFTPlan> PLANS = new HashMap<Integer, FFTPlan>();
+   
+   private final int width_;
+   private final int height_;
+   private final int paddedWidth_;
+   private final int paddedHeight_;
+   private final int searchRadius_;
+   private final float[] refRe_;
+   private final float[] refIm_;
+   private final ThreadLocal<float[][]> workspace_;
+   
+   /**
+    * @param reference reference image, width * height pixels
+    * @param width width of the reference and test images
+    * @param height height of the reference and test images
+    * @param searchRadius maximum shift (in pixels) that will be reported
+    */
+   public DriftCorrelator(float[] reference, int width, int height, 
+           int searchRadius) {
+      width_ = width;
+      height_ = height;
+      paddedWidth_ = FFTUtils.nextPowerOf2(width);
+      paddedHeight_ = FFTUtils.nextPowerOf2(height);
+      searchRadius_ = Math.max(0, Math.min(searchRadius, 
+              Math.min(paddedWidth_, paddedHeight_) / 2 - 1));
+      refRe_ = new float[paddedWidth_ * paddedHeight_];
+      refIm_ = new float[paddedWidth_ * paddedHeight_];
+      forwardTransform(reference, refRe_, refIm_);
+      workspace_ = new ThreadLocal<float[][]>() {
+         @Override
+         protected float[][] initialValue() {
+            return new float[][] {new float[refRe_.length], new float[refIm_.length]};
+         }
+      };
+   }
+   
+   /**
+    * @return memory (in bytes) used by the work buffers of each thread 
+    * calling getShift
+    */
+   public long getBytesPerThread() {
+      return 8L * paddedWidth_ * paddedHeight_;
+   }
+   
+   /**
+    * Finds the shift of the test image relative to the reference image, i.e.
+    * test(x, y) ~ reference(x - shift.x, y - shift.y)
+    * 
+    * @param test test image, same size as the reference image
+    * @return shift in pixels
+    */
+   public Point2D.Double getShift(float[] test) {
+      int size = paddedWidth_ * paddedHeight_;
+      float[][] workspace = workspace_.get();
+      float[] re = workspace[0];
+      float[] im = workspace[1];
+      // the padding has to be zero again
+      Arrays.fill(re, 0.0f);
+      Arrays.fill(im, 0.0f);
+      forwardTransform(test, re, im);
+      // conj(reference) * test peaks at the shift of test
+      for (int i = 0; i < size; i++) {
+         float r = refRe_[i] * re[i] + refIm_[i] * im[i];
+         float m = refRe_[i] * im[i] - refIm_[i] * re[i];
+         re[i] = r;
+         im[i] = m;
+      }
+      transform2D(re, im, paddedHeight_, true);
+      
+      // brightest pixel within the search radius around zero shift
+      int bestX = 0;
+      int bestY = 0;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int dy = -searchRadius_; dy <= searchRadius_; dy++) {
+         for (int dx = -searchRadius_; dx <= searchRadius_; dx++) {
+            double v = re[index(dx, dy)];
+            if (v > max) {
+               max = v;
+               bestX = dx;
+               bestY = dy;
+            }
+         }
+      }
+      
+      return new Point2D.Double(
+              bestX + peakOffset(re[index(bestX - 1, bestY)], max, 
+                      re[index(bestX + 1, bestY)]),
+              bestY + peakOffset(re[index(bestX, bestY - 1)], max, 
+                      re[index(bestX, bestY + 1)]));
+   }
+   
+   /**
+    * Index in the (circular) correlation image of the given shift
+    */
+   private int index(int dx, int dy) {
+      int x = dx < 0 ? dx + paddedWidth_ : dx;
+      int y = dy < 0 ? dy + paddedHeight_ : dy;
+      return y * paddedWidth_ + x;
+   }
+   
+   /**
+    * Sub-pixel position of a peak from three equally spaced samples, 
+    * assuming a Gaussian peak shape.  Falls back to a parabola when the 
+    * samples are not all positive
+    * 
+    * @return offset of the peak relative to the center sample, between 
+    *          -0.5 and 0.5
+    */
+   private static double peakOffset(double left, double center, double right) {
+      double offset;
+      if (left > 0 && center > 0 && right > 0) {
+         double lnLeft = Math.log(left);
+         double lnCenter = Math.log(center);
+         double lnRight = Math.log(right);
+         offset = 0.5 * (lnLeft - lnRight) / (lnLeft - 2 * lnCenter + lnRight);
+      } else {
+         offset = 0.5 * (left - right) / (left - 2 * center + right);
+      }
+      if (Double.isNaN(offset) || Double.isInfinite(offset)) {
+         return 0.0;
+      }
+      return Math.max(-0.5, Math.min(0.5, offset));
+   }
+   
+   private void forwardTransform(float[] image, float[] re, float[] im) {
+      if (image.length != width_ * height_) {
+         throw new IllegalArgumentException("Expected " + width_ * height_ + 
+                 " pixels but got " + image.length);
+      }
+      for (int y = 0; y < height_; y++) {
+         int src = y * width_;
+         int dst = y * paddedWidth_;
+         for (int x = 0; x < width_; x++) {
+            re[dst + x] = image[src + x];
+         }
+      }
+      // rows that are entirely zero padding stay zero
+      transform2D(re, im, height_, false);
+   }
+   
+   private void transform2D(float[] re, float[] im, int nrRows, boolean inverse) {
+      FFTPlan xPlan = getPlan(paddedWidth_);
+      FFTPlan yPlan = getPlan(paddedHeight_);
+      double[] lineRe = new double[Math.max(paddedWidth_, paddedHeight_)];
+      double[] lineIm = new double[lineRe.length];
+      for (int y = 0; y < nrRows; y++) {
+         xPlan.transform(re, im, y * paddedWidth_, 1, lineRe, lineIm, inverse);
+      }
+      for (int x = 0; x < paddedWidth_; x++) {
+         yPlan.transform(re, im, x, paddedWidth_, lineRe, lineIm, inverse);
+      }
+   }
+   
+   private static FFTPlan getPlan(int n) {
+      synchronized (PLANS) {
+         FFTPlan plan = PLANS.get(n);
+         if (plan == null) {
+            plan = new FFTPlan(n);
+            PLANS.put(n, plan);
+         }
+         return plan;
+      }
+   }
+   
+   /**
+    * Twiddle factors and bit reversal permutation for a radix 2 FFT of 
+    * length n
+    */
+   private static class FFTPlan {
+      private final int n_;
+      private final double[] cos_;
+      private final double[] sin_;
+      private final int[] bitReverse_;
+      
+      FFTPlan(int n) {
+         n_ = n;
+         cos_ = new double[Math.max(1, n / 2)];
+         sin_ = new double[Math.max(1, n / 2)];
+         for (int i = 0; i < n / 2; i++) {
+            cos_[i] = Math.cos(-2 * Math.PI * i / n);
+            sin_[i] = Math.sin(-2 * Math.PI * i / n);
+         }
+         bitReverse_ = new int[n];
+         int bits = Integer.numberOfTrailingZeros(n);
+         for (int i = 0; i < n; i++) {
+            bitReverse_[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+         }
+      }
+      
+      /**
+       * In place transform of the n values starting at offset, spaced by
+       * stride.  The inverse transform is not normalized.
+       */
+      void transform(float[] re, float[] im, int offset, int stride, 
+              double[] lineRe, double[] lineIm, boolean inverse) {
+         for (int i = 0; i < n_; i++) {
+            int src = offset + bitReverse_[i] * stride;
+            lineRe[i] = re[src];
+            lineIm[i] = im[src];
+         }
+         double sign = inverse ? -1 : 1;
+         for (int size = 2; size <= n_; size *= 2) {
+            int half = size / 2;
+            int step = n_ / size;
+            for (int start = 0; start < n_; start += size) {
+               for (int k = 0; k < half; k++) {
+                  double wr = cos_[k * step];
+                  double wi = sign * sin_[k * step];
+                  int a = start + k;
+                  int b = a + half;
+                  double tr = lineRe[b] * wr - lineIm[b] * wi;
+                  double ti = lineRe[b] * wi + lineIm[b] * wr;
+                  lineRe[b] = lineRe[a] - tr;
+                  lineIm[b] = lineIm[a] - ti;
+                  lineRe[a] += tr;
+                  lineIm[a] += ti;
+               }
+            }
+         }
+         for (int i = 0; i < n_; i++) {
+            int dst = offset + i * stride;
+            re[dst] = (float) lineRe[i];
+            im[dst] = (float) lineIm[i];
+         }
+      }
+   }
+   
+}
@@ -40,9 +40,11 @@ package edu.ucsf.valelab.gaussianfit.algorithm;
 import ij.ImagePlus;
 import ij.plugin.ImageCalculator;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import ij.plugin.filter.GaussianBlur;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.util.Arrays;
 
 
 /**
@@ -50,14 +52,20 @@ import java.awt.Rectangle;
  * @author nico
  */
 public class FindLocalMaxima {
-   private static final GaussianBlur FILTER = new GaussianBlur();
-   private static final ImageCalculator IMAGECALCULATOR = new ImageCalculator();
    
    public enum FilterType {
       NONE,
       GAUSSIAN1_5
    }
 
+   // scratch buffers, so that detection in a stack does not allocate per frame
+   private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>() {
+      @Override
+      protected Workspace initialValue() {
+         return new Workspace();
+      }
+   };
+
    /**
     * Static utility function to find local maxima in an Image
     * 
@@ -69,136 +77,229 @@ public class FindLocalMaxima {
     * @return Polygon with maxima 
     */
    public static Polygon FindMax(ImagePlus iPlus, int n, int threshold, FilterType filterType) {
-      Polygon maxima = new Polygon();
-
       ImageProcessor iProc = iPlus.getProcessor();
-      Rectangle roi = iProc.getRoi();
+      return FindMax(iProc, iProc.getRoi(), n, threshold, filterType);
+   }
+   
+   /**
+    * Finds local maxima in the given area of an ImageProcessor.  Does not 
+    * modify the processor, so it is safe to call from multiple threads as long
+    * as each thread uses its own processor
+    * 
+    * A pixel is a maximum when no pixel in the 2n * 2n box starting at 
+    * (x - n, y - n) is brighter (of equal pixels the last one wins), and when 
+    * it exceeds the average of the box corners by more than threshold
+    * 
+    * @param iProc - ImageProcessor in which to look for local maxima
+    * @param roi - area to search, entire image if empty
+    * @param n - minimum distance to other local maximum
+    * @param threshold - value below which a maximum will be rejected
+    * @param filterType - Prefilter the image.  Either none or Gaussian1_5
+    * @return Polygon with maxima 
+    */
+   public static Polygon FindMax(ImageProcessor iProc, Rectangle roi, int n, 
+           int threshold, FilterType filterType) {
+      roi = new Rectangle(roi);
       // HACK: need to figure out the underlying cause, but make it workable for now
       if (roi.height == 0 && roi.width ==0) {
          roi.x = 0; roi.y = 0; roi.height = iProc.getHeight(); roi.width = iProc.getWidth();
       }
+      int width = iProc.getWidth();
+      Workspace ws = WORKSPACE.get();
+      int[] values = ws.values(width * iProc.getHeight());
       
       // Prefilter if needed
-      switch (filterType) {
-         case GAUSSIAN1_5 : 
-            // TODO: if there is an ROI, we only need to filter_ in the ROI
+      if (filterType == FilterType.GAUSSIAN1_5 && iProc instanceof ShortProcessor) {
+         ws.dog_.filter((short[]) iProc.getPixels(), width, iProc.getHeight(), 
+                 roi, values);
+      } else {
+         if (filterType == FilterType.GAUSSIAN1_5) {
             ImageProcessor iProcG1 = iProc.duplicate();
             ImageProcessor iProcG5 = iProc.duplicate();
-            FILTER.blurGaussian(iProcG1, 0.4, 0.4, 0.01); 
-            FILTER.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
+            GaussianBlur filter = new GaussianBlur();
+            filter.blurGaussian(iProcG1, 0.4, 0.4, 0.01); 
+            filter.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
             ImagePlus p1 = new ImagePlus("G1", iProcG1);
             ImagePlus p5 = new ImagePlus("G5", iProcG5);
-            IMAGECALCULATOR.run("subtract", p1, p5);
+            new ImageCalculator().run("subtract", p1, p5);
             iProc = p1.getProcessor();
-                      
-            break;
+         }
+         for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+               values[y * width + x] = iProc.get(x, y);
+            }
+         }
       }
 
-     
-      for (int x = roi.x + n; x < roi.width + roi.x - n - 1; x++) {
-         for (int y = roi.y + n; y < roi.height + roi.y - n - 1; y++) {
-            // Is this a local maximum?
+      return findMaxima(values, width, roi, n, threshold, ws);
+   }
+   
+   /**
+    * Box maxima are computed separably with the van Herk / Gil-Werman 
+    * algorithm (3 comparisons per pixel per direction, independent of n).
+    * The full box is only scanned again for pixels equal to their box maximum
+    * that pass the threshold, to apply the tie breaking rule
+    */
+   private static Polygon findMaxima(int[] values, int width, Rectangle roi, 
+           int n, int threshold, Workspace ws) {
+      Polygon maxima = new Polygon();
+      int x0 = roi.x + n;
+      int x1 = roi.x + roi.width - n - 1;
+      int y0 = roi.y + n;
+      int y1 = roi.y + roi.height - n - 1;
+      if (x1 <= x0 || y1 <= y0) {
+         return maxima;
+      }
+      int nx = x1 - x0;
+      int ny = y1 - y0;
+      int box = 2 * n;
+      // rows y0 - n .. y1 + n - 2 contribute to the boxes
+      int rows = box > 0 ? ny + box - 1 : ny;
+      int[] rowMax = ws.rowMax(rows * nx);
+      for (int r = 0; r < rows; r++) {
+         int offset = (y0 - n + r) * width + x0 - n;
+         slidingMax(values, offset, nx, box, ws, rowMax, r * nx);
+      }
+      int[] boxMax = ws.colMax(ny * nx);
+      slidingMaxColumns(rowMax, nx, ny, box, ws, boxMax);
+      for (int x = x0; x < x1; x++) {
+         for (int y = y0; y < y1; y++) {
+            int value = values[y * width + x];
+            if (value < boxMax[(y - y0) * nx + x - x0]) {
+               continue;
+            }
+            int cornerAverage = (values[(y - n) * width + x - n] + 
+                    values[(y + n) * width + x - n] + 
+                    values[(y - n) * width + x + n] + 
+                    values[(y + n) * width + x + n]) / 4;
+            if (value - threshold <= cornerAverage) {
+               continue;
+            }
+            // special handling of pixels of equal intensity:
+            // when there are multiple pixels of same intensity in the box, 
+            // take the first one
             boolean failed = false;
-            for (int mx = x - n; mx < x+ n && !failed; mx++) {
+            for (int mx = x - n; mx < x + n && !failed; mx++) {
                for (int my = y - n; my < y + n && !failed; my++) {
-                  if (iProc.get(mx, my) > iProc.get(x, y)) {
-                        failed = true;
-                  } else if (iProc.get(mx, my) == iProc.get(x, y)) {
-                     // special handling of pixels of equal intensity
-                     if (mx > x || my > y) {
-                        // avoid excluding x,y itself, when there are multiple 
-                        // pixel of same intensity in the box, take the first one
-                        failed = true;
-                     }
+                  if (values[my * width + mx] == value && (mx > x || my > y)) {
+                     failed = true;
                   }
                }
             }
             if (!failed) {
-               int cornerAverage = (iProc.get(x - n, y -n) + iProc.get(x - n, y + n) + 
-                       iProc.get(x + n, y -n) + iProc.get(x + n, y + n) ) / 4;
-               if (iProc.get(x, y) - threshold > cornerAverage) {
-                  maxima.addPoint(x, y);
-               }
+               maxima.addPoint(x, y);
             }
          }
       }
-      
-      
-            
- /*      
-     
-      // divide the image up in blocks of size n and find local maxima
-      int n2 = 2*n + 1;
-      // calculate borders once
-      int xRealEnd = roi.x + roi.width;
-      int xEnd = xRealEnd - n;
-      int yRealEnd = roi.y + roi.height;
-      int yEnd = yRealEnd - n;
-      for (int i=roi.x; i <= xEnd - n - 1; i+=n2) {
-         for (int j=roi.y; j <= yEnd - n - 1; j+=n2) {
-            int mi = i;
-            int mj = j;
-            for (int i2=i; i2 < i + n2 && i2 < xRealEnd; i2++) {
-               for (int j2=j; j2 < j + n2 && j2 < yRealEnd; j2++) {
-                  // revert getPixel to get after debugging
-                  if (iProc.getPixel(i2, j2) > iProc.getPixel(mi, mj)) {
-                     mi = i2;
-                     mj = j2;
-                  }
-               }
-            }
-            // is the candidate really a local maximum?
-            // check surroundings (except for the pixels that we already checked)
-            boolean stop = false;
-            // columns in block to the left
-            if (mi - n < i && i>0) {
-               for (int i2=mi-n; i2<i; i2++) {
-                  for (int j2=mj-n; j2<=mj+n; j2++) {
-                     if (iProc.getPixel(i2, j2) > iProc.getPixel(mi, mj)) {
-                        stop = true;
-                     }
-                  }
-               }
-            }
-            // columns in block to the right
-            if (!stop && mi + n >= i + n2 ) {
-               for (int i2=i+n2; i2<=mi+n; i2++) {
-                   for (int j2=mj-n; j2<=mj+n; j2++) {
-                     if (iProc.getPixel(i2, j2) > iProc.getPixel(mi, mj)) {
-                        stop = true;
-                     }
-                  }
-               }
-            }
-            // rows on top of the block
-            if (!stop && mj - n < j && j > 0) {
-               for (int j2 = mj - n; j2 < j; j2++) {
-                  for (int i2 = mi - n; i2 <= mi + n; i2++) {
-                     if (iProc.getPixel(i2, j2) > iProc.getPixel(mi, mj))
-                        stop = true;
-                  }
-               }
+      return maxima;
+   }
+   
+   /**
+    * out[outOffset + j] = max of the box input elements starting at 
+    * input[offset + j], for j in 0..count
+    */
+   private static void slidingMax(int[] input, int offset, int count,
+           int box, Workspace ws, int[] out, int outOffset) {
+      if (box == 0) {
+         Arrays.fill(out, outOffset, outOffset + count, Integer.MIN_VALUE);
+         return;
+      }
+      int length = count + box - 1;
+      int[] g = ws.prefix(length);
+      int[] h = ws.suffix(length);
+      for (int start = 0; start < length; start += box) {
+         int end = Math.min(start + box, length);
+         g[start] = input[offset + start];
+         for (int i = start + 1; i < end; i++) {
+            g[i] = Math.max(g[i - 1], input[offset + i]);
+         }
+         h[end - 1] = input[offset + end - 1];
+         for (int i = end - 2; i >= start; i--) {
+            h[i] = Math.max(h[i + 1], input[offset + i]);
+         }
+      }
+      for (int j = 0; j < count; j++) {
+         out[outOffset + j] = Math.max(h[j], g[j + box - 1]);
+      }
+   }
+   
+   /**
+    * Same as slidingMax, but along the columns of a (count + box - 1) * nx 
+    * array, processing whole rows at a time
+    */
+   private static void slidingMaxColumns(int[] input, int nx, int count, 
+           int box, Workspace ws, int[] out) {
+      if (box == 0) {
+         Arrays.fill(out, 0, count * nx, Integer.MIN_VALUE);
+         return;
+      }
+      int length = count + box - 1;
+      int[] g = ws.prefix(length * nx);
+      int[] h = ws.suffix(length * nx);
+      for (int start = 0; start < length; start += box) {
+         int end = Math.min(start + box, length);
+         System.arraycopy(input, start * nx, g, start * nx, nx);
+         for (int i = start + 1; i < end; i++) {
+            for (int k = i * nx; k < (i + 1) * nx; k++) {
+               g[k] = Math.max(g[k - nx], input[k]);
             }
-            // rows below the block
-            if (!stop && mj + n >= j + n2) {
-               for (int j2 = j + n2; j2 <= mj + n; j2++) {
-                  for (int i2 = mi - n; i2 <= mi + n; i2++) {
-                     if (iProc.getPixel(i2, j2) > iProc.getPixel(mi, mj))
-                        stop = true;
-                  }
-               }
+         }
+         System.arraycopy(input, (end - 1) * nx, h, (end - 1) * nx, nx);
+         for (int i = end - 2; i >= start; i--) {
+            for (int k = i * nx; k < (i + 1) * nx; k++) {
+               h[k] = Math.max(h[k + nx], input[k]);
             }
-            if (!stop && (threshold == 0 || 
-                    (iProc.getPixel(mi, mj) - 
-                      ( (iProc.getPixel(mi - n , mj - n) + iProc.getPixel(mi -n, mj + n) +
-                       iProc.getPixel(mi + n, mj  - n) + iProc.getPixel(mi + n, mj + n)) / 4) ) 
-                    > threshold))
-               maxima.addPoint(mi, mj);
          }
       }
-*/
-
-      return maxima;
+      int shift = (box - 1) * nx;
+      for (int k = 0; k < count * nx; k++) {
+         out[k] = Math.max(h[k], g[k + shift]);
+      }
+   }
+   
+   
+   private static class Workspace {
+      final DoGFilter dog_ = new DoGFilter();
+      private int[] values_ = new int[0];
+      private int[] rowMax_ = new int[0];
+      private int[] colMax_ = new int[0];
+      private int[] prefix_ = new int[0];
+      private int[] suffix_ = new int[0];
+      
+      int[] values(int size) {
+         if (values_.length < size) {
+            values_ = new int[size];
+         }
+         return values_;
+      }
+      
+      int[] rowMax(int size) {
+         if (rowMax_.length < size) {
+            rowMax_ = new int[size];
+         }
+         return rowMax_;
+      }
+      
+      int[] colMax(int size) {
+         if (colMax_.length < size) {
+            colMax_ = new int[size];
+         }
+         return colMax_;
+      }
+      
+      int[] prefix(int size) {
+         if (prefix_.length < size) {
+            prefix_ = new int[size];
+         }
+         return prefix_;
+      }
+      
+      int[] suffix(int size) {
+         if (suffix_.length < size) {
+            suffix_ = new int[size];
+         }
+         return suffix_;
+      }
    }
 
 
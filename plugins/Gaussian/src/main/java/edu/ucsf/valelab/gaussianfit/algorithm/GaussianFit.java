@@ -32,9 +32,10 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.algorithm;
 
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+import edu.ucsf.valelab.gaussianfit.fitting.FittingException;
+import edu.ucsf.valelab.gaussianfit.fitting.GaussianLMFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianFunction;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianMLE;
-import edu.ucsf.valelab.gaussianfit.fitting.ParametricGaussianFunction;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import org.apache.commons.math.FunctionEvaluationException;
 import org.apache.commons.math.optimization.OptimizationException;
@@ -42,12 +43,8 @@ import org.apache.commons.math.optimization.direct.NelderMead;
 import org.apache.commons.math.optimization.RealPointValuePair;
 import org.apache.commons.math.optimization.SimpleScalarValueChecker;
 import org.apache.commons.math.optimization.GoalType;
-import org.apache.commons.math.optimization.fitting.CurveFitter;
 
 import ij.process.ImageProcessor;
-import org.apache.commons.math.optimization.VectorialConvergenceChecker;
-import org.apache.commons.math.optimization.VectorialPointValuePair;
-import org.apache.commons.math.optimization.general.LevenbergMarquardtOptimizer;
 import org.apache.commons.math.optimization.general.NonLinearConjugateGradientOptimizer;
 
 /**
@@ -113,7 +110,7 @@ public class GaussianFit {
    MultiVariateGaussianFunction mGF_;
    MultiVariateGaussianMLE mGFMLE_;
    NonLinearConjugateGradientOptimizer nlcgo_;
-   LevenbergMarquardtOptimizer lMO_;
+   GaussianLMFitter lmFitter_;
 
    
    /**
@@ -164,10 +161,10 @@ public class GaussianFit {
          mGF_ = new MultiVariateGaussianFunction(shape_, fixedWidth_);
       }
       // Levenberg-Marquardt and weighted Levenberg-Marquardt
+      // analytic Jacobians and a workspace reused for every spot fitted by
+      // this instance (GaussianFit instances are owned by a single thread)
       if (fitMode_ == LEVENBERGMARQUARD || fitMode == LEVENBERGMARQUARDMLE) {
-         lMO_ = new LevenbergMarquardtOptimizer();
-         LMChecker lmChecker = new LMChecker();
-         lMO_.setConvergenceChecker(lmChecker);
+         lmFitter_ = new GaussianLMFitter(shape_, fixedWidth_);
       }
       if (fitMode_ == NELDERMEADMLE) {
          nm_ = new NelderMead();
@@ -234,30 +231,11 @@ public class GaussianFit {
       }
 
       if (fitMode_ == LEVENBERGMARQUARD || fitMode_ == LEVENBERGMARQUARDMLE) {
-         
-         // lMO_.setMaxIterations(maxIterations);
-         CurveFitter cF = new CurveFitter(lMO_);
-         short[] pixels = (short[]) siProc.getPixels();
-         if (fitMode_ == LEVENBERGMARQUARD) {
-            for (int i = 0; i < pixels.length; i++) {
-               cF.addObservedPoint(i, (int) pixels[i] & 0xffff);
-            }
-         }
-         if (fitMode_ == LEVENBERGMARQUARDMLE) {
-            for (int i = 0; i < pixels.length; i++) {
-               double factor = ((int) pixels[i] & 0xffff) ;
-               cF.addObservedPoint(1 / factor, i, (int) pixels[i] & 0xffff);
-            }
-         }
          try {
-            paramsOut = cF.fit(new ParametricGaussianFunction( 
-                    shape_, siProc.getWidth(), fixedWidth_), 
-                  estimate.getParms());
-         } catch (FunctionEvaluationException ex) {
-            ReportingUtils.logError(ex);
-         } catch (OptimizationException ex) {
-            ReportingUtils.logError(ex);
-         } catch (IllegalArgumentException ex) {
+            paramsOut = lmFitter_.fit((short[]) siProc.getPixels(), 
+                    siProc.getWidth(), siProc.getHeight(), estimate.getParms(),
+                    fitMode_ == LEVENBERGMARQUARDMLE, maxIterations);
+         } catch (FittingException ex) {
             ReportingUtils.logError(ex);
          }
       }
@@ -376,39 +354,5 @@ public class GaussianFit {
       
       return new Data(params0_, signal, background);
    }
-   
-   
-   private class LMChecker implements VectorialConvergenceChecker {
-      
-      int iteration_ = 0;
-      boolean lastResult_ = false;
-      @Override
-      public boolean converged(int i, VectorialPointValuePair previous, 
-              VectorialPointValuePair current) {
-         if (i == iteration_)
-            return lastResult_;
-         
-         iteration_ = i;
-         double[] p = previous.getPoint();
-         double[] c = current.getPoint();
-         
-         boolean sOK = true;
-         if (!fixWidth_) {
-            sOK = Math.abs(p[S] - c[S]) < 5;
-         }
-         
-         if ( Math.abs(p[INT] - c[INT]) < 10  &&
-                 Math.abs(p[BGR] - c[BGR]) < 0.2 &&
-                 Math.abs(p[XC] - c[XC]) < 0.01 &&
-                 Math.abs(p[YC] - c[YC]) < 0.01 &&
-                  sOK) {
-            lastResult_ = true;
-            return true;
-         }
-         
-         lastResult_ = false;
-         return false;
-      }
-   }
 
 }
@@ -36,13 +36,13 @@ import ij.ImagePlus;
 import ij.process.ImageProcessor;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import org.micromanager.PropertyMap;
 
 /**
  *
  * @author nico
  */
 public class GaussianInfo {
-   protected static final Object GFSLOCK = new Object();
    protected ImagePlus siPlus_;
    protected ImageProcessor siProc_;
    protected BlockingQueue<SpotData> sourceList_;
@@ -274,4 +274,72 @@ public class GaussianInfo {
       setMaxIterations(source.getMaxIterations());
    }
    
+   /**
+    * Stores all settings in a PropertyMap, so that they can be used as the 
+    * settings of a pipeline processor
+    * @param builder - builder to which the settings will be added
+    * @return the same builder
+    */
+   public PropertyMap.PropertyMapBuilder addToPropertyMap(
+           PropertyMap.PropertyMapBuilder builder) {
+      builder.putDouble("baseLevel", getBaseLevel());
+      builder.putBoolean("endTrackBool", getEndTrackBool());
+      builder.putInt("endTrackAfterNFrames", getEndTrackAfterNFrames());
+      builder.putInt("fitMode", getFitMode());
+      builder.putDouble("fixedWidthNm", getFixedWidthNm());
+      builder.putDouble("gain", getGain());
+      builder.putInt("halfBoxSize", getHalfBoxSize());
+      builder.putInt("noiseTolerance", getNoiseTolerance());
+      builder.putDouble("nrPhotonsMax", getNrPhotonsMax());
+      builder.putDouble("nrPhotonsMin", getNrPhotonsMin());
+      builder.putDouble("photonConversionFactor", getPhotonConversionFactor());
+      builder.putDouble("pixelSize", (double) getPixelSize());
+      builder.putDouble("readNoise", getReadNoise());
+      builder.putInt("shape", getShape());
+      builder.putDouble("sigmaMax", getSigmaMax());
+      builder.putDouble("sigmaMin", getSigmaMin());
+      builder.putDouble("timeIntervalMs", getTimeIntervalMs());
+      builder.putBoolean("useFixedWidth", getUseFixedWidth());
+      builder.putBoolean("useNrPhotonsFilter", getUseNrPhotonsFilter());
+      builder.putBoolean("useWidthFilter", getUseWidthFilter());
+      builder.putDouble("zStackStepSize", (double) getZStackStepSize());
+      builder.putInt("maxIterations", getMaxIterations());
+      return builder;
+   }
+   
+   /**
+    * Reads settings stored with addToPropertyMap.  Settings missing from the
+    * map keep their current value.
+    * @param settings 
+    */
+   public void setFromPropertyMap(PropertyMap settings) {
+      setBaseLevel(settings.getDouble("baseLevel", getBaseLevel()));
+      setEndTrackBool(settings.getBoolean("endTrackBool", getEndTrackBool()));
+      setEndTrackAfterNFrames(settings.getInt("endTrackAfterNFrames", 
+              getEndTrackAfterNFrames()));
+      setFitMode(settings.getInt("fitMode", getFitMode()));
+      setFixedWidthNm(settings.getDouble("fixedWidthNm", getFixedWidthNm()));
+      setGain(settings.getDouble("gain", getGain()));
+      setHalfBoxSize(settings.getInt("halfBoxSize", getHalfBoxSize()));
+      setNoiseTolerance(settings.getInt("noiseTolerance", getNoiseTolerance()));
+      setNrPhotonsMax(settings.getDouble("nrPhotonsMax", getNrPhotonsMax()));
+      setNrPhotonsMin(settings.getDouble("nrPhotonsMin", getNrPhotonsMin()));
+      setPhotonConversionFactor(settings.getDouble("photonConversionFactor", 
+              getPhotonConversionFactor()));
+      setPixelSize(settings.getDouble("pixelSize", 
+              (double) getPixelSize()).floatValue());
+      setReadNoise(settings.getDouble("readNoise", getReadNoise()));
+      setShape(settings.getInt("shape", getShape()));
+      setSigmaMax(settings.getDouble("sigmaMax", getSigmaMax()));
+      setSigmaMin(settings.getDouble("sigmaMin", getSigmaMin()));
+      setTimeIntervalMs(settings.getDouble("timeIntervalMs", getTimeIntervalMs()));
+      setUseFixedWidth(settings.getBoolean("useFixedWidth", getUseFixedWidth()));
+      setUseNrPhotonsFilter(settings.getBoolean("useNrPhotonsFilter", 
+              getUseNrPhotonsFilter()));
+      setUseWidthFilter(settings.getBoolean("useWidthFilter", getUseWidthFilter()));
+      setZStackStepSize(settings.getDouble("zStackStepSize", 
+              (double) getZStackStepSize()).floatValue());
+      setMaxIterations(settings.getInt("maxIterations", getMaxIterations()));
+   }
+
 }
@@ -29,33 +29,24 @@ either expressed or implied, of the FreeBSD Project.
 
 package edu.ucsf.valelab.gaussianfit.data;
 
-import com.google.protobuf.ExtensionRegistry;
-import edu.ucsf.valelab.tsf.MMLocM;
 import edu.ucsf.valelab.tsf.TaggedSpotsProtos;
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.EXTENSION;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 import edu.ucsf.valelab.gaussianfit.LittleEndianDataInputStream;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
-import ij.process.ImageProcessor;
 import java.awt.Cursor;
 import java.awt.FileDialog;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFrame;
@@ -87,7 +78,7 @@ public class LoadAndSave {
          ij.IJ.showStatus("Loading data..");
          caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-         List<SpotData> spotList = new ArrayList<SpotData>();
+         SpotTable spotTable = new SpotTable();
 
          float pixelSize = (float) 160.0; // how do we get this from the file?
 
@@ -165,7 +156,7 @@ public class LoadAndSave {
                gsd.setData(intensity, b, pixelSize * xc, pixelSize * yc, 0.0, w, ax, phi, c);
                gsd.setZCenter(zc);
                gsd.setOriginalPosition(x, y, z);
-               spotList.add(gsd);
+               spotTable.add(gsd);
                nr++;
             }
          }
@@ -177,7 +168,7 @@ public class LoadAndSave {
                  setColColorRef("").setWidth(256).setHeight(256).
                  setPixelSizeNm(pixelSize).setZStackStepSizeNm(0.0f).
                  setShape(3).setHalfSize(2).setNrFrames(1).setNrSlices(1).
-                 setNrPositions(1).setMaxNrSpots(nr).setSpotList(spotList).
+                 setNrPositions(1).setMaxNrSpots(nr).setSpotTable(spotTable).
                  setIsTrack(false).setCoordinate(DataCollectionForm.Coordinates.NM).
                  setHasZ(hasZ).setMinZ(minZ).setMaxZ(maxZ);
          DataCollectionForm.getInstance().addSpotData(builder);
@@ -246,7 +237,7 @@ public class LoadAndSave {
          String head = fr.readLine();
          String[] headers = head.split("\t");
          String spot;
-         List<SpotData> spotList = new ArrayList<SpotData>();
+         SpotTable spotTable = new SpotTable();
          double maxZ = Double.NEGATIVE_INFINITY;
          double minZ = Double.POSITIVE_INFINITY;
 
@@ -299,7 +290,7 @@ public class LoadAndSave {
                   minZ = zc;
                }
             }
-            spotList.add(gsd);
+            spotTable.add(gsd);
 
          }
 
@@ -322,8 +313,8 @@ public class LoadAndSave {
                  setNrFrames(Integer.parseInt(infoMap.get("nr_frames"))).
                  setNrSlices(Integer.parseInt(infoMap.get("nr_slices"))).
                  setNrPositions(Integer.parseInt(infoMap.get("nr_pos"))).
-                 setMaxNrSpots(spotList.size()).
-                 setSpotList(spotList).
+                 setMaxNrSpots(spotTable.size()).
+                 setSpotTable(spotTable).
                  setCoordinate(DataCollectionForm.Coordinates.NM).
                  setHasZ(hasZ).setMinZ(minZ).setMaxZ(maxZ);
          DataCollectionForm.getInstance().addSpotData(builder);
@@ -352,34 +343,8 @@ public class LoadAndSave {
 
          caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-         FileInputStream fi = new FileInputStream(selectedFile);
-         DataInputStream di = new DataInputStream(fi);
-
-         // the new file format has an initial 0, then the offset (in long)
-         // to the position of spotList
-         int magic = di.readInt();
-         if (magic != 0) {
-            // reset and mark do not seem to work on my computer
-            fi.close();
-            fi = new FileInputStream(selectedFile);
-            psl = TaggedSpotsProtos.SpotList.parseDelimitedFrom(fi);
-         } else {
-            // TODO: evaluate after creating code writing this format
-            long offset = di.readLong();
-            fi.skip(offset);
-            psl = TaggedSpotsProtos.SpotList.parseDelimitedFrom(fi);
-            fi.close();
-            fi = new FileInputStream(selectedFile);
-            fi.skip(12); // size of int + size of long
-         }
-         ExtensionRegistry registry = ExtensionRegistry.newInstance();
-         int appId = psl.getApplicationId();
-         if (appId == MMAPPID) {
-            registry.add(MMLocM.intensityAperture);
-            registry.add(MMLocM.intensityBackground);
-            registry.add(MMLocM.intensityRatio);
-            registry.add(MMLocM.mSigma);
-         }
+         TSFReader reader = new TSFReader(selectedFile);
+         psl = reader.getSpotList();
          String name = psl.getName();
          String title = psl.getName();
          int width = psl.getNrPixelsX();
@@ -397,53 +362,12 @@ public class LoadAndSave {
          int nrSlices = psl.getNrSlices();
          int nrPositions = psl.getNrPos();
          boolean isTrack = psl.getIsTrack();
-         long expectedSpots = psl.getNrSpots();
-         long esf = expectedSpots / 100;
-         long maxNrSpots = 0;
-         boolean hasZ = false;
-         double maxZ = Double.NEGATIVE_INFINITY;
-         double minZ = Double.POSITIVE_INFINITY;
-
-         ArrayList<SpotData> spotList = new ArrayList<SpotData>();
-         TaggedSpotsProtos.Spot pSpot;
-         while (fi.available() > 0 && (expectedSpots == 0 || maxNrSpots < expectedSpots)) {
 
-            pSpot = TaggedSpotsProtos.Spot.parseDelimitedFrom(fi, registry);
-
-            SpotData gSpot = new SpotData((ImageProcessor) null, pSpot.getChannel(),
-                    pSpot.getSlice(), pSpot.getFrame(), pSpot.getPos(),
-                    pSpot.getMolecule(), pSpot.getXPosition(), pSpot.getYPosition());
-            gSpot.setData(pSpot.getIntensity(), pSpot.getBackground(), pSpot.getX(),
-                    pSpot.getY(), 0.0, pSpot.getWidth(), pSpot.getA(), pSpot.getTheta(),
-                    pSpot.getXPrecision());
-            if (appId == MMAPPID) {
-               gSpot.addKeyValue(SpotData.Keys.APERTUREINTENSITY, 
-                       pSpot.getExtension(MMLocM.intensityAperture));
-               gSpot.addKeyValue(SpotData.Keys.APERTUREBACKGROUND, 
-                       pSpot.getExtension(MMLocM.intensityBackground));
-               gSpot.addKeyValue(SpotData.Keys.INTENSITYRATIO, 
-                       pSpot.getExtension(MMLocM.intensityRatio));
-               gSpot.addKeyValue(SpotData.Keys.MSIGMA, 
-                       pSpot.getExtension(MMLocM.mSigma));
-            }
-            if (pSpot.hasZ()) {
-               double zc = pSpot.getZ();
-               gSpot.setZCenter(zc);
-               hasZ = true;
-               if (zc > maxZ) {
-                  maxZ = zc;
-               }
-               if (zc < minZ) {
-                  minZ = zc;
-               }
-            }
-            maxNrSpots++;
-            if ((esf > 0) && ((maxNrSpots % esf) == 0)) {
-               ij.IJ.showProgress((double) maxNrSpots / (double) expectedSpots);
-            }
-
-            spotList.add(gSpot);
-         }
+         SpotTable spotTable = reader.readSpots();
+         long maxNrSpots = spotTable.size();
+         boolean hasZ = reader.hasZ();
+         double minZ = reader.getMinZ();
+         double maxZ = reader.getMaxZ();
 
          RowData.Builder builder = new RowData.Builder();
          builder.setName(name).setTitle(title).setWidth(width).setHeight(height).
@@ -451,7 +375,7 @@ public class LoadAndSave {
                  setHalfSize(halfSize).setNrChannels(nrChannels).
                  setNrFrames(nrFrames).setNrSlices(nrSlices).
                  setNrPositions(nrPositions).setMaxNrSpots(maxNrSpots).
-                 setSpotList(spotList).setIsTrack(isTrack).
+                 setSpotTable(spotTable).setIsTrack(isTrack).
                  setCoordinate(DataCollectionForm.Coordinates.NM).
                  setHasZ(hasZ).setMinZ(minZ).setMaxZ(maxZ);
          DataCollectionForm.getInstance().addSpotData(builder);
@@ -507,110 +431,28 @@ public class LoadAndSave {
          @Override
          public void run() {
             for (int rowNr = 0; rowNr < rowData.length; rowNr++) {
-            TaggedSpotsProtos.SpotList.Builder tspBuilder = TaggedSpotsProtos.SpotList.newBuilder();
-            tspBuilder.setApplicationId(MMAPPID).
-                    setName(rowData[rowNr].getName()).
-                    setFilepath(rowData[rowNr].title_).
-                    setNrPixelsX(rowData[rowNr].width_).
-                    setNrPixelsY(rowData[rowNr].height_).
-                    setNrSpots(rowData[rowNr].spotList_.size()).
-                    setPixelSize(rowData[rowNr].pixelSizeNm_).
-                    setBoxSize(rowData[rowNr].halfSize_ * 2).
-                    setNrChannels(rowData[rowNr].nrChannels_).
-                    setNrSlices(rowData[rowNr].nrSlices_).
-                    setIsTrack(rowData[rowNr].isTrack_).
-                    setNrPos(rowData[rowNr].nrPositions_).
-                    setNrFrames(rowData[rowNr].nrFrames_).
-                    setLocationUnits(TaggedSpotsProtos.LocationUnits.NM).
-                    setIntensityUnits(TaggedSpotsProtos.IntensityUnits.PHOTONS).
-                    setNrSpots(rowData[rowNr].maxNrSpots_);
-            switch (rowData[rowNr].shape_) {
-               case (1):
-                  tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.ONEAXIS);
-                  break;
-               case (2):
-                  tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXIS);
-                  break;
-               case (3):
-                  tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXISANDTHETA);
-                  break;
-            }
-
-
-            TaggedSpotsProtos.SpotList spotList = tspBuilder.build();
             try {
                caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-               FileOutputStream fo;
-               if (rowNr == 0) {
-                  fo = new FileOutputStream(selectedFile);
-               } else {
+               File file = selectedFile;
+               if (rowNr != 0) {
                   String[] nameParts = rowData[rowNr].getName().split(File.separator);
                   String tmpName = nameParts[nameParts.length - 1];
-                  fo = new FileOutputStream(new File(fdir + File.separator + tmpName + EXTENSION));
+                  file = new File(fdir + File.separator + tmpName + EXTENSION);
                }
-               // write space for magic nr and offset to spotList
-               for (int i = 0; i < 12; i++) {
-                  fo.write(0);
-               }
-
-               int counter = 0;
-               for (SpotData gd : rowData[rowNr].spotList_) {
-
-                  if ((counter % 1000) == 0) {
-                     ij.IJ.showStatus("Saving spotData...");
-                     ij.IJ.showProgress(counter, rowData[rowNr].spotList_.size());
-                  }
-
-                  if (gd != null) {
-                     TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
-                     // TODO: precede all these calls with check for presence of member
-                     // or be OK with default values?
-                     spotBuilder.setMolecule(counter).
-                             setFrame(gd.getFrame()).
-                             setChannel(gd.getChannel()).
-                             setPos(gd.getPosition()).
-                             setSlice(gd.getSlice()).
-                             setX((float) gd.getXCenter()).
-                             setY((float) gd.getYCenter()).
-                             setIntensity((float) gd.getIntensity()).
-                             setBackground((float) gd.getBackground()).
-                             setXPosition(gd.getX()).
-                             setYPosition(gd.getY()).
-                             setWidth((float) gd.getWidth()).
-                             setA((float) gd.getA()).
-                             setTheta((float) gd.getTheta()).
-                             setXPrecision((float) gd.getSigma()).
-                             setExtension(MMLocM.intensityAperture, 
-                                  gd.getValue(SpotData.Keys.APERTUREINTENSITY).floatValue()).
-                             setExtension(MMLocM.intensityBackground, 
-                                  gd.getValue(SpotData.Keys.APERTUREBACKGROUND).floatValue()).
-                             setExtension(MMLocM.intensityRatio, 
-                                  gd.getValue(SpotData.Keys.INTENSITYRATIO).floatValue()).
-                             setExtension(MMLocM.mSigma, 
-                                  gd.getValue(SpotData.Keys.MSIGMA).floatValue());
-                     if (rowData[rowNr].hasZ_) {
-                        spotBuilder.setZ((float) gd.getZCenter());
-                     }
-
-                     TaggedSpotsProtos.Spot spot = spotBuilder.build();
-                     
-                     // write message size and message
-                     spot.writeDelimitedTo(fo);
-                     counter++;
-                  }
+               TSFWriter writer = new TSFWriter(file, rowData[rowNr].hasZ_);
+
+               SpotTable spotTable = rowData[rowNr].spotTable_;
+               ij.IJ.showStatus("Saving spotData...");
+               // write in large steps, each of which is encoded in parallel
+               int step = 1 << 20;
+               for (int counter = 0; counter < spotTable.size(); counter += step) {
+                  ij.IJ.showProgress(counter, spotTable.size());
+                  writer.addSpots(spotTable, counter, 
+                          Math.min(counter + step, spotTable.size()));
                }
 
-               FileChannel fc = fo.getChannel();
-               long offset = fc.position();
-               spotList.writeDelimitedTo(fo);
-
-               // now go back to write offset to the stream
-               fc.position(4);
-               DataOutputStream dos = new DataOutputStream(fo);
-               dos.writeLong(offset - 12);
-
-               fo.close();
+               writer.finish(rowData[rowNr]);
 
                ij.IJ.showProgress(1);
                ij.IJ.showStatus("Finished saving spotData...");
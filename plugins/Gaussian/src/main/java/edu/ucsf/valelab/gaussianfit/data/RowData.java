@@ -65,6 +65,7 @@ public class RowData {
       private int nrPositions_ = 1;
       private long maxNrSpots_;
       private List<SpotData> spotList_;
+      private SpotTable spotTable_;
       private ArrayList<Double> timePoints_;
       private boolean isTrack_;
       private Coordinates coordinate_ = Coordinates.NM;
@@ -153,6 +154,17 @@ public class RowData {
 
       public Builder setSpotList(List<SpotData> spotList) {
          spotList_ = spotList;
+         spotTable_ = null;
+         return this;
+      }
+
+      /**
+       * Alternative to setSpotList that avoids creating SpotData objects.
+       * The table will be sealed when the RowData is built.
+       */
+      public Builder setSpotTable(SpotTable spotTable) {
+         spotTable_ = spotTable;
+         spotList_ = null;
          return this;
       }
 
@@ -188,9 +200,11 @@ public class RowData {
 
    }
 
-   public final List<SpotData> spotList_;
+   public final SpotTable spotTable_;  // the spots of this dataset
+   public final List<SpotData> spotList_; // read-only view of spotTable_
    private Map<Integer, List<SpotData>> frameIndexSpotList_;
    private Map<ImageIndex, List<SpotData>> indexedSpotList_;
+   private Map<ImageIndex, int[]> indexedRows_;
    public final ArrayList<Double> timePoints_;
    private String name_;             // name as it appears in the DataCollection table
    public final String title_;      // ImagePlus title of the image
@@ -237,7 +251,12 @@ public class RowData {
       nrSlices_ = b.nrSlices_;
       nrPositions_ = b.nrPositions_;
       maxNrSpots_ = b.maxNrSpots_;
-      spotList_ = new ArrayList<SpotData>(b.spotList_);
+      if (b.spotTable_ != null) {
+         spotTable_ = b.spotTable_.seal();
+      } else {
+         spotTable_ = SpotTable.fromList(b.spotList_).seal();
+      }
+      spotList_ = spotTable_.asList();
       if (b.timePoints_ != null) {
          timePoints_ = new ArrayList<Double>(b.timePoints_);
       } else {
@@ -261,13 +280,11 @@ public class RowData {
          stdX = stdPoint.x;
          stdY = stdPoint.y;
          std = Math.sqrt(stdX * stdX + stdY * stdY);
-         for (SpotData spot : spotList_) {
-            nrPhotons += spot.getIntensity();
-         }
          List<Integer> channelList = new ArrayList<Integer>();
-         for (SpotData spot : spotList_) {
-            if (!channelList.contains(spot.getChannel()) ) {
-               channelList.add(spot.getChannel());
+         for (int i = 0; i < spotTable_.size(); i++) {
+            nrPhotons += spotTable_.getIntensity(i);
+            if (!channelList.contains(spotTable_.getChannel(i)) ) {
+               channelList.add(spotTable_.getChannel(i));
             }
          }
          for (Integer i : channelList) {
@@ -293,7 +310,7 @@ public class RowData {
               setShape(shape_).setHalfSize(halfSize_).setNrChannels(nrChannels_).
               setNrFrames(nrFrames_).setNrSlices(nrSlices_).
               setNrPositions(nrPositions_).setMaxNrSpots(maxNrSpots_).
-              setSpotList(spotList_).setTimePoints(timePoints_).
+              setSpotTable(spotTable_).setTimePoints(timePoints_).
               setIsTrack(isTrack_).setCoordinate(coordinate_).setHasZ(hasZ_).
               setMinZ(minZ_).setMaxZ(maxZ_);
       return builder;
@@ -301,6 +318,8 @@ public class RowData {
    
    /**
     * Populates the list frameIndexSpotList which gives access to spots by frame
+    * Lists are views on the spot table, so the index only costs two ints 
+    * per spot
     */
    public void index() {
       boolean useFrames = nrFrames_ > nrSlices_;
@@ -309,26 +328,50 @@ public class RowData {
          nr = nrFrames_;
       }
 
-      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(nr);
-      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>();
-
-      for (SpotData spot : spotList_) {
-         int frameIndex = spot.getSlice();
-         if (useFrames) {
-            frameIndex = spot.getFrame();
+      // count first, so that the row arrays can be allocated at their final size
+      Map<Integer, int[]> frameRows = new HashMap<Integer, int[]>(nr);
+      Map<ImageIndex, int[]> imageRows = new HashMap<ImageIndex, int[]>();
+      for (int pass = 0; pass < 2; pass++) {
+         Map<Integer, Integer> frameFill = new HashMap<Integer, Integer>(nr);
+         Map<ImageIndex, Integer> imageFill = new HashMap<ImageIndex, Integer>();
+         for (int i = 0; i < spotTable_.size(); i++) {
+            int frameIndex = spotTable_.getSlice(i);
+            if (useFrames) {
+               frameIndex = spotTable_.getFrame(i);
+            }
+            ImageIndex ii = new ImageIndex(spotTable_.getFrame(i), 
+                    spotTable_.getSlice(i), spotTable_.getChannel(i), 
+                    spotTable_.getPosition(i));
+            Integer frameCount = frameFill.get(frameIndex);
+            frameCount = frameCount == null ? 0 : frameCount;
+            Integer imageCount = imageFill.get(ii);
+            imageCount = imageCount == null ? 0 : imageCount;
+            if (pass == 1) {
+               frameRows.get(frameIndex)[frameCount] = i;
+               imageRows.get(ii)[imageCount] = i;
+            }
+            frameFill.put(frameIndex, frameCount + 1);
+            imageFill.put(ii, imageCount + 1);
          }
-         if (frameIndexSpotList_.get(frameIndex) == null) {
-            frameIndexSpotList_.put(frameIndex, new ArrayList<SpotData>());
+         if (pass == 0) {
+            for (Map.Entry<Integer, Integer> entry : frameFill.entrySet()) {
+               frameRows.put(entry.getKey(), new int[entry.getValue()]);
+            }
+            for (Map.Entry<ImageIndex, Integer> entry : imageFill.entrySet()) {
+               imageRows.put(entry.getKey(), new int[entry.getValue()]);
+            }
          }
-         frameIndexSpotList_.get(frameIndex).add(spot);
+      }
 
-         ImageIndex ii = new ImageIndex(spot.getFrame(), spot.getSlice(),
-                 spot.getChannel(), spot.getPosition());
-         if (indexedSpotList_.get(ii) == null) {
-            indexedSpotList_.put(ii, new ArrayList<SpotData>());
-         }
-         indexedSpotList_.get(ii).add(spot);
+      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(frameRows.size());
+      for (Map.Entry<Integer, int[]> entry : frameRows.entrySet()) {
+         frameIndexSpotList_.put(entry.getKey(), spotTable_.asList(entry.getValue()));
+      }
+      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>(imageRows.size());
+      for (Map.Entry<ImageIndex, int[]> entry : imageRows.entrySet()) {
+         indexedSpotList_.put(entry.getKey(), spotTable_.asList(entry.getValue()));
       }
+      indexedRows_ = imageRows;
    }
    
    public Map<Integer, List<SpotData>> getSpotListIndexedByFrame () {
@@ -346,6 +389,23 @@ public class RowData {
       }
       return indexedSpotList_.get(ii);
    }
+   
+   /**
+    * Same as get(frame, slice, channel, position), but returns the indices 
+    * of the spots in spotTable_.  The spot lists return the same SpotData 
+    * instance for a row as long as it is referenced, but rows avoid creating 
+    * SpotData objects altogether.
+    * 
+    * @return rows in spotTable_ of the spots in the given image, or null 
+    *          when there are none
+    */
+   public int[] getRows(int frame, int slice, int channel, int position) {
+      ImageIndex ii = new ImageIndex(frame, slice, channel, position);
+      if (indexedRows_ == null) {
+         index();
+      }
+      return indexedRows_.get(ii);
+   }
 
    /**
     * Return the first spot with desired properties or null if not found Uses
@@ -359,10 +419,11 @@ public class RowData {
     * @return desired spot or null if not found
     */
    public SpotData get(int frame, int channel, double xPos, double yPos) {
-      for (SpotData spot : spotList_) {
-         if (spot.getFrame() == frame && spot.getChannel() == channel
-                 && spot.getXCenter() == xPos && spot.getYCenter() == yPos) {
-            return spot;
+      for (int i = 0; i < spotTable_.size(); i++) {
+         if (spotTable_.getFrame(i) == frame && spotTable_.getChannel(i) == channel
+                 && spotTable_.getXCenter(i) == xPos 
+                 && spotTable_.getYCenter(i) == yPos) {
+            return spotTable_.getSpot(i);
          }
       }
 
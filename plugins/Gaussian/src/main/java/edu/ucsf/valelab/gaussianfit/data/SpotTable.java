@@ -0,0 +1,677 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Column-oriented storage for the spots of a dataset.  Every SpotData field 
+ * is kept in its own primitive array (ints for indices, doubles for all fit 
+ * results, as in SpotData), so that a spot costs about 130 bytes rather 
+ * than a SpotData object (plus its key/value map) per spot.  Key/value 
+ * pairs are stored as extra columns that are only created for keys that 
+ * occur in the data.  The image of the spot is not stored.
+ * 
+ * Spots can be appended until the table is sealed (RowData seals the tables 
+ * it uses), after which the table is immutable and can be shared.  
+ * asList() provides SpotData views for code that works with lists of 
+ * SpotData.  The SpotData of a row of a sealed table is created when it is 
+ * first asked for, and the same instance is returned (from any view) for as 
+ * long as it is referenced elsewhere, so that code comparing spots by 
+ * identity keeps working.  Code that touches many spots should still use 
+ * the per-row getters instead.
+ */
+public class SpotTable {
+   
+   /**
+    * Columns that can be used to sort the table
+    */
+   public enum Column {
+      FRAME, SLICE, CHANNEL, POSITION, XCENTER, YCENTER, ZCENTER, 
+      INTENSITY, BACKGROUND, WIDTH, SIGMA
+   }
+   
+   private static class ExtraColumn {
+      double[] values_;
+      final BitSet present_ = new BitSet();
+      
+      ExtraColumn(int capacity) {
+         values_ = new double[capacity];
+      }
+   }
+   
+   private int size_ = 0;
+   private boolean sealed_ = false;
+   private int[] frame_;
+   private int[] channel_;
+   private int[] slice_;
+   private int[] position_;
+   private int[] nr_;
+   private int[] x_;
+   private int[] y_;
+   private int[] nrLinks_;
+   private int[] originalFrame_;
+   private double[] xCenter_;
+   private double[] yCenter_;
+   private double[] zCenter_;
+   private double[] xOri_;
+   private double[] yOri_;
+   private double[] zOri_;
+   private double[] intensity_;
+   private double[] background_;
+   private double[] width_;
+   private double[] a_;
+   private double[] theta_;
+   private double[] sigma_;
+   private final Map<String, ExtraColumn> extras_ = 
+           new LinkedHashMap<String, ExtraColumn>();
+   // SpotData handed out for the rows of a sealed table, created on first use
+   private volatile AtomicReferenceArray<RowReference> handedOut_;
+   private final ReferenceQueue<SpotData> collected_ = 
+           new ReferenceQueue<SpotData>();
+   
+   private static class RowReference extends WeakReference<SpotData> {
+      final int row_;
+      
+      RowReference(SpotData spot, int row, ReferenceQueue<SpotData> queue) {
+         super(spot, queue);
+         row_ = row;
+      }
+   }
+   
+   public SpotTable() {
+      this(16);
+   }
+   
+   public SpotTable(int capacity) {
+      allocate(Math.max(1, capacity));
+   }
+   
+   /**
+    * Creates a table holding the given spots.  When the list is a view of 
+    * a complete sealed table, that table is returned without copying.
+    * 
+    * @param spots list of spots, may be null
+    * @return table with the given spots
+    */
+   public static SpotTable fromList(List<SpotData> spots) {
+      if (spots instanceof SpotListView) {
+         SpotListView view = (SpotListView) spots;
+         if (view.rows_ == null && view.table_.sealed_) {
+            return view.table_;
+         }
+      }
+      if (spots == null) {
+         return new SpotTable();
+      }
+      SpotTable table = new SpotTable(spots.size());
+      for (SpotData spot : spots) {
+         table.add(spot);
+      }
+      return table;
+   }
+
+   private void allocate(int capacity) {
+      frame_ = new int[capacity];
+      channel_ = new int[capacity];
+      slice_ = new int[capacity];
+      position_ = new int[capacity];
+      nr_ = new int[capacity];
+      x_ = new int[capacity];
+      y_ = new int[capacity];
+      nrLinks_ = new int[capacity];
+      originalFrame_ = new int[capacity];
+      xCenter_ = new double[capacity];
+      yCenter_ = new double[capacity];
+      zCenter_ = new double[capacity];
+      xOri_ = new double[capacity];
+      yOri_ = new double[capacity];
+      zOri_ = new double[capacity];
+      intensity_ = new double[capacity];
+      background_ = new double[capacity];
+      width_ = new double[capacity];
+      a_ = new double[capacity];
+      theta_ = new double[capacity];
+      sigma_ = new double[capacity];
+   }
+   
+   private void resize(int capacity) {
+      frame_ = Arrays.copyOf(frame_, capacity);
+      channel_ = Arrays.copyOf(channel_, capacity);
+      slice_ = Arrays.copyOf(slice_, capacity);
+      position_ = Arrays.copyOf(position_, capacity);
+      nr_ = Arrays.copyOf(nr_, capacity);
+      x_ = Arrays.copyOf(x_, capacity);
+      y_ = Arrays.copyOf(y_, capacity);
+      nrLinks_ = Arrays.copyOf(nrLinks_, capacity);
+      originalFrame_ = Arrays.copyOf(originalFrame_, capacity);
+      xCenter_ = Arrays.copyOf(xCenter_, capacity);
+      yCenter_ = Arrays.copyOf(yCenter_, capacity);
+      zCenter_ = Arrays.copyOf(zCenter_, capacity);
+      xOri_ = Arrays.copyOf(xOri_, capacity);
+      yOri_ = Arrays.copyOf(yOri_, capacity);
+      zOri_ = Arrays.copyOf(zOri_, capacity);
+      intensity_ = Arrays.copyOf(intensity_, capacity);
+      background_ = Arrays.copyOf(background_, capacity);
+      width_ = Arrays.copyOf(width_, capacity);
+      a_ = Arrays.copyOf(a_, capacity);
+      theta_ = Arrays.copyOf(theta_, capacity);
+      sigma_ = Arrays.copyOf(sigma_, capacity);
+      for (ExtraColumn column : extras_.values()) {
+         column.values_ = Arrays.copyOf(column.values_, capacity);
+      }
+   }
+   
+   /**
+    * Appends a copy of the data in the given spot
+    * 
+    * @param spot spot to be added
+    */
+   public void add(SpotData spot) {
+      if (sealed_) {
+         throw new UnsupportedOperationException("SpotTable is sealed");
+      }
+      if (size_ == frame_.length) {
+         resize(Math.max(16, frame_.length + (frame_.length >> 1)));
+      }
+      int i = size_;
+      frame_[i] = spot.getFrame();
+      channel_[i] = spot.getChannel();
+      slice_[i] = spot.getSlice();
+      position_[i] = spot.getPosition();
+      nr_[i] = spot.getNr();
+      x_[i] = spot.getX();
+      y_[i] = spot.getY();
+      nrLinks_[i] = spot.nrLinks_;
+      originalFrame_[i] = spot.originalFrame_;
+      xCenter_[i] = spot.getXCenter();
+      yCenter_[i] = spot.getYCenter();
+      zCenter_[i] = spot.getZCenter();
+      xOri_[i] = spot.getXOri();
+      yOri_[i] = spot.geYOri();
+      zOri_[i] = spot.getZOri();
+      intensity_[i] = spot.getIntensity();
+      background_[i] = spot.getBackground();
+      width_[i] = spot.getWidth();
+      a_[i] = spot.getA();
+      theta_[i] = spot.getTheta();
+      sigma_[i] = spot.getSigma();
+      for (String key : spot.getKeys()) {
+         ExtraColumn column = extras_.get(key);
+         if (column == null) {
+            column = new ExtraColumn(frame_.length);
+            extras_.put(key, column);
+         }
+         column.values_[i] = spot.getValue(key);
+         column.present_.set(i);
+      }
+      size_++;
+   }
+   
+   /**
+    * Appends a spot without going through a SpotData, for code that decodes
+    * large numbers of spots.  Original positions are set to zero.
+    * 
+    * @return row index of the new spot
+    */
+   public int add(int frame, int channel, int slice, int position, int nr, 
+           int x, int y, double xCenter, double yCenter, double zCenter,
+           double intensity, double background, double width, double a, 
+           double theta, double sigma) {
+      if (sealed_) {
+         throw new UnsupportedOperationException("SpotTable is sealed");
+      }
+      if (size_ == frame_.length) {
+         resize(Math.max(16, frame_.length + (frame_.length >> 1)));
+      }
+      int i = size_;
+      frame_[i] = frame;
+      channel_[i] = channel;
+      slice_[i] = slice;
+      position_[i] = position;
+      nr_[i] = nr;
+      x_[i] = x;
+      y_[i] = y;
+      nrLinks_[i] = 0;
+      originalFrame_[i] = 0;
+      xCenter_[i] = xCenter;
+      yCenter_[i] = yCenter;
+      zCenter_[i] = zCenter;
+      xOri_[i] = 0.0;
+      yOri_[i] = 0.0;
+      zOri_[i] = 0.0;
+      intensity_[i] = intensity;
+      background_[i] = background;
+      width_[i] = width;
+      a_[i] = a;
+      theta_[i] = theta;
+      sigma_[i] = sigma;
+      size_++;
+      return i;
+   }
+   
+   /**
+    * Sets the value of a key for a spot that was already added
+    * 
+    * @param key name of the key
+    * @param row index of the spot in this table
+    * @param value value to be stored
+    */
+   public void setValue(String key, int row, double value) {
+      if (sealed_) {
+         throw new UnsupportedOperationException("SpotTable is sealed");
+      }
+      if (row < 0 || row >= size_) {
+         throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size_);
+      }
+      ExtraColumn column = extras_.get(key);
+      if (column == null) {
+         column = new ExtraColumn(frame_.length);
+         extras_.put(key, column);
+      }
+      column.values_[row] = value;
+      column.present_.set(row);
+   }
+   
+   /**
+    * Moves a spot that was already added
+    * 
+    * @param row index of the spot in this table
+    * @param xCenter new x position
+    * @param yCenter new y position
+    */
+   public void setXYCenter(int row, double xCenter, double yCenter) {
+      if (sealed_) {
+         throw new UnsupportedOperationException("SpotTable is sealed");
+      }
+      if (row < 0 || row >= size_) {
+         throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size_);
+      }
+      xCenter_[row] = xCenter;
+      yCenter_[row] = yCenter;
+   }
+   
+   /**
+    * Appends copies of all spots in another table
+    *
+    * @param other table with spots to be added
+    */
+   public void addAll(SpotTable other) {
+      if (sealed_) {
+         throw new UnsupportedOperationException("SpotTable is sealed");
+      }
+      int n = other.size_;
+      int i = size_;
+      if (i + n > frame_.length) {
+         resize(Math.max(i + n, frame_.length + (frame_.length >> 1)));
+      }
+      System.arraycopy(other.frame_, 0, frame_, i, n);
+      System.arraycopy(other.channel_, 0, channel_, i, n);
+      System.arraycopy(other.slice_, 0, slice_, i, n);
+      System.arraycopy(other.position_, 0, position_, i, n);
+      System.arraycopy(other.nr_, 0, nr_, i, n);
+      System.arraycopy(other.x_, 0, x_, i, n);
+      System.arraycopy(other.y_, 0, y_, i, n);
+      System.arraycopy(other.nrLinks_, 0, nrLinks_, i, n);
+      System.arraycopy(other.originalFrame_, 0, originalFrame_, i, n);
+      System.arraycopy(other.xCenter_, 0, xCenter_, i, n);
+      System.arraycopy(other.yCenter_, 0, yCenter_, i, n);
+      System.arraycopy(other.zCenter_, 0, zCenter_, i, n);
+      System.arraycopy(other.xOri_, 0, xOri_, i, n);
+      System.arraycopy(other.yOri_, 0, yOri_, i, n);
+      System.arraycopy(other.zOri_, 0, zOri_, i, n);
+      System.arraycopy(other.intensity_, 0, intensity_, i, n);
+      System.arraycopy(other.background_, 0, background_, i, n);
+      System.arraycopy(other.width_, 0, width_, i, n);
+      System.arraycopy(other.a_, 0, a_, i, n);
+      System.arraycopy(other.theta_, 0, theta_, i, n);
+      System.arraycopy(other.sigma_, 0, sigma_, i, n);
+      for (Map.Entry<String, ExtraColumn> entry : other.extras_.entrySet()) {
+         ExtraColumn source = entry.getValue();
+         ExtraColumn target = extras_.get(entry.getKey());
+         if (target == null) {
+            target = new ExtraColumn(frame_.length);
+            extras_.put(entry.getKey(), target);
+         }
+         System.arraycopy(source.values_, 0, target.values_, i, n);
+         for (int j = source.present_.nextSetBit(0); j >= 0 && j < n;
+                 j = source.present_.nextSetBit(j + 1)) {
+            target.present_.set(i + j);
+         }
+      }
+      size_ += n;
+   }
+
+   /**
+    * Trims the columns to size and makes the table immutable
+    * 
+    * @return this table
+    */
+   public SpotTable seal() {
+      if (!sealed_) {
+         if (frame_.length != size_) {
+            resize(size_);
+         }
+         sealed_ = true;
+      }
+      return this;
+   }
+   
+   public boolean isSealed() {
+      return sealed_;
+   }
+
+   public int size() {
+      return size_;
+   }
+   
+   public int getFrame(int row) {
+      return frame_[row];
+   }
+   public int getSlice(int row) {
+      return slice_[row];
+   }
+   public int getChannel(int row) {
+      return channel_[row];
+   }
+   public int getPosition(int row) {
+      return position_[row];
+   }
+   public int getX(int row) {
+      return x_[row];
+   }
+   public int getY(int row) {
+      return y_[row];
+   }
+   public double getXCenter(int row) {
+      return xCenter_[row];
+   }
+   public double getYCenter(int row) {
+      return yCenter_[row];
+   }
+   public double getZCenter(int row) {
+      return zCenter_[row];
+   }
+   public double getIntensity(int row) {
+      return intensity_[row];
+   }
+   public double getBackground(int row) {
+      return background_[row];
+   }
+   public double getWidth(int row) {
+      return width_[row];
+   }
+   public double getA(int row) {
+      return a_[row];
+   }
+   public double getTheta(int row) {
+      return theta_[row];
+   }
+   public double getSigma(int row) {
+      return sigma_[row];
+   }
+   
+   public boolean hasKey(String key, int row) {
+      ExtraColumn column = extras_.get(key);
+      return column != null && column.present_.get(row);
+   }
+   
+   /**
+    * @return value for the given key, or null when this spot has no such key
+    */
+   public Double getValue(String key, int row) {
+      ExtraColumn column = extras_.get(key);
+      if (column == null || !column.present_.get(row)) {
+         return null;
+      }
+      return column.values_[row];
+   }
+   
+   /**
+    * SpotData holding the data of the given row.  For a sealed table this is 
+    * the same instance for as long as the spot is referenced elsewhere, for 
+    * tables that are still being filled a new SpotData is created every time.
+    * 
+    * @param row index of the spot in this table
+    * @return SpotData of the given row
+    */
+   public SpotData getSpot(int row) {
+      if (row < 0 || row >= size_) {
+         throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size_);
+      }
+      if (!sealed_) {
+         return createSpot(row);
+      }
+      AtomicReferenceArray<RowReference> handedOut = handedOut();
+      // forget references to spots that are no longer used
+      RowReference collected;
+      while ((collected = (RowReference) collected_.poll()) != null) {
+         handedOut.compareAndSet(collected.row_, collected, null);
+      }
+      while (true) {
+         RowReference ref = handedOut.get(row);
+         SpotData spot = ref == null ? null : ref.get();
+         if (spot != null) {
+            return spot;
+         }
+         spot = createSpot(row);
+         if (handedOut.compareAndSet(row, ref, 
+                 new RowReference(spot, row, collected_))) {
+            return spot;
+         }
+      }
+   }
+   
+   private AtomicReferenceArray<RowReference> handedOut() {
+      AtomicReferenceArray<RowReference> handedOut = handedOut_;
+      if (handedOut == null) {
+         synchronized (this) {
+            if (handedOut_ == null) {
+               handedOut_ = new AtomicReferenceArray<RowReference>(size_);
+            }
+            handedOut = handedOut_;
+         }
+      }
+      return handedOut;
+   }
+   
+   private SpotData createSpot(int row) {
+      SpotData spot = new SpotData(null, channel_[row], slice_[row], 
+              frame_[row], position_[row], nr_[row], x_[row], y_[row]);
+      spot.setData(intensity_[row], background_[row], xCenter_[row], 
+              yCenter_[row], zCenter_[row], width_[row], a_[row], theta_[row],
+              sigma_[row]);
+      spot.setZCenter(zCenter_[row]);
+      spot.setOriginalPosition(xOri_[row], yOri_[row], zOri_[row]);
+      spot.nrLinks_ = nrLinks_[row];
+      spot.originalFrame_ = originalFrame_[row];
+      for (Map.Entry<String, ExtraColumn> entry : extras_.entrySet()) {
+         if (entry.getValue().present_.get(row)) {
+            spot.addKeyValue(entry.getKey(), entry.getValue().values_[row]);
+         }
+      }
+      return spot;
+   }
+   
+   /**
+    * @return read-only list view of all spots in this table
+    */
+   public List<SpotData> asList() {
+      return new SpotListView(this, null);
+   }
+   
+   /**
+    * @param rows indices of the spots to be included in the view
+    * @return read-only list view of the given rows of this table
+    */
+   public List<SpotData> asList(int[] rows) {
+      return new SpotListView(this, rows);
+   }
+   
+   /**
+    * Copies the given rows into a new table.  Use with the output of 
+    * sortedRows to sort, or with a list of accepted rows to filter.
+    * 
+    * @param rows indices of spots to be copied, in the desired order
+    * @return new (unsealed) table
+    */
+   public SpotTable subset(int[] rows) {
+      SpotTable result = new SpotTable(rows.length);
+      for (int j = 0; j < rows.length; j++) {
+         int i = rows[j];
+         result.frame_[j] = frame_[i];
+         result.channel_[j] = channel_[i];
+         result.slice_[j] = slice_[i];
+         result.position_[j] = position_[i];
+         result.nr_[j] = nr_[i];
+         result.x_[j] = x_[i];
+         result.y_[j] = y_[i];
+         result.nrLinks_[j] = nrLinks_[i];
+         result.originalFrame_[j] = originalFrame_[i];
+         result.xCenter_[j] = xCenter_[i];
+         result.yCenter_[j] = yCenter_[i];
+         result.zCenter_[j] = zCenter_[i];
+         result.xOri_[j] = xOri_[i];
+         result.yOri_[j] = yOri_[i];
+         result.zOri_[j] = zOri_[i];
+         result.intensity_[j] = intensity_[i];
+         result.background_[j] = background_[i];
+         result.width_[j] = width_[i];
+         result.a_[j] = a_[i];
+         result.theta_[j] = theta_[i];
+         result.sigma_[j] = sigma_[i];
+      }
+      for (Map.Entry<String, ExtraColumn> entry : extras_.entrySet()) {
+         ExtraColumn source = entry.getValue();
+         ExtraColumn target = new ExtraColumn(result.frame_.length);
+         for (int j = 0; j < rows.length; j++) {
+            if (source.present_.get(rows[j])) {
+               target.values_[j] = source.values_[rows[j]];
+               target.present_.set(j);
+            }
+         }
+         if (!target.present_.isEmpty()) {
+            result.extras_.put(entry.getKey(), target);
+         }
+      }
+      result.size_ = rows.length;
+      return result;
+   }
+   
+   private double value(Column column, int row) {
+      switch (column) {
+         case FRAME: return frame_[row];
+         case SLICE: return slice_[row];
+         case CHANNEL: return channel_[row];
+         case POSITION: return position_[row];
+         case XCENTER: return xCenter_[row];
+         case YCENTER: return yCenter_[row];
+         case ZCENTER: return zCenter_[row];
+         case INTENSITY: return intensity_[row];
+         case BACKGROUND: return background_[row];
+         case WIDTH: return width_[row];
+         default: return sigma_[row];
+      }
+   }
+   
+   /**
+    * Stable sort of the rows of this table by the given column
+    * 
+    * @param column column to sort by
+    * @return row indices in ascending order of the column value
+    */
+   public int[] sortedRows(Column column) {
+      double[] keys = new double[size_];
+      int[] rows = new int[size_];
+      for (int i = 0; i < size_; i++) {
+         keys[i] = value(column, i);
+         rows[i] = i;
+      }
+      // bottom-up merge sort on the row indices, avoids boxing
+      int[] buffer = new int[size_];
+      for (int width = 1; width < size_; width *= 2) {
+         for (int lo = 0; lo < size_ - width; lo += 2 * width) {
+            int mid = lo + width;
+            int hi = Math.min(lo + 2 * width, size_);
+            int i = lo;
+            int j = mid;
+            int k = lo;
+            while (i < mid && j < hi) {
+               buffer[k++] = keys[rows[j]] < keys[rows[i]] ? rows[j++] : rows[i++];
+            }
+            while (i < mid) {
+               buffer[k++] = rows[i++];
+            }
+            while (j < hi) {
+               buffer[k++] = rows[j++];
+            }
+            System.arraycopy(buffer, lo, rows, lo, hi - lo);
+         }
+      }
+      return rows;
+   }
+   
+   /**
+    * List of SpotData backed by (some of the rows of) a SpotTable
+    */
+   private static class SpotListView extends AbstractList<SpotData> 
+           implements RandomAccess {
+      private final SpotTable table_;
+      private final int[] rows_;
+      
+      SpotListView(SpotTable table, int[] rows) {
+         table_ = table;
+         rows_ = rows;
+      }
+
+      @Override
+      public SpotData get(int index) {
+         if (rows_ == null) {
+            return table_.getSpot(index);
+         }
+         return table_.getSpot(rows_[index]);
+      }
+
+      @Override
+      public int size() {
+         return rows_ == null ? table_.size_ : rows_.length;
+      }
+   }
+   
+}
@@ -0,0 +1,336 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import com.google.protobuf.ExtensionRegistry;
+import edu.ucsf.valelab.tsf.MMLocM;
+import edu.ucsf.valelab.tsf.TaggedSpotsProtos;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the spots of a Tagged Spot File into a SpotTable.  
+ * The file is read in large chunks on the calling thread.  The boundaries 
+ * of the (length delimited) Spot messages in each chunk are found on the 
+ * calling thread as well, after which the chunk is decoded on a thread pool 
+ * into its own SpotTable.  The chunk tables are appended to the result in 
+ * file order, so spots keep the order in which they were saved.
+ * 
+ * Both the format with the SpotList header at the start of the file and the
+ * format with the header after the spots (written by TSFWriter) are read.
+ */
+public class TSFReader {
+   private static final int CHUNK_SIZE = 1 << 23;
+   
+   private final File file_;
+   private final TaggedSpotsProtos.SpotList spotList_;
+   private final long spotsStart_;
+   private final long spotsEnd_;
+   private final ExtensionRegistry registry_;
+   private final boolean mmExtensions_;
+   private boolean hasZ_ = false;
+   private double minZ_ = Double.POSITIVE_INFINITY;
+   private double maxZ_ = Double.NEGATIVE_INFINITY;
+   
+   /**
+    * Opens the file and reads the SpotList header
+    * 
+    * @param file - Tagged Spot File to be read
+    * @throws IOException 
+    */
+   public TSFReader(File file) throws IOException {
+      file_ = file;
+      FileInputStream fi = new FileInputStream(file);
+      try {
+         DataInputStream di = new DataInputStream(fi);
+         // the new file format has an initial 0, then the offset (in long)
+         // to the position of spotList
+         int magic = di.readInt();
+         if (magic != 0) {
+            fi.getChannel().position(0);
+            spotList_ = TaggedSpotsProtos.SpotList.parseDelimitedFrom(fi);
+            spotsStart_ = fi.getChannel().position();
+            spotsEnd_ = fi.getChannel().size();
+         } else {
+            long offset = di.readLong();
+            spotsStart_ = 12; // size of int + size of long
+            spotsEnd_ = spotsStart_ + offset;
+            fi.getChannel().position(spotsEnd_);
+            spotList_ = TaggedSpotsProtos.SpotList.parseDelimitedFrom(fi);
+         }
+      } finally {
+         fi.close();
+      }
+      if (spotList_ == null) {
+         throw new IOException("No spot list found in " + file.getName());
+      }
+      registry_ = ExtensionRegistry.newInstance();
+      mmExtensions_ = spotList_.getApplicationId() == LoadAndSave.MMAPPID;
+      if (mmExtensions_) {
+         registry_.add(MMLocM.intensityAperture);
+         registry_.add(MMLocM.intensityBackground);
+         registry_.add(MMLocM.intensityRatio);
+         registry_.add(MMLocM.mSigma);
+      }
+   }
+   
+   public TaggedSpotsProtos.SpotList getSpotList() {
+      return spotList_;
+   }
+   
+   /**
+    * Valid after readSpots
+    * @return whether any of the spots has a z position
+    */
+   public boolean hasZ() {
+      return hasZ_;
+   }
+   
+   public double getMinZ() {
+      return minZ_;
+   }
+   
+   public double getMaxZ() {
+      return maxZ_;
+   }
+   
+   /**
+    * Reads all spots in the file.  When the header lists the number of 
+    * spots, no more than that number is read.
+    * 
+    * @return unsealed table with the spots in file order
+    * @throws IOException 
+    */
+   public SpotTable readSpots() throws IOException {
+      long expectedSpots = spotList_.getNrSpots();
+      SpotTable spotTable = new SpotTable(
+              (int) Math.min(Math.max(expectedSpots, 16), Integer.MAX_VALUE - 8));
+      int nrThreads = Runtime.getRuntime().availableProcessors();
+      ExecutorService decoderPool = Executors.newFixedThreadPool(nrThreads);
+      LinkedList<Future<Chunk>> chunks = new LinkedList<Future<Chunk>>();
+      FileInputStream fi = new FileInputStream(file_);
+      try {
+         FileChannel channel = fi.getChannel();
+         channel.position(spotsStart_);
+         long total = spotsEnd_ - spotsStart_;
+         long remaining = total;
+         long nrSpots = 0;
+         byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(total, 1))];
+         int length = 0;
+         while (true) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer, length, 
+                    (int) Math.min(buffer.length - length, remaining));
+            while (bb.hasRemaining()) {
+               if (channel.read(bb) < 0) {
+                  remaining = bb.position() - length; // file is truncated
+                  break;
+               }
+            }
+            remaining -= bb.position() - length;
+            length = bb.position();
+            
+            // find the complete messages in the buffer
+            int[] offsets = new int[1024];
+            int[] sizes = new int[1024];
+            int count = 0;
+            int pos = 0;
+            while (pos < length 
+                    && (expectedSpots == 0 || nrSpots + count < expectedSpots)) {
+               int p = pos;
+               int size = 0;
+               int shift = 0;
+               boolean complete = false;
+               while (p < length) {
+                  byte b = buffer[p++];
+                  size |= (b & 0x7f) << shift;
+                  if (b >= 0) {
+                     complete = true;
+                     break;
+                  }
+                  shift += 7;
+                  if (shift > 28) {
+                     throw new IOException("Malformed spot in " + file_.getName());
+                  }
+               }
+               if (!complete || size > length - p) {
+                  break;
+               }
+               if (count == offsets.length) {
+                  offsets = Arrays.copyOf(offsets, 2 * count);
+                  sizes = Arrays.copyOf(sizes, 2 * count);
+               }
+               offsets[count] = p;
+               sizes[count] = size;
+               count++;
+               pos = p + size;
+            }
+            if (count > 0) {
+               if (chunks.size() >= 2 * nrThreads) {
+                  append(spotTable, chunks.removeFirst());
+               }
+               chunks.add(decoderPool.submit(
+                       new ChunkDecoder(buffer, offsets, sizes, count)));
+               nrSpots += count;
+            }
+            if (remaining == 0 
+                    || (expectedSpots > 0 && nrSpots >= expectedSpots)) {
+               break;
+            }
+            ij.IJ.showProgress((double) (total - remaining) / total);
+            
+            // the decoder owns the buffer now, carry the incomplete message
+            // over to a new one (that is larger if the message did not fit)
+            int leftover = length - pos;
+            byte[] next = new byte[count == 0 ? 2 * buffer.length : buffer.length];
+            System.arraycopy(buffer, pos, next, 0, leftover);
+            buffer = next;
+            length = leftover;
+         }
+         while (!chunks.isEmpty()) {
+            append(spotTable, chunks.removeFirst());
+         }
+      } finally {
+         for (Future<Chunk> chunk : chunks) {
+            chunk.cancel(true);
+         }
+         decoderPool.shutdown();
+         fi.close();
+      }
+      return spotTable;
+   }
+   
+   private void append(SpotTable spotTable, Future<Chunk> future) 
+           throws IOException {
+      Chunk chunk;
+      try {
+         chunk = future.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while reading " + file_.getName());
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         if (ee.getCause() instanceof IOException) {
+            throw (IOException) ee.getCause();
+         }
+         throw new IOException(ee.getCause());
+      }
+      if (chunk.hasZ_) {
+         hasZ_ = true;
+         minZ_ = Math.min(minZ_, chunk.minZ_);
+         maxZ_ = Math.max(maxZ_, chunk.maxZ_);
+      }
+      spotTable.addAll(chunk.table_);
+   }
+   
+   /**
+    * Decoded spots of one chunk of the file
+    */
+   private static class Chunk {
+      final SpotTable table_;
+      boolean hasZ_ = false;
+      double minZ_ = Double.POSITIVE_INFINITY;
+      double maxZ_ = Double.NEGATIVE_INFINITY;
+      
+      Chunk(int capacity) {
+         table_ = new SpotTable(capacity);
+      }
+   }
+   
+   /**
+    * Decodes the Spot messages in one chunk of the file
+    */
+   private class ChunkDecoder implements Callable<Chunk> {
+      private final byte[] buffer_;
+      private final int[] offsets_;
+      private final int[] sizes_;
+      private final int count_;
+      
+      ChunkDecoder(byte[] buffer, int[] offsets, int[] sizes, int count) {
+         buffer_ = buffer;
+         offsets_ = offsets;
+         sizes_ = sizes;
+         count_ = count;
+      }
+
+      @Override
+      public Chunk call() throws IOException {
+         Chunk chunk = new Chunk(count_);
+         SpotTable table = chunk.table_;
+         for (int i = 0; i < count_; i++) {
+            TaggedSpotsProtos.Spot pSpot = TaggedSpotsProtos.Spot.PARSER.
+                    parseFrom(buffer_, offsets_[i], sizes_[i], registry_);
+            double zc = 0.0;
+            if (pSpot.hasZ()) {
+               zc = pSpot.getZ();
+               chunk.hasZ_ = true;
+               if (zc > chunk.maxZ_) {
+                  chunk.maxZ_ = zc;
+               }
+               if (zc < chunk.minZ_) {
+                  chunk.minZ_ = zc;
+               }
+            }
+            int row = table.add(pSpot.getFrame(), pSpot.getChannel(), 
+                    pSpot.getSlice(), pSpot.getPos(), pSpot.getMolecule(), 
+                    pSpot.getXPosition(), pSpot.getYPosition(), 
+                    pSpot.getX(), pSpot.getY(), 
+                    zc, 
+                    pSpot.getIntensity(), pSpot.getBackground(), 
+                    pSpot.getWidth(), pSpot.getA(), pSpot.getTheta(),
+                    pSpot.getXPrecision());
+            if (mmExtensions_) {
+               table.setValue(SpotData.Keys.APERTUREINTENSITY, row,
+                       pSpot.getExtension(MMLocM.intensityAperture));
+               table.setValue(SpotData.Keys.APERTUREBACKGROUND, row,
+                       pSpot.getExtension(MMLocM.intensityBackground));
+               table.setValue(SpotData.Keys.INTENSITYRATIO, row,
+                       pSpot.getExtension(MMLocM.intensityRatio));
+               table.setValue(SpotData.Keys.MSIGMA, row,
+                       pSpot.getExtension(MMLocM.mSigma));
+            }
+         }
+         return chunk;
+      }
+   }
+   
+}
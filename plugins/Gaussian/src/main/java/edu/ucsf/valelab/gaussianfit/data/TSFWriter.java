@@ -0,0 +1,319 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import edu.ucsf.valelab.tsf.MMLocM;
+import edu.ucsf.valelab.tsf.TaggedSpotsProtos;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes spots to a Tagged Spot File as they become available, so that 
+ * callers do not need to hold the complete data set before saving.
+ * The header (SpotList) is written after the last spot, as the TSF format
+ * prescribes, followed by patching its offset at the start of the file.
+ * 
+ * Methods are synchronized, so multiple threads can add spots.
+ * Spots from a SpotTable are encoded in blocks on a thread pool, and the
+ * encoded blocks are written to the file in order.
+ */
+public class TSFWriter {
+   private static final int BLOCK_SIZE = 1 << 16;
+   
+   private final FileOutputStream fo_;
+   private final BufferedOutputStream out_;
+   private final boolean hasZ_;
+   private int nrSpots_ = 0;
+   
+   /**
+    * 
+    * @param file - file to write to (will be overwritten)
+    * @param hasZ - whether the z position of spots should be saved
+    * @throws IOException 
+    */
+   public TSFWriter(File file, boolean hasZ) throws IOException {
+      hasZ_ = hasZ;
+      fo_ = new FileOutputStream(file);
+      out_ = new BufferedOutputStream(fo_, 1 << 16);
+      // write space for magic nr and offset to spotList
+      for (int i = 0; i < 12; i++) {
+         out_.write(0);
+      }
+   }
+   
+   public synchronized void addSpot(SpotData gd) throws IOException {
+      toProto(gd, nrSpots_, hasZ_).writeDelimitedTo(out_);
+      nrSpots_++;
+   }
+   
+   /**
+    * Adds the given rows of a spot table.  Rows are numbered as molecules
+    * in the order in which they are added, like spots added with addSpot
+    * 
+    * @param table - table with the spots
+    * @param from - first row to be added
+    * @param to - row after the last row to be added
+    * @throws IOException 
+    */
+   public synchronized void addSpots(SpotTable table, int from, int to) 
+           throws IOException {
+      int nrBlocks = (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      if (nrBlocks <= 1) {
+         for (int row = from; row < to; row++) {
+            toProto(table, row, nrSpots_, hasZ_).writeDelimitedTo(out_);
+            nrSpots_++;
+         }
+         return;
+      }
+      int nrThreads = Math.min(nrBlocks, 
+              Runtime.getRuntime().availableProcessors());
+      ExecutorService encoderPool = Executors.newFixedThreadPool(nrThreads);
+      LinkedList<Future<ByteArrayOutputStream>> blocks = 
+              new LinkedList<Future<ByteArrayOutputStream>>();
+      try {
+         for (int start = from; start < to; start += BLOCK_SIZE) {
+            // do not encode too far ahead of the disk
+            if (blocks.size() >= 2 * nrThreads) {
+               waitForBlock(blocks.removeFirst()).writeTo(out_);
+            }
+            blocks.add(encoderPool.submit(new BlockEncoder(table, start, 
+                    Math.min(start + BLOCK_SIZE, to), nrSpots_ + start - from)));
+         }
+         while (!blocks.isEmpty()) {
+            waitForBlock(blocks.removeFirst()).writeTo(out_);
+         }
+         nrSpots_ += to - from;
+      } finally {
+         for (Future<ByteArrayOutputStream> block : blocks) {
+            block.cancel(true);
+         }
+         encoderPool.shutdown();
+      }
+   }
+   
+   private static ByteArrayOutputStream waitForBlock(
+           Future<ByteArrayOutputStream> block) throws IOException {
+      try {
+         return block.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while saving spots");
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         if (ee.getCause() instanceof IOException) {
+            throw (IOException) ee.getCause();
+         }
+         throw new IOException(ee.getCause());
+      }
+   }
+   
+   /**
+    * Encodes a block of rows of a spot table
+    */
+   private class BlockEncoder implements Callable<ByteArrayOutputStream> {
+      private final SpotTable table_;
+      private final int from_;
+      private final int to_;
+      private final int molecule_;
+      
+      BlockEncoder(SpotTable table, int from, int to, int molecule) {
+         table_ = table;
+         from_ = from;
+         to_ = to;
+         molecule_ = molecule;
+      }
+
+      @Override
+      public ByteArrayOutputStream call() throws IOException {
+         // spots take about 80 bytes each
+         ByteArrayOutputStream block = 
+                 new ByteArrayOutputStream(80 * (to_ - from_));
+         for (int row = from_; row < to_; row++) {
+            toProto(table_, row, molecule_ + row - from_, hasZ_).
+                    writeDelimitedTo(block);
+         }
+         return block;
+      }
+   }
+   
+   public synchronized int getNrSpots() {
+      return nrSpots_;
+   }
+   
+   /**
+    * Writes the header describing the data set and closes the file
+    * @param rowData - data set the spots belong to
+    * @throws IOException 
+    */
+   public synchronized void finish(RowData rowData) throws IOException {
+      out_.flush();
+      FileChannel fc = fo_.getChannel();
+      long offset = fc.position();
+      toProto(rowData).writeDelimitedTo(out_);
+      out_.flush();
+
+      // now go back to write offset to the stream
+      fc.position(4);
+      DataOutputStream dos = new DataOutputStream(fo_);
+      dos.writeLong(offset - 12);
+      out_.close();
+   }
+   
+   /**
+    * Closes the file without writing a header, for instance after an error
+    */
+   public synchronized void abort() {
+      try {
+         out_.close();
+      } catch (IOException ioe) {
+         // nothing we can do
+      }
+   }
+
+   public static TaggedSpotsProtos.Spot toProto(SpotData gd, int molecule, 
+           boolean hasZ) {
+      TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
+      // TODO: precede all these calls with check for presence of member
+      // or be OK with default values?
+      spotBuilder.setMolecule(molecule).
+              setFrame(gd.getFrame()).
+              setChannel(gd.getChannel()).
+              setPos(gd.getPosition()).
+              setSlice(gd.getSlice()).
+              setX((float) gd.getXCenter()).
+              setY((float) gd.getYCenter()).
+              setIntensity((float) gd.getIntensity()).
+              setBackground((float) gd.getBackground()).
+              setXPosition(gd.getX()).
+              setYPosition(gd.getY()).
+              setWidth((float) gd.getWidth()).
+              setA((float) gd.getA()).
+              setTheta((float) gd.getTheta()).
+              setXPrecision((float) gd.getSigma()).
+              setExtension(MMLocM.intensityAperture, 
+                   gd.getValue(SpotData.Keys.APERTUREINTENSITY).floatValue()).
+              setExtension(MMLocM.intensityBackground, 
+                   gd.getValue(SpotData.Keys.APERTUREBACKGROUND).floatValue()).
+              setExtension(MMLocM.intensityRatio, 
+                   gd.getValue(SpotData.Keys.INTENSITYRATIO).floatValue()).
+              setExtension(MMLocM.mSigma, 
+                   gd.getValue(SpotData.Keys.MSIGMA).floatValue());
+      if (hasZ) {
+         spotBuilder.setZ((float) gd.getZCenter());
+      }
+      return spotBuilder.build();
+   }
+   
+   public static TaggedSpotsProtos.Spot toProto(SpotTable table, int row, 
+           int molecule, boolean hasZ) {
+      TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
+      spotBuilder.setMolecule(molecule).
+              setFrame(table.getFrame(row)).
+              setChannel(table.getChannel(row)).
+              setPos(table.getPosition(row)).
+              setSlice(table.getSlice(row)).
+              setX((float) table.getXCenter(row)).
+              setY((float) table.getYCenter(row)).
+              setIntensity((float) table.getIntensity(row)).
+              setBackground((float) table.getBackground(row)).
+              setXPosition(table.getX(row)).
+              setYPosition(table.getY(row)).
+              setWidth((float) table.getWidth(row)).
+              setA((float) table.getA(row)).
+              setTheta((float) table.getTheta(row)).
+              setXPrecision((float) table.getSigma(row));
+      Double value = table.getValue(SpotData.Keys.APERTUREINTENSITY, row);
+      if (value != null) {
+         spotBuilder.setExtension(MMLocM.intensityAperture, value.floatValue());
+      }
+      value = table.getValue(SpotData.Keys.APERTUREBACKGROUND, row);
+      if (value != null) {
+         spotBuilder.setExtension(MMLocM.intensityBackground, value.floatValue());
+      }
+      value = table.getValue(SpotData.Keys.INTENSITYRATIO, row);
+      if (value != null) {
+         spotBuilder.setExtension(MMLocM.intensityRatio, value.floatValue());
+      }
+      value = table.getValue(SpotData.Keys.MSIGMA, row);
+      if (value != null) {
+         spotBuilder.setExtension(MMLocM.mSigma, value.floatValue());
+      }
+      if (hasZ) {
+         spotBuilder.setZ((float) table.getZCenter(row));
+      }
+      return spotBuilder.build();
+   }
+   
+   public static TaggedSpotsProtos.SpotList toProto(RowData rowData) {
+      TaggedSpotsProtos.SpotList.Builder tspBuilder = TaggedSpotsProtos.SpotList.newBuilder();
+      tspBuilder.setApplicationId(LoadAndSave.MMAPPID).
+              setName(rowData.getName()).
+              setFilepath(rowData.title_).
+              setNrPixelsX(rowData.width_).
+              setNrPixelsY(rowData.height_).
+              setNrSpots(rowData.spotList_.size()).
+              setPixelSize(rowData.pixelSizeNm_).
+              setBoxSize(rowData.halfSize_ * 2).
+              setNrChannels(rowData.nrChannels_).
+              setNrSlices(rowData.nrSlices_).
+              setIsTrack(rowData.isTrack_).
+              setNrPos(rowData.nrPositions_).
+              setNrFrames(rowData.nrFrames_).
+              setLocationUnits(TaggedSpotsProtos.LocationUnits.NM).
+              setIntensityUnits(TaggedSpotsProtos.IntensityUnits.PHOTONS).
+              setNrSpots(rowData.maxNrSpots_);
+      switch (rowData.shape_) {
+         case (1):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.ONEAXIS);
+            break;
+         case (2):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXIS);
+            break;
+         case (3):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXISANDTHETA);
+            break;
+      }
+      return tspBuilder.build();
+   }
+   
+}
@@ -35,7 +35,7 @@ import edu.ucsf.valelab.gaussianfit.fitting.FittingException;
 import edu.ucsf.valelab.gaussianfit.fitting.Gaussian1DFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.P2DFitter;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
-import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPointByData;
+import edu.ucsf.valelab.gaussianfit.spotoperations.SpotGrid;
 import edu.ucsf.valelab.gaussianfit.utils.CalcUtils;
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
@@ -57,6 +57,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.math3.exception.TooManyEvaluationsException;
 import org.micromanager.internal.MMStudio;
 
@@ -267,76 +272,42 @@ public class ParticlePairLister {
                Map<Integer, ArrayList<ArrayList<GsSpotPair>>> spotPairsByFrame
                        = new HashMap<Integer, ArrayList<ArrayList<GsSpotPair>>>();
 
-               // index spots by position
-               Map<Integer, ArrayList<SpotData>> spotListsByPosition = new HashMap<Integer, ArrayList<SpotData>>();
+               // index spots by position and frame, in a single pass
+               int nrFrames = dc.getSpotData(row).nrFrames_;
+               Map<Integer, List<List<SpotData>>> spotListsByPosition = 
+                       new HashMap<Integer, List<List<SpotData>>>();
                // and keep track of the positions that are actually used
                List<Integer> positions = new ArrayList<Integer>();
                for (SpotData spot : dc.getSpotData(row).spotList_) {
-                  if (positions.indexOf(spot.getPosition()) == -1) {
+                  List<List<SpotData>> byFrame = spotListsByPosition.get(spot.getPosition());
+                  if (byFrame == null) {
                      positions.add(spot.getPosition());
+                     byFrame = new ArrayList<List<SpotData>>(nrFrames);
+                     for (int frame = 1; frame <= nrFrames; frame++) {
+                        byFrame.add(new ArrayList<SpotData>());
+                     }
+                     spotListsByPosition.put(spot.getPosition(), byFrame);
                   }
-                  if (spotListsByPosition.get(spot.getPosition()) == null) {
-                     spotListsByPosition.put(spot.getPosition(), new ArrayList<SpotData>());
+                  if (spot.getFrame() >= 1 && spot.getFrame() <= nrFrames) {
+                     byFrame.get(spot.getFrame() - 1).add(spot);
                   }
-                  spotListsByPosition.get(spot.getPosition()).add(spot);
                }
                Collections.sort(positions);
 
                // First go through all frames to find all pairs, organize by position
-               int nrSpotPairsInFrame1 = 0;
-               for (int pos : positions) {
-                  spotPairsByFrame.put(pos, new ArrayList<ArrayList<GsSpotPair>>());
-
-                  for (int frame = 1; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-                     // TODO: show correct progress
-                     ij.IJ.showProgress(frame, dc.getSpotData(row).nrFrames_);
-
-                     spotPairsByFrame.get(pos).add(new ArrayList<GsSpotPair>());
-
-                     // Get points from both channels as ArrayLists   
-                     ArrayList<SpotData> gsCh1 = new ArrayList<SpotData>();
-                     ArrayList<SpotData> gsCh2 = new ArrayList<SpotData>();
-                     ArrayList<Point2D.Double> xyPointsCh2 = new ArrayList<Point2D.Double>();
-                     for (SpotData gs : spotListsByPosition.get(pos)) {
-                        if (gs.getFrame() == frame) {
-                           if (gs.getChannel() == 1) {
-                              gsCh1.add(gs);
-                           } else if (gs.getChannel() == 2) {
-                              gsCh2.add(gs);
-                              Point2D.Double point = new Point2D.Double(
-                                      gs.getXCenter(), gs.getYCenter());
-                              xyPointsCh2.add(point);
-                           }
-                        }
-                     }
-
-                     // Find matching points in the two ArrayLists
-                     Iterator it2 = gsCh1.iterator();
-                     NearestPoint2D np = new NearestPoint2D(xyPointsCh2, maxDistanceNm_);
-                     while (it2.hasNext()) {
-                        SpotData ch1Spot = (SpotData) it2.next();
-                        Point2D.Double pCh1 = new Point2D.Double(
-                                ch1Spot.getXCenter(), ch1Spot.getYCenter());
-                        Point2D.Double pCh2 = np.findKDWSE(pCh1);
-                        if (pCh2 != null) {
-                           // find this point in the ch2 spot list
-                           SpotData ch2Spot = null;
-                           for (int i = 0; i < gsCh2.size() && ch2Spot == null; i++) {
-                              if (pCh2.x == gsCh2.get(i).getXCenter()
-                                      && pCh2.y == gsCh2.get(i).getYCenter()) {
-                                 ch2Spot = gsCh2.get(i);
-                              }
-                           }
-                           if (ch2Spot != null) {
-                              GsSpotPair pair = new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2);
-                              spotPairsByFrame.get(pos).get(frame - 1).add(pair);
-                           } else {
-                              // this should never happen!
-                              System.out.println("Failed to find spot");
-                           }
-                        }
-                     }
+               try {
+                  for (int pos : positions) {
+                     spotPairsByFrame.put(pos, findPairs(
+                             spotListsByPosition.get(pos), maxDistanceNm_));
                   }
+               } catch (InterruptedException ie) {
+                  Thread.currentThread().interrupt();
+                  return;
+               } catch (ExecutionException ee) {
+                  MMStudio.getInstance().alerts().postAlert("Pair finding error", 
+                          null, "ID: " + dc.getSpotData(row).ID_ + 
+                          ", " + ee.getCause().getMessage());
+                  continue;
                }
 
                if (showPairs_ ) {
@@ -406,39 +377,33 @@ public class ParticlePairLister {
                ArrayList<ArrayList<GsSpotPair>> tracks = new ArrayList<ArrayList<GsSpotPair>>();
 
                for (int pos : positions) {
-                  // prepare NearestPoint objects to speed up finding closest pair 
-                  ArrayList<NearestPointByData> npsp = new ArrayList<NearestPointByData>();
-                  for (int frame = 1; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-                     npsp.add(new NearestPointByData(
-                             spotPairsByFrame.get(pos).get(frame - 1), maxDistanceNm_));
+                  ArrayList<ArrayList<GsSpotPair>> pairsByFrame = spotPairsByFrame.get(pos);
+                  // spatial index of the pairs in each frame to speed up finding closest pair 
+                  List<SpotGrid> grids = new ArrayList<SpotGrid>(nrFrames);
+                  for (ArrayList<GsSpotPair> pairs : pairsByFrame) {
+                     grids.add(SpotGrid.fromPoints(pairs, maxDistanceNm_));
                   }
-                  //int i = 0;
-                  for (int firstFrame = 1; firstFrame <= dc.getSpotData(row).nrFrames_; firstFrame++) {
-                     Iterator<GsSpotPair> iSpotPairs = spotPairsByFrame.get(pos).get(firstFrame - 1).iterator();
-                     while (iSpotPairs.hasNext()) {
-                        //ij.IJ.showProgress(i++, nrSpotPairsInFrame1);
-                        GsSpotPair spotPair = iSpotPairs.next();
-                        // for now, we only start tracks at frame number 1
+                  for (int firstFrame = 1; firstFrame <= nrFrames; firstFrame++) {
+                     for (GsSpotPair spotPair : pairsByFrame.get(firstFrame - 1)) {
                         if (!spotPair.partOfTrack()) {
-                           for (int frame = firstFrame; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-                              if (!spotPair.partOfTrack() && spotPair.getFirstSpot().getFrame() == frame) {
-                                 ArrayList<GsSpotPair> track = new ArrayList<GsSpotPair>();
-                                 track.add(spotPair);
-                                 int searchInFrame = frame + 1;
-                                 while (searchInFrame <= dc.getSpotData(row).nrFrames_) {
-                                    GsSpotPair newSpotPair = (GsSpotPair) npsp.get(searchInFrame - 1).findKDWSE(
-                                            new Point2D.Double(spotPair.getFirstPoint().getX(),
-                                                    spotPair.getFirstPoint().getY()));
-                                    if (newSpotPair != null && !newSpotPair.partOfTrack()) {
-                                       newSpotPair.useInTrack(true);
-                                       spotPair = newSpotPair;
-                                       track.add(spotPair);
-                                    }
-                                    searchInFrame++;
+                           ArrayList<GsSpotPair> track = new ArrayList<GsSpotPair>();
+                           track.add(spotPair);
+                           for (int searchInFrame = firstFrame + 1; 
+                                   searchInFrame <= nrFrames; searchInFrame++) {
+                              int nearest = grids.get(searchInFrame - 1).findNearest(
+                                      spotPair.getFirstPoint().getX(),
+                                      spotPair.getFirstPoint().getY());
+                              if (nearest >= 0) {
+                                 GsSpotPair newSpotPair = 
+                                         pairsByFrame.get(searchInFrame - 1).get(nearest);
+                                 if (!newSpotPair.partOfTrack()) {
+                                    newSpotPair.useInTrack(true);
+                                    spotPair = newSpotPair;
+                                    track.add(spotPair);
                                  }
-                                 tracks.add(track);
                               }
                            }
+                           tracks.add(track);
                         }
                      }
                   }
@@ -908,6 +873,70 @@ public class ParticlePairLister {
       
    }
 
+   /**
+    * Pairs every spot in channel 1 with the closest spot in channel 2 of the 
+    * same frame, provided they are less than maxDistance apart.  Frames are
+    * processed in parallel.
+    * 
+    * @param spotsByFrame spots of a single position, index is frame - 1
+    * @param maxDistance maximum distance between the two spots of a pair
+    * @return for each frame, the pairs found in that frame
+    * @throws InterruptedException
+    * @throws ExecutionException 
+    */
+   private static ArrayList<ArrayList<GsSpotPair>> findPairs(
+           final List<List<SpotData>> spotsByFrame, final double maxDistance) 
+           throws InterruptedException, ExecutionException {
+      List<Callable<ArrayList<GsSpotPair>>> frameTasks = 
+              new ArrayList<Callable<ArrayList<GsSpotPair>>>(spotsByFrame.size());
+      for (final List<SpotData> spots : spotsByFrame) {
+         frameTasks.add(new Callable<ArrayList<GsSpotPair>>() {
+            @Override
+            public ArrayList<GsSpotPair> call() {
+               return findPairsInFrame(spots, maxDistance);
+            }
+         });
+      }
+      int nrThreads = Math.max(1, Math.min(frameTasks.size(), 
+              Runtime.getRuntime().availableProcessors()));
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+      try {
+         ArrayList<ArrayList<GsSpotPair>> pairsByFrame = 
+                 new ArrayList<ArrayList<GsSpotPair>>(spotsByFrame.size());
+         for (Future<ArrayList<GsSpotPair>> f : executor.invokeAll(frameTasks)) {
+            pairsByFrame.add(f.get());
+         }
+         return pairsByFrame;
+      } finally {
+         executor.shutdown();
+      }
+   }
+   
+   private static ArrayList<GsSpotPair> findPairsInFrame(List<SpotData> spots,
+           double maxDistance) {
+      List<SpotData> gsCh1 = new ArrayList<SpotData>();
+      List<SpotData> gsCh2 = new ArrayList<SpotData>();
+      for (SpotData gs : spots) {
+         if (gs.getChannel() == 1) {
+            gsCh1.add(gs);
+         } else if (gs.getChannel() == 2) {
+            gsCh2.add(gs);
+         }
+      }
+      ArrayList<GsSpotPair> pairs = new ArrayList<GsSpotPair>();
+      SpotGrid grid = SpotGrid.fromPoints(gsCh2, maxDistance);
+      for (SpotData ch1Spot : gsCh1) {
+         int nearest = grid.findNearest(ch1Spot.getXCenter(), ch1Spot.getYCenter());
+         if (nearest >= 0) {
+            SpotData ch2Spot = gsCh2.get(nearest);
+            pairs.add(new GsSpotPair(ch1Spot, ch2Spot, 
+                    new Point2D.Double(ch1Spot.getXCenter(), ch1Spot.getYCenter()),
+                    new Point2D.Double(ch2Spot.getXCenter(), ch2Spot.getYCenter())));
+         }
+      }
+      return pairs;
+   }
+
    /**
     * Fits a list of numbers to a Gaussian function using Maximum Likelihood
     *
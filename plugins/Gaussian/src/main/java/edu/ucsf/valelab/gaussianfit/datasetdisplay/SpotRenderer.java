@@ -0,0 +1,389 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders the (filtered) spots of a dataset as a histogram, as Gaussians 
+ * with the localization precision of each spot as width, or color coded for z.
+ * 
+ * The constructor filters the spots once and copies the positions of the 
+ * accepted spots, sorted by y, into primitive arrays.  Rendering a view
+ * rectangle at a given magnification only visits spots that fall within 
+ * that rectangle, so re-rendering after zooming or panning is cheap.
+ * 
+ * The output image is divided in bands of rows that are rendered in 
+ * parallel.  Each band only writes its own rows (spots that straddle two
+ * bands are drawn partially by each), so no locking or merging of per-thread 
+ * images is needed.
+ */
+public class SpotRenderer {
+   private static final int NR_THREADS = Runtime.getRuntime().availableProcessors();
+   private static ExecutorService executor_;
+   
+   private final RowData rowData_;
+   private final int nrSpots_;
+   private final double[] xNm_;
+   private final double[] yNm_;  // sorted
+   private final double[] zNm_;
+   private final double[] sigmaNm_;
+   private final double maxSigmaNm_;
+   
+   public SpotRenderer(RowData rowData, SpotDataFilter sf) {
+      rowData_ = rowData;
+      SpotTable spots = rowData.spotTable_;
+      int[] sorted = spots.sortedRows(SpotTable.Column.YCENTER);
+      int n = 0;
+      for (int row : sorted) {
+         if (sf == null || sf.filter(spots, row)) {
+            sorted[n] = row;
+            n++;
+         }
+      }
+      nrSpots_ = n;
+      xNm_ = new double[n];
+      yNm_ = new double[n];
+      zNm_ = new double[n];
+      sigmaNm_ = new double[n];
+      double maxSigma = 0.0;
+      for (int i = 0; i < n; i++) {
+         int row = sorted[i];
+         xNm_[i] = spots.getXCenter(row);
+         yNm_[i] = spots.getYCenter(row);
+         zNm_[i] = spots.getZCenter(row);
+         sigmaNm_[i] = spots.getSigma(row);
+         maxSigma = Math.max(maxSigma, sigmaNm_[i]);
+      }
+      maxSigmaNm_ = maxSigma;
+   }
+   
+   public RowData getRowData() {
+      return rowData_;
+   }
+   
+   /**
+    * @param magnification - factor x original size
+    * @param rect - roi in the magnified image
+    * @return number of spots with their center in rect
+    */
+   public int countSpots(double magnification, Rectangle rect) {
+      double factor = magnification / rowData_.pixelSizeNm_;
+      int count = 0;
+      for (int i = firstSpot(rect.y, factor); i < nrSpots_; i++) {
+         int y = (int) (factor * yNm_[i]);
+         if (y >= rect.y + rect.height) {
+            break;
+         }
+         int x = (int) (factor * xNm_[i]);
+         if (y >= rect.y && x >= rect.x && x < rect.x + rect.width) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Renders the spots that fall within rect
+    * 
+    * @param method - 0 = 2D scatter (color coded for z when the data has z), 
+    *                1 = Gaussians, 2 = Normalized Gaussian
+    * @param magnification - factor x original size
+    * @param rect - roi in the magnified image that should be rendered
+    * @return rendered image
+    */
+   public ImageProcessor render(int method, double magnification, Rectangle rect) {
+      final double factor = magnification / rowData_.pixelSizeNm_;
+      final int width = rect.width;
+      final int height = rect.height;
+      if (method == 0 && !rowData_.hasZ_) {
+         final int[] counts = new int[width * height];
+         renderBands(rect, factor, 0, new BandRenderer() {
+            @Override
+            public void render(int i, int x, int y, int bandStart, int bandEnd) {
+               if (y >= bandStart && y < bandEnd) {
+                  counts[y * width + x]++;
+               }
+            }
+         });
+         short[] pixels = new short[width * height];
+         for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (short) Math.min(counts[i], 65535);
+         }
+         return new ShortProcessor(width, height, pixels, null);
+      } 
+      if (method == 0) {
+         final int[][] rgb = new int[3][width * height];
+         final double minZ = rowData_.minZ_;
+         final double spread = rowData_.maxZ_ - rowData_.minZ_;
+         renderBands(rect, factor, 0, new BandRenderer() {
+            @Override
+            public void render(int i, int x, int y, int bandStart, int bandEnd) {
+               if (y >= bandStart && y < bandEnd) {
+                  int zIndex = (int) (256 * (zNm_[i] - minZ) / spread);
+                  zIndex = Math.max(0, Math.min(255, zIndex));
+                  int[] color = ImageRenderer.zLut_[zIndex];
+                  int index = y * width + x;
+                  for (int c = 0; c < 3; c++) {
+                     rgb[c][index] += color == null ? zIndex : color[c];
+                  }
+               }
+            }
+         });
+         int max = 1;
+         for (int c = 0; c < 3; c++) {
+            for (int value : rgb[c]) {
+               max = Math.max(max, value);
+            }
+         }
+         byte[][] colorPixels = new byte[3][width * height];
+         for (int c = 0; c < 3; c++) {
+            for (int p = 0; p < colorPixels[c].length; p++) {
+               colorPixels[c][p] = (byte) (255.0 * rgb[c][p] / max);
+            }
+         }
+         ColorProcessor cp = new ColorProcessor(width, height);
+         cp.setRGB(colorPixels[0], colorPixels[1], colorPixels[2]);
+         return cp;
+      }
+      
+      // Gaussians.  Width of the Gaussian is the localization precision, 
+      // the box covers +/- 2 * precision
+      final boolean normalize = method == 2;
+      final double renderedPixelInNm = rowData_.pixelSizeNm_ / magnification;
+      final float[] pixels = new float[width * height];
+      int halo = Math.max(2, (int) (2 * maxSigmaNm_ / renderedPixelInNm));
+      // bands are rendered concurrently, so each thread needs its own buffers
+      final ThreadLocal<double[][]> buffers = new ThreadLocal<double[][]>() {
+         @Override
+         protected double[][] initialValue() {
+            return new double[2][0];
+         }
+      };
+      renderBands(rect, factor, halo, new BandRenderer() {
+         @Override
+         public void render(int i, int x, int y, int bandStart, int bandEnd) {
+            double s = sigmaNm_[i] / renderedPixelInNm;
+            int halfWidth = (int) (2 * s);
+            if (halfWidth == 0) {
+               halfWidth = 2;
+            }
+            int yStart = Math.max(y - halfWidth, bandStart);
+            int yEnd = Math.min(y + halfWidth, bandEnd);
+            int xStart = Math.max(x - halfWidth, 0);
+            int xEnd = Math.min(x + halfWidth, width);
+            if (yStart >= yEnd || xStart >= xEnd) {
+               return;
+            }
+            double[][] buffer = buffers.get();
+            if (buffer[0].length < 2 * halfWidth) {
+               buffer[0] = new double[2 * halfWidth];
+               buffer[1] = new double[2 * halfWidth];
+            }
+            double[] gx = buffer[0];
+            double[] gy = buffer[1];
+            // exp(-((x-xc)^2 + (y-yc)^2) / 2s^2) is separable
+            // x and y are relative to rect, so are the centers
+            double xc = xNm_[i] / renderedPixelInNm - rect.x;
+            double yc = yNm_[i] / renderedPixelInNm - rect.y;
+            double twoSSqr = 2 * s * s;
+            double sumX = 0.0;
+            double sumY = 0.0;
+            for (int k = 0; k < 2 * halfWidth; k++) {
+               double dx = x - halfWidth + k - xc;
+               double dy = y - halfWidth + k - yc;
+               gx[k] = Math.exp(-dx * dx / twoSSqr);
+               gy[k] = Math.exp(-dy * dy / twoSSqr);
+               sumX += gx[k];
+               sumY += gy[k];
+            }
+            double scale = 1.0;
+            if (normalize) {
+               if (sumX * sumY <= 0.0) {
+                  return;
+               }
+               scale = 1.0 / (sumX * sumY);
+            }
+            for (int py = yStart; py < yEnd; py++) {
+               double fy = scale * gy[py - (y - halfWidth)];
+               int offset = py * width;
+               for (int px = xStart; px < xEnd; px++) {
+                  pixels[offset + px] += (float) (fy * gx[px - (x - halfWidth)]);
+               }
+            }
+         }
+      });
+      return new FloatProcessor(width, height, pixels, null);
+   }
+   
+   /**
+    * Renders the spots that fall within rect in a stack of z planes
+    * Only method 0 (histogram) is supported, other methods return an empty 
+    * stack.
+    * 
+    * @param method - 0 = 3D histogram
+    * @param magnification - factor x original size
+    * @param rect - roi in the magnified image that should be rendered
+    * @return rendered stack
+    */
+   public ImageStack render3D(int method, double magnification, Rectangle rect) {
+      final double factor = magnification / rowData_.pixelSizeNm_;
+      final double renderedPixelInNm = rowData_.pixelSizeNm_ / magnification;
+      final int width = rect.width;
+      final int height = rect.height;
+      final int nrZs = (int) (1000.0 * (rowData_.maxZ_ - rowData_.minZ_) 
+              / (2 * renderedPixelInNm));
+      final double minZ = rowData_.minZ_;
+      ImageStack is = new ImageStack(width, height);
+      if (method != 0) {
+         return is;
+      }
+      final short[][] pixels = new short[nrZs][width * height];
+      for (int z = 0; z < nrZs; z++) {
+         is.addSlice(new ShortProcessor(width, height, pixels[z], null));
+      }
+      renderBands(rect, factor, 0, new BandRenderer() {
+         @Override
+         public void render(int i, int x, int y, int bandStart, int bandEnd) {
+            int z = (int) (factor * (zNm_[i] - minZ) * 500.0);
+            if (y >= bandStart && y < bandEnd && z >= 0 && z < nrZs) {
+               int index = y * width + x;
+               if (pixels[z][index] != -1) {
+                  pixels[z][index] += 1;
+               }
+            }
+         }
+      });
+      return is;
+   }
+
+   /**
+    * Renders one spot into a band of the output image
+    */
+   private interface BandRenderer {
+      /**
+       * @param i index of the spot 
+       * @param x x position of the spot, relative to the rendered rectangle
+       * @param y y position of the spot, relative to the rendered rectangle
+       * @param bandStart first row of the band
+       * @param bandEnd row after the last row of the band
+       */
+      void render(int i, int x, int y, int bandStart, int bandEnd);
+   }
+   
+   /**
+    * Index of the first spot with (int) (factor * y) >= yPixel
+    */
+   private int firstSpot(int yPixel, double factor) {
+      int lo = 0;
+      int hi = nrSpots_;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if ((int) (factor * yNm_[mid]) < yPixel) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   private void renderBands(final Rectangle rect, final double factor, 
+           final int halo, final BandRenderer renderer) {
+      int nrBands = Math.max(1, Math.min(4 * NR_THREADS, rect.height / 8));
+      final int bandHeight = (rect.height + nrBands - 1) / nrBands;
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int start = 0; start < rect.height; start += bandHeight) {
+         final int bandStart = start;
+         final int bandEnd = Math.min(start + bandHeight, rect.height);
+         tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               int xEnd = rect.x + rect.width;
+               for (int i = firstSpot(rect.y + bandStart - halo, factor); 
+                       i < nrSpots_; i++) {
+                  int y = (int) (factor * yNm_[i]) - rect.y;
+                  if (y >= bandEnd + halo) {
+                     break;
+                  }
+                  int x = (int) (factor * xNm_[i]);
+                  if (x >= rect.x - halo && x < xEnd + halo) {
+                     renderer.render(i, x - rect.x, y, bandStart, bandEnd);
+                  }
+               }
+               return null;
+            }
+         });
+      }
+      try {
+         for (Future<Void> f : getExecutor().invokeAll(tasks)) {
+            f.get();
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof Error) {
+            throw (Error) ee.getCause();
+         }
+         throw new RuntimeException(ee.getCause());
+      }
+   }
+   
+   private static synchronized ExecutorService getExecutor() {
+      if (executor_ == null) {
+         executor_ = Executors.newFixedThreadPool(NR_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "Spot renderer");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      return executor_;
+   }
+   
+}
@@ -35,10 +35,18 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.math.linear.Array2DRowRealMatrix;
 import org.apache.commons.math.linear.DecompositionSolver;
 import org.apache.commons.math.linear.LUDecompositionImpl;
@@ -59,6 +67,11 @@ public class CoordinateMapper {
    final private ExponentPairs exponentPairs_;
    final private ControlPoints controlPoints_;
    final private EnhancedKDTree kdTree_;
+   final private Point2D.Double[] keyArray_;
+   final private ControlPoint[] controlPointArray_;
+   // local affine transforms for piecewise affine, by set of control points
+   final private Map<NeighborSet, AffineTransform> localTransforms_ = 
+           new ConcurrentHashMap<NeighborSet, AffineTransform>();
    final private int order_;
    final private PointMap pointMap_;
    private PointMap cleanedPointMap_ = null;
@@ -72,6 +85,9 @@ public class CoordinateMapper {
    private int method_ = LWM;
    private int pieceWiseAffineMaxControlPoints_ = 100;
    private double pieceWiseAffineMaxDistance_ = 5000.0;
+   
+   private static final int MAXCACHEDTRANSFORMS = 1 << 16;
+   private static final int BLOCKSIZE = 4096;
 
    /**
     * Shorthand name
@@ -196,7 +212,69 @@ public class CoordinateMapper {
          }
          return nearestNeighbors;
       }
+      
+      /**
+       * Indices (in the array used to build the tree) of the size points 
+       * closest to (x, y), in no particular order
+       */
+      @SuppressWarnings("unchecked")
+      public int[] nearestNeighborIndices(double x, double y, int size) {
+         List<Entry<Integer>> neighbors = super.nearestNeighbor(
+                 new double[] {x, y}, size, false);
+         int[] indices = new int[neighbors.size()];
+         for (int i = 0; i < indices.length; i++) {
+            indices[i] = neighbors.get(i).value;
+         }
+         return indices;
+      }
+      
+      /**
+       * Sorted indices of up to size points closest to (x, y) at a maximum 
+       * distance of maxDistance.  Selects the same points as 
+       * nearestNeighbor(testPoint, size, maxDistance).
+       */
+      @SuppressWarnings("unchecked")
+      public int[] nearestNeighborIndices(double x, double y, int size, 
+              double maxDistance) {
+         List<Entry<Integer>> neighbors = super.nearestNeighbor(
+                 new double[] {x, y}, size, false);
+         final double maxDistanceSquare = maxDistance * maxDistance;
+         int[] indices = new int[neighbors.size()];
+         int count = 0;
+         for (Entry<Integer> neighbor : neighbors) {
+            if (neighbor.distance <= maxDistanceSquare) {
+               indices[count++] = neighbor.value;
+            }
+         }
+         indices = Arrays.copyOf(indices, count);
+         Arrays.sort(indices);
+         return indices;
+      }
+
+   }
+   
+   /**
+    * Set of control point indices, used as key for cached local transforms
+    */
+   private static class NeighborSet {
+      private final int[] indices_;
+      private final int hash_;
+      
+      NeighborSet(int[] sortedIndices) {
+         indices_ = sortedIndices;
+         hash_ = Arrays.hashCode(sortedIndices);
+      }
 
+      @Override
+      public int hashCode() {
+         return hash_;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return o instanceof NeighborSet 
+                 && Arrays.equals(indices_, ((NeighborSet) o).indices_);
+      }
    }
 
    /**
@@ -296,9 +374,13 @@ public class CoordinateMapper {
 
    public static double evaluatePolynomial(double x, double y, double[] coeffs,
            ExponentPairs exponentPairs) {
+      return dotProduct(coeffs, powerTerms(x, y, exponentPairs));
+   }
+   
+   private static double dotProduct(double[] coeffs, double[] powerTerms) {
       double result = 0;
       for (int i=0;i<coeffs.length;++i) {
-           result += coeffs[i] * powerTerms(x, y, exponentPairs)[i];
+           result += coeffs[i] * powerTerms[i];
       }
       return result;
    }
@@ -488,14 +570,8 @@ public class CoordinateMapper {
       }
       if (method_ == AFFINE) {
          try {
-            if (cleanedPointMap_ == null) {
-               cleanedPointMap_ = makeCleanedPointMap();
-               af_ = generateAffineTransformFromPointPairs(cleanedPointMap_);
-               logAffineTransform(af_);
-               ij.IJ.log("Used " + cleanedPointMap_.size() + 
-                       " spot pairs to calculate 2C reference");
-            }
-            return (Point2D.Double) af_.transform(srcTestPoint, null);
+            return (Point2D.Double) getCleanedAffineTransform().
+                    transform(srcTestPoint, null);
          } catch (Exception ex) {
             return null;
          }
@@ -522,16 +598,190 @@ public class CoordinateMapper {
       return null;
    }
    
+   /**
+    * Transforms many points at once.  LWM and piecewise affine transforms
+    * are calculated in parallel.  Piecewise affine transforms are cached by
+    * the set of control points they are calculated from, so that they are 
+    * only calculated once for all points that share the same neighbors.
+    * 
+    * @param x - x coordinates of the points to be transformed
+    * @param y - y coordinates of the points to be transformed
+    * @param xOut - receives the transformed x coordinates, NaN for points
+    *             that could not be transformed.  May be the same array as x
+    * @param yOut - receives the transformed y coordinates, NaN for points
+    *             that could not be transformed.  May be the same array as y
+    * @return number of points that could not be transformed
+    * @throws InterruptedException 
+    */
+   public int transform(final double[] x, final double[] y, 
+           final double[] xOut, final double[] yOut) throws InterruptedException {
+      if (method_ == AFFINE || method_ == NONRFEFLECTIVESIMILARITY) {
+         AffineTransform af = rbAf_;
+         if (method_ == AFFINE) {
+            try {
+               af = getCleanedAffineTransform();
+            } catch (Exception ex) {
+               Arrays.fill(xOut, 0, x.length, Double.NaN);
+               Arrays.fill(yOut, 0, y.length, Double.NaN);
+               return x.length;
+            }
+         }
+         double[] pt = new double[2];
+         for (int i = 0; i < x.length; i++) {
+            pt[0] = x[i];
+            pt[1] = y[i];
+            af.transform(pt, 0, pt, 0, 1);
+            xOut[i] = pt[0];
+            yOut[i] = pt[1];
+         }
+         return 0;
+      }
+      
+      final int nrBlocks = (x.length + BLOCKSIZE - 1) / BLOCKSIZE;
+      final AtomicInteger nextBlock = new AtomicInteger(0);
+      final int method = method_;
+      final int maxControlPoints = pieceWiseAffineMaxControlPoints_;
+      final double maxDistance = pieceWiseAffineMaxDistance_;
+      int nrThreads = Math.max(1, Math.min(nrBlocks, 
+              Runtime.getRuntime().availableProcessors()));
+      List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+      for (int t = 0; t < nrThreads; t++) {
+         tasks.add(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+               // queries modify the kd tree, so every thread needs its own
+               EnhancedKDTree kdTree = new EnhancedKDTree(keyArray_);
+               double[] pt = new double[2];
+               int nrFailed = 0;
+               for (int block = nextBlock.getAndIncrement(); block < nrBlocks; 
+                       block = nextBlock.getAndIncrement()) {
+                  int end = Math.min(x.length, (block + 1) * BLOCKSIZE);
+                  for (int i = block * BLOCKSIZE; i < end; i++) {
+                     pt[0] = x[i];
+                     pt[1] = y[i];
+                     boolean success = method == LWM 
+                             ? lwmTransform(kdTree, pt) 
+                             : piecewiseAffineTransform(kdTree, pt, 
+                                     maxControlPoints, maxDistance);
+                     if (!success) {
+                        pt[0] = Double.NaN;
+                        pt[1] = Double.NaN;
+                        nrFailed++;
+                     }
+                     xOut[i] = pt[0];
+                     yOut[i] = pt[1];
+                  }
+               }
+               return nrFailed;
+            }
+         });
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+      int nrFailed = 0;
+      try {
+         for (Future<Integer> result : executor.invokeAll(tasks)) {
+            nrFailed += result.get();
+         }
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         throw new RuntimeException(ee.getCause());
+      } finally {
+         executor.shutdown();
+      }
+      return nrFailed;
+   }
+   
+   /**
+    * LWM transform of a single point, in place
+    * 
+    * @return false (leaving pt untouched) when no control point is close 
+    *          enough to pt to contribute
+    */
+   private boolean lwmTransform(EnhancedKDTree kdTree, double[] pt) {
+      final int[] neighbors = kdTree.nearestNeighborIndices(pt[0], pt[1], 20);
+      final double[] powerTerms = powerTerms(pt[0], pt[1], exponentPairs_);
+      double sumWeights = 0;
+      double sumWeightedPolyX = 0;
+      double sumWeightedPolyY = 0;
+      for (int index : neighbors) {
+         final ControlPoint controlPoint = controlPointArray_[index];
+         final double r = controlPoint.point.distance(pt[0], pt[1]) / 
+                 controlPoint.Rnormalized;
+         final double weight = weightFunction(r);
+         if (weight > 0) {
+            sumWeights += weight;
+            sumWeightedPolyX += weight * dotProduct(
+                    controlPoint.polynomialCoefficients.polyX, powerTerms);
+            sumWeightedPolyY += weight * dotProduct(
+                    controlPoint.polynomialCoefficients.polyY, powerTerms);
+         }
+      }
+      if (sumWeights <= 0) {
+         return false;
+      }
+      pt[0] = sumWeightedPolyX / sumWeights;
+      pt[1] = sumWeightedPolyY / sumWeights;
+      return true;
+   }
+   
+   /**
+    * Piecewise affine transform of a single point, in place
+    */
+   private boolean piecewiseAffineTransform(EnhancedKDTree kdTree, double[] pt,
+           int maxNrControlPoints, double maxDistance) {
+      int[] neighbors = kdTree.nearestNeighborIndices(pt[0], pt[1], 
+              maxNrControlPoints, maxDistance);
+      if (neighbors.length <= 10) {
+         return false;
+      }
+      NeighborSet key = new NeighborSet(neighbors);
+      AffineTransform af = localTransforms_.get(key);
+      if (af == null) {
+         List<Point2D.Double> srcPoints = new ArrayList<Point2D.Double>(
+                 neighbors.length);
+         for (int index : neighbors) {
+            srcPoints.add(keyArray_[index]);
+         }
+         try {
+            af = generateAffineTransformFromPointPairs(
+                    selectPoints(pointMap_, srcPoints));
+         } catch (Exception ex) {
+            return false;
+         }
+         if (localTransforms_.size() >= MAXCACHEDTRANSFORMS) {
+            localTransforms_.clear();
+         }
+         localTransforms_.put(key, af);
+      }
+      af.transform(pt, 0, pt, 0, 1);
+      return true;
+   }
+   
+   private synchronized AffineTransform getCleanedAffineTransform() {
+      if (cleanedPointMap_ == null) {
+         cleanedPointMap_ = makeCleanedPointMap();
+         af_ = generateAffineTransformFromPointPairs(cleanedPointMap_);
+         logAffineTransform(af_);
+         ij.IJ.log("Used " + cleanedPointMap_.size() + 
+                 " spot pairs to calculate 2C reference");
+      }
+      return af_;
+   }
+   
    public void setMethod(int method) {
       method_ = method;
    }
    
    public void setPieceWiseAffineMaxControlPoints(int max) {
       pieceWiseAffineMaxControlPoints_ = max;
+      localTransforms_.clear();
    }
    
    public void setPieceWiseAffineMaxDistance(double max) {
       pieceWiseAffineMaxDistance_ = max;
+      localTransforms_.clear();
    }
    
    private PointMap makeCleanedPointMap() {
@@ -595,9 +845,13 @@ public class CoordinateMapper {
       exponentPairs_ = polynomialExponents(order);
       final ArrayList<Point2D.Double> keys = new ArrayList<Point2D.Double>();
       keys.addAll(pointMap.keySet());
-      final Point2D.Double[] keyArray = keys.toArray(new Point2D.Double[]{});
-      kdTree_ = new EnhancedKDTree(keyArray);
+      keyArray_ = keys.toArray(new Point2D.Double[]{});
+      kdTree_ = new EnhancedKDTree(keyArray_);
       controlPoints_ = createControlPoints(kdTree_, order_, pointMap_);
+      controlPointArray_ = new ControlPoint[keyArray_.length];
+      for (int i = 0; i < keyArray_.length; i++) {
+         controlPointArray_[i] = controlPoints_.get(keyArray_[i]);
+      }
       
       // Set up Affine transform
       af_ = generateAffineTransformFromPointPairs(pointMap);
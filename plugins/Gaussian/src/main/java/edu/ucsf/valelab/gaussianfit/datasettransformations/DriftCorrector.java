@@ -31,24 +31,30 @@ package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
-import edu.ucsf.valelab.gaussianfit.algorithm.JitterDetector;
-import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
+import edu.ucsf.valelab.gaussianfit.algorithm.DriftCorrelator;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
-import ij.process.ByteProcessor;
-import ij.process.ImageProcessor;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import javax.swing.JOptionPane;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
  * @author nico
  */
 public class DriftCorrector {
+   
+   // largest drift between windows (in histogram pixels) that will be found
+   private static final int SEARCHRADIUS = 16;
 
    // storage of stage movement data
    class StageMovementData {
@@ -92,20 +98,6 @@ public class DriftCorrector {
             while (mag % 2 != 0)
                mag += 1;
                         
-            int width = mag * rowData.width_;
-            int height = mag * rowData.height_;                        
-            
-            int size = width * height;
-            
-            
-             // TODO: add 0 padding to deal with aberrant image sizes
-            if ( (width != height) || ( (width & (width - 1)) != 0) ) {
-               JOptionPane.showMessageDialog(getInstance(), 
-                 "Magnified image is not a square with a size that is a power of 2");
-               ij.IJ.showStatus(" ");
-               return;
-            }
-
             // TODO: what if we should go through nrSlices instead of nrFrames?
             boolean useSlices = false;
             int nrOfTests = rowData.nrFrames_ / framesToCombine;
@@ -134,141 +126,32 @@ public class DriftCorrector {
             }
             ArrayList<StageMovementData> stagePos = new ArrayList<StageMovementData>();
             
+            // assign every spot to a window of framesToCombine frames (or slices)
+            SpotTable spots = rowData.spotTable_;
+            int[] windowOfRow = new int[spots.size()];
+            for (int row = 0; row < spots.size(); row++) {
+               int j = useSlices ? spots.getSlice(row) - 1 : spots.getFrame(row) - 1;
+               windowOfRow[row] = j >= 0 && j / framesToCombine < nrOfTests ? 
+                       j / framesToCombine : -1;
+            }
+            
             try {
-               // make imageprocessors for all the images that we will generate
-               ImageProcessor[] ip = new ImageProcessor[nrOfTests];
-               byte[][] pixels = new byte[nrOfTests][width * height];
-               
-               for (int i = 0; i < nrOfTests; i++) {
-                  ip[i] = new ByteProcessor(width, height);
-                  ip[i].setPixels(pixels[i]);
-               }
-               
-               double factor = (double) mag / rowData.pixelSizeNm_;
-
-               // make 2D scattergrams of all pixelData
-               for (SpotData spot : rowData.spotList_) {
-                  int j;
-                  if (useSlices) {
-                     j = (spot.getSlice() - 1) / framesToCombine;
-                  } else {
-                     j = (spot.getFrame() - 1) / framesToCombine;
-                  }
-                  int x = (int) (factor * spot.getXCenter());
-                  int y = (int) (factor * spot.getYCenter());
-                  int index = (y * width) + x;
-                  if (index < size && index > 0) {
-                     if (pixels[j][index] != -1) {
-                        pixels[j][index] += 1;
-                     }
-                  }
-                  
-               }
-               
-               JitterDetector jd = new JitterDetector(ip[0]);
-               
-               Point2D.Double fp = new Point2D.Double(0.0, 0.0);
-               Point2D.Double com = new Point2D.Double(0.0, 0.0);
-               
-               jd.getJitter(ip[0], fp);
-               
-               for (int i = 1; i < ip.length; i++) {
-                  ij.IJ.showStatus("Executing jitter correction..." + i);
-                  ij.IJ.showProgress(i, ip.length);
-                  int spotCount = 0;
-                  for (int j=0; j < ip[i].getPixelCount(); j++) 
-                     spotCount += ip[i].get(j);
-                  
-                  jd.getJitter(ip[i], com);
-                  double x = (fp.x - com.x) / factor;
-                  double y = (fp.y - com.y) / factor;
-                  if (rowData.timePoints_ != null) {
-                     rowData.timePoints_.get(i);
-                  }
-                  stagePos.add(new StageMovementData(new Point2D.Double(x, y),
-                          new Point(i * framesToCombine, ((i + 1) * framesToCombine - 1))));
-                  System.out.println("i: " + i + " nSpots: " + spotCount + " X: " + x + " Y: " + y);
-               }
-               
-            } catch (OutOfMemoryError ex) {
-               // not enough memory to allocate all images in one go
-               // we need to cycle through all gaussian spots cycle by cycle
-
-               double factor = (double) mag / rowData.pixelSizeNm_;
-               
-               ImageProcessor ipRef = new ByteProcessor(width, height);
-               byte[] pixelsRef = new byte[width * height];
-               ipRef.setPixels(pixelsRef);
-
-
-               // take the first image as reference
-               for (SpotData spot : rowData.spotList_) {
-                  int j;
-                  if (useSlices) {
-                     j = (spot.getSlice() - 1) / framesToCombine;
-                  } else {
-                     j = (spot.getFrame() - 1) / framesToCombine;
-                  }
-                  if (j == 0) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
-                     int index = (y * width) + x;
-                     if (index < size && index > 0) {
-                        if (pixelsRef[index] != -1) {
-                           pixelsRef[index] += 1;
-                        }
-                     }
-                  }
-               }
-               
-               JitterDetector jd = new JitterDetector(ipRef);
-               
-               Point2D.Double fp = new Point2D.Double(0.0, 0.0);
-               jd.getJitter(ipRef, fp);
-               
-               Point2D.Double com = new Point2D.Double(0.0, 0.0);
-               ImageProcessor ipTest = new ByteProcessor(width, height);
-               byte[] pixelsTest = new byte[width * height];
-               ipTest.setPixels(pixelsTest);
-               
+               Point2D.Double[] drift = measureDrift(rowData, windowOfRow, 
+                       nrOfTests, mag);
                for (int i = 1; i < nrOfTests; i++) {
-                  ij.IJ.showStatus("Executing jitter correction..." + i);
-                  ij.IJ.showProgress(i, nrOfTests);
-                  for (int p = 0; p < size; p++) {
-                     ipTest.set(p, 0);
-                  }
-                  
-                  for (SpotData spot : rowData.spotList_) {
-                     int j;
-                     if (useSlices) {
-                        j = (spot.getSlice() - 1) / framesToCombine;
-                     } else {
-                        j = (spot.getFrame() - 1) / framesToCombine;
-                     }
-                     if (j == i) {
-                        int x = (int) (factor * spot.getXCenter());
-                        int y = (int) (factor * spot.getYCenter());
-                        int index = (y * width) + x;
-                        if (index < size && index > 0) {
-                           if (pixelsTest[index] != -1) {
-                              pixelsTest[index] += 1;
-                           }
-                        }
-                     }
-                  }
-                  
-                  jd.getJitter(ipTest, com);
-                  double x = (fp.x - com.x) / factor;
-                  double y = (fp.y - com.y) / factor;
-                  double timePoint = i;
-                  if (rowData.timePoints_ != null) {
-                     rowData.timePoints_.get(i);
-                  }
-                  stagePos.add(new StageMovementData(new Point2D.Double(x, y),
+                  stagePos.add(new StageMovementData(drift[i],
                           new Point(i * framesToCombine, ((i + 1) * framesToCombine - 1))));
-                  System.out.println("X: " + x + " Y: " + y);
                }
-               
+            } catch (OutOfMemoryError oom) {
+               System.gc();
+               ij.IJ.error("Out of Memory");
+               return;
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               return;
+            } catch (ExecutionException ee) {
+               ReportingUtils.logError(ee.getCause(), "Error during jitter correction");
+               return;
             }
             
             try {
@@ -412,119 +295,71 @@ public class DriftCorrector {
          mag += 1;
       }
 
-      int width = mag * rowData.width_;
-      int height = mag * rowData.height_;
-
-      int size = width * height;
-
-      // TODO: add 0 padding to deal with aberrant image sizes
-      if ((width != height) || ((width & (width - 1)) != 0)) {
-         JOptionPane.showMessageDialog(DataCollectionForm.getInstance(),
-                 "Magnified image is not a square with a size that is a power of 2");
-         ij.IJ.showStatus(" ");
-         return;
-      }
-
       // TODO: what if we should go through nrSlices instead of nrFrames?
       boolean useSlices = false;
-      //int nrOfTests = rowData.nrFrames_ / framesToCombine;
       if (rowData.nrFrames_ <= 1) {
          useSlices = true;
       }
       final int nrImages = useSlices ? rowData.nrSlices_ : rowData.nrFrames_;
 
-      ArrayList<StageMovementData> stagePos = new ArrayList<StageMovementData>();
-
-      double factor = (double) mag / rowData.pixelSizeNm_;
-           
-      // Assemble the reference image (the first one)
-      ImageProcessor ipRef = new ByteProcessor(width, height);
-      byte[] pixelsRef = new byte[width * height];
-      ipRef.setPixels(pixelsRef);
-
-      
-      Map<Integer, List<SpotData>> frameIndexSpotList = 
-              rowData.getSpotListIndexedByFrame();
-
-      int spotNr = 0;
-      int frameNr = 0;
-      while (spotNr < maxNrSpots && frameNr < maxNrFrames && frameNr < nrImages) {
-         List<SpotData> frameSpots = frameIndexSpotList.get(frameNr);
-         if (frameSpots != null) {
-            for (SpotData spot: frameSpots) {
-               int x = (int) (factor * spot.getXCenter());
-               int y = (int) (factor * spot.getYCenter());
-               int index = (y * width) + x;
-               if (index < size && index > 0) {
-                  if (pixelsRef[index] != -1) {
-                     pixelsRef[index] += 1;
-                  }
-               }
-               spotNr++;
-            }
+      // count spots in every frame (or slice), index is frame - 1
+      SpotTable spots = rowData.spotTable_;
+      int[] spotsInImage = new int[nrImages];
+      for (int row = 0; row < spots.size(); row++) {
+         int image = useSlices ? spots.getSlice(row) - 1 : spots.getFrame(row) - 1;
+         if (image >= 0 && image < nrImages) {
+            spotsInImage[image]++;
          }
-         frameNr++;
       }
-
-      JitterDetector jd = new JitterDetector(ipRef);
-
-      Point2D.Double fp = new Point2D.Double(0.0, 0.0);
-      jd.getJitter(ipRef, fp);
-
       
-      // Assemble images for all subsequent frames and calculate cross-correlation with the first image
-      Point2D.Double com = new Point2D.Double(0.0, 0.0);
-      ImageProcessor ipTest = new ByteProcessor(width, height);
-      byte[] pixelsTest = new byte[width * height];
-      ipTest.setPixels(pixelsTest);
-
-      int estimatedNrTests;
-      int testNr = 1;
-
-      while (frameNr < nrImages) {
-         estimatedNrTests = nrImages / (frameNr / testNr) + 1;
-         ij.IJ.showStatus("Executing jitter correction..." + testNr
-                 + "/" + estimatedNrTests);
-         ij.IJ.showProgress(testNr, estimatedNrTests);
-         for (int p = 0; p < size; p++) {
-            ipTest.set(p, 0);
-         }
-
-         int tmpFrameNr = 0;
-         spotNr = 0;
-
-         while (spotNr < maxNrSpots && tmpFrameNr < maxNrFrames && frameNr < nrImages) {
-            List<SpotData> frameSpots = frameIndexSpotList.get(frameNr); 
-            if (frameSpots != null) {
-               for (SpotData spot : frameSpots) {
-                  int x = (int) (factor * spot.getXCenter());
-                  int y = (int) (factor * spot.getYCenter());
-                  int index = (y * width) + x;
-                  if (index < size && index > 0) {
-                     if (pixelsTest[index] != -1) {
-                        pixelsTest[index] += 1;
-                     }
-                  }
-                  spotNr++;
-               }
-            }
-            tmpFrameNr++;
-            frameNr++;
+      // Divide the images in windows of at most maxNrFrames images,
+      // and (unless that single image has more) at most maxNrSpots spots.  
+      // The first window is the reference
+      List<Point> windows = new ArrayList<Point>();
+      int[] windowOfImage = new int[nrImages];
+      int imageNr = 0;
+      while (imageNr < nrImages) {
+         int first = imageNr;
+         int spotNr = 0;
+         while (imageNr < nrImages && (imageNr == first || 
+                 (spotNr < maxNrSpots && imageNr - first < maxNrFrames))) {
+            spotNr += spotsInImage[imageNr];
+            windowOfImage[imageNr] = windows.size();
+            imageNr++;
          }
+         windows.add(new Point(first, imageNr - 1));
+      }
+      int[] windowOfRow = new int[spots.size()];
+      for (int row = 0; row < spots.size(); row++) {
+         int image = useSlices ? spots.getSlice(row) - 1 : spots.getFrame(row) - 1;
+         windowOfRow[row] = image >= 0 && image < nrImages ? 
+                 windowOfImage[image] : -1;
+      }
 
-         jd.getJitter(ipTest, com);
-         double x = (fp.x - com.x) / factor;
-         double y = (fp.y - com.y) / factor;
-         if (rowData.timePoints_ != null) {
-            rowData.timePoints_.get(frameNr);
+      ArrayList<StageMovementData> stagePos = new ArrayList<StageMovementData>();
+      try {
+         Point2D.Double[] drift = measureDrift(rowData, windowOfRow, 
+                 windows.size(), mag);
+         for (int i = 1; i < windows.size(); i++) {
+            stagePos.add(new StageMovementData(drift[i], windows.get(i)));
          }
-         stagePos.add(new StageMovementData(new Point2D.Double(x, y),
-                 new Point(frameNr - tmpFrameNr, frameNr - 1)));
-         System.out.println("X: " + x + " Y: " + y);
-         testNr++;
+      } catch (OutOfMemoryError oom) {
+         System.gc();
+         ij.IJ.error("Out of Memory");
+         return;
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         return;
+      } catch (ExecutionException ee) {
+         ReportingUtils.logError(ee.getCause(), "Error during jitter correction");
+         return;
       }
-
-
+      
+      if (stagePos.isEmpty()) {
+         ij.IJ.showStatus("Not enough data for jitter correction");
+         return;
+      }
+      
       // Assemble stage movement data into a track
       try {
          List<SpotData> stageMovementData = new ArrayList<SpotData>();
@@ -609,6 +444,109 @@ public class DriftCorrector {
       }
    }
 
+   /**
+    * Renders the spots of each window into a magnified 2D histogram and 
+    * measures the drift of every window relative to the first window by
+    * cross-correlation.  The transform of the first window is calculated 
+    * once, other windows are processed in parallel.
+    * 
+    * @param rowData spot data
+    * @param windowOfRow window that each spot (row in the spot table) belongs
+    *          to, or -1 for spots that are not used
+    * @param nrWindows number of windows
+    * @param mag size of a camera pixel in histogram pixels
+    * @return drift (in nm) of each window, the first window has no drift
+    */
+   private static Point2D.Double[] measureDrift(final RowData rowData, 
+           int[] windowOfRow, final int nrWindows, int mag) 
+           throws InterruptedException, ExecutionException {
+      final int width = mag * rowData.width_;
+      final int height = mag * rowData.height_;
+      final double factor = (double) mag / rowData.pixelSizeNm_;
+      
+      // rows belonging to each window
+      int[] counts = new int[nrWindows];
+      for (int w : windowOfRow) {
+         if (w >= 0) {
+            counts[w]++;
+         }
+      }
+      final int[][] windowRows = new int[nrWindows][];
+      for (int w = 0; w < nrWindows; w++) {
+         windowRows[w] = new int[counts[w]];
+         counts[w] = 0;
+      }
+      for (int row = 0; row < windowOfRow.length; row++) {
+         int w = windowOfRow[row];
+         if (w >= 0) {
+            windowRows[w][counts[w]++] = row;
+         }
+      }
+      
+      Point2D.Double[] drift = new Point2D.Double[nrWindows];
+      drift[0] = new Point2D.Double(0.0, 0.0);
+      if (nrWindows < 2) {
+         return drift;
+      }
+      final SpotTable spots = rowData.spotTable_;
+      final DriftCorrelator correlator = new DriftCorrelator(
+              histogram(spots, windowRows[0], width, height, factor), 
+              width, height, SEARCHRADIUS);
+      final AtomicInteger nrDone = new AtomicInteger(0);
+      List<Callable<Point2D.Double>> tasks = new ArrayList<Callable<Point2D.Double>>();
+      for (int w = 1; w < nrWindows; w++) {
+         final int[] rows = windowRows[w];
+         tasks.add(new Callable<Point2D.Double>() {
+            @Override
+            public Point2D.Double call() {
+               Point2D.Double shift = correlator.getShift(
+                       histogram(spots, rows, width, height, factor));
+               int done = nrDone.incrementAndGet();
+               ij.IJ.showStatus("Executing jitter correction..." + done);
+               ij.IJ.showProgress(done, nrWindows - 1);
+               return new Point2D.Double(shift.x / factor, shift.y / factor);
+            }
+         });
+      }
+      // every thread needs a histogram and the correlator's work buffers,
+      // so don't start more threads than fit in the memory that is left
+      Runtime runtime = Runtime.getRuntime();
+      long freeMemory = runtime.maxMemory() 
+              - (runtime.totalMemory() - runtime.freeMemory());
+      long bytesPerThread = correlator.getBytesPerThread() + 4L * width * height;
+      int nrThreads = (int) Math.max(1, Math.min(Math.min(tasks.size(), 
+              runtime.availableProcessors()), freeMemory / 2 / bytesPerThread));
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+      try {
+         List<Future<Point2D.Double>> results = executor.invokeAll(tasks);
+         for (int w = 1; w < nrWindows; w++) {
+            drift[w] = results.get(w - 1).get();
+         }
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         throw ee;
+      } finally {
+         executor.shutdown();
+      }
+      return drift;
+   }
    
+   /**
+    * 2D histogram of spot positions
+    */
+   private static float[] histogram(SpotTable spots, int[] rows, int width, 
+           int height, double factor) {
+      float[] pixels = new float[width * height];
+      for (int row : rows) {
+         int x = (int) (factor * spots.getXCenter(row));
+         int y = (int) (factor * spots.getYCenter(row));
+         if (x >= 0 && x < width && y >= 0 && y < height) {
+            pixels[y * width + x] += 1.0f;
+         }
+      }
+      return pixels;
+   }
 
-}
\ No newline at end of file
+}
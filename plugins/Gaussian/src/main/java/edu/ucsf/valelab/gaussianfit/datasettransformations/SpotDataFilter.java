@@ -30,6 +30,7 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -115,6 +116,33 @@ public class SpotDataFilter {
       return true;
    }
    
-   
+   /**
+    * Indicates whether or not a spot in a SpotTable is acceptable. 
+    * Same criteria as filter(SpotData), but avoids creating a SpotData
+    * 
+    * @param spots - table holding the spot
+    * @param row - index of the spot in the table
+    * @return true if spot is acceptable
+    */
+   public boolean filter (SpotTable spots, int row) {
+      if (useSigma_) {
+         if (spots.getSigma(row) < sigmaMin_ || spots.getSigma(row) > sigmaMax_)
+            return false;
+      }
+      if (useIntensity_) {
+         if (spots.getIntensity(row) < intensityMin_ || spots.getIntensity(row) > intensityMax_)
+            return false;
+      }
+      for (Map.Entry<String, Extremes> entry : itemFilter_.entrySet()) {
+         Double value = spots.getValue(entry.getKey(), row);
+         if (value != null) {
+            if (value < entry.getValue().minimum_ || value > entry.getValue().maximum_) {
+               return false;
+            }
+         }
+      }
+      
+      return true;
+   }
    
 }
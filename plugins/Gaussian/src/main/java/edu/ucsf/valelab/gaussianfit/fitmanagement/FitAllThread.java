@@ -51,19 +51,23 @@ import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.concurrent.LinkedBlockingQueue;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import ij.ImageStack;
 import ij.plugin.HyperStackConverter;
 import ij.process.ShortProcessor;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
@@ -329,6 +333,8 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
       }
       int nrImages = nrChannels * siPlus.getNSlices() * siPlus.getNFrames();
       int imageCount = 0;
+      ExecutorService detectionPool = Executors.newFixedThreadPool(nrThreads_);
+      LinkedList<Future<Integer>> detections = new LinkedList<Future<Integer>>();
       try {
          for (int c = 1; c <= siPlus.getNChannels(); c++) {
             if (!running_) {
@@ -357,8 +363,8 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
                      imageCount++;
                      ij.IJ.showStatus("Processing image " + imageCount);
 
-                     ImageProcessor siProc = null;
-                     Polygon p = new Polygon();
+                     ImageProcessor siProc;
+                     List<Rectangle> searchAreas = new ArrayList<Rectangle>();
                      synchronized (SpotData.LOCK_IP) {
                         siPlus.setPositionWithoutUpdate(c, z, f);
                         // If ROI manager is used, use RoiManager Rois
@@ -371,60 +377,37 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
                         if (rois != null && rois.length > 0) {
                            for (Roi roi : rois) {
                               siPlus.setRoi(roi, false);
-                              siProc = siPlus.getProcessor();
-                              Polygon q = FindLocalMaxima.FindMax(siPlus, 
-                                      2 * super.getHalfBoxSize(), noiseTolerance_,
-                                      preFilterType_);
-                              for (int i = 0; i < q.npoints; i++) {
-                                 p.addPoint(q.xpoints[i], q.ypoints[i]);
-                              }
+                              searchAreas.add(siPlus.getProcessor().getRoi());
                            }
                         } else {  // no Rois in RoiManager
                            siPlus.setRoi(originalRoi, false);
-                           siProc = siPlus.getProcessor();
-                           p = FindLocalMaxima.FindMax(siPlus, 2 * super.getHalfBoxSize(), noiseTolerance_,
-                                   preFilterType_);
+                           searchAreas.add(siPlus.getProcessor().getRoi());
                         }
+                        // the ImagePlus processor is reused for the next frame, 
+                        // so give the detection task its own copy of the pixels
+                        siProc = siPlus.getProcessor().duplicate();
                      }
 
                      ij.IJ.showProgress(imageCount, nrImages);
 
-                     if (p.npoints > nrSpots) {
-                        nrSpots = p.npoints;
-                     }
-                     int[][] sC = new int[p.npoints][2];
-                     for (int j = 0; j < p.npoints; j++) {
-                        sC[j][0] = p.xpoints[j];
-                        sC[j][1] = p.ypoints[j];
-                     }
-
-                     Arrays.sort(sC, new SpotSortComparator());
-
-                     for (int j = 0; j < sC.length; j++) {
-                        // filter out spots too close to the edge
-                        if (sC[j][0] > halfSize && sC[j][0] < siPlus.getWidth() - halfSize
-                                && sC[j][1] > halfSize && sC[j][1] < siPlus.getHeight() - halfSize) {
-                           ImageProcessor sp = SpotData.getSpotProcessor(siProc,
-                                   halfSize, sC[j][0], sC[j][1]);
-                           if (sp == null) {
-                              continue;
-                           }
-                           int channel = c;
-
-                           SpotData thisSpot = new SpotData(sp, channel, z, f,
-                                   position, j, sC[j][0], sC[j][1]);
-                           try {
-                              sourceList_.put(thisSpot);
-                           } catch (InterruptedException iex) {
-                              Thread.currentThread().interrupt();
-                              throw new RuntimeException("Unexpected interruption");
-                           }
-                        }
+                     // detect spots in the background, but do not get too far
+                     // ahead of the detectors, so that only a few frames are 
+                     // in memory
+                     if (detections.size() >= 2 * nrThreads_) {
+                        nrSpots = Math.max(nrSpots, 
+                                waitForDetection(detections.removeFirst()));
                      }
+                     detections.add(detectionPool.submit(new SpotDetector(siProc,
+                             searchAreas, c, z, f, position, siPlus.getWidth(), 
+                             siPlus.getHeight())));
                   }
                }
             }
          }
+         while (!detections.isEmpty()) {
+            nrSpots = Math.max(nrSpots, 
+                    waitForDetection(detections.removeFirst()));
+         }
          // start ProgresBar thread
          ProgressThread pt = new ProgressThread(sourceList_);
          pt.init();
@@ -433,6 +416,10 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
       } catch (OutOfMemoryError ome) {
          ij.IJ.error("Out Of Memory");
       }
+      for (Future<Integer> detection : detections) {
+         detection.cancel(true);
+      }
+      detectionPool.shutdown();
 
       // Send working threads signal that we are done:
       SpotData lastSpot = new SpotData(null, -1, 1, -1, -1, -1, -1, -1);
@@ -460,6 +447,95 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
    }
    
 
+   private int waitForDetection(Future<Integer> detection) {
+      try {
+         return detection.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Unexpected interruption");
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         ReportingUtils.logError(ee);
+         return 0;
+      }
+   }
+   
+   
+   /**
+    * Finds the spots in one image and adds them to the source list for the 
+    * fitting threads
+    * Returns the number of maxima found
+    */
+   private class SpotDetector implements Callable<Integer> {
+      private final ImageProcessor siProc_;
+      private final List<Rectangle> searchAreas_;
+      private final int channel_;
+      private final int slice_;
+      private final int frame_;
+      private final int position_;
+      private final int width_;
+      private final int height_;
+      
+      SpotDetector(ImageProcessor siProc, List<Rectangle> searchAreas, 
+              int channel, int slice, int frame, int position, int width, 
+              int height) {
+         siProc_ = siProc;
+         searchAreas_ = searchAreas;
+         channel_ = channel;
+         slice_ = slice;
+         frame_ = frame;
+         position_ = position;
+         width_ = width;
+         height_ = height;
+      }
+      
+      @Override
+      public Integer call() {
+         int halfSize = getHalfBoxSize();
+         Polygon p = new Polygon();
+         for (Rectangle area : searchAreas_) {
+            Polygon q = FindLocalMaxima.FindMax(siProc_, area,
+                    2 * halfSize, noiseTolerance_, preFilterType_);
+            for (int i = 0; i < q.npoints; i++) {
+               p.addPoint(q.xpoints[i], q.ypoints[i]);
+            }
+         }
+
+         int[][] sC = new int[p.npoints][2];
+         for (int j = 0; j < p.npoints; j++) {
+            sC[j][0] = p.xpoints[j];
+            sC[j][1] = p.ypoints[j];
+         }
+
+         Arrays.sort(sC, new SpotSortComparator());
+
+         for (int j = 0; j < sC.length; j++) {
+            // filter out spots too close to the edge
+            if (sC[j][0] > halfSize && sC[j][0] < width_ - halfSize
+                    && sC[j][1] > halfSize && sC[j][1] < height_ - halfSize) {
+               ImageProcessor sp = SpotData.getSpotProcessor(siProc_,
+                       halfSize, sC[j][0], sC[j][1]);
+               if (sp == null) {
+                  continue;
+               }
+
+               SpotData thisSpot = new SpotData(sp, channel_, slice_, frame_,
+                       position_, j, sC[j][0], sC[j][1]);
+               try {
+                  sourceList_.put(thisSpot);
+               } catch (InterruptedException iex) {
+                  Thread.currentThread().interrupt();
+                  throw new RuntimeException("Unexpected interruption");
+               }
+            }
+         }
+         return p.npoints;
+      }
+   }
+   
+
    private class SpotSortComparator implements Comparator {
 
       // Return the result of comparing the two row arrays
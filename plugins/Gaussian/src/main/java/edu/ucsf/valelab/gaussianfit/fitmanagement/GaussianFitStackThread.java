@@ -39,6 +39,7 @@ import edu.ucsf.valelab.gaussianfit.data.SpotData;
 import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import ij.ImagePlus;
 import ij.process.ImageProcessor;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
@@ -50,6 +51,9 @@ import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
  */
 public class GaussianFitStackThread extends GaussianInfo implements Runnable {
 
+   // number of spots a thread takes from the source queue at a time
+   private static final int BATCH_SIZE = 64;
+
    Thread t_;
    boolean stopNow_ = false;
 
@@ -85,45 +89,57 @@ public class GaussianFitStackThread extends GaussianInfo implements Runnable {
             super.getUseFixedWidth(), super.getFixedWidthNm() / super.getPixelSize() / 2);
       ZCalibrator zc = DataCollectionForm.zc_;
 
+      List<SpotData> batch = new ArrayList<SpotData>(BATCH_SIZE);
       while (!stopNow_) {
-         SpotData spot;
-         synchronized (GFSLOCK) {
-            try {
-               spot = sourceList_.take();
-               // Look for signal that we are done, add back to queue if found
-               if (spot.getFrame() == -1) {
-                  sourceList_.add(spot);
-                  return;
-               }
-            } catch (InterruptedException iExp) {
-               ij.IJ.log("Thread interruped  " + Thread.currentThread().getName());
-               return;
-            }
+         // block for one spot, then take whatever else is waiting (up to 
+         // BATCH_SIZE) so that threads do not contend for every single spot
+         batch.clear();
+         try {
+            batch.add(sourceList_.take());
+         } catch (InterruptedException iExp) {
+            ij.IJ.log("Thread interruped  " + Thread.currentThread().getName());
+            return;
          }
+         sourceList_.drainTo(batch, BATCH_SIZE - 1);
 
-         try {
-            // Note: the implementation will try to return a cached version of the ImageProcessor
-            ImageProcessor ip = spot.getSpotProcessor(siPlus_, super.getHalfBoxSize());
-            GaussianFit.Data fitResult = gs_.dogaussianfit(ip, maxIterations_);
-            // Note that the copy constructor will not copy pixel data, so we loose 
-            // those when spot goes out of scope
-            SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
-            
-            if ( fitResult.getParms().length > 1 &&
-                    (!useWidthFilter_ || 
-                    (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
-                    && (!useNrPhotonsFilter_ || 
-                    (spotData.getIntensity() > nrPhotonsMin_ && spotData.getIntensity() < nrPhotonsMax_))) {
-               resultList_.add(spotData);
+         boolean done = false;
+         for (SpotData spot : batch) {
+            if (stopNow_) {
+               return;
+            }
+            // Look for signal that we are done, add back to queue if found
+            if (spot.getFrame() == -1) {
+               sourceList_.add(spot);
+               done = true;
+               continue;
             }
+            try {
+               // Note: the implementation will try to return a cached version of the ImageProcessor
+               ImageProcessor ip = spot.getSpotProcessor(siPlus_, super.getHalfBoxSize());
+               GaussianFit.Data fitResult = gs_.dogaussianfit(ip, maxIterations_);
+               // Note that the copy constructor will not copy pixel data, so we loose 
+               // those when spot goes out of scope
+               SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
+
+               if ( fitResult.getParms().length > 1 &&
+                       (!useWidthFilter_ || 
+                       (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
+                       && (!useNrPhotonsFilter_ || 
+                       (spotData.getIntensity() > nrPhotonsMin_ && spotData.getIntensity() < nrPhotonsMax_))) {
+                  resultList_.add(spotData);
+               }
 
 
-         } catch (Exception ex) {
-            ReportingUtils.logError(ex);
-            ReportingUtils.logError("Thread run out of memory  " + 
-                    Thread.currentThread().getName());
-            ReportingUtils.showError("Fitter out of memory.\n" +
-                    "Out of memory error");
+            } catch (Exception ex) {
+               ReportingUtils.logError(ex);
+               ReportingUtils.logError("Thread run out of memory  " + 
+                       Thread.currentThread().getName());
+               ReportingUtils.showError("Fitter out of memory.\n" +
+                       "Out of memory error");
+               return;
+            }
+         }
+         if (done) {
             return;
          }
       }
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2026, Micro-Manager contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+
+/**
+ * Levenberg-Marquardt fit of a 2D Gaussian to a small image, using the
+ * closed form Jacobians of the functions in GaussianUtils.
+ *
+ * All working memory (data, weights, normal equations) is allocated once
+ * and reused, so a fitter should be owned by a single thread and used for
+ * many spots in a row.  For the circular and x/y asymmetric shapes the
+ * exponential is separable, so only width + height exponentials are
+ * evaluated per iteration rather than one per pixel.
+ */
+public class GaussianLMFitter {
+   private static final int INT = GaussianUtils.INT;
+   private static final int BGR = GaussianUtils.BGR;
+   private static final int XC = GaussianUtils.XC;
+   private static final int YC = GaussianUtils.YC;
+   private static final int S = GaussianUtils.S;
+   private static final int S1 = GaussianUtils.S1;
+   private static final int S2 = GaussianUtils.S2;
+   private static final int S3 = GaussianUtils.S3;
+
+   private static final double INITIAL_LAMBDA = 0.001;
+   private static final double MAX_LAMBDA = 1e10;
+
+   private final int shape_;
+   private final double s_;
+   private final boolean fitWidth_;
+   private final int nParams_;
+
+   // per-pixel workspace, grown when a larger image is fitted
+   private double[] data_ = new double[0];
+   private double[] weights_ = new double[0];
+   private double[] ex_ = new double[0];
+   private double[] ey_ = new double[0];
+   // per-parameter workspace
+   private final double[] row_;
+   private final double[] alpha_;
+   private final double[] beta_;
+   private final double[] lhs_;
+   private final double[] delta_;
+   private final double[] trial_;
+   private final double[] current_;
+
+   /**
+    *
+    * @param shape 1=circle, 2=width varies in x and y, 3=ellipse
+    * @param s width of Gaussian in pixels, negative if it should be fitted
+    */
+   public GaussianLMFitter(final int shape, final double s) {
+      shape_ = shape;
+      s_ = s;
+      fitWidth_ = s <= 0.0;
+      if (shape_ == 1) {
+         nParams_ = fitWidth_ ? 5 : 4;
+      } else if (shape_ == 2) {
+         nParams_ = 6;
+      } else {
+         nParams_ = 7;
+      }
+      row_ = new double[nParams_];
+      alpha_ = new double[nParams_ * nParams_];
+      beta_ = new double[nParams_];
+      lhs_ = new double[nParams_ * nParams_];
+      delta_ = new double[nParams_];
+      trial_ = new double[nParams_];
+      current_ = new double[nParams_];
+   }
+
+   /**
+    * Fits the Gaussian to the image.
+    *
+    * @param pixels 16-bit image data
+    * @param width width of the image
+    * @param height height of the image
+    * @param start initial estimate of the parameters
+    * @param weighted if true, weigh every pixel with 1 / value (as
+    *                   in Levenberg Marquardt MLE mode)
+    * @param maxIterations maximum number of Levenberg Marquardt steps
+    * @return fitted parameters, in the same order as start
+    * @throws FittingException when the fit does not yield finite parameters
+    */
+   public double[] fit(short[] pixels, int width, int height, double[] start,
+           boolean weighted, int maxIterations) throws FittingException {
+      int n = width * height;
+      ensureCapacity(n, width, height);
+      for (int i = 0; i < n; i++) {
+         data_[i] = pixels[i] & 0xffff;
+         weights_[i] = weighted ? 1.0 / Math.max(data_[i], 1.0) : 1.0;
+      }
+      System.arraycopy(start, 0, current_, 0, nParams_);
+
+      double lambda = INITIAL_LAMBDA;
+      double chi2 = buildNormalEquations(current_, width, height);
+      for (int iteration = 0; iteration < maxIterations; iteration++) {
+         boolean improved = false;
+         while (!improved && lambda < MAX_LAMBDA) {
+            for (int i = 0; i < nParams_ * nParams_; i++) {
+               lhs_[i] = alpha_[i];
+            }
+            for (int i = 0; i < nParams_; i++) {
+               lhs_[i * nParams_ + i] = alpha_[i * nParams_ + i] * (1.0 + lambda);
+            }
+            if (!solve(lhs_, beta_, delta_)) {
+               lambda *= 10;
+               continue;
+            }
+            for (int i = 0; i < nParams_; i++) {
+               trial_[i] = current_[i] + delta_[i];
+            }
+            double trialChi2 = chiSquare(trial_, width, height);
+            if (trialChi2 < chi2) {
+               improved = true;
+               lambda = Math.max(lambda / 10, 1e-12);
+               boolean converged = converged(current_, trial_) ||
+                       (chi2 - trialChi2) < 1e-9 * chi2;
+               System.arraycopy(trial_, 0, current_, 0, nParams_);
+               if (converged) {
+                  return finish();
+               }
+               chi2 = buildNormalEquations(current_, width, height);
+            } else {
+               lambda *= 10;
+            }
+         }
+         if (!improved) {
+            // no step reduces the residual any further
+            break;
+         }
+      }
+      return finish();
+   }
+
+   private double[] finish() throws FittingException {
+      for (int i = 0; i < nParams_; i++) {
+         if (Double.isNaN(current_[i]) || Double.isInfinite(current_[i])) {
+            throw new FittingException("Gaussian fit did not converge");
+         }
+      }
+      double[] result = new double[nParams_];
+      System.arraycopy(current_, 0, result, 0, nParams_);
+      return result;
+   }
+
+   /**
+    * Same criteria as the convergence checker used with the commons math
+    * Levenberg Marquardt optimizer in GaussianFit
+    */
+   private boolean converged(double[] p, double[] c) {
+      boolean sOK = true;
+      if (nParams_ > S) {
+         sOK = Math.abs(p[S] - c[S]) < 5;
+      }
+      return Math.abs(p[INT] - c[INT]) < 10 &&
+              Math.abs(p[BGR] - c[BGR]) < 0.2 &&
+              Math.abs(p[XC] - c[XC]) < 0.01 &&
+              Math.abs(p[YC] - c[YC]) < 0.01 &&
+              sOK;
+   }
+
+   private void ensureCapacity(int n, int width, int height) {
+      if (data_.length < n) {
+         data_ = new double[n];
+         weights_ = new double[n];
+      }
+      if (ex_.length < width) {
+         ex_ = new double[width];
+      }
+      if (ey_.length < height) {
+         ey_ = new double[height];
+      }
+   }
+
+   /**
+    * Fills ex_ and ey_ with the separable parts of the exponential
+    * (shapes 1 and 2 only)
+    */
+   private void separableExponentials(double[] p, int width, int height) {
+      double sx = shape_ == 1 ? (fitWidth_ ? p[S] : s_) : p[S1];
+      double sy = shape_ == 1 ? sx : p[S2];
+      double fx = 1.0 / (2 * sx * sx);
+      double fy = 1.0 / (2 * sy * sy);
+      for (int x = 0; x < width; x++) {
+         double dx = x - p[XC];
+         ex_[x] = Math.exp(-dx * dx * fx);
+      }
+      for (int y = 0; y < height; y++) {
+         double dy = y - p[YC];
+         ey_[y] = Math.exp(-dy * dy * fy);
+      }
+   }
+
+   private double chiSquare(double[] p, int width, int height) {
+      double chi2 = 0.0;
+      if (shape_ == 3) {
+         for (int y = 0; y < height; y++) {
+            double dy = y - p[YC];
+            for (int x = 0; x < width; x++) {
+               double dx = x - p[XC];
+               double e = Math.exp(-(p[S1] * dx * dx + p[S3] * dy * dy +
+                       2.0 * p[S2] * dx * dy) / 2);
+               int i = y * width + x;
+               double r = p[INT] * e + p[BGR] - data_[i];
+               chi2 += weights_[i] * r * r;
+            }
+         }
+      } else {
+         separableExponentials(p, width, height);
+         for (int y = 0; y < height; y++) {
+            double ay = p[INT] * ey_[y];
+            for (int x = 0; x < width; x++) {
+               int i = y * width + x;
+               double r = ay * ex_[x] + p[BGR] - data_[i];
+               chi2 += weights_[i] * r * r;
+            }
+         }
+      }
+      return chi2;
+   }
+
+   /**
+    * Computes the Jacobian row of every pixel and accumulates the normal
+    * equations alpha = J^T W J and beta = -J^T W r
+    * @return weighted sum of squared residuals at p
+    */
+   private double buildNormalEquations(double[] p, int width, int height) {
+      final int np = nParams_;
+      double chi2 = 0.0;
+      if (shape_ != 3) {
+         separableExponentials(p, width, height);
+      }
+      double sx = shape_ == 1 ? (fitWidth_ ? p[S] : s_) : (shape_ == 2 ? p[S1] : 0);
+      double sy = shape_ == 1 ? sx : (shape_ == 2 ? p[S2] : 0);
+      double sx2 = sx * sx, sy2 = sy * sy;
+      for (int i = 0; i < np; i++) {
+         beta_[i] = 0.0;
+      }
+      for (int i = 0; i < np * np; i++) {
+         alpha_[i] = 0.0;
+      }
+      for (int y = 0; y < height; y++) {
+         double dy = y - p[YC];
+         for (int x = 0; x < width; x++) {
+            double dx = x - p[XC];
+            int pixel = y * width + x;
+            double e;
+            if (shape_ == 3) {
+               e = Math.exp(-(p[S1] * dx * dx + p[S3] * dy * dy +
+                       2.0 * p[S2] * dx * dy) / 2);
+            } else {
+               e = ex_[x] * ey_[y];
+            }
+            double q = p[INT] * e;
+            double r = q + p[BGR] - data_[pixel];
+            double w = weights_[pixel];
+            chi2 += w * r * r;
+
+            row_[INT] = e;
+            row_[BGR] = 1.0;
+            switch (shape_) {
+               case 1:
+                  row_[XC] = dx * q / sx2;
+                  row_[YC] = dy * q / sx2;
+                  if (fitWidth_) {
+                     row_[S] = (dx * dx + dy * dy) * q / (sx2 * sx);
+                  }
+                  break;
+               case 2:
+                  row_[XC] = dx * q / sx2;
+                  row_[YC] = dy * q / sy2;
+                  row_[S1] = dx * dx * q / (sx2 * sx);
+                  row_[S2] = dy * dy * q / (sy2 * sy);
+                  break;
+               default:
+                  row_[XC] = (p[S1] * dx + p[S2] * dy) * q;
+                  row_[YC] = (p[S2] * dx + p[S3] * dy) * q;
+                  row_[S1] = -0.5 * dx * dx * q;
+                  row_[S2] = -dx * dy * q;
+                  row_[S3] = -0.5 * dy * dy * q;
+                  break;
+            }
+            // accumulate upper triangle only
+            for (int a = 0; a < np; a++) {
+               double wja = w * row_[a];
+               beta_[a] -= wja * r;
+               for (int b = a; b < np; b++) {
+                  alpha_[a * np + b] += wja * row_[b];
+               }
+            }
+         }
+      }
+      for (int a = 0; a < np; a++) {
+         for (int b = 0; b < a; b++) {
+            alpha_[a * np + b] = alpha_[b * np + a];
+         }
+      }
+      return chi2;
+   }
+
+   /**
+    * Solves the symmetric positive definite system m x = b by Cholesky
+    * decomposition, overwriting m
+    * @return false if m is not positive definite
+    */
+   private boolean solve(double[] m, double[] b, double[] x) {
+      final int np = nParams_;
+      for (int i = 0; i < np; i++) {
+         for (int j = 0; j <= i; j++) {
+            double sum = m[i * np + j];
+            for (int k = 0; k < j; k++) {
+               sum -= m[i * np + k] * m[j * np + k];
+            }
+            if (i == j) {
+               if (sum <= 0.0 || Double.isNaN(sum)) {
+                  return false;
+               }
+               m[i * np + i] = Math.sqrt(sum);
+            } else {
+               m[i * np + j] = sum / m[j * np + j];
+            }
+         }
+      }
+      for (int i = 0; i < np; i++) {
+         double sum = b[i];
+         for (int k = 0; k < i; k++) {
+            sum -= m[i * np + k] * x[k];
+         }
+         x[i] = sum / m[i * np + i];
+      }
+      for (int i = np - 1; i >= 0; i--) {
+         double sum = x[i];
+         for (int k = i + 1; k < np; k++) {
+            sum -= m[k * np + i] * x[k];
+         }
+         x[i] = sum / m[i * np + i];
+      }
+      return true;
+   }
+
+}
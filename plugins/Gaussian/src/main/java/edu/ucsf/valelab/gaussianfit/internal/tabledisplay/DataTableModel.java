@@ -41,6 +41,7 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.internal.tabledisplay;
 
 import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.datasetdisplay.ImageRenderer;
 import java.util.ArrayList;
 import javax.swing.table.AbstractTableModel;
 
@@ -74,7 +75,7 @@ public class DataTableModel extends AbstractTableModel {
    }
    
    public void removeRow(int rowNr) {
-      rowData_.remove(rowNr);
+      ImageRenderer.forget(rowData_.remove(rowNr));
       super.fireTableRowsDeleted(rowNr, rowNr);
    }
    
@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.processor;
+
+import edu.ucsf.valelab.gaussianfit.MainForm;
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.FileDialogs;
+import org.micromanager.internal.utils.MMFrame;
+
+/**
+ * Configuration window for the live localization processor.  Fit settings
+ * are taken from the Localization Microscopy window when the user asks for 
+ * it, and stored with the pipeline settings from then on.
+ */
+public class LocalizationConfigurator extends MMFrame implements ProcessorConfigurator {
+   public static final String PREFILTER = "preFilter";
+   public static final String PASS_IMAGES = "passImages";
+   public static final String TSF_PATH = "tsfPath";
+
+   private final Studio studio_;
+   private final GaussianInfo info_;
+   private FindLocalMaxima.FilterType preFilterType_;
+   private final JLabel settingsLabel_;
+   private final JCheckBox passImages_;
+   private final JTextField tsfPath_;
+
+   public LocalizationConfigurator(PropertyMap settings, Studio studio) {
+      studio_ = studio;
+      info_ = new GaussianInfo();
+      info_.setFromPropertyMap(settings);
+      preFilterType_ = FindLocalMaxima.FilterType.valueOf(settings.getString(
+              PREFILTER, FindLocalMaxima.FilterType.NONE.toString()));
+
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel("<html>This \"processor\" finds and fits spots in "
+              + "every 16-bit image.<br>Results are shown in the Localization "
+              + "Microscopy data window when acquisition ends.</html>"), 
+              "span, wrap");
+
+      settingsLabel_ = new JLabel();
+      updateSettingsLabel();
+      panel.add(settingsLabel_, "span, wrap");
+      JButton copyButton = new JButton("Use settings from Localization Microscopy window");
+      copyButton.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            if (!MainForm.copyCurrentSettings(info_)) {
+               JOptionPane.showMessageDialog(LocalizationConfigurator.this, 
+                       "Please open the Localization Microscopy window first");
+               return;
+            }
+            preFilterType_ = MainForm.getCurrentPreFilterType();
+            updateSettingsLabel();
+            studio_.data().notifyPipelineChanged();
+         }
+      });
+      panel.add(copyButton, "span, wrap");
+
+      passImages_ = new JCheckBox("Pass images on");
+      passImages_.setSelected(settings.getBoolean(PASS_IMAGES, true));
+      passImages_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            studio_.data().notifyPipelineChanged();
+         }
+      });
+      panel.add(passImages_, "wrap");
+
+      panel.add(new JLabel("Also save localizations as TSF file (optional): "), "wrap");
+      tsfPath_ = new JTextField(30);
+      tsfPath_.setText(settings.getString(TSF_PATH, ""));
+      panel.add(tsfPath_, "split 2, span");
+      JButton browseButton = new JButton("...");
+      browseButton.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            File path = FileDialogs.save(LocalizationConfigurator.this,
+               "TSF file for localizations", FileDialogs.MM_DATA_SET);
+            if (path != null) {
+               String name = path.getAbsolutePath();
+               if (!name.endsWith(".tsf")) {
+                  name += ".tsf";
+               }
+               tsfPath_.setText(name);
+               studio_.data().notifyPipelineChanged();
+            }
+         }
+      });
+      panel.add(browseButton, "wrap");
+      add(panel);
+
+      loadAndRestorePosition(300, 300);
+   }
+   
+   private void updateSettingsLabel() {
+      settingsLabel_.setText("<html>Pixel size: " + info_.getPixelSize() 
+              + " nm, box size: " + (2 * info_.getHalfBoxSize()) 
+              + " pixels, noise tolerance: " + info_.getNoiseTolerance()
+              + ", pre-filter: " + preFilterType_ + "</html>");
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      PropertyMap.PropertyMapBuilder builder = studio_.data().getPropertyMapBuilder();
+      info_.addToPropertyMap(builder);
+      builder.putString(PREFILTER, preFilterType_.toString());
+      builder.putBoolean(PASS_IMAGES, passImages_.isSelected());
+      builder.putString(TSF_PATH, tsfPath_.getText());
+      return builder.build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
@@ -0,0 +1,341 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.processor;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.TSFWriter;
+import edu.ucsf.valelab.gaussianfit.fitmanagement.SpotDataConverter;
+import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
+import ij.process.ImageProcessor;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Finds and fits spots in every image that passes through the pipeline.
+ * Detection and fitting of each image run on a thread pool, so that the 
+ * pipeline is only held up when fitting falls more than a few images behind 
+ * acquisition.  Localizations are collected while images arrive (and
+ * optionally streamed to a TSF file), and are added to the Localization
+ * Microscopy data window when the acquisition ends.  Passing the raw images 
+ * on is optional.
+ * The TSF file is only created once the first image of an acquisition 
+ * arrives, so live mode does not write one, and existing files are never 
+ * overwritten: a number is added to the name instead.
+ * Live mode can run indefinitely, so only the last MAX_LIVE_SPOTS 
+ * localizations found in live mode are kept.
+ */
+public class LocalizationProcessor extends Processor {
+   private static final int QUEUED_IMAGES_PER_THREAD = 4;
+   private static final int MAX_LIVE_SPOTS = 250000;
+   
+   private final Studio studio_;
+   private final GaussianInfo info_;
+   private final FindLocalMaxima.FilterType preFilterType_;
+   private final boolean passImages_;
+   private final ExecutorService fitPool_;
+   private final Semaphore queuedImages_;
+   private final ThreadLocal<GaussianFit> fitters_;
+   // guarded by itself
+   private final ArrayDeque<SpotData> results_ = new ArrayDeque<SpotData>();
+   private long nrDroppedSpots_ = 0;
+   private volatile boolean isLive_ = false;
+   private final Object dimensionsLock_ = new Object();
+   private final String tsfPath_;
+   private TSFWriter tsfWriter_;
+   private boolean tsfOpened_ = false;
+   private String name_ = "Live localization";
+   private int width_ = 0;
+   private int height_ = 0;
+   private int nrChannels_ = 1;
+   private int nrSlices_ = 1;
+   private int nrFrames_ = 1;
+   private int nrPositions_ = 1;
+   private boolean warnedBitDepth_ = false;
+
+   public LocalizationProcessor(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      info_ = new GaussianInfo();
+      info_.setFromPropertyMap(settings);
+      preFilterType_ = FindLocalMaxima.FilterType.valueOf(settings.getString(
+              LocalizationConfigurator.PREFILTER, 
+              FindLocalMaxima.FilterType.NONE.toString()));
+      passImages_ = settings.getBoolean(LocalizationConfigurator.PASS_IMAGES, true);
+      tsfPath_ = settings.getString(LocalizationConfigurator.TSF_PATH, "");
+
+      final GaussianInfo info = info_;
+      fitters_ = new ThreadLocal<GaussianFit>() {
+         @Override
+         protected GaussianFit initialValue() {
+            return new GaussianFit(info.getShape(), info.getFitMode(),
+                    info.getUseFixedWidth(), 
+                    info.getFixedWidthNm() / info.getPixelSize() / 2);
+         }
+      };
+      int nrThreads = Math.min(8, Runtime.getRuntime().availableProcessors());
+      fitPool_ = Executors.newFixedThreadPool(nrThreads, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Live localization thread");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      queuedImages_ = new Semaphore(QUEUED_IMAGES_PER_THREAD * nrThreads);
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      if (summary.getPrefix() != null && !summary.getPrefix().isEmpty()) {
+         name_ = summary.getPrefix();
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      if (image.getBytesPerPixel() != 2 || image.getNumComponents() != 1) {
+         if (!warnedBitDepth_) {
+            ReportingUtils.logError("Live localization only works on 16-bit images");
+            warnedBitDepth_ = true;
+         }
+      } else {
+         isLive_ = studio_.live().getIsLiveModeOn();
+         if (!tsfOpened_ && !tsfPath_.isEmpty() && !isLive_) {
+            openTSFWriter();
+         }
+         submit(image);
+      }
+      if (passImages_) {
+         context.outputImage(image);
+      }
+   }
+   
+   /**
+    * Opens the TSF file for this acquisition, adding _1, _2, etc. to the 
+    * file name when the requested file already exists
+    */
+   private void openTSFWriter() {
+      tsfOpened_ = true;
+      File file = new File(tsfPath_);
+      String base = file.getName();
+      String extension = "";
+      int dot = base.lastIndexOf('.');
+      if (dot > 0) {
+         extension = base.substring(dot);
+         base = base.substring(0, dot);
+      }
+      for (int i = 1; file.exists(); i++) {
+         file = new File(file.getParentFile(), base + "_" + i + extension);
+      }
+      try {
+         tsfWriter_ = new TSFWriter(file, DataCollectionForm.zc_.hasFitFunctions());
+      } catch (IOException ioe) {
+         ReportingUtils.logError(ioe, "Failed to open " + file.getPath());
+      }
+   }
+   
+   private void submit(Image image) {
+      final ImageProcessor proc = studio_.data().ij().createProcessor(image);
+      Coords coords = image.getCoords();
+      // the Localization code uses 1-based indices
+      final int channel = coords.getChannel() + 1;
+      final int slice = coords.getZ() + 1;
+      final int frame = coords.getTime() + 1;
+      final int position = coords.getStagePosition() + 1;
+      synchronized (dimensionsLock_) {
+         width_ = image.getWidth();
+         height_ = image.getHeight();
+         nrChannels_ = Math.max(nrChannels_, channel);
+         nrSlices_ = Math.max(nrSlices_, slice);
+         nrFrames_ = Math.max(nrFrames_, frame);
+         nrPositions_ = Math.max(nrPositions_, position);
+      }
+      try {
+         queuedImages_.acquire();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         return;
+      }
+      fitPool_.submit(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               localize(proc, channel, slice, frame, position);
+            } catch (Exception ex) {
+               ReportingUtils.logError(ex, "Error during live localization");
+            } finally {
+               queuedImages_.release();
+            }
+         }
+      });
+   }
+
+   private void localize(ImageProcessor proc, int channel, int slice, 
+           int frame, int position) throws IOException {
+      int halfSize = info_.getHalfBoxSize();
+      Polygon p = FindLocalMaxima.FindMax(proc, 
+              new Rectangle(0, 0, proc.getWidth(), proc.getHeight()),
+              2 * halfSize, info_.getNoiseTolerance(), preFilterType_);
+      GaussianFit fitter = fitters_.get();
+      ZCalibrator zc = DataCollectionForm.zc_;
+      for (int j = 0; j < p.npoints; j++) {
+         int x = p.xpoints[j];
+         int y = p.ypoints[j];
+         // filter out spots too close to the edge
+         if (x <= halfSize || x >= proc.getWidth() - halfSize
+                 || y <= halfSize || y >= proc.getHeight() - halfSize) {
+            continue;
+         }
+         // this processor is only used by this thread
+         proc.setRoi(x - halfSize, y - halfSize, 2 * halfSize, 2 * halfSize);
+         ImageProcessor sp = proc.crop();
+         SpotData spot = new SpotData(sp, channel, slice, frame, position, j, x, y);
+         GaussianFit.Data fitResult = fitter.dogaussianfit(sp, info_.getMaxIterations());
+         SpotData spotData = SpotDataConverter.convert(spot, fitResult, info_, zc);
+         if (fitResult.getParms().length > 1
+                 && (!info_.getUseWidthFilter()
+                 || (spotData.getWidth() > info_.getSigmaMin() 
+                    && spotData.getWidth() < info_.getSigmaMax()))
+                 && (!info_.getUseNrPhotonsFilter()
+                 || (spotData.getIntensity() > info_.getNrPhotonsMin() 
+                    && spotData.getIntensity() < info_.getNrPhotonsMax()))) {
+            synchronized (results_) {
+               results_.add(spotData);
+               if (isLive_ && results_.size() > MAX_LIVE_SPOTS) {
+                  results_.removeFirst();
+                  nrDroppedSpots_++;
+               }
+            }
+            if (tsfWriter_ != null) {
+               tsfWriter_.addSpot(spotData);
+            }
+         }
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      fitPool_.shutdown();
+      try {
+         while (!fitPool_.awaitTermination(1, TimeUnit.SECONDS)) {
+            ij.IJ.showStatus("Live localization: finishing fits...");
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      ij.IJ.showStatus("");
+
+      List<SpotData> resultList;
+      long nrDroppedSpots;
+      synchronized (results_) {
+         resultList = new ArrayList<SpotData>(results_);
+         results_.clear();
+         nrDroppedSpots = nrDroppedSpots_;
+      }
+      if (resultList.isEmpty()) {
+         if (tsfWriter_ != null) {
+            tsfWriter_.abort();
+         }
+         return;
+      }
+
+      double zMax = 0.0;
+      double zMin = 0.0;
+      ZCalibrator zc = DataCollectionForm.zc_;
+      if (zc != null && zc.hasFitFunctions()) {
+         zMax = Math.max(0.0, resultList.get(0).getZCenter());
+         zMin = zMax;
+         for (SpotData spot : resultList) {
+            double zTmp = spot.getZCenter();
+            zMax = Math.max(zMax, zTmp);
+            if (zMin > zTmp && zTmp > 0.0) {
+               zMin = zTmp;
+            }
+         }
+      }
+      ArrayList<Double> timePoints = new ArrayList<Double>();
+      // ugly code to deal with 1-based frame numbers and their relation to timePoints
+      timePoints.add(0.0);
+      for (int i = 1; i <= nrFrames_; i++) {
+         timePoints.add((i - 1) * info_.getTimeIntervalMs());
+      }
+
+      RowData.Builder builder = new RowData.Builder();
+      builder.setName(name_).setTitle(name_).
+              setWidth(width_).setHeight(height_).
+              setPixelSizeNm(info_.getPixelSize()).
+              setZStackStepSizeNm(info_.getZStackStepSize()).
+              setShape(info_.getShape()).setHalfSize(info_.getHalfBoxSize()).
+              setNrChannels(nrChannels_).setNrFrames(nrFrames_).
+              setNrSlices(nrSlices_).setNrPositions(nrPositions_).
+              setMaxNrSpots(resultList.size()).setSpotList(resultList).
+              setTimePoints(timePoints).setIsTrack(false).
+              setCoordinate(DataCollectionForm.Coordinates.NM).
+              setHasZ(zc != null && zc.hasFitFunctions()).
+              setMinZ(zMin).setMaxZ(zMax);
+      if (tsfWriter_ != null) {
+         try {
+            tsfWriter_.finish(builder.build());
+         } catch (IOException ioe) {
+            ReportingUtils.logError(ioe, "Failed to finish TSF file");
+         }
+      }
+      DataCollectionForm.getInstance().addSpotData(builder);
+      String message = "Localized " + resultList.size() + " spots in " + name_;
+      if (nrDroppedSpots > 0) {
+         message += " (" + nrDroppedSpots + " older spots were discarded)";
+      }
+      studio_.alerts().postAlert("Live localization", LocalizationProcessor.class,
+              message);
+   }
+}
@@ -0,0 +1,207 @@
+/*
+Copyright (c) 2026, Micro-Manager contributors
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import edu.ucsf.valelab.gaussianfit.data.PointData;
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * Spatial index for nearest neighbor searches with a maximum distance.
+ * 
+ * Points are hashed into square cells with the maximum distance as size, 
+ * so that the nearest neighbor of any query point is either in the cell of 
+ * the query point or in one of the 8 cells surrounding it.  Cells are 
+ * ordered by row and then column, so that the three cells of a row that 
+ * need to be searched are adjacent, and each of them can be found with a 
+ * binary search.  Building the index costs one sort, a query costs three 
+ * binary searches plus distance calculations for the points in 9 cells.
+ * 
+ * Indices are immutable once built and can be queried from multiple threads.
+ */
+public class SpotGrid {
+   private final double cellSize_;
+   private final double maxDistanceSquared_;
+   private final long[] keys_;       // sorted cell keys
+   private final int[] indices_;     // point index belonging to each key
+   private final double[] x_;
+   private final double[] y_;
+   
+   /**
+    * @param x x positions of the points
+    * @param y y positions of the points
+    * @param maxDistance neighbors need to be closer than this distance
+    */
+   public SpotGrid(double[] x, double[] y, double maxDistance) {
+      int n = x.length;
+      x_ = x;
+      y_ = y;
+      cellSize_ = maxDistance;
+      maxDistanceSquared_ = maxDistance * maxDistance;
+      long[] keys = new long[n];
+      int[] indices = new int[n];
+      for (int i = 0; i < n; i++) {
+         keys[i] = key(cell(x[i]), cell(y[i]));
+         indices[i] = i;
+      }
+      sort(keys, indices);
+      keys_ = keys;
+      indices_ = indices;
+   }
+   
+   /**
+    * Convenience constructor for lists of points
+    * 
+    * @param points points to be indexed. Indices returned by findNearest are 
+    *              indices in this list
+    * @param maxDistance neighbors need to be closer than this distance
+    * @return spatial index of the points
+    */
+   public static SpotGrid fromPoints(List<? extends PointData> points, 
+           double maxDistance) {
+      double[] x = new double[points.size()];
+      double[] y = new double[points.size()];
+      for (int i = 0; i < x.length; i++) {
+         Point2D.Double p = points.get(i).getPoint();
+         x[i] = p.x;
+         y[i] = p.y;
+      }
+      return new SpotGrid(x, y, maxDistance);
+   }
+   
+   public int size() {
+      return x_.length;
+   }
+   
+   /**
+    * Finds the point closest to the given position
+    * 
+    * @param x x position of the query
+    * @param y y position of the query
+    * @return index of the nearest point, or -1 when no point is closer than
+    *          the maximum distance
+    */
+   public int findNearest(double x, double y) {
+      if (keys_.length == 0 || !(cellSize_ > 0.0)) {
+         return -1;
+      }
+      int cx = cell(x);
+      int cy = cell(y);
+      int nearest = -1;
+      double nearestDistance = maxDistanceSquared_;
+      for (int row = cy - 1; row <= cy + 1; row++) {
+         int end = search(key(cx + 1, row) + 1);
+         for (int k = search(key(cx - 1, row)); k < end; k++) {
+            int i = indices_[k];
+            double dx = x_[i] - x;
+            double dy = y_[i] - y;
+            double d = dx * dx + dy * dy;
+            if (d < nearestDistance) {
+               nearestDistance = d;
+               nearest = i;
+            }
+         }
+      }
+      return nearest;
+   }
+
+   private int cell(double coordinate) {
+      if (!(cellSize_ > 0.0)) {
+         return 0;
+      }
+      double c = Math.floor(coordinate / cellSize_);
+      // keep the neighboring cells within int range
+      return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, c));
+   }
+   
+   /**
+    * Rows in the high bits, columns (offset to keep them positive) in the
+    * low bits, so that sort order is row, then column
+    */
+   private static long key(int cx, int cy) {
+      return ((long) cy << 32) + ((long) cx - Integer.MIN_VALUE);
+   }
+   
+   /**
+    * @return index of the first key >= key
+    */
+   private int search(long key) {
+      int lo = 0;
+      int hi = keys_.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (keys_[mid] < key) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   /**
+    * Sorts keys, and applies the same permutation to indices.  Stable, so 
+    * that points within a cell stay in their original order.
+    */
+   private static void sort(long[] keys, int[] indices) {
+      int n = keys.length;
+      long[] keyBuffer = new long[n];
+      int[] indexBuffer = new int[n];
+      for (int width = 1; width < n; width *= 2) {
+         for (int lo = 0; lo < n - width; lo += 2 * width) {
+            int mid = lo + width;
+            int hi = Math.min(lo + 2 * width, n);
+            int i = lo;
+            int j = mid;
+            int k = lo;
+            while (i < mid && j < hi) {
+               if (keys[j] < keys[i]) {
+                  keyBuffer[k] = keys[j];
+                  indexBuffer[k++] = indices[j++];
+               } else {
+                  keyBuffer[k] = keys[i];
+                  indexBuffer[k++] = indices[i++];
+               }
+            }
+            while (i < mid) {
+               keyBuffer[k] = keys[i];
+               indexBuffer[k++] = indices[i++];
+            }
+            while (j < hi) {
+               keyBuffer[k] = keys[j];
+               indexBuffer[k++] = indices[j++];
+            }
+            System.arraycopy(keyBuffer, lo, keys, lo, hi - lo);
+            System.arraycopy(indexBuffer, lo, indices, lo, hi - lo);
+         }
+      }
+   }
+   
+}
@@ -35,16 +35,21 @@ package edu.ucsf.valelab.gaussianfit.spotoperations;
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
-import edu.ucsf.valelab.gaussianfit.data.GsSpotPair;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.data.TrackData;
-import java.awt.geom.Point2D;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.JOptionPane;
 
 /**
@@ -70,81 +75,10 @@ public class SpotLinker {
     * @param rowData
     * @param maxDistance 
     */
-   public static void link(RowData rowData, double maxDistance) {
+   public static void link(final RowData rowData, final double maxDistance) {
       try {
          ij.IJ.showStatus("Linking spotData...");
-         boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
-         int nr = rowData.nrSlices_;
-         if (useFrames) {
-            nr = rowData.nrFrames_;
-         }
-
-         // linked spots go here:
-         List<SpotData> destList = new ArrayList<SpotData>();
-         // maintain active tracks here
-         List< List<SpotData>> tracks = 
-                 new ArrayList<List<SpotData>>();
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           ArrayList<GsSpotPair> gsSpots = new ArrayList<GsSpotPair>();
-                           for (SpotData spot : spots) {
-                              gsSpots.add(new GsSpotPair(spot, null,
-                                      new Point2D.Double(spot.getXCenter(), spot.getYCenter()),
-                                      new Point2D.Double(0.0, 0.0)));
-                           }
-                           NearestPointByData nsp = new NearestPointByData(gsSpots, maxDistance);
-                           List<List<SpotData>> removedTracks = 
-                                   new ArrayList<List<SpotData>>();
-                           for (List<SpotData> track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              GsSpotPair newSpot = ((GsSpotPair) nsp.findKDWSE(new Point2D.Double(
-                                      tSpot.getXCenter(), tSpot.getYCenter()))).copy();
-                              if (newSpot == null) {
-                                 // track could not be extended, finalize it
-                                 linkSpots(track, destList, useFrames);
-                                 // and remove from the list of tracks
-                                 // to avoid a concurrent modification exception
-                                 // the removal needs to be a two step process
-                                 removedTracks.add(track);
-                              } else {
-                                 track.add(newSpot.getFirstSpot());
-                                 markedSpots.add(newSpot.getFirstSpot());
-                              }
-                           }
-                           // second part of removing tracks
-                           for (List<SpotData> track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              List<SpotData> track = new ArrayList<SpotData>();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
-                        }
-                     }
-                  }
-                  // add tracks that made it to the end to destination list
-                  for (List<SpotData> track : tracks) {
-                     linkSpots(track, destList, useFrames);
-                  }
-                  tracks.clear();
-               }
-            }
-         }
-
+         List<SpotData> destList = linkedSpots(rowData, maxDistance);
       
          // Add destList to rowData
          RowData.Builder builder = rowData.copy();
@@ -155,8 +89,106 @@ public class SpotLinker {
 
       } catch (OutOfMemoryError oome) {
          JOptionPane.showMessageDialog(getInstance(), "Out of memory");
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException ee) {
+         ReportingUtils.logError(ee.getCause(), "Error while linking spots");
       }
    }
+   
+   /**
+    * Does the work of link, without adding the result to the 
+    * DataCollectionForm
+    * 
+    * @param rowData - data set to be linked
+    * @param maxDistance - maximum distance between spots in consecutive frames
+    * @return linked spots
+    * @throws InterruptedException
+    * @throws ExecutionException 
+    */
+   public static List<SpotData> linkedSpots(final RowData rowData, 
+           final double maxDistance) 
+           throws InterruptedException, ExecutionException {
+      final boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
+
+      // every position, channel and slice is linked independently
+      List<Callable<List<SpotData>>> groups = new ArrayList<Callable<List<SpotData>>>();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               final int[][] frameRows = getFrameRows(rowData, pos, ch, s);
+               groups.add(new Callable<List<SpotData>>() {
+                  @Override
+                  public List<SpotData> call() {
+                     return linkGroup(rowData.spotTable_, frameRows, 
+                             maxDistance, useFrames);
+                  }
+               });
+            }
+         }
+      }
+
+      // linked spots go here:
+      List<SpotData> destList = new ArrayList<SpotData>();
+      for (List<SpotData> linked : runInParallel(groups)) {
+         destList.addAll(linked);
+      }
+      return destList;
+   }
+   
+   /**
+    * Links spots of a single position, channel and slice.  
+    * Looks in every consecutive frame for the closest by spot (at a 
+    * maximum distance of maxDistance). Tracks that can not be extended are 
+    * merged into a single spot by linkSpots.
+    * 
+    * @param spots - spot data
+    * @param frameRows - for each frame, rows in spots that are in this frame
+    * @return linked spots
+    */
+   private static List<SpotData> linkGroup(SpotTable spots, int[][] frameRows,
+           double maxDistance, boolean useFrames) {
+      List<SpotData> destList = new ArrayList<SpotData>();
+      // maintain active tracks here
+      List<RowTrack> tracks = new ArrayList<RowTrack>();
+      for (int[] rows : frameRows) {
+         if (rows == null) {
+            continue;
+         }
+         // keep track of spots in this frame added to tracks 
+         boolean[] marked = new boolean[rows.length];
+         // go through all tracks to see if they can be extended
+         if (!tracks.isEmpty()) {
+            SpotGrid grid = gridForRows(spots, rows, maxDistance);
+            List<RowTrack> extendedTracks = new ArrayList<RowTrack>(tracks.size());
+            for (RowTrack track : tracks) {
+               int last = track.last();
+               int nearest = grid.findNearest(spots.getXCenter(last), 
+                       spots.getYCenter(last));
+               if (nearest < 0) {
+                  // track could not be extended, finalize it
+                  linkSpots(track.toSpotList(spots), destList, useFrames);
+               } else {
+                  track.add(rows[nearest]);
+                  marked[nearest] = true;
+                  extendedTracks.add(track);
+               }
+            }
+            tracks = extendedTracks;
+         }
+         // start a new track with any spot that was not part of a track
+         for (int i = 0; i < rows.length; i++) {
+            if (!marked[i]) {
+               tracks.add(new RowTrack(rows[i]));
+            }
+         }
+      }
+      // add tracks that made it to the end to destination list
+      for (RowTrack track : tracks) {
+         linkSpots(track.toSpotList(spots), destList, useFrames);
+      }
+      return destList;
+   }
 
    /**
     * Given a list of linked spots, create a single spot entry that will be
@@ -271,74 +303,38 @@ public class SpotLinker {
       try {
          ij.IJ.showStatus("Extracting tracks...");
 
-         // maintain active tracks here
+         // every position, channel and slice is tracked independently
          List<Integer> trackIndex;
-         Map<List<Integer>, List<TrackData>> trackMap = new HashMap<List<Integer>, List<TrackData>>();
+         List<List<Integer>> groupIndices = new ArrayList<List<Integer>>();
+         List<Callable<List<List<TrackData>>>> groups = 
+                 new ArrayList<Callable<List<List<TrackData>>>>();
          for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
             for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
                for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                  List<TrackData> tracks = 
-                        new ArrayList<TrackData>();
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
-                           List<TrackData> removedTracks = 
-                                   new ArrayList<TrackData>();
-                           for (TrackData track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
-                                      tSpot.getXCenter(), tSpot.getYCenter()));
-                              if (newSpot == null) {
-                                 track.addMissing();
-                                 if (track.missingMoreThan(nrMissing)) {
-                                    // track could not be extended, finalize it
-                                    // Write out the track:
-                                    if (track.size() > minNr && 
-                                             track.get(0).distance(track.get(track.size() - 1)) > minTotalDistance)  {
-                                       writeTrack(rowData, track.getList(), trackNr);
-                                       trackNr++;
-                                       // and remove from the list of tracks
-                                       // to avoid a concurrent modification exception
-                                       // the removal needs to be a two step process
-                                       removedTracks.add(track);
-                                    }
-                                 }
-                              } else {
-                                 track.resetMissing();
-                                 track.add(newSpot);
-                                 markedSpots.add(newSpot);
-                              }
-                           }
-                           // second part of removing tracks
-                           for (TrackData track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a previous track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              TrackData track = new TrackData();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
-                        }
+                  groupIndices.add(Collections.unmodifiableList(Arrays.asList(pos, ch, s)));
+                  final int[][] frameRows = getFrameRows(rowData, pos, ch, s);
+                  groups.add(new Callable<List<List<TrackData>>>() {
+                     @Override
+                     public List<List<TrackData>> call() {
+                        return trackGroup(rowData.spotTable_, frameRows, minNr,
+                                nrMissing, maxDistance, minTotalDistance);
                      }
-                  }
-                  
-                  // add tracks that made it to the end to destination list 
-                  trackMap.put(trackIndex, tracks);
-                  
+                  });
                }
             }
          }
+         
+         // Write out tracks that ended before the last frame, and
+         // maintain tracks that made it to the end here
+         Map<List<Integer>, List<TrackData>> trackMap = new HashMap<List<Integer>, List<TrackData>>();
+         List<List<List<TrackData>>> results = runInParallel(groups);
+         for (int i = 0; i < results.size(); i++) {
+            for (TrackData track : results.get(i).get(0)) {
+               writeTrack(rowData, track.getList(), trackNr);
+               trackNr++;
+            }
+            trackMap.put(groupIndices.get(i), results.get(i).get(1));
+         }
 
          // take average position of track in first channel
          // if average position of closest track in another channel is within
@@ -348,12 +344,12 @@ public class SpotLinker {
                for (int s = 1; s <= rowData.nrSlices_; s++) {
                   Map <Integer, List<TrackData>> tracksByChannel = 
                           new HashMap<Integer, List<TrackData>>();
-                  Map <Integer, NearestPointByData> npsByChannel =
-                          new HashMap<Integer, NearestPointByData>();
+                  Map <Integer, SpotGrid> gridsByChannel =
+                          new HashMap<Integer, SpotGrid>();
                   for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
                      trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
                      tracksByChannel.put(ch, trackMap.get(trackIndex));
-                     npsByChannel.put(ch, new NearestPointByData(
+                     gridsByChannel.put(ch, SpotGrid.fromPoints(
                              trackMap.get(trackIndex), maxPairDistance));
                   }
                   for (TrackData track : tracksByChannel.get(1)) {
@@ -361,9 +357,10 @@ public class SpotLinker {
                              && track.get(0).distance(track.get(track.size() - 1))
                              > minTotalDistance) {
                         for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
-                           TrackData closestTrack = 
-                                   (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
-                           if (closestTrack != null) {
+                           int closest = gridsByChannel.get(ch).findNearest(
+                                   track.getPoint().x, track.getPoint().y);
+                           if (closest >= 0) {
+                              TrackData closestTrack = tracksByChannel.get(ch).get(closest);
                               if (closestTrack.size() > minNr
                                       && closestTrack.get(0).distance(
                                               closestTrack.get(closestTrack.size() - 1))
@@ -403,10 +400,150 @@ public class SpotLinker {
          ij.IJ.showStatus("Extracted " + trackNr + " tracks");
       } catch (OutOfMemoryError oome) {
          JOptionPane.showMessageDialog(getInstance(), "Out of memory");
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException ee) {
+         ReportingUtils.logError(ee.getCause(), "Error while extracting tracks");
       }
       
       return trackNr;
    }
+   
+   /**
+    * Tracks spots of a single position, channel and slice.
+    * A track ends when no spot was found within maxDistance for more than 
+    * nrMissing frames and it is long enough to be reported.  Shorter tracks 
+    * stay active (and can still be extended), as they always have.
+    * 
+    * @param spots - spot data
+    * @param frameRows - for each frame, rows in spots that are in this frame
+    * @return two lists: tracks that ended before the last frame and are long
+    *          enough to be reported, and tracks that were still active in 
+    *          the last frame
+    */
+   private static List<List<TrackData>> trackGroup(SpotTable spots, 
+           int[][] frameRows, int minNr, int nrMissing, double maxDistance, 
+           double minTotalDistance) {
+      List<TrackData> finishedTracks = new ArrayList<TrackData>();
+      List<TrackData> tracks = new ArrayList<TrackData>();
+      for (int[] rows : frameRows) {
+         if (rows == null) {
+            continue;
+         }
+         // keep track of spots in this frame added to tracks 
+         boolean[] marked = new boolean[rows.length];
+         // go through all tracks to see if they can be extended
+         if (!tracks.isEmpty()) {
+            SpotGrid grid = gridForRows(spots, rows, maxDistance);
+            List<TrackData> activeTracks = new ArrayList<TrackData>(tracks.size());
+            for (TrackData track : tracks) {
+               SpotData tSpot = track.get(track.size() - 1);
+               int nearest = grid.findNearest(tSpot.getXCenter(), tSpot.getYCenter());
+               if (nearest < 0) {
+                  track.addMissing();
+                  if (track.missingMoreThan(nrMissing) && track.size() > minNr && 
+                           track.get(0).distance(track.get(track.size() - 1)) > minTotalDistance)  {
+                     // track could not be extended, finalize it
+                     finishedTracks.add(track);
+                  } else {
+                     activeTracks.add(track);
+                  }
+               } else {
+                  track.resetMissing();
+                  track.add(spots.getSpot(rows[nearest]));
+                  marked[nearest] = true;
+                  activeTracks.add(track);
+               }
+            }
+            tracks = activeTracks;
+         }
+         // go through spots and start a new track with any spot 
+         // that was not part of a previous track
+         for (int i = 0; i < rows.length; i++) {
+            if (!marked[i]) {
+               TrackData track = new TrackData();
+               track.add(spots.getSpot(rows[i]));
+               tracks.add(track);
+            }
+         }
+      }
+      List<List<TrackData>> result = new ArrayList<List<TrackData>>(2);
+      result.add(finishedTracks);
+      result.add(tracks);
+      return result;
+   }
+   
+   /**
+    * Looks up the rows of each frame in the main thread, since the index 
+    * of RowData is built on first use
+    */
+   private static int[][] getFrameRows(RowData rowData, int pos, int ch, int s) {
+      int[][] frameRows = new int[rowData.nrFrames_][];
+      for (int f = 1; f <= rowData.nrFrames_; f++) {
+         frameRows[f - 1] = rowData.getRows(f, s, ch, pos);
+      }
+      return frameRows;
+   }
+   
+   private static SpotGrid gridForRows(SpotTable spots, int[] rows, 
+           double maxDistance) {
+      double[] x = new double[rows.length];
+      double[] y = new double[rows.length];
+      for (int i = 0; i < rows.length; i++) {
+         x[i] = spots.getXCenter(rows[i]);
+         y[i] = spots.getYCenter(rows[i]);
+      }
+      return new SpotGrid(x, y, maxDistance);
+   }
+   
+   private static <T> List<T> runInParallel(List<Callable<T>> tasks) 
+           throws InterruptedException, ExecutionException {
+      int nrThreads = Math.max(1, Math.min(tasks.size(), 
+              Runtime.getRuntime().availableProcessors()));
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+      try {
+         List<T> results = new ArrayList<T>(tasks.size());
+         for (Future<T> f : executor.invokeAll(tasks)) {
+            results.add(f.get());
+         }
+         return results;
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ee.getCause();
+         }
+         throw ee;
+      } finally {
+         executor.shutdown();
+      }
+   }
+   
+   /**
+    * Rows (in a SpotTable) of the spots in a track
+    */
+   private static class RowTrack {
+      private int[] rows_ = new int[4];
+      private int size_ = 0;
+      
+      RowTrack(int row) {
+         add(row);
+      }
+      
+      final void add(int row) {
+         if (size_ == rows_.length) {
+            rows_ = Arrays.copyOf(rows_, 2 * size_);
+         }
+         rows_[size_] = row;
+         size_++;
+      }
+      
+      int last() {
+         return rows_[size_ - 1];
+      }
+      
+      List<SpotData> toSpotList(SpotTable spots) {
+         return spots.asList(Arrays.copyOf(rows_, size_));
+      }
+   }
 
    private static void writeTrack(RowData rowData, List<SpotData> track, int trackNr) {
       RowData.Builder builder = rowData.copy();
@@ -38,6 +38,8 @@ import org.micromanager.Studio;
 
 import org.micromanager.internal.utils.ImageUtils;
 
+import java.lang.reflect.Array;
+
 public class FlipperProcessor extends Processor {
 
    // Valid rotation values.
@@ -50,6 +52,13 @@ public class FlipperProcessor extends Processor {
    String camera_;
    boolean isMirrored_;
    int rotation_;
+   // Metadata we add to every image, only depends on the settings
+   private final PropertyMap flipperData_;
+   // Transform for the last image size, and the pixel buffer it last wrote
+   // to.  Images copy the pixels they are created from, so the buffer can
+   // be reused for the next image.
+   private ImageTransform transform_;
+   private Object buffer_;
 
    public FlipperProcessor(Studio studio, String camera, int rotation,
          boolean isMirrored) {
@@ -62,6 +71,7 @@ public class FlipperProcessor extends Processor {
       }
       rotation_ = rotation;
       isMirrored_ = isMirrored;
+      flipperData_ = flipperData(studio, isMirrored, rotation);
    }
 
    /**
@@ -75,8 +85,19 @@ public class FlipperProcessor extends Processor {
          context.outputImage(image);
          return;
       }
-      context.outputImage(
-            transformImage(studio_, image, isMirrored_, rotation_));
+      if (transform_ == null ||
+            !transform_.matches(image.getWidth(), image.getHeight())) {
+         transform_ = new ImageTransform(image.getWidth(), image.getHeight(),
+               isMirrored_, rotation_);
+      }
+      Object pixels = image.getRawPixels();
+      if (buffer_ == null || buffer_.getClass() != pixels.getClass() ||
+            Array.getLength(buffer_) != Array.getLength(pixels)) {
+         buffer_ = Array.newInstance(pixels.getClass().getComponentType(),
+               Array.getLength(pixels));
+      }
+      context.outputImage(transformImage(studio_, image, pixels, transform_,
+            buffer_, flipperData_));
    }
 
    /**
@@ -90,38 +111,65 @@ public class FlipperProcessor extends Processor {
     */
    public static Image transformImage(Studio studio, Image image,
          boolean isMirrored, int rotation) {
-      int width = image.getWidth();
-      int height = image.getHeight();
-      
-      ImageProcessor proc = studio.data().ij().createProcessor(image);
+      Object pixels = image.getRawPixels();
+      return transformImage(studio, image, pixels,
+            new ImageTransform(image.getWidth(), image.getHeight(),
+               isMirrored, rotation),
+            Array.newInstance(pixels.getClass().getComponentType(),
+               Array.getLength(pixels)),
+            flipperData(studio, isMirrored, rotation));
+   }
 
-      if (isMirrored) {
-         proc.flipHorizontal();
-      }
-      if (rotation == R90) {
-         proc = proc.rotateRight();
+   /**
+    * Mirrors and rotates the pixels into dest in a single pass, and adds
+    * flipperData to the user data of the image.
+    */
+   private static Image transformImage(Studio studio, Image image,
+         Object pixels, ImageTransform transform, Object dest,
+         PropertyMap flipperData) {
+      PropertyMap userData = image.getMetadata().getUserData();
+      if (userData != null) {
+         userData = userData.merge(flipperData);
       }
-      if (rotation == R180) {
-         proc = proc.rotateRight();
-         proc = proc.rotateRight();
+      else {
+         userData = flipperData;
       }
-      if (rotation == R270) {
-         proc = proc.rotateLeft();
+      Metadata newMetadata = image.getMetadata().copy().userData(userData).build();
+
+      int bytesPerPixel = image.getBytesPerPixel();
+      if (pixels instanceof short[]) {
+         transform.apply((short[]) pixels, (short[]) dest);
       }
-      // Insert some metadata to indicate what we did to the image.
-      PropertyMap.PropertyMapBuilder builder;
-      PropertyMap userData = image.getMetadata().getUserData();
-      if (userData != null) {
-         builder = userData.copy();
+      else if (pixels instanceof byte[] &&
+            Array.getLength(pixels) == bytesPerPixel * image.getWidth() *
+               image.getHeight()) {
+         transform.apply((byte[]) pixels, (byte[]) dest, bytesPerPixel);
       }
       else {
-         builder = studio.data().getPropertyMapBuilder();
+         // Pixel layout we do not know about, let ImageJ handle it
+         ImageProcessor proc = studio.data().ij().createProcessor(image);
+         if (transform.isMirrored()) {
+            proc.flipHorizontal();
+         }
+         for (int r = 0; r < transform.getRotation(); r += R90) {
+            proc = proc.rotateRight();
+         }
+         return studio.data().ij().createImage(proc, image.getCoords(),
+               newMetadata);
       }
-      builder.putInt("ImageFlipper-Rotation", rotation);
-      builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
-      Metadata newMetadata = image.getMetadata().copy().userData(builder.build()).build();
-      Image result = studio.data().ij().createImage(proc, image.getCoords(),
-            newMetadata);
-      return result;
+      return studio.data().createImage(dest, transform.getWidth(),
+            transform.getHeight(), bytesPerPixel, image.getNumComponents(),
+            image.getCoords(), newMetadata);
+   }
+
+   /**
+    * Metadata to indicate what we did to the image.
+    */
+   private static PropertyMap flipperData(Studio studio, boolean isMirrored,
+         int rotation) {
+      return studio.data().getPropertyMapBuilder().
+            putInt("ImageFlipper-Rotation", rotation).
+            putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off").
+            build();
    }
 }
@@ -0,0 +1,154 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.imageflipper;
+
+/**
+ * Mirror followed by rotation of a pixel array, done in a single pass.
+ * Every destination pixel is read from the source at
+ * base + x * xStride + y * yStride, so that mirroring and any of the
+ * rotations are the same loop.  The destination is written in square
+ * tiles, which keeps the column-wise reads of the rotations in the cache.
+ *
+ * Pixels are arrays of shorts (16-bit) or of bytes (8-bit, or 32-bit RGB
+ * with 4 bytes per pixel).
+ */
+final class ImageTransform {
+   private static final int TILE = 64;
+
+   private final boolean isMirrored_;
+   private final int rotation_;
+   private final int srcWidth_;
+   private final int srcHeight_;
+   private final int dstWidth_;
+   private final int dstHeight_;
+   private final int base_;
+   private final int xStride_;
+   private final int yStride_;
+
+   /**
+    * @param width width of the source image
+    * @param height height of the source image
+    * @param isMirrored mirror (flip horizontally) before rotating
+    * @param rotation clockwise rotation in degrees (0, 90, 180, 270)
+    */
+   ImageTransform(int width, int height, boolean isMirrored, int rotation) {
+      isMirrored_ = isMirrored;
+      rotation_ = rotation;
+      srcWidth_ = width;
+      srcHeight_ = height;
+      boolean swap = rotation == FlipperProcessor.R90 ||
+            rotation == FlipperProcessor.R270;
+      dstWidth_ = swap ? height : width;
+      dstHeight_ = swap ? width : height;
+      // Source coordinates (before mirroring) of destination pixel (x, y)
+      // are (sx0 + x * sxX + y * sxY, sy0 + x * syX + y * syY)
+      int sx0 = 0, sxX = 1, sxY = 0, sy0 = 0, syX = 0, syY = 1;
+      if (rotation == FlipperProcessor.R90) {
+         sx0 = 0; sxX = 0; sxY = 1;
+         sy0 = height - 1; syX = -1; syY = 0;
+      } else if (rotation == FlipperProcessor.R180) {
+         sx0 = width - 1; sxX = -1; sxY = 0;
+         sy0 = height - 1; syX = 0; syY = -1;
+      } else if (rotation == FlipperProcessor.R270) {
+         sx0 = width - 1; sxX = 0; sxY = -1;
+         sy0 = 0; syX = 1; syY = 0;
+      }
+      if (isMirrored) {
+         sx0 = width - 1 - sx0;
+         sxX = -sxX;
+         sxY = -sxY;
+      }
+      base_ = sy0 * width + sx0;
+      xStride_ = syX * width + sxX;
+      yStride_ = syY * width + sxY;
+   }
+
+   boolean matches(int width, int height) {
+      return width == srcWidth_ && height == srcHeight_;
+   }
+
+   boolean isMirrored() {
+      return isMirrored_;
+   }
+
+   int getRotation() {
+      return rotation_;
+   }
+
+   int getWidth() {
+      return dstWidth_;
+   }
+
+   int getHeight() {
+      return dstHeight_;
+   }
+
+   void apply(short[] src, short[] dst) {
+      for (int ty = 0; ty < dstHeight_; ty += TILE) {
+         int yEnd = Math.min(ty + TILE, dstHeight_);
+         for (int tx = 0; tx < dstWidth_; tx += TILE) {
+            int xEnd = Math.min(tx + TILE, dstWidth_);
+            for (int y = ty; y < yEnd; y++) {
+               int s = base_ + y * yStride_ + tx * xStride_;
+               int d = y * dstWidth_ + tx;
+               for (int x = tx; x < xEnd; x++) {
+                  dst[d++] = src[s];
+                  s += xStride_;
+               }
+            }
+         }
+      }
+   }
+
+   void apply(byte[] src, byte[] dst, int bytesPerPixel) {
+      if (bytesPerPixel == 1) {
+         for (int ty = 0; ty < dstHeight_; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight_);
+            for (int tx = 0; tx < dstWidth_; tx += TILE) {
+               int xEnd = Math.min(tx + TILE, dstWidth_);
+               for (int y = ty; y < yEnd; y++) {
+                  int s = base_ + y * yStride_ + tx * xStride_;
+                  int d = y * dstWidth_ + tx;
+                  for (int x = tx; x < xEnd; x++) {
+                     dst[d++] = src[s];
+                     s += xStride_;
+                  }
+               }
+            }
+         }
+         return;
+      }
+      for (int ty = 0; ty < dstHeight_; ty += TILE) {
+         int yEnd = Math.min(ty + TILE, dstHeight_);
+         for (int tx = 0; tx < dstWidth_; tx += TILE) {
+            int xEnd = Math.min(tx + TILE, dstWidth_);
+            for (int y = ty; y < yEnd; y++) {
+               int s = base_ + y * yStride_ + tx * xStride_;
+               int d = (y * dstWidth_ + tx) * bytesPerPixel;
+               for (int x = tx; x < xEnd; x++) {
+                  System.arraycopy(src, s * bytesPerPixel, dst, d,
+                        bytesPerPixel);
+                  d += bytesPerPixel;
+                  s += xStride_;
+               }
+            }
+         }
+      }
+   }
+}
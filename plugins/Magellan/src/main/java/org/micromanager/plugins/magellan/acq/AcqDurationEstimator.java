@@ -41,12 +41,13 @@ public class AcqDurationEstimator {
    private static final String Z_KEY = "ZMove_Time_Map";
    private static final String CHANNEL_KEY = "Channel_Switch_Time_Map";
 
+   private static AcqDurationEstimator singleton_;
    private ExecutorService executor_;
    private Future<?> currentTask_;
    private TreeMap<Double, LinkedList<Double>> exposureMap_; // hold entries for interpolation
    private LinkedList<Double> xyMoveTimeList_, zStepMoveTimeList_, channelSwitchTimeList_;
 
-   public AcqDurationEstimator() {
+   private AcqDurationEstimator() {
       executor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
          @Override
          public Thread newThread(Runnable r) {
@@ -62,21 +63,28 @@ public class AcqDurationEstimator {
 
    }
 
-   public void storeChannelSwitchTime(double time) {
+   public static synchronized AcqDurationEstimator getInstance() {
+      if (singleton_ == null) {
+         singleton_ = new AcqDurationEstimator();
+      }
+      return singleton_;
+   }
+
+   public synchronized void storeChannelSwitchTime(double time) {
       channelSwitchTimeList_.add(time);
       if (channelSwitchTimeList_.size() > MAX_DATA_POINTS) {
          channelSwitchTimeList_.removeFirst();
       }
    }
 
-   public void storeZMoveTime(double time) {
+   public synchronized void storeZMoveTime(double time) {
       zStepMoveTimeList_.add(time);
       if (zStepMoveTimeList_.size() > MAX_DATA_POINTS) {
          zStepMoveTimeList_.removeFirst();
       }
    }
 
-   public void storeXYMoveTime(double time) {
+   public synchronized void storeXYMoveTime(double time) {
       xyMoveTimeList_.add(time);
       if (xyMoveTimeList_.size() > MAX_DATA_POINTS) {
          xyMoveTimeList_.removeFirst();
@@ -94,6 +102,18 @@ public class AcqDurationEstimator {
       }
    }
 
+   /**
+    * Used by AcquisitionEventScheduler to choose event order
+    * @return average measured time in ms, or 0 if nothing measured yet
+    */
+   public synchronized double getAverageZMoveTime() {
+      return zStepMoveTimeList_.isEmpty() ? 0 : averageList(zStepMoveTimeList_);
+   }
+
+   public synchronized double getAverageChannelSwitchTime() {
+      return channelSwitchTimeList_.isEmpty() ? 0 : averageList(channelSwitchTimeList_);
+   }
+
    public double averageList(LinkedList<Double> list) {
       double avgTime = 0;
       for (double t : list) {
@@ -85,6 +85,11 @@ public abstract class Acquisition implements AcquisitionEventSource{
       return event;
    }
 
+   @Override
+   public AcquisitionEvent peekNextEvent() {
+      return pause_ ? null : events_.peek();
+   }
+
    public abstract double getRank();
    
    public abstract int getFilterType(); 
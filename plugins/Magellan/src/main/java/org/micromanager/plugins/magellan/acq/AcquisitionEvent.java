@@ -98,6 +98,13 @@ public class AcquisitionEvent  {
       return evt;
    }
    
+   /**
+    * @return true for events that acquire an image, false for the special events
+    */
+   public boolean isImageAcquisitionEvent() {
+      return specialFlag_ == null;
+   }
+
    public boolean isAcquisitionFinishedEvent() {
       return specialFlag_ == SpecialFlag.AcqusitionFinished;
    }
@@ -0,0 +1,119 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package main.java.org.micromanager.plugins.magellan.acq;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+import main.java.org.micromanager.plugins.magellan.coordinates.XYStagePosition;
+
+/**
+ * Decides the order in which the events of a time point are generated, using
+ * the hardware timings measured by AcqDurationEstimator
+ */
+public class AcquisitionEventScheduler {
+
+   //stop improving tour after this many passes over all pairs of edges
+   private static final int MAX_TWO_OPT_PASSES = 20;
+   //2-opt is quadratic, so only use nearest neighbor tour above this
+   private static final int MAX_TWO_OPT_POSITIONS = 3000;
+
+   /**
+    * Order in which to visit XY positions so that total stage travel is short:
+    * a nearest neighbor tour starting from the first position, improved by 2-opt.
+    * Distance is the larger of the x and y displacement, since stage axes move
+    * simultaneously
+    *
+    * @return position indices in the order they should be visited
+    */
+   public static int[] optimizePositionOrder(List<XYStagePosition> positions) {
+      int n = positions.size();
+      double[] x = new double[n], y = new double[n];
+      for (int i = 0; i < n; i++) {
+         Point2D.Double center = positions.get(i).getCenter();
+         x[i] = center.x;
+         y[i] = center.y;
+      }
+      int[] tour = new int[n];
+      if (n == 0) {
+         return tour;
+      }
+      //nearest neighbor
+      boolean[] visited = new boolean[n];
+      visited[0] = true;
+      for (int i = 1; i < n; i++) {
+         int last = tour[i - 1];
+         int nearest = -1;
+         double nearestDist = Double.MAX_VALUE;
+         for (int j = 0; j < n; j++) {
+            if (!visited[j] && distance(x, y, last, j) < nearestDist) {
+               nearestDist = distance(x, y, last, j);
+               nearest = j;
+            }
+         }
+         tour[i] = nearest;
+         visited[nearest] = true;
+      }
+      if (n > MAX_TWO_OPT_POSITIONS) {
+         return tour;
+      }
+      //2-opt on an open path with a fixed start: reverse tour[i..j] whenever it shortens the path
+      for (int pass = 0; pass < MAX_TWO_OPT_PASSES; pass++) {
+         boolean improved = false;
+         for (int i = 1; i < n - 1; i++) {
+            for (int j = i + 1; j < n; j++) {
+               double before = distance(x, y, tour[i - 1], tour[i])
+                       + (j < n - 1 ? distance(x, y, tour[j], tour[j + 1]) : 0);
+               double after = distance(x, y, tour[i - 1], tour[j])
+                       + (j < n - 1 ? distance(x, y, tour[i], tour[j + 1]) : 0);
+               if (after < before - 1e-9) {
+                  for (int a = i, b = j; a < b; a++, b--) {
+                     int temp = tour[a];
+                     tour[a] = tour[b];
+                     tour[b] = temp;
+                  }
+                  improved = true;
+               }
+            }
+         }
+         if (!improved) {
+            break;
+         }
+      }
+      return tour;
+   }
+
+   /**
+    * Whether to acquire all slices of one channel before switching to the next
+    * channel (rather than all channels at each slice), based on measured
+    * average channel switch and z move times
+    *
+    * @param numSlices number of slices at the position
+    * @param numChannels number of channels acquired as separate events
+    */
+   public static boolean acquireChannelsInOuterLoop(AcqDurationEstimator estimator, int numSlices, int numChannels) {
+      if (estimator == null || numSlices < 2 || numChannels < 2) {
+         return false;
+      }
+      double zMove = estimator.getAverageZMoveTime();
+      double channelSwitch = estimator.getAverageChannelSwitchTime();
+      double slicesOuterCost = numSlices * zMove + numSlices * numChannels * channelSwitch;
+      double channelsOuterCost = numSlices * numChannels * zMove + numChannels * channelSwitch;
+      return channelsOuterCost < slicesOuterCost;
+   }
+
+   private static double distance(double[] x, double[] y, int i, int j) {
+      return Math.max(Math.abs(x[i] - x[j]), Math.abs(y[i] - y[j]));
+   }
+}
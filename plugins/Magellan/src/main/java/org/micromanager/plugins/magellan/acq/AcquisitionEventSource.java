@@ -24,4 +24,10 @@ public interface AcquisitionEventSource {
    
    public AcquisitionEvent getNextEvent() throws InterruptedException;
    
+   /**
+    * @return the event getNextEvent will return if it is already available,
+    * without removing it, or null
+    */
+   public AcquisitionEvent peekNextEvent();
+   
 }
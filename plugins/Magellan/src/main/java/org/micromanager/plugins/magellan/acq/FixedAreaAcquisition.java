@@ -33,11 +33,13 @@ import java.util.concurrent.TimeUnit;
 import main.java.org.micromanager.plugins.magellan.bidc.JavaLayerImageConstructor;
 import main.java.org.micromanager.plugins.magellan.channels.ChannelSetting;
 import main.java.org.micromanager.plugins.magellan.coordinates.AffineUtils;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import main.java.org.micromanager.plugins.magellan.json.JSONArray;
 import main.java.org.micromanager.plugins.magellan.main.Magellan;
+import main.java.org.micromanager.plugins.magellan.misc.GlobalSettings;
 import main.java.org.micromanager.plugins.magellan.misc.Log;
 import main.java.org.micromanager.plugins.magellan.surfacesandregions.Point3d;
 import main.java.org.micromanager.plugins.magellan.surfacesandregions.SurfaceChangedListener;
@@ -54,6 +56,8 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
 
    final private FixedAreaAcquisitionSettings settings_;
    private List<XYStagePosition> positions_;
+   //order in which to visit positions_
+   private int[] positionOrder_;
    private long nextTimePointStartTime_ms_;
    private ParallelAcquisitionGroup acqGroup_;
    //barrier to wait for event generation at successive time points
@@ -62,6 +66,8 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
    //barrier to wait for all images to be written before starting nex time point stuff
    //signals come from 1) event generating thread 2) tagged iamge sink
    private volatile CountDownLatch tpImagesFinishedWritingLatch_ = new CountDownLatch(1);
+   //barrier released when the engine has taken the final event of the current time point
+   private volatile CountDownLatch tpEventsConsumedLatch_ = new CountDownLatch(1);
    //executor service to wait for next execution
    final private ScheduledExecutorService waitForNextTPSerivice_ = Executors.newScheduledThreadPool(1);
    final private ExecutorService eventGenerator_;
@@ -120,6 +126,10 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
          autofocus_ = new CrossCorrelationAutofocus(this, cIndex, settings_.autofocusMaxDisplacemnet_um_,
                  settings_.setInitialAutofocusPosition_ ? settings_.initialAutofocusPosition_
                          : Magellan.getCore().getPosition(settings_.autoFocusZDevice_));
+         if (settings_.autofocusUseRegion_) {
+            autofocus_.setCorrelationRegion(new Rectangle(settings_.autofocusRegionX_, settings_.autofocusRegionY_,
+                    settings_.autofocusRegionWidth_, settings_.autofocusRegionHeight_));
+         }
       } else {
          autofocus_ = null;
       }
@@ -189,6 +199,7 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
          Log.log("Problem with Acquisition's XY positions. Check acquisition settings");
          throw new RuntimeException();
       }
+      positionOrder_ = AcquisitionEventScheduler.optimizePositionOrder(positions_);
    }
 
    private int getAutofocusChannelIndex() {
@@ -350,6 +361,37 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
       }
    }
 
+   /**
+    * Wait for the image sink to signal that the current time point has been written
+    *
+    * @param ignoreSettingsChanges keep waiting if the latch was released by a surface change
+    * @return true if images finished writing, false if released by a settings change
+    */
+   private boolean awaitTPImagesFinishedWriting(boolean ignoreSettingsChanges) throws InterruptedException {
+      while (true) {
+         tpImagesFinishedWritingLatch_.await();
+         //make sure that latch was triggered by tp finishing, rather than surface update
+         synchronized (tpFinishedLockObject_) {
+            if (tpImagesFinishedWriting_) {
+               return true;
+            }
+            tpImagesFinishedWritingLatch_ = new CountDownLatch(1);
+         }
+         if (!ignoreSettingsChanges) {
+            return false;
+         }
+      }
+   }
+
+   @Override
+   public AcquisitionEvent getNextEvent() throws InterruptedException {
+      AcquisitionEvent event = super.getNextEvent();
+      if (event.isTimepointFinishedEvent() || event.isAcquisitionFinishedEvent()) {
+         tpEventsConsumedLatch_.countDown();
+      }
+      return event;
+   }
+
    private void createEventGenerator() {
       Log.log("Create event generator started", false);
       eventGenerator_.submit(new Runnable() {
@@ -383,6 +425,11 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                   double interval_ms = settings_.timePointInterval_ * (settings_.timeIntervalUnit_ == 1 ? 1000 : (settings_.timeIntervalUnit_ == 2 ? 60000 : 1));
                   nextTimePointStartTime_ms_ = (long) (System.currentTimeMillis() + interval_ms);
 
+                  boolean lastTimePoint = timeIndex == (settings_.timeEnabled_ ? settings_.numTimePoints_ : 1) - 1;
+                  //the final time point always waits for writing, so the group knows this acquisition has finished
+                  boolean pipelined = !lastTimePoint && GlobalSettings.getInstance().getBooleanInPrefs(
+                          MagellanEngine.PIPELINE_PARALLEL_ACQUISITIONS_PREF, false);
+                  tpEventsConsumedLatch_ = new CountDownLatch(1);
                   while (true) {
                      try {
                         createEventsAtTimepoint(timeIndex);
@@ -393,6 +440,16 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                         Log.log("Exception in event generating thread");
                         Log.log(e);
                      }
+                     if (pipelined) {
+                        //once the engine has taken every event of this time point, let the next acquisition
+                        //in the group use the hardware while these images are still being written
+                        tpEventsConsumedLatch_.await();
+                        acqGroup_.finishedTPEventGeneration(FixedAreaAcquisition.this);
+                        //surface changes now apply from the next time point
+                        awaitTPImagesFinishedWriting(true);
+                        acqSettingsUpdated_ = false;
+                        break;
+                     }
                      //wait for final image of timepoint to be written before beginning end of timepoint stuff
                      //three ways to get past this barrier:
                      //1) interuption by an abort request will throw an interrupted exception and cause this thread to return
@@ -400,14 +457,8 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                      //3) image sink will get an acquisitionFinsihed signal and call allImagesFinishedWriting
                      //in the unlikely scenario that shudown is called by abort between these two calls, the imagesink should be able
                      //to finish writing images as expected
-                        tpImagesFinishedWritingLatch_.await();
-                     //make sure that latch was triggered by tp finishing, rather than surface update
-                     synchronized (tpFinishedLockObject_) {
-                        if (tpImagesFinishedWriting_) {
-                           break;
-                        } else {
-                           tpImagesFinishedWritingLatch_ = new CountDownLatch(1);
-                        }
+                     if (awaitTPImagesFinishedWriting(false)) {
+                        break;
                      }
                   }
                   //timepoint images finshed writing, so rest the latch
@@ -416,10 +467,12 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                      tpImagesFinishedWriting_ = false;
                   }
 
-                  //this call starts a new thread to not hang up cyclic barriers   
-                  //signal to next acquisition in parallel group to start generating events, then continue using the event generator thread
-                  //to calculate autofocus
-                  acqGroup_.finishedTPEventGeneration(FixedAreaAcquisition.this);
+                  if (!pipelined) {
+                     //this call starts a new thread to not hang up cyclic barriers   
+                     //signal to next acquisition in parallel group to start generating events, then continue using the event generator thread
+                     //to calculate autofocus
+                     acqGroup_.finishedTPEventGeneration(FixedAreaAcquisition.this);
+                  }
 
                   //all images finished writing--can now run autofocus
                   if (autofocus_ != null) {
@@ -440,19 +493,40 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
       });
    }
 
+   /**
+    * Positions are visited along an optimized tour, in alternating directions
+    * on successive time points so each time point starts where the last ended
+    */
+   private int[] getPositionTraversal(int timeIndex) {
+      int[] traversal = new int[positionOrder_.length];
+      for (int i = 0; i < traversal.length; i++) {
+         traversal[i] = timeIndex % 2 == 0 ? positionOrder_[i] : positionOrder_[traversal.length - 1 - i];
+      }
+      return traversal;
+   }
+
    private void createEventsAtTimepoint(int timeIndex) throws InterruptedException, Exception {
-      int positionIndex;
+      int[] traversal = getPositionTraversal(timeIndex);
+      int traversalIndex = 0;
       if (lastEvent_ != null && lastEvent_.timeIndex_ == timeIndex) {
-            //continuation of an exisitng time point due to a surface being changed
-            positionIndex = lastEvent_.positionIndex_;
-         } else {
-            positionIndex = 0;
+         //continuation of an exisitng time point due to a surface being changed
+         while (traversalIndex < traversal.length - 1 && traversal[traversalIndex] != lastEvent_.positionIndex_) {
+            traversalIndex++;
+         }
+      }
+      ArrayList<Integer> activeChannels = new ArrayList<Integer>();
+      for (int channelIndex = 0; channelIndex < settings_.channels_.size(); channelIndex++) {
+         if (settings_.channels_.get(channelIndex).uniqueEvent_ && settings_.channels_.get(channelIndex).use_) {
+            activeChannels.add(channelIndex);
          }
+      }
       
-      while (positionIndex < positions_.size()) {
+      for (; traversalIndex < traversal.length; traversalIndex++) {
          //add events for all slices/channels at this position
+         int positionIndex = traversal[traversalIndex];
          XYStagePosition position = positions_.get(positionIndex);      
          int sliceIndex = (int) Math.round((getZTopCoordinate() - zOrigin_) / zStep_);
+         ArrayList<Integer> sliceIndices = new ArrayList<Integer>();
          while (true) {
             if (eventGenerator_.isShutdown()) { // check for aborts
                throw new InterruptedException();
@@ -476,13 +550,22 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                sliceIndex++;
                continue; //position is above imaging volume or range of focus device
             }
+            sliceIndices.add(sliceIndex);
+            sliceIndex++;
+         } //slice loop finish
 
-            for (int channelIndex = 0; channelIndex < settings_.channels_.size(); channelIndex++) {
-               if (!settings_.channels_.get(channelIndex).uniqueEvent_ || !settings_.channels_.get(channelIndex).use_) {
-                  continue;
-               }
-               AcquisitionEvent event = new AcquisitionEvent(FixedAreaAcquisition.this, timeIndex, channelIndex, sliceIndex,
-                       positionIndex, zPos, position, settings_.covariantPairings_);
+         //order channels and slices by whichever is cheaper to change, if the user allows it
+         boolean channelsOuter = GlobalSettings.getInstance().getBooleanInPrefs(MagellanEngine.REORDER_CHANNELS_PREF, false)
+                 && AcquisitionEventScheduler.acquireChannelsInOuterLoop(AcqDurationEstimator.getInstance(),
+                 sliceIndices.size(), activeChannels.size());
+         int outerCount = channelsOuter ? activeChannels.size() : sliceIndices.size();
+         int innerCount = channelsOuter ? sliceIndices.size() : activeChannels.size();
+         for (int outer = 0; outer < outerCount; outer++) {
+            for (int inner = 0; inner < innerCount; inner++) {
+               int channelIndex = activeChannels.get(channelsOuter ? outer : inner);
+               int slice = sliceIndices.get(channelsOuter ? inner : outer);
+               AcquisitionEvent event = new AcquisitionEvent(FixedAreaAcquisition.this, timeIndex, channelIndex, slice,
+                       positionIndex, zOrigin_ + slice * zStep_, position, settings_.covariantPairings_);
                if (eventGenerator_.isShutdown()) {
                   throw new InterruptedException();
                }
@@ -498,11 +581,8 @@ public class FixedAreaAcquisition extends Acquisition implements SurfaceChangedL
                   createEventsAtTimepoint(timeIndex);  
                   return;
                }
-
             }
-            sliceIndex++;
-         } //slice loop finish
-         positionIndex++;
+         }
       } //position loop finished
       if (timeIndex == (settings_.timeEnabled_ ? settings_.numTimePoints_ : 1) - 1) {
          //acquisition now finished, add event so engine can mark acquisition as finished                 
@@ -76,6 +76,9 @@ public class FixedAreaAcquisitionSettings  {
    public double autofocusMaxDisplacemnet_um_;
    public boolean setInitialAutofocusPosition_;
    public double initialAutofocusPosition_;
+   //region of the stitched image used for drift compensation, in full resolution pixels
+   public boolean autofocusUseRegion_;
+   public int autofocusRegionX_, autofocusRegionY_, autofocusRegionWidth_, autofocusRegionHeight_;
    
    //2photon
    public int imageFilterType_;
@@ -107,6 +110,11 @@ public class FixedAreaAcquisitionSettings  {
       autofocusMaxDisplacemnet_um_ =  prefs.getDouble(PREF_PREFIX + "AFMAXDISP", 0.0);
       autofocusChannelName_ = prefs.get(PREF_PREFIX + "AFCHANNELNAME", null);
       autoFocusZDevice_ = prefs.get(PREF_PREFIX + "AFZNAME", null);      
+      autofocusUseRegion_ = prefs.getBoolean(PREF_PREFIX + "AFUSEREGION", false);
+      autofocusRegionX_ = prefs.getInt(PREF_PREFIX + "AFREGIONX", 0);
+      autofocusRegionY_ = prefs.getInt(PREF_PREFIX + "AFREGIONY", 0);
+      autofocusRegionWidth_ = prefs.getInt(PREF_PREFIX + "AFREGIONWIDTH", 0);
+      autofocusRegionHeight_ = prefs.getInt(PREF_PREFIX + "AFREGIONHEIGHT", 0);
       //add all pairings currently present
       CovariantPairingsManager pairManager = CovariantPairingsManager.getInstance();
       //null on startup, but no pairings to add anyway  
@@ -187,6 +195,11 @@ public class FixedAreaAcquisitionSettings  {
       if (autoFocusZDevice_ != null) {
          prefs.put(PREF_PREFIX + "AFZNAME", autoFocusZDevice_);
       }
+      prefs.putBoolean(PREF_PREFIX + "AFUSEREGION", autofocusUseRegion_);
+      prefs.putInt(PREF_PREFIX + "AFREGIONX", autofocusRegionX_);
+      prefs.putInt(PREF_PREFIX + "AFREGIONY", autofocusRegionY_);
+      prefs.putInt(PREF_PREFIX + "AFREGIONWIDTH", autofocusRegionWidth_);
+      prefs.putInt(PREF_PREFIX + "AFREGIONHEIGHT", autofocusRegionHeight_);
       //image filtering
       prefs.putInt(PREF_PREFIX + "IMAGE_FILTER", imageFilterType_);
       prefs.putDouble(PREF_PREFIX + "RANK", rank_);
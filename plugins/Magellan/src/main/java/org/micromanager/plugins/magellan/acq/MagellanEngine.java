@@ -61,6 +61,14 @@ public class MagellanEngine {
 
    private static final int HARDWARE_ERROR_RETRIES = 6;
    private static final int DELWAY_BETWEEN_RETRIES_MS = 5;
+   //set to true for hardware where Z, XY and channel changes can safely happen at the same time.
+   //The XY move to the next position then also starts while an image is read out
+   public static final String OVERLAP_HARDWARE_MOVES_PREF = "Overlap hardware moves";
+   //let measured hardware timings decide whether channels or slices are the outer loop at each position
+   public static final String REORDER_CHANNELS_PREF = "Reorder channels and slices";
+   //hand the hardware to the next acquisition in a parallel group as soon as all events of a
+   //time point have been executed, rather than after its images have been written
+   public static final String PIPELINE_PARALLEL_ACQUISITIONS_PREF = "Pipeline parallel acquisitions";
    private static CMMCore core_;
    private AcquisitionEvent lastEvent_ = null;
    private ExploreAcquisition currentExploreAcq_;
@@ -69,6 +77,9 @@ public class MagellanEngine {
    private ExecutorService acqExecutor_;
    private EventBus bus_;
    private AcqDurationEstimator acqDurationEstiamtor_;
+   //event whose XY move was started during the readout of the previous image
+   private AcquisitionEvent premovedEvent_;
+   private double premoveStartTime_;
 
    public MagellanEngine(CMMCore core, AcqDurationEstimator acqDurationEstiamtor) {
       core_ = core;
@@ -243,7 +254,7 @@ public class MagellanEngine {
                      }
                      break; //this parallel group or explore acqusition is done
                   }
-                  executeAcquisitionEvent(event);
+                  executeAcquisitionEvent(event, acq);
                } catch (InterruptedException ex) {
                   Log.log("Unexpected interrupt to acquisiton engine thread");
                   return;
@@ -253,7 +264,7 @@ public class MagellanEngine {
       });
    }
 
-   private void executeAcquisitionEvent(AcquisitionEvent event) throws InterruptedException {
+   private void executeAcquisitionEvent(AcquisitionEvent event, AcquisitionEventSource source) throws InterruptedException {
       if (event.isReQueryEvent()) {
          //nothing to do, just a dummy event to get of blocking call when switching between parallel acquisitions
       } else if (event.isAcquisitionFinishedEvent()) {
@@ -267,7 +278,7 @@ public class MagellanEngine {
       } else {
          updateHardware(event);
          double startTime = System.currentTimeMillis();
-         acquireImage(event);
+         acquireImage(event, source);
          if (GlobalSettings.getInstance().getDemoMode()) {
             Thread.sleep(DEMO_DELAY_IMAGE_CAPTURE);
          }
@@ -282,13 +293,25 @@ public class MagellanEngine {
       }
    }
 
-   private void acquireImage(final AcquisitionEvent event) throws InterruptedException {
+   private void acquireImage(final AcquisitionEvent event, AcquisitionEventSource source) throws InterruptedException {
       loopHardwareCommandRetries(new HardwareCommand() {
          @Override
          public void run() throws Exception {
             JavaLayerImageConstructor.getInstance().snapImage();
          }
       }, "snapping image");
+      //exposure is over, so the stage can travel to the next position while the image is read out
+      if (GlobalSettings.getInstance().getBooleanInPrefs(OVERLAP_HARDWARE_MOVES_PREF, false)) {
+         AcquisitionEvent next = source.peekNextEvent();
+         if (next != null && next.isImageAcquisitionEvent() && next.acquisition_ == event.acquisition_
+                 && next.positionIndex_ != event.positionIndex_) {
+            String xyStage = next.acquisition_.getXYStageName();
+            waitForDevice(xyStage, "XY stage");
+            premoveStartTime_ = System.currentTimeMillis();
+            startXYMove(xyStage, next);
+            premovedEvent_ = next;
+         }
+      }
 
       //get elapsed time
       final long currentTime = System.currentTimeMillis();
@@ -346,88 +369,149 @@ public class MagellanEngine {
       //Get the hardware specific to this acquisition
       final String xyStage = event.acquisition_.getXYStageName();
       final String zStage = event.acquisition_.getZStageName();
+      boolean moveZ = lastEvent_ == null || event.sliceIndex_ != lastEvent_.sliceIndex_;
+      //the XY move to this event may have been started during the readout of the previous image.
+      //If another event came instead, the stage is not where lastEvent_ says, so move it back
+      boolean xyMoveStarted = premovedEvent_ == event;
+      boolean moveXY = lastEvent_ == null || event.positionIndex_ != lastEvent_.positionIndex_
+              || (premovedEvent_ != null && !xyMoveStarted);
+      premovedEvent_ = null;
+
+      if (GlobalSettings.getInstance().getBooleanInPrefs(OVERLAP_HARDWARE_MOVES_PREF, false)) {
+         //start Z and XY moves together and switch channel while the stages travel
+         double zStartTime = 0;
+         double xyStartTime = premoveStartTime_;
+         if (moveZ) {
+            waitForDevice(zStage, "Z stage");
+            zStartTime = System.currentTimeMillis();
+            startZMove(zStage, event);
+         }
+         if (moveXY && !xyMoveStarted) {
+            waitForDevice(xyStage, "XY stage");
+            xyStartTime = System.currentTimeMillis();
+            startXYMove(xyStage, event);
+         }
+         updateChannel(event);
+         waitForOverlappedMoves(moveZ ? zStage : null, zStartTime, moveXY ? xyStage : null, xyStartTime);
+      } else {
+         //move Z before XY 
+         /////////////////////////////Z stage/////////////////////////////
+         if (moveZ) {
+            double startTime = System.currentTimeMillis();
+            //wait for it to not be busy (is this even needed?)
+            waitForDevice(zStage, "Z stage");
+            startZMove(zStage, event);
+            waitForDevice(zStage, "Z stage");
+            acqDurationEstiamtor_.storeZMoveTime(System.currentTimeMillis() - startTime);
+         }
 
-      //move Z before XY 
-      /////////////////////////////Z stage/////////////////////////////
-      if (lastEvent_ == null || event.sliceIndex_ != lastEvent_.sliceIndex_) {            
-         double startTime = System.currentTimeMillis();
-         //wait for it to not be busy (is this even needed?)
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               while (core_.deviceBusy(zStage)) {
-                  Thread.sleep(2);
-               }
-            }
-         }, "waiting for Z stage to not be busy");
-         //move Z stage
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               core_.setPosition(zStage, event.zPosition_);
-               //delay in demo mode to simulate movement
-               if (GlobalSettings.getInstance().getDemoMode()) {
-                  Thread.sleep(DEMO_DELAY_Z);
-               }
-            }
-         }, "move Z device");
-         //wait for it to not be busy (is this even needed?)
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               while (core_.deviceBusy(zStage)) {
-                  Thread.sleep(2);
+         /////////////////////////////XY Stage/////////////////////////////
+         if (moveXY) {
+            double startTime = System.currentTimeMillis();
+            //wait for it to not be busy (is this even needed??)
+            waitForDevice(xyStage, "XY stage");
+            startXYMove(xyStage, event);
+            waitForDevice(xyStage, "XY stage");
+            acqDurationEstiamtor_.storeXYMoveTime(System.currentTimeMillis() - startTime);
+         }
+
+         /////////////////////////////Channels/////////////////////////////
+         updateChannel(event);
+      }
+
+      /////////////////////////////Covariants/////////////////////////////
+      if (event.covariants_ != null) {
+         outerloop:
+         for (final CovariantPairing cp : event.covariants_) {
+            //get the value of dependent covariant based on state of independent, and
+            //change hardware settings as appropriate
+            loopHardwareCommandRetries(new HardwareCommand() {
+               @Override
+               public void run() throws Exception {
+                  cp.updateHardwareBasedOnPairing(event);
                }
-            }
-         }, "waiting for Z stage to not be busy");
-         try {
-            acqDurationEstiamtor_.storeZMoveTime(System.currentTimeMillis() - startTime);
-         } catch (Exception ex) {
-            Log.log(ex);
+            }, "settng Covariant value pair " + cp.toString());
          }
       }
+      lastEvent_ = event;
+   }
 
+   /**
+    * Wait for the Z and XY moves that overlapped each other, a channel switch
+    * or an image readout. A move is only timed when it was still running after
+    * all of these, since otherwise only an upper bound of its duration is known
+    *
+    * @param zStage Z stage that was moved, or null
+    * @param xyStage XY stage that was moved, or null
+    */
+   private void waitForOverlappedMoves(String zStage, double zStartTime, String xyStage, double xyStartTime)
+           throws InterruptedException {
+      boolean zMoving = zStage != null && isDeviceBusy(zStage, "Z stage");
+      boolean xyMoving = xyStage != null && isDeviceBusy(xyStage, "XY stage");
+      while (zMoving || xyMoving) {
+         if (zMoving && !isDeviceBusy(zStage, "Z stage")) {
+            zMoving = false;
+            acqDurationEstiamtor_.storeZMoveTime(System.currentTimeMillis() - zStartTime);
+         }
+         if (xyMoving && !isDeviceBusy(xyStage, "XY stage")) {
+            xyMoving = false;
+            acqDurationEstiamtor_.storeXYMoveTime(System.currentTimeMillis() - xyStartTime);
+         }
+         if (zMoving || xyMoving) {
+            Thread.sleep(2);
+         }
+      }
+   }
 
-      /////////////////////////////XY Stage/////////////////////////////
-      if (lastEvent_ == null || event.positionIndex_ != lastEvent_.positionIndex_) {     
-         double startTime = System.currentTimeMillis();
-         //wait for it to not be busy (is this even needed??)
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               while (core_.deviceBusy(xyStage)) {
-                  Thread.sleep(2);
-               }
+   private boolean isDeviceBusy(final String device, String deviceDescription) throws InterruptedException {
+      final boolean[] busy = new boolean[1];
+      loopHardwareCommandRetries(new HardwareCommand() {
+         @Override
+         public void run() throws Exception {
+            busy[0] = core_.deviceBusy(device);
+         }
+      }, "checking if " + deviceDescription + " is busy");
+      return busy[0];
+   }
+
+   private void waitForDevice(final String device, String deviceDescription) throws InterruptedException {
+      loopHardwareCommandRetries(new HardwareCommand() {
+         @Override
+         public void run() throws Exception {
+            while (core_.deviceBusy(device)) {
+               Thread.sleep(2);
             }
-         }, "waiting for XY stage to not be busy");
-         //move to new position
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               core_.setXYPosition(xyStage, event.xyPosition_.getCenter().x, event.xyPosition_.getCenter().y);
-               //delay in demo mode to simulate movement
-               if (GlobalSettings.getInstance().getDemoMode()) {
-                  Thread.sleep(DEMO_DELAY_XY);
-               }
+         }
+      }, "waiting for " + deviceDescription + " to not be busy");
+   }
+
+   private void startZMove(final String zStage, final AcquisitionEvent event) throws InterruptedException {
+      loopHardwareCommandRetries(new HardwareCommand() {
+         @Override
+         public void run() throws Exception {
+            core_.setPosition(zStage, event.zPosition_);
+            //delay in demo mode to simulate movement
+            if (GlobalSettings.getInstance().getDemoMode()) {
+               Thread.sleep(DEMO_DELAY_Z);
             }
-         }, "moving XY stage");
-         //wait for it to not be busy (is this even needed??)
-         loopHardwareCommandRetries(new HardwareCommand() {
-            @Override
-            public void run() throws Exception {
-               while (core_.deviceBusy(xyStage)) {
-                  Thread.sleep(2);
-               }
+         }
+      }, "move Z device");
+   }
+
+   private void startXYMove(final String xyStage, final AcquisitionEvent event) throws InterruptedException {
+      loopHardwareCommandRetries(new HardwareCommand() {
+         @Override
+         public void run() throws Exception {
+            core_.setXYPosition(xyStage, event.xyPosition_.getCenter().x, event.xyPosition_.getCenter().y);
+            //delay in demo mode to simulate movement
+            if (GlobalSettings.getInstance().getDemoMode()) {
+               Thread.sleep(DEMO_DELAY_XY);
             }
-         }, "waiting for XY stage to not be busy");
-         try {
-            acqDurationEstiamtor_.storeXYMoveTime(System.currentTimeMillis() - startTime);
-         } catch (Exception ex) {
-            Log.log(ex);
          }
-      }
-      
-      /////////////////////////////Channels/////////////////////////////
+      }, "moving XY stage");
+   }
+
+   private void updateChannel(final AcquisitionEvent event) throws InterruptedException {
       if (lastEvent_ == null || event.channelIndex_ != lastEvent_.channelIndex_
               && event.acquisition_.channels_ != null && !event.acquisition_.channels_.isEmpty()) {
          double startTime = System.currentTimeMillis();
@@ -451,22 +535,6 @@ public class MagellanEngine {
             Log.log(ex);
          }
       }
-
-      /////////////////////////////Covariants/////////////////////////////
-      if (event.covariants_ != null) {
-         outerloop:
-         for (final CovariantPairing cp : event.covariants_) {
-            //get the value of dependent covariant based on state of independent, and
-            //change hardware settings as appropriate
-            loopHardwareCommandRetries(new HardwareCommand() {
-               @Override
-               public void run() throws Exception {
-                  cp.updateHardwareBasedOnPairing(event);
-               }
-            }, "settng Covariant value pair " + cp.toString());
-         }
-      }
-      lastEvent_ = event;
    }
 
    private void loopHardwareCommandRetries(HardwareCommand r, String commandName) throws InterruptedException {
@@ -17,6 +17,7 @@
 
 package main.java.org.micromanager.plugins.magellan.acq;
 
+import main.java.org.micromanager.plugins.magellan.bdv.MagellanBlockCache;
 import main.java.org.micromanager.plugins.magellan.coordinates.AffineUtils;
 import main.java.org.micromanager.plugins.magellan.coordinates.PositionManager;
 import main.java.org.micromanager.plugins.magellan.coordinates.XYStagePosition;
@@ -451,6 +452,47 @@ public class MultiResMultipageTiffStorage {
       return new MagellanTaggedImage(pixels, topLeftMD);
    }
    
+   /**
+    * Pixels of a block that lies within a single tile, reading only the rows
+    * of that tile that are needed. Blocks spanning several tiles fall back to
+    * getImageForDisplay
+    *
+    * @return byte[] or short[] of width * height pixels, or null if the tile
+    * has no data
+    */
+   public Object getTilePixels(int channel, int slice, int frame, int dsIndex, long x, long y,
+           int width, int height) {
+      if (!isWithinOneTile(x, y, width, height)) {
+         return getImageForDisplay(channel, slice, frame, dsIndex, x, y, width, height).pix;
+      }
+      long col = tileIndexFromPixelIndex(x, true);
+      long row = tileIndexFromPixelIndex(y, false);
+      int tileXPix = (int) (x - col * tileWidth_);
+      int tileYPix = (int) (y - row * tileHeight_);
+      TaggedImageStorageMultipageTiff storage = dsIndex == 0 ? fullResStorage_ : lowResStorages_.get(dsIndex);
+      int positionIndex = posManager_.getPositionIndexFromTilePosition(dsIndex, row, col);
+      if (storage == null || positionIndex == -1) {
+         return null;
+      }
+      if (dsIndex == 0) {
+         //account for overlaps when viewing full resolution tiles
+         return storage.getImagePixelRegion(channel, slice, frame, positionIndex, tileXPix + xOverlap_ / 2,
+                 tileYPix + yOverlap_ / 2, width, height, fullResTileWidthIncludingOverlap_);
+      } else {
+         return storage.getImagePixelRegion(channel, slice, frame, positionIndex, tileXPix, tileYPix,
+                 width, height, tileWidth_);
+      }
+   }
+
+   /**
+    * @return true if the block lies within a single tile, in which case
+    * getTilePixels reads it directly from that tile
+    */
+   public boolean isWithinOneTile(long x, long y, int width, int height) {
+      return tileIndexFromPixelIndex(x, true) == tileIndexFromPixelIndex(x + width - 1, true)
+              && tileIndexFromPixelIndex(y, false) == tileIndexFromPixelIndex(y + height - 1, false);
+   }
+
    /**
     * Called before any images have been added to initialize the resolution to the specifiec zoom level
     * @param resIndex 
@@ -765,6 +807,7 @@ public class MultiResMultipageTiffStorage {
             for (TaggedImageStorageMultipageTiff s : lowResStorages_.values()) {
                s.close();
             }
+            MagellanBlockCache.getInstance().evict(MultiResMultipageTiffStorage.this);
          } 
       },"closing thread").start();
    }
@@ -31,6 +31,7 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import main.java.org.micromanager.plugins.magellan.json.JSONArray;
 import main.java.org.micromanager.plugins.magellan.json.JSONException;
 import main.java.org.micromanager.plugins.magellan.json.JSONObject;
@@ -62,6 +63,8 @@ public class MultipageTiffReader {
    private boolean rgb_;
    
    private HashMap<String,Long> indexMap_;
+   //offsets of pixel data, so region reads don't need to reread IFDs
+   private final ConcurrentHashMap<String, Long> pixelOffsets_ = new ConcurrentHashMap<String, Long>();
    
    /**
     * This constructor is used for a file that is currently being written
@@ -228,6 +231,53 @@ public class MultipageTiffReader {
       }
    }  
    
+   /**
+    * Read a rectangle of pixels from an image without reading its metadata or
+    * the rows outside the rectangle. The rows needed are read with a single
+    * positional read, so this can be called from several threads at once
+    *
+    * @param imageWidth width in pixels of the stored image
+    * @return byte[] or short[] of width * height pixels, or null if image not
+    * in this file or the file is RGB
+    */
+   public Object readPixelRegion(String label, int x, int y, int width, int height, int imageWidth) {
+      if (rgb_ || byteDepth_ == 0 || fileChannel_ == null || !indexMap_.containsKey(label)) {
+         return null;
+      }
+      try {
+         Long pixelOffset = pixelOffsets_.get(label);
+         if (pixelOffset == null) {
+            pixelOffset = readIFD(indexMap_.get(label)).pixelOffset;
+            pixelOffsets_.put(label, pixelOffset);
+         }
+         int rowBytes = imageWidth * byteDepth_;
+         ByteBuffer buffer = ByteBuffer.allocate(rowBytes * height).order(byteOrder_);
+         long position = pixelOffset + (long) y * rowBytes;
+         while (buffer.hasRemaining()) {
+            if (fileChannel_.read(buffer, position + buffer.position()) < 0) {
+               break;
+            }
+         }
+         if (byteDepth_ == 1) {
+            byte[] pixels = new byte[width * height];
+            for (int line = 0; line < height; line++) {
+               System.arraycopy(buffer.array(), line * rowBytes + x, pixels, line * width, width);
+            }
+            return pixels;
+         } else {
+            short[] pixels = new short[width * height];
+            for (int line = 0; line < height; line++) {
+               buffer.position(line * rowBytes + 2 * x);
+               buffer.asShortBuffer().get(pixels, line * width, width);
+            }
+            return pixels;
+         }
+      } catch (IOException ex) {
+         Log.log(ex);
+         return null;
+      }
+   }
+
    public Set<String> getIndexKeys() {
       if (indexMap_ == null)
          return null;
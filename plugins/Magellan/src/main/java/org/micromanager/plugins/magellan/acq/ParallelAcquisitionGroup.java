@@ -173,6 +173,11 @@ public class ParallelAcquisitionGroup implements AcquisitionEventSource {
         return evt;
     }
 
+    @Override
+    public AcquisitionEvent peekNextEvent() {
+        return pendingFinishingEvents_.isEmpty() ? acqs_.get(activeIndex_).peekNextEvent() : pendingFinishingEvents_.peek();
+    }
+
     /**
      * abort all acquisitions in group Individual acquisitions can be aborted by
      * Xing their windows,
@@ -25,6 +25,7 @@ import main.java.org.micromanager.plugins.magellan.imagedisplay.DisplaySettings;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -184,6 +185,37 @@ public final class TaggedImageStorageMultipageTiff   {
       return minSliceIndex_;
    }
    
+   /**
+    * Read only a rectangle of pixels of an image (no metadata)
+    *
+    * @param imageWidth width of the stored image
+    * @return byte[] or short[] of width * height pixels, or null if no image
+    */
+   public Object getImagePixelRegion(int channelIndex, int sliceIndex, int frameIndex, int positionIndex,
+           int x, int y, int width, int height, int imageWidth) {
+      String label = MD.generateLabel(channelIndex, sliceIndex, frameIndex, positionIndex);
+      MagellanTaggedImage image = writePendingImages_.get(label);
+      if (image == null) {
+         MultipageTiffReader reader = tiffReadersByLabel_.get(label);
+         if (reader == null) {
+            return null;
+         }
+         Object pixels = reader.readPixelRegion(label, x, y, width, height, imageWidth);
+         if (pixels != null) {
+            return pixels;
+         }
+         image = reader.readImage(label);
+      }
+      if (image == null || Array.getLength(image.pix) < (y + height) * imageWidth) {
+         return null;
+      }
+      Object pixels = image.pix instanceof byte[] ? new byte[width * height] : new short[width * height];
+      for (int line = 0; line < height; line++) {
+         System.arraycopy(image.pix, (y + line) * imageWidth + x, pixels, line * width, width);
+      }
+      return pixels;
+   }
+
    public MagellanTaggedImage getImage(int channelIndex, int sliceIndex, int frameIndex, int positionIndex) {
       String label = MD.generateLabel(channelIndex, sliceIndex, frameIndex, positionIndex);
 
@@ -0,0 +1,361 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package main.java.org.micromanager.plugins.magellan.autofocus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 3D cross correlation of two equally sized stacks via FFT. Volumes are zero
+ * padded to powers of two in every dimension. Since the input is real, only
+ * the non redundant half of its spectrum (paddedWidth / 2 + 1 columns) is
+ * computed and stored, so a spectrum takes about 4 bytes per padded voxel.
+ * FFT plans (twiddle factors and bit reversal tables) are cached per length,
+ * and spectra are returned to the caller so that the spectrum of one time
+ * point can be reused as the reference for the next. Planes and lines are
+ * transformed in parallel on the supplied executor
+ *
+ * Only the statistic autofocus needs is returned: the maximum correlation
+ * within the central xy region for every z shift, ordered so that zero shift
+ * is at index depth / 2 (same layout as FHTImage3D.crossCorrelation after
+ * swapping quadrants)
+ */
+public class CrossCorrelation3D {
+
+   private static final HashMap<Integer, FFTPlan> plans_ = new HashMap<Integer, FFTPlan>();
+
+   private final int width_, height_, depth_;
+   private final int paddedWidth_, paddedHeight_, paddedDepth_;
+   //number of stored columns of the half spectrum
+   private final int halfWidth_;
+   private final ExecutorService executor_;
+   private final int numTasks_;
+
+   /**
+    * @param width width of the input slices
+    * @param height height of the input slices
+    * @param depth number of input slices
+    * @param executor threads used for transforms
+    * @param numThreads number of threads in executor
+    */
+   public CrossCorrelation3D(int width, int height, int depth, ExecutorService executor, int numThreads) {
+      width_ = width;
+      height_ = height;
+      depth_ = depth;
+      paddedWidth_ = nextPowerOfTwo(width);
+      paddedHeight_ = nextPowerOfTwo(height);
+      paddedDepth_ = nextPowerOfTwo(depth);
+      halfWidth_ = paddedWidth_ / 2 + 1;
+      executor_ = executor;
+      numTasks_ = 4 * numThreads;
+   }
+
+   public int getPaddedDepth() {
+      return paddedDepth_;
+   }
+
+   /**
+    * Forward transform of a stack
+    *
+    * @param slices depth_ slices of width_ * height_ pixels
+    */
+   public Spectrum transform(final float[][] slices) throws InterruptedException, ExecutionException {
+      if (slices.length != depth_) {
+         throw new IllegalArgumentException("Expected " + depth_ + " slices but got " + slices.length);
+      }
+      final Spectrum spectrum = new Spectrum(halfWidth_ * paddedHeight_ * paddedDepth_);
+      final int planeSize = halfWidth_ * paddedHeight_;
+      //do the 2D transform of every occupied plane, then transform along z
+      runInParallel(depth_, new RangeTask() {
+         @Override
+         public void run(int start, int end) {
+            LineBuffer line = new LineBuffer(Math.max(paddedWidth_, paddedHeight_));
+            FFTPlan xPlan = getPlan(paddedWidth_);
+            FFTPlan yPlan = getPlan(paddedHeight_);
+            for (int z = start; z < end; z++) {
+               int planeOffset = z * planeSize;
+               //rows that are entirely zero padding stay zero
+               for (int y = 0; y < height_; y++) {
+                  line.forwardRealRow(slices[z], y * width_, width_, xPlan);
+                  line.store(spectrum, planeOffset + y * halfWidth_, 1, halfWidth_);
+               }
+               for (int x = 0; x < halfWidth_; x++) {
+                  line.transform(spectrum, planeOffset + x, halfWidth_, yPlan, false);
+               }
+            }
+         }
+      });
+      transformDepth(spectrum, false);
+      return spectrum;
+   }
+
+   /**
+    * Cross correlate two transformed stacks (reference * conj(current)).
+    * The correlation is computed in place in the reference, which can not be
+    * used again afterwards, so no more than two half spectra (2 * 4 bytes per
+    * padded voxel) are ever held
+    *
+    * @param reference spectrum of the earlier stack, overwritten
+    * @param current spectrum of the later stack, left untouched
+    * @return max value of the central xy region of the correlation for every
+    * z shift, with zero shift at index paddedDepth / 2
+    */
+   public double[] correlationSliceMaxima(Spectrum reference, Spectrum current) throws InterruptedException, ExecutionException {
+      final Spectrum product = reference;
+      final float[] aRe = reference.re_, aIm = reference.im_, bRe = current.re_, bIm = current.im_;
+      runInParallel(product.re_.length, new RangeTask() {
+         @Override
+         public void run(int start, int end) {
+            for (int i = start; i < end; i++) {
+               float re = aRe[i] * bRe[i] + aIm[i] * bIm[i];
+               float im = aIm[i] * bRe[i] - aRe[i] * bIm[i];
+               product.re_[i] = re;
+               product.im_[i] = im;
+            }
+         }
+      });
+      transformDepth(product, true);
+      final double[] maxima = new double[paddedDepth_];
+      final int planeSize = halfWidth_ * paddedHeight_;
+      final double norm = 1.0 / ((double) paddedWidth_ * paddedHeight_ * paddedDepth_);
+      runInParallel(paddedDepth_, new RangeTask() {
+         @Override
+         public void run(int start, int end) {
+            LineBuffer line = new LineBuffer(Math.max(paddedWidth_, paddedHeight_));
+            FFTPlan xPlan = getPlan(paddedWidth_);
+            FFTPlan yPlan = getPlan(paddedHeight_);
+            for (int z = start; z < end; z++) {
+               int planeOffset = z * planeSize;
+               for (int x = 0; x < halfWidth_; x++) {
+                  line.transform(product, planeOffset + x, halfWidth_, yPlan, true);
+               }
+               //only use central square, because weird large values can occur on the edges of the xCorr,
+               //so only the rows of the central square need their last inverse transform
+               double max = 0;
+               for (int v = paddedHeight_ / 4; v <= 3 * paddedHeight_ / 4; v++) {
+                  int y = (v + paddedHeight_ / 2) % paddedHeight_;
+                  line.inverseRealRow(product, planeOffset + y * halfWidth_, xPlan);
+                  for (int u = paddedWidth_ / 4; u <= 3 * paddedWidth_ / 4; u++) {
+                     int x = (u + paddedWidth_ / 2) % paddedWidth_;
+                     max = Math.max(max, line.re_[x] * norm);
+                  }
+               }
+               maxima[(z + paddedDepth_ / 2) % paddedDepth_] = max;
+            }
+         }
+      });
+      return maxima;
+   }
+
+   private void transformDepth(final Spectrum s, final boolean inverse) throws InterruptedException, ExecutionException {
+      final FFTPlan zPlan = getPlan(paddedDepth_);
+      final int planeSize = halfWidth_ * paddedHeight_;
+      runInParallel(planeSize, new RangeTask() {
+         @Override
+         public void run(int start, int end) {
+            LineBuffer line = new LineBuffer(paddedDepth_);
+            for (int i = start; i < end; i++) {
+               line.transform(s, i, planeSize, zPlan, inverse);
+            }
+         }
+      });
+   }
+
+   private void runInParallel(int n, final RangeTask task) throws InterruptedException, ExecutionException {
+      int chunk = Math.max(1, (n + numTasks_ - 1) / numTasks_);
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int start = 0; start < n; start += chunk) {
+         final int s = start;
+         final int e = Math.min(n, start + chunk);
+         tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               task.run(s, e);
+               return null;
+            }
+         });
+      }
+      for (Future<Void> f : executor_.invokeAll(tasks)) {
+         f.get();
+      }
+   }
+
+   private static int nextPowerOfTwo(int n) {
+      int p = 1;
+      while (p < n) {
+         p *= 2;
+      }
+      return p;
+   }
+
+   private static FFTPlan getPlan(int n) {
+      synchronized (plans_) {
+         FFTPlan plan = plans_.get(n);
+         if (plan == null) {
+            plan = new FFTPlan(n);
+            plans_.put(n, plan);
+         }
+         return plan;
+      }
+   }
+
+   private interface RangeTask {
+
+      void run(int start, int end);
+   }
+
+   /**
+    * Half spectrum of a real volume, stored as separate real and imaginary
+    * arrays
+    */
+   public static class Spectrum {
+
+      private final float[] re_, im_;
+
+      private Spectrum(int size) {
+         re_ = new float[size];
+         im_ = new float[size];
+      }
+   }
+
+   /**
+    * Twiddle factors and bit reversal permutation for a radix 2 FFT of length n
+    */
+   private static class FFTPlan {
+
+      final int n_;
+      final double[] cos_, sin_;
+      final int[] bitReverse_;
+
+      FFTPlan(int n) {
+         n_ = n;
+         cos_ = new double[Math.max(1, n / 2)];
+         sin_ = new double[Math.max(1, n / 2)];
+         for (int i = 0; i < n / 2; i++) {
+            cos_[i] = Math.cos(-2 * Math.PI * i / n);
+            sin_[i] = Math.sin(-2 * Math.PI * i / n);
+         }
+         bitReverse_ = new int[n];
+         int bits = Integer.numberOfTrailingZeros(n);
+         for (int i = 0; i < n; i++) {
+            bitReverse_[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+         }
+      }
+   }
+
+   /**
+    * Per thread scratch space for transforming one line of a volume
+    */
+   private static class LineBuffer {
+
+      private final double[] re_, im_;
+
+      LineBuffer(int maxLength) {
+         re_ = new double[maxLength];
+         im_ = new double[maxLength];
+      }
+
+      /**
+       * Transform a line of a spectrum in place
+       */
+      void transform(Spectrum s, int offset, int stride, FFTPlan plan, boolean inverse) {
+         int n = plan.n_;
+         //gather in bit reversed order
+         for (int i = 0; i < n; i++) {
+            int src = offset + plan.bitReverse_[i] * stride;
+            re_[i] = s.re_[src];
+            im_[i] = s.im_[src];
+         }
+         butterflies(plan, inverse);
+         store(s, offset, stride, n);
+      }
+
+      /**
+       * Forward transform of a zero padded row of real pixels into this buffer
+       */
+      void forwardRealRow(float[] pixels, int offset, int count, FFTPlan plan) {
+         for (int i = 0; i < plan.n_; i++) {
+            int x = plan.bitReverse_[i];
+            re_[i] = x < count ? pixels[offset + x] : 0;
+            im_[i] = 0;
+         }
+         butterflies(plan, false);
+      }
+
+      /**
+       * Inverse transform of a row stored as half spectrum. The missing half
+       * follows from the symmetry of the spectrum of real data, X[n - k] =
+       * conj(X[k]). The real result is left in re_
+       */
+      void inverseRealRow(Spectrum s, int offset, FFTPlan plan) {
+         int n = plan.n_;
+         for (int i = 0; i < n; i++) {
+            int k = plan.bitReverse_[i];
+            if (k <= n / 2) {
+               re_[i] = s.re_[offset + k];
+               im_[i] = s.im_[offset + k];
+            } else {
+               re_[i] = s.re_[offset + n - k];
+               im_[i] = -s.im_[offset + n - k];
+            }
+         }
+         butterflies(plan, true);
+      }
+
+      /**
+       * Write the first count values of this buffer to a line of a spectrum
+       */
+      void store(Spectrum s, int offset, int stride, int count) {
+         for (int i = 0; i < count; i++) {
+            int dst = offset + i * stride;
+            s.re_[dst] = (float) re_[i];
+            s.im_[dst] = (float) im_[i];
+         }
+      }
+
+      /**
+       * Radix 2 FFT of the bit reversed values in this buffer, result in
+       * natural order
+       */
+      private void butterflies(FFTPlan plan, boolean inverse) {
+         int n = plan.n_;
+         double sign = inverse ? -1 : 1;
+         for (int size = 2; size <= n; size *= 2) {
+            int half = size / 2;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+               for (int k = 0; k < half; k++) {
+                  double wr = plan.cos_[k * step];
+                  double wi = sign * plan.sin_[k * step];
+                  int a = start + k;
+                  int b = a + half;
+                  double tr = re_[b] * wr - im_[b] * wi;
+                  double ti = re_[b] * wi + im_[b] * wr;
+                  re_[b] = re_[a] - tr;
+                  im_[b] = im_[a] - ti;
+                  re_[a] += tr;
+                  im_[a] += ti;
+               }
+            }
+         }
+      }
+   }
+}
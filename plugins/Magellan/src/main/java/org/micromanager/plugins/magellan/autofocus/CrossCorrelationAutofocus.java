@@ -19,9 +19,7 @@ package main.java.org.micromanager.plugins.magellan.autofocus;
 
 import main.java.org.micromanager.plugins.magellan.acq.FixedAreaAcquisition;
 import main.java.org.micromanager.plugins.magellan.acq.MultiResMultipageTiffStorage;
-import ij.ImagePlus;
-import ij.ImageStack;
-import ij3d.image3d.FHTImage3D;
+import java.awt.Rectangle;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
@@ -33,8 +31,6 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import main.java.org.micromanager.plugins.magellan.main.Magellan;
 import main.java.org.micromanager.plugins.magellan.misc.Log;
 import org.apache.commons.math.ArgumentOutsideDomainException;
@@ -56,6 +52,7 @@ public class CrossCorrelationAutofocus {
    //8e8--682 s
    private static final int NUM_VOXEL_TARGET = 20000000; //this target shuld take 1-2 min to calculate, while maintaining images of a resonable size
    private static final int AF_TIMEOUT_MIN = 30;
+   private static final int NUM_XCORR_THREADS = Runtime.getRuntime().availableProcessors();
    
    private final int channelIndex_;
    private final double maxDisplacement_;
@@ -66,7 +63,14 @@ public class CrossCorrelationAutofocus {
    private int downsampleIndex_;
    private int downsampledWidth_;
    private int downsampledHeight_;
+   private long downsampledXOffset_, downsampledYOffset_;
    private ExecutorService afExecutor_;
+   private ExecutorService xCorrExecutor_;
+   private CrossCorrelation3D xCorr_;
+   //spectrum of the most recent time point, reference for the next one
+   private CrossCorrelation3D.Spectrum lastTPSpectrum_;
+   private int lastTPIndex_ = -1;
+   private Rectangle correlationRegion_;
            
    
    public CrossCorrelationAutofocus(final FixedAreaAcquisition acq, int channelIndex, double maxDisplacement , double initialPosition) {
@@ -75,6 +79,12 @@ public class CrossCorrelationAutofocus {
           public Thread newThread(Runnable r) {
               return new Thread(r, acq.getName() + " Autofocusexecutor");
           }
+      });
+      xCorrExecutor_ = Executors.newFixedThreadPool(NUM_XCORR_THREADS, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+              return new Thread(r, acq.getName() + " Autofocus cross correlation thread");
+          }
       });
        channelIndex_ = channelIndex;
       maxDisplacement_ = maxDisplacement;
@@ -116,8 +126,19 @@ public class CrossCorrelationAutofocus {
       return currentPosition_;
    }
    
+   /**
+    * Restrict cross correlation to a sub region of the full resolution stitched
+    * image (e.g. the part of the sample that has structure in it). Must be
+    * called before the first time point is processed
+    * @param fullResRegion region in full resolution pixels, or null for whole image
+    */
+   public void setCorrelationRegion(Rectangle fullResRegion) {
+      correlationRegion_ = fullResRegion;
+   }
+
    public void close() {
        afExecutor_.shutdownNow();
+       xCorrExecutor_.shutdownNow();
    }
    
    /**
@@ -138,32 +159,58 @@ public class CrossCorrelationAutofocus {
             //figure out which resolution level will be used for xCorr
             MultiResMultipageTiffStorage storage = acq_.getStorage();
             //do these calulations with BigIntegers to prevent overflow and Nan values
-            BigInteger tileWidth = new BigInteger(storage.getTileWidth() + "");
-            BigInteger tileHeight = new BigInteger(storage.getTileHeight() + "");
-            BigInteger numCols = new BigInteger(acq_.getNumColumns() + "");
-            BigInteger numRows = new BigInteger(acq_.getNumRows() + "");
+            BigInteger fullWidth = new BigInteger(storage.getTileWidth() + "").multiply(new BigInteger(acq_.getNumColumns() + ""));
+            BigInteger fullHeight = new BigInteger(storage.getTileHeight() + "").multiply(new BigInteger(acq_.getNumRows() + ""));
+            if (correlationRegion_ != null) {
+               Rectangle region = correlationRegion_.intersection(
+                       new Rectangle(0, 0, fullWidth.intValue(), fullHeight.intValue()));
+               if (region.isEmpty()) {
+                  Log.log("Drift compensation region is outside of the image, using whole image", true);
+                  correlationRegion_ = null;
+               } else {
+                  correlationRegion_ = region;
+                  fullWidth = new BigInteger(region.width + "");
+                  fullHeight = new BigInteger(region.height + "");
+               }
+            }
             //figure out how much downsampling needed to run autofocus in a reasonable amount of time
             //factor of two is for z padding
-            BigDecimal numPix2D = new BigDecimal(tileWidth.multiply(numCols).multiply(tileHeight).multiply(numRows));
+            BigDecimal numPix2D = new BigDecimal(fullWidth.multiply(fullHeight));
             BigDecimal numXCorrSlices = new BigDecimal((acq_.getNumSlices()) + "");
             double dsFactor = //ratio of number of voxels to voxel target
                     Math.sqrt(numPix2D.multiply(numXCorrSlices).divide(new BigDecimal((double) NUM_VOXEL_TARGET), 
                     RoundingMode.UP).doubleValue());
             downsampleIndex_ = (int) Math.max(0, Math.round(Math.log(dsFactor) / Math.log(2)));
-            downsampledWidth_ = (int) (tileWidth.multiply(numCols).longValue() / Math.pow(2, downsampleIndex_));
-            downsampledHeight_ = (int) (tileHeight.multiply(numRows).longValue() / Math.pow(2, downsampleIndex_));
+            downsampledWidth_ = (int) (fullWidth.longValue() / Math.pow(2, downsampleIndex_));
+            downsampledHeight_ = (int) (fullHeight.longValue() / Math.pow(2, downsampleIndex_));
+            if (correlationRegion_ != null) {
+               downsampledXOffset_ = (long) (correlationRegion_.x / Math.pow(2, downsampleIndex_));
+               downsampledYOffset_ = (long) (correlationRegion_.y / Math.pow(2, downsampleIndex_));
+            }
+            xCorr_ = new CrossCorrelation3D(downsampledWidth_, downsampledHeight_, acq_.getNumSlices(),
+                    xCorrExecutor_, NUM_XCORR_THREADS);
             Log.log("Drift compensation DS Index: " + downsampleIndex_, false);
             Log.log("Drift compensation DS Width: " + downsampledWidth_, false);
             Log.log("Drift compensation DS Height: " + downsampledHeight_, false);
+            //transform first time point now so later time points only need to transform themselves
+            try {
+               lastTPSpectrum_ = runOnAFThread(acq_.getName(), new Callable<CrossCorrelation3D.Spectrum>() {
+                  @Override
+                  public CrossCorrelation3D.Spectrum call() throws Exception {
+                     return xCorr_.transform(createAFStack(0));
+                  }
+               });
+               lastTPIndex_ = 0;
+            } catch (Exception e) {
+               Log.log("Couldn't transform reference time point for drift compensation", true);
+            }
         } else {
-            ImageStack lastTPStack = createAFStack(acq_, timeIndex - 1, channelIndex_, downsampledWidth_, downsampledHeight_, downsampleIndex_);
-            ImageStack currentTPStack = createAFStack(acq_, timeIndex, channelIndex_, downsampledWidth_, downsampledHeight_, downsampleIndex_);
             //run autofocus
             //image drift is the difference between this TP and the previous one
             //but does not represent the acutal drift because these 2 TPs will likely have different 
             //positions for the AF compensation Z device
             //drifteCorrection = move for the AF drive to bring current TP to position of previous TP
-            double driftCorrection = -calcFocusDrift(acq_.getName(), lastTPStack, currentTPStack, acq_.getZStep());
+            double driftCorrection = -calcFocusDrift(acq_.getName(), timeIndex, acq_.getZStep());
             Log.log(acq_.getName() + " Drift compensation: correction = " + driftCorrection, true);
             //now add in a factor accounting for the previous AF
             //i.e. how far the reference image is from the desired position
@@ -181,76 +228,84 @@ public class CrossCorrelationAutofocus {
         }
     }
 
-    /**
-     * return a 32 bit for use with cross corr autofocus
-     *
-
-    * @return
+   /**
+    * read the slices of a time point at the autofocus resolution as 32 bit pixels
     */
-   private static ImageStack createAFStack(FixedAreaAcquisition acq, int timeIndex, int channelIndex, int width, int height, int dsIndex) {
-      ImageStack stack = new ImageStack(width, height);
-      //get background pixel value
-      for (int slice = acq.getMinSliceIndex(); slice < acq.getMinSliceIndex() + acq.getNumSlices(); slice++) {
-         //add as int
-         float[] pix32;
-         if (Magellan.getCore().getBytesPerPixel() == 1) {
-            byte[] pix = (byte[]) acq.getStorage().getImageForDisplay(channelIndex, slice, timeIndex, dsIndex, 0, 0, width, height).pix;
-            pix32 = new float[pix.length];
-            for (int i = 0; i < pix.length; i++) {
-               pix32[i] = pix[i] & 0xff;
+   private float[][] createAFStack(int timeIndex) {
+      float[][] stack = new float[acq_.getNumSlices()][];
+      boolean oneByte = Magellan.getCore().getBytesPerPixel() == 1;
+      for (int slice = acq_.getMinSliceIndex(); slice < acq_.getMinSliceIndex() + acq_.getNumSlices(); slice++) {
+         Object pix = acq_.getStorage().getImageForDisplay(channelIndex_, slice, timeIndex, downsampleIndex_,
+                 downsampledXOffset_, downsampledYOffset_, downsampledWidth_, downsampledHeight_).pix;
+         float[] pix32 = new float[downsampledWidth_ * downsampledHeight_];
+         if (oneByte) {
+            byte[] bytePix = (byte[]) pix;
+            for (int i = 0; i < pix32.length; i++) {
+               pix32[i] = bytePix[i] & 0xff;
             }
          } else {
-            short[] pix = (short[]) acq.getStorage().getImageForDisplay(channelIndex, slice, timeIndex, dsIndex, 0, 0, width, height).pix;
-            pix32 = new float[pix.length];
-            for (int i = 0; i < pix.length; i++) {
-               pix32[i] = pix[i] & 0xffff;
+            short[] shortPix = (short[]) pix;
+            for (int i = 0; i < pix32.length; i++) {
+               pix32[i] = shortPix[i] & 0xffff;
             }
          }
-         stack.addSlice(null, pix32);
+         stack[slice - acq_.getMinSliceIndex()] = pix32;
       }
       return stack;
    }
 
+   /**
+    * Run part of autofocus on a seperate thread so a bug in it won't crash everything
+    */
+   private <T> T runOnAFThread(String acqName, Callable<T> task) throws Exception {
+      Future<T> f = afExecutor_.submit(task);
+      try {
+         return f.get(AF_TIMEOUT_MIN, TimeUnit.MINUTES);
+      } catch (InterruptedException ex) {
+         Log.log("autofocus aborted");
+         throw new Exception();
+      } catch (ExecutionException ex) {
+         Log.log("Exception while running autofocus");
+         Log.log(ex);
+         throw new Exception();
+      } catch (TimeoutException ex) {
+         Log.log("Autofocus timeout for acquisition: " + acqName);
+         f.cancel(true);
+         throw new Exception();
+      }
+   }
+
    /**
     *
-    * @param original
-   * @param current
-   * @param pixelSizeZ
-   * @return double representing the focus position of current relative to original (i.e. 4 means
-   * that current is focused 4 um deeper than current)
-   */
-   private double calcFocusDrift(String acqName, final ImageStack tp0Stack, final ImageStack currentTPStack, double pixelSizeZ) throws Exception {    
+    * @param timeIndex time point to compare to the previous one
+    * @param pixelSizeZ
+    * @return double representing the focus position of current relative to original (i.e. 4 means
+    * that current is focused 4 um deeper than current)
+    */
+   private double calcFocusDrift(String acqName, final int timeIndex, double pixelSizeZ) throws Exception {    
       Log.log( acqName + " Autofocus: cross correlating", true);    
-      //do actual autofocusing on a seperate thread so a bug in it won't crash everything
-      Future<ImageStack> f = afExecutor_.submit(new Callable<ImageStack>() {
+      double[] ccIntensity = runOnAFThread(acqName, new Callable<double[]>() {
           @Override
-          public ImageStack call() throws Exception {
-              return FHTImage3D.crossCorrelation(tp0Stack, currentTPStack);
+          public double[] call() throws Exception {
+             if (lastTPSpectrum_ == null || lastTPIndex_ != timeIndex - 1) {
+                lastTPSpectrum_ = xCorr_.transform(createAFStack(timeIndex - 1));
+             }
+             CrossCorrelation3D.Spectrum reference = lastTPSpectrum_;
+             //correlation overwrites the reference, so drop it before anything can fail
+             lastTPSpectrum_ = null;
+             CrossCorrelation3D.Spectrum current = xCorr_.transform(createAFStack(timeIndex));
+             double[] maxima = xCorr_.correlationSliceMaxima(reference, current);
+             lastTPSpectrum_ = current;
+             lastTPIndex_ = timeIndex;
+             return maxima;
           }
       });
-      ImageStack xCorrStack;
-       try {
-           xCorrStack = f.get(AF_TIMEOUT_MIN, TimeUnit.MINUTES);
-       } catch (InterruptedException ex) {
-           Log.log("autofocus aborted");
-           throw new Exception();
-       } catch (ExecutionException ex) {
-           Log.log("Exception while running autofocus");
-           Log.log(ex);
-           throw new Exception();
-       } catch (TimeoutException ex) {
-           Log.log("Autofocus timeout for acquisition: " + acqName);
-           throw new Exception();
-       }
       
       Log.log( acqName + " Autofocus: finished cross correlating..calculating drift", true);      
-      ImagePlus xCorr = new ImagePlus("XCorr", xCorrStack);      
-      //find the maximum cross correlation intensity at each z slice
-      double[] ccIntensity = new double[xCorr.getNSlices()], interpolatedCCMax = new double[xCorr.getNSlices()];
-      for (int i = 1; i <= ccIntensity.length; i++) {
-         xCorr.setSlice(i);      
-         ccIntensity[i - 1] = findMaxPixelVal((float[]) xCorr.getProcessor().getPixels(), xCorr.getWidth(), xCorr.getHeight());
-         interpolatedCCMax[i - 1] = i - 1;
+      //maximum cross correlation intensity at each z slice
+      double[] interpolatedCCMax = new double[ccIntensity.length];
+      for (int i = 0; i < ccIntensity.length; i++) {
+         interpolatedCCMax[i] = i;
       }
 
       //find maximum value of interpolated spline function
@@ -270,23 +325,9 @@ public class CrossCorrelationAutofocus {
       //get maximum value of xCorr in slice index units
       double ccMaxSliceIndex = sliceIndexInterpolationPoints[maxIndex];
       //convert to um
-      double drift_um = (ccMaxSliceIndex - (((double) xCorr.getNSlices()) / 2.0)) * pixelSizeZ;
-      xCorr.close();
+      double drift_um = (ccMaxSliceIndex - (((double) ccIntensity.length) / 2.0)) * pixelSizeZ;
       
       return drift_um;
    }
    
-   private static float findMaxPixelVal(float[] pix, int width, int height) {
-      //only use central square for calulating max, because weird large values can occur on the edges of the xCorr
-      float max = 0;
-      for (int i = 0; i < width*height; i++) {
-         if (i / width < height / 4 || i / width > 3*height / 4 ||
-                 i % width  < width / 4 || i % width > 3*width/4) {
-            continue; // use only central square of pixels
-         }
-         max = Math.max(max, pix[i]);
-      }
-      return max;
-   }
-   
 }
@@ -42,6 +42,8 @@ import net.imglib2.util.Fraction;
 public abstract class LegacyMagellanImgLoader< T extends NativeType< T >, V extends Volatile< T > & NativeType< V >, A extends VolatileAccess >
 		extends AbstractLegacyViewerImgLoader< T, V > {
 
+   //blocks are read with positional reads, so many fetchers can read from disk at once
+   private static final int NUM_FETCHER_THREADS = Math.max(10, 2 * Runtime.getRuntime().availableProcessors());
    final CacheArrayLoader< A > loader_;
    private final VolatileGlobalCellCache bdvCache_;
    private MultiResMultipageTiffStorage tiffStorage_;
@@ -64,7 +66,7 @@ public abstract class LegacyMagellanImgLoader< T extends NativeType< T >, V exte
       
       loader_ = loader;
       bdvCache_ = new VolatileGlobalCellCache(
-              tiffStorage.getNumFrames(), tiffStorage.getNumChannels(), numResLevels, 10);
+              tiffStorage.getNumFrames(), tiffStorage.getNumChannels(), numResLevels, NUM_FETCHER_THREADS);
       
       mipmapResolutions_ = new double[numResLevels][]; //esentially x, y z pixel sizes, specific to resolution level
       imageDimensions_ = new long[ numResLevels ][];
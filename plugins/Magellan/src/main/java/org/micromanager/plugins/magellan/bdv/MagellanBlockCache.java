@@ -0,0 +1,122 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package main.java.org.micromanager.plugins.magellan.bdv;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import main.java.org.micromanager.plugins.magellan.acq.MultiResMultipageTiffStorage;
+
+/**
+ * Least recently used cache of pixel blocks read for BigDataViewer, bounded by
+ * total size and shared by all Magellan img loaders, so that reopening or
+ * opening a second viewer on the same dataset doesn't go back to disk.
+ * Only holds blocks of finished datasets, which evict their blocks when closed
+ */
+public class MagellanBlockCache {
+
+   private static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+   private static final MagellanBlockCache singleton_ = new MagellanBlockCache();
+
+   private final LinkedHashMap<BlockKey, Object> blocks_ = new LinkedHashMap<BlockKey, Object>(16, 0.75f, true);
+   private long numBytes_ = 0;
+
+   public static MagellanBlockCache getInstance() {
+      return singleton_;
+   }
+
+   /**
+    * @return byte[] or short[] pixels of block, or null if not in cache
+    */
+   public synchronized Object get(MultiResMultipageTiffStorage storage, int timepoint, int setup, int level,
+           int[] dimensions, long[] min) {
+      return blocks_.get(new BlockKey(storage, timepoint, setup, level, dimensions, min));
+   }
+
+   public synchronized void put(MultiResMultipageTiffStorage storage, int timepoint, int setup, int level,
+           int[] dimensions, long[] min, Object pixels) {
+      Object previous = blocks_.put(new BlockKey(storage, timepoint, setup, level, dimensions, min), pixels);
+      if (previous != null) {
+         numBytes_ -= sizeOf(previous);
+      }
+      numBytes_ += sizeOf(pixels);
+      Iterator<Map.Entry<BlockKey, Object>> it = blocks_.entrySet().iterator();
+      while (numBytes_ > MAX_BYTES && it.hasNext()) {
+         numBytes_ -= sizeOf(it.next().getValue());
+         it.remove();
+      }
+   }
+
+   /**
+    * Remove all blocks of a storage, so neither they nor the storage stay reachable
+    */
+   public synchronized void evict(MultiResMultipageTiffStorage storage) {
+      Iterator<Map.Entry<BlockKey, Object>> it = blocks_.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<BlockKey, Object> entry = it.next();
+         if (entry.getKey().storage_ == storage) {
+            numBytes_ -= sizeOf(entry.getValue());
+            it.remove();
+         }
+      }
+   }
+
+   private static long sizeOf(Object pixels) {
+      return Array.getLength(pixels) * (pixels instanceof short[] ? 2L : 1L);
+   }
+
+   private static class BlockKey {
+
+      private final MultiResMultipageTiffStorage storage_;
+      private final int timepoint_, setup_, level_, width_, height_;
+      private final long x_, y_, z_;
+
+      BlockKey(MultiResMultipageTiffStorage storage, int timepoint, int setup, int level, int[] dimensions, long[] min) {
+         storage_ = storage;
+         timepoint_ = timepoint;
+         setup_ = setup;
+         level_ = level;
+         width_ = dimensions[0];
+         height_ = dimensions[1];
+         x_ = min[0];
+         y_ = min[1];
+         z_ = min[2];
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof BlockKey)) {
+            return false;
+         }
+         BlockKey k = (BlockKey) o;
+         return storage_ == k.storage_ && timepoint_ == k.timepoint_ && setup_ == k.setup_ && level_ == k.level_
+                 && width_ == k.width_ && height_ == k.height_ && x_ == k.x_ && y_ == k.y_ && z_ == k.z_;
+      }
+
+      @Override
+      public int hashCode() {
+         int hash = System.identityHashCode(storage_);
+         hash = 31 * hash + timepoint_;
+         hash = 31 * hash + setup_;
+         hash = 31 * hash + level_;
+         hash = 31 * hash + (int) (x_ ^ (x_ >>> 32));
+         hash = 31 * hash + (int) (y_ ^ (y_ >>> 32));
+         hash = 31 * hash + (int) (z_ ^ (z_ >>> 32));
+         return hash;
+      }
+   }
+}
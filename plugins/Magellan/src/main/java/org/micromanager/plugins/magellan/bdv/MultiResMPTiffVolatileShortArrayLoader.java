@@ -17,9 +17,9 @@
 
 package main.java.org.micromanager.plugins.magellan.bdv;
 
-import main.java.org.micromanager.plugins.magellan.acq.MagellanTaggedImage;
 import main.java.org.micromanager.plugins.magellan.acq.MultiResMultipageTiffStorage;
 import bdv.img.cache.CacheArrayLoader;
+import java.util.Arrays;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 
@@ -60,8 +60,24 @@ public class MultiResMPTiffVolatileShortArrayLoader implements CacheArrayLoader<
       //You do not need to be able to load arbitrary blocks here. Just the ones that you will use from the images returned by your ImgLoader.
       //So this is the only "shape" of block that your CacheArrayLoader needs to be able to load (plus they will be aligned at multiples of tileWidth, tileHeight, 1).
       //c, z, f, ds, x, y, w, h
-      MagellanTaggedImage img = tiffStorage_.getImageForDisplay(setup, (int)min[2], timepoint, level, min[0], min[1], dimensions[0], dimensions[1]);
-      return new VolatileShortArray((short[])img.pix, true);
+      //Blocks are read from the part of a single tile that they cover. Only blocks of
+      //finished datasets are kept in the shared block cache, since tiles and lower
+      //resolutions of a running acquisition are still being written, and blocks
+      //stitched together from several tiles may contain background for missing tiles
+      boolean cacheable = tiffStorage_.isFinished()
+              && tiffStorage_.isWithinOneTile(min[0], min[1], dimensions[0], dimensions[1]);
+      MagellanBlockCache cache = MagellanBlockCache.getInstance();
+      short[] pix = cacheable ? (short[]) cache.get(tiffStorage_, timepoint, setup, level, dimensions, min) : null;
+      if (pix == null) {
+         pix = (short[]) tiffStorage_.getTilePixels(setup, (int) min[2], timepoint, level, min[0], min[1], dimensions[0], dimensions[1]);
+         if (pix == null) {
+            pix = new short[dimensions[0] * dimensions[1]];
+            Arrays.fill(pix, (short) tiffStorage_.getBackgroundPixelValue(setup));
+         } else if (cacheable) {
+            cache.put(tiffStorage_, timepoint, setup, level, dimensions, min, pix);
+         }
+      }
+      return new VolatileShortArray(pix, true);
    }
 
    @Override
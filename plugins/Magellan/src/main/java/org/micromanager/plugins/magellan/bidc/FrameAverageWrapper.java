@@ -2,7 +2,7 @@
 // AUTHOR:       Henry Pinkard, henry.pinkard@gmail.com
 //
 // COPYRIGHT:    University of California, San Francisco, 2015
-//
+//
 // LICENSE:      This file is distributed under the BSD license.
 //               License text is included with the source distribution.
 //
@@ -29,15 +29,23 @@ public class FrameAverageWrapper extends FrameIntegrationMethod {
 
    @Override
    public byte[] constructImage() {
-      //sort all lists and construct final image
-      byte[] averagedPixels = new byte[width_ * height_];
-      for (int i = 0; i < averagedPixels.length; i++) {
-         int sum = 0;
-         for (int f = 0; f < numFrames_; f++) {
-            sum += rawBuffers_.get(f).getUnwarpedImageValue(i % width_, i / width_);
+      final byte[] averagedPixels = new byte[width_ * height_];
+      processRowsInParallel(new RowBandProcessor() {
+         @Override
+         public void processRows(int yStart, int yEnd) {
+            int[] sums = new int[(yEnd - yStart) * width_];
+            int bandOffset = yStart * width_;
+            for (int f = 0; f < numFrames_; f++) {
+               byte[] raw = rawBuffers_.get(f);
+               for (int i = 0; i < sums.length; i++) {
+                  sums[i] += raw[gatherIndices_[bandOffset + i]] & 0xff;
+               }
+            }
+            for (int i = 0; i < sums.length; i++) {
+               averagedPixels[bandOffset + i] = (byte) (sums[i] / numFrames_);
+            }
          }
-         averagedPixels[i] = (byte) (sum / numFrames_);
-      }
+      });
       return averagedPixels;
    }
    
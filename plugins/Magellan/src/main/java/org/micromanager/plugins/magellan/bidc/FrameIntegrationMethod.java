@@ -18,36 +18,62 @@
 package main.java.org.micromanager.plugins.magellan.bidc;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
+ * Base class for reconstructing a single image from several raw, double wide,
+ * warped frames. Raw buffers are kept as primitive arrays and read through a
+ * precomputed table of gather indices (see RawBufferWrapper.getGatherIndices),
+ * and subclasses construct their output in bands of rows that are processed
+ * in parallel
  *
  * @author Henry
  */
 public abstract class FrameIntegrationMethod {
 
    public static final int FRAME_AVERAGE = 0, RANK_FILTER = 1, FRAME_SUMMATION = 2, BURST_MODE = 3;;
+   private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+   private static final ExecutorService rowExecutor_ = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, "Frame integration thread");
+         t.setDaemon(true);
+         return t;
+      }
+   });
    protected int width_, height_;
-   protected ArrayList<RawBufferWrapper> rawBuffers_;
+   protected ArrayList<byte[]> rawBuffers_;
    protected int doubleWidth_, numFrames_;
    private int offset_;
+   //index into raw buffer for every pixel of the constructed image
+   protected int[] gatherIndices_;
 
 
    public FrameIntegrationMethod(int doubleWidth, int offset, int numFrames) {
       offset_ = offset;
       numFrames_ = numFrames;
       doubleWidth_ = doubleWidth;
-      rawBuffers_ = new ArrayList<RawBufferWrapper>();
+      rawBuffers_ = new ArrayList<byte[]>();
       width_ = RawBufferWrapper.getWidth();
       height_ = RawBufferWrapper.getHeight();
    }
 
    
    /**
-    * Add a single 
+    * Add a single raw frame
     * @param buffer 
     */
    public void addBuffer(byte[] buffer) {
-      rawBuffers_.add(new RawBufferWrapper(buffer, offset_, doubleWidth_));
+      if (gatherIndices_ == null) {
+         gatherIndices_ = RawBufferWrapper.getGatherIndices(offset_, buffer.length, width_, height_);
+      }
+      rawBuffers_.add(buffer);
    }
 
    public int getConstructedImageWidth() {
@@ -59,4 +85,43 @@ public abstract class FrameIntegrationMethod {
    }
 
    public abstract Object constructImage();
+
+   /**
+    * Split the rows of the constructed image into contiguous bands and process
+    * them on the shared integration thread pool, returning once all are done
+    */
+   protected void processRowsInParallel(final RowBandProcessor processor) {
+      int bandHeight = (height_ + NUM_THREADS - 1) / NUM_THREADS;
+      List<Callable<Void>> bands = new ArrayList<Callable<Void>>();
+      for (int yStart = 0; yStart < height_; yStart += bandHeight) {
+         final int start = yStart;
+         final int end = Math.min(height_, yStart + bandHeight);
+         bands.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               processor.processRows(start, end);
+               return null;
+            }
+         });
+      }
+      try {
+         for (Future<Void> f : rowExecutor_.invokeAll(bands)) {
+            f.get();
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while constructing image");
+      } catch (ExecutionException ex) {
+         throw new RuntimeException(ex.getCause());
+      }
+   }
+
+   protected interface RowBandProcessor {
+
+      /**
+       * @param yStart first row (inclusive)
+       * @param yEnd last row (exclusive)
+       */
+      void processRows(int yStart, int yEnd);
+   }
 }
@@ -2,7 +2,7 @@
 // AUTHOR:       Henry Pinkard, henry.pinkard@gmail.com
 //
 // COPYRIGHT:    University of California, San Francisco, 2015
-//
+//
 // LICENSE:      This file is distributed under the BSD license.
 //               License text is included with the source distribution.
 //
@@ -29,14 +29,20 @@ public class FrameSummationWrapper extends FrameIntegrationMethod {
 
    @Override
    public Object constructImage() {
-      //sort all lists and construct final image
-      short[] summedPixels = new short[width_ * height_];
-      for (int i = 0; i < summedPixels.length; i++) {
-         int sum = 0;
-         for (int f = 0; f < numFrames_; f++) {
-            summedPixels[i] += rawBuffers_.get(f).getUnwarpedImageValue(i % width_, i / width_);
+      final short[] summedPixels = new short[width_ * height_];
+      processRowsInParallel(new RowBandProcessor() {
+         @Override
+         public void processRows(int yStart, int yEnd) {
+            int bandOffset = yStart * width_;
+            int bandEnd = yEnd * width_;
+            for (int f = 0; f < numFrames_; f++) {
+               byte[] raw = rawBuffers_.get(f);
+               for (int i = bandOffset; i < bandEnd; i++) {
+                  summedPixels[i] += raw[gatherIndices_[i]] & 0xff;
+               }
+            }
          }
-      }
+      });
       return summedPixels;
    }
     
@@ -9,81 +9,109 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
- * Class that wraps rank filtering
+ * Class that wraps rank filtering. The rank is taken over the 3x3 neighborhood
+ * of each pixel in every frame. Rather than sorting the 9 * numFrames values of
+ * each pixel, values are kept in a 256 bin histogram that slides along each
+ * row (only the column leaving and the column entering the window are
+ * updated), and the requested rank is tracked incrementally in that histogram
  */
 public class RankFilterWrapper extends FrameIntegrationMethod{
 
-   //first index: pixel index, second index: 9*numFrames values to be sorted
-   //has to be short to get rid of signed byte for sorting
-   private short[][] pixelValues_;
+   private static final int NUM_BINS = 256;
    private double rank_; 
 
    public RankFilterWrapper(int offset, int doubleWidth, int numFrames, double rank) {
       super(doubleWidth, offset, numFrames);
-      pixelValues_ = new short[width_ * height_][numFrames_ * 9];
       rank_ = rank;
    }
 
 
-    @Override
+   @Override
    public byte[] constructImage() {
-        long start = System.currentTimeMillis();
-      //iterate through every pixel location in final image
-      for (int x = -1; x < width_ + 1; x++) {
-         for (int y = -1; y < height_ + 1; y++) {
-            for (int frame = 0; frame < numFrames_; frame++) {
-               //get value of pixel or value of relevant edge
-               short val = rawBuffers_.get(frame).getUnwarpedImageValue(Math.max(0, Math.min(width_ - 1, x)), Math.max(0, Math.min(height_ - 1, y)));
-               //add to all 9 positions at the appropriate index            
-               addValToRelevantArrays(frame, val, x, y);
+      //unwarp all frames into planes so neighborhoods can be read directly
+      final byte[][] planes = new byte[numFrames_][width_ * height_];
+      processRowsInParallel(new RowBandProcessor() {
+         @Override
+         public void processRows(int yStart, int yEnd) {
+            for (int f = 0; f < numFrames_; f++) {
+               byte[] raw = rawBuffers_.get(f);
+               byte[] plane = planes[f];
+               for (int i = yStart * width_; i < yEnd * width_; i++) {
+                  plane[i] = raw[gatherIndices_[i]];
+               }
             }
          }
-      }
-      //sort all lists and construct final image
-      byte[] filteredPix = new byte[width_ * height_];
-      for (int i = 0; i < filteredPix.length; i++ ) {
-         Arrays.sort(pixelValues_[i]);
-         filteredPix[i] = (byte) pixelValues_[i][(int)((numFrames_*9 -1) *rank_)];
-      }
-//      System.out.println("rank filtering time: " + (System.currentTimeMillis() - start));
+      });
+
+      final int rankIndex = (int) ((numFrames_ * 9 - 1) * rank_);
+      final byte[] filteredPix = new byte[width_ * height_];
+      processRowsInParallel(new RowBandProcessor() {
+         @Override
+         public void processRows(int yStart, int yEnd) {
+            int[] histogram = new int[NUM_BINS];
+            for (int y = yStart; y < yEnd; y++) {
+               //edge pixels are replicated
+               int rowAbove = Math.max(0, y - 1) * width_;
+               int row = y * width_;
+               int rowBelow = Math.min(height_ - 1, y + 1) * width_;
+               Arrays.fill(histogram, 0);
+               for (int dx = -1; dx <= 1; dx++) {
+                  addColumn(histogram, planes, rowAbove, row, rowBelow, clampX(dx), 1);
+               }
+               //current value of the selected rank, and number of window values below it
+               int value = 0;
+               int countBelow = 0;
+               for (int x = 0; x < width_; x++) {
+                  if (x > 0) {
+                     int leaving = clampX(x - 2);
+                     int entering = clampX(x + 1);
+                     countBelow -= countColumnBelow(planes, rowAbove, row, rowBelow, leaving, value);
+                     addColumn(histogram, planes, rowAbove, row, rowBelow, leaving, -1);
+                     countBelow += countColumnBelow(planes, rowAbove, row, rowBelow, entering, value);
+                     addColumn(histogram, planes, rowAbove, row, rowBelow, entering, 1);
+                  }
+                  while (countBelow > rankIndex) {
+                     value--;
+                     countBelow -= histogram[value];
+                  }
+                  while (countBelow + histogram[value] <= rankIndex) {
+                     countBelow += histogram[value];
+                     value++;
+                  }
+                  filteredPix[row + x] = (byte) value;
+               }
+            }
+         }
+      });
       return filteredPix;
    }
-   
-   private void addValToRelevantArrays(int frameIndex, short val, int x, int y) {
-      if (y > 0) {
-         if (x > 0) {
-            pixelValues_[x - 1 + (y - 1) * width_][frameIndex*9 + 0] = val;
-         }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + (y - 1) * width_][frameIndex*9 + 1] = val;
-         }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + (y - 1) * width_][frameIndex*9 + 2] = val;
-         }
-      }
-      if (y >= 0 && y < height_) {
-         if (x > 0) {
-            pixelValues_[x - 1 + y * width_][frameIndex*9 + 3] = val;
-         }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + y * width_][frameIndex*9 + 4] = val;
-         }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + y * width_][frameIndex*9 + 5] = val;
-         }
+
+   private int clampX(int x) {
+      return Math.max(0, Math.min(width_ - 1, x));
+   }
+
+   private void addColumn(int[] histogram, byte[][] planes, int rowAbove, int row, int rowBelow, int x, int count) {
+      for (byte[] plane : planes) {
+         histogram[plane[rowAbove + x] & 0xff] += count;
+         histogram[plane[row + x] & 0xff] += count;
+         histogram[plane[rowBelow + x] & 0xff] += count;
       }
-      if (y < height_ - 1) {
-         if (x > 0) {
-            pixelValues_[x - 1 + (y + 1) * width_][frameIndex*9 + 6] = val;
+   }
+
+   private int countColumnBelow(byte[][] planes, int rowAbove, int row, int rowBelow, int x, int value) {
+      int count = 0;
+      for (byte[] plane : planes) {
+         if ((plane[rowAbove + x] & 0xff) < value) {
+            count++;
          }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + (y + 1) * width_][frameIndex*9 + 7] = val;
+         if ((plane[row + x] & 0xff) < value) {
+            count++;
          }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + (y + 1) * width_][frameIndex*9 + 8] = val;
+         if ((plane[rowBelow + x] & 0xff) < value) {
+            count++;
          }
       }
+      return count;
    }
 
-  
 }
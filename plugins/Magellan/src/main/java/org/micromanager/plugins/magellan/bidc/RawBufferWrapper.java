@@ -5,11 +5,14 @@
  */
 package main.java.org.micromanager.plugins.magellan.bidc;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import main.java.org.micromanager.plugins.magellan.main.Magellan;
 
 /**
- * Class that wraps raw, double wide, warped buffer to support fast access
- * without having to actually access anything
+ * Maps pixels of the unwarped image onto the raw, double wide, warped buffer,
+ * so that images can be built by gathering pixels straight from the raw
+ * buffer rather than copying it first
  * @author henrypinkard
  */
 public class RawBufferWrapper {
@@ -25,54 +28,64 @@ public class RawBufferWrapper {
    //but changing number of pixels used doesnt seem to affect it
    
    private static int[] warpedIndicesFromUnwarped_;
-   private byte[] buffer_;
-   private int offset_;
    private static int unwarpedWidth_;
    private static boolean unwarp_ = true; //for debugging
-   
-   public RawBufferWrapper(byte[] buffer, int offset, int doubleWidth) {
-      if (warpedIndicesFromUnwarped_ == null) {
-         warpedIndicesFromUnwarped_ = getCosineWarpLUT();
-         unwarpedWidth_ = warpedIndicesFromUnwarped_.length;
+   //one table per channel offset, so a few entries cover any acquisition
+   private static final int MAX_CACHED_GATHER_INDICES = 8;
+   private static final LinkedHashMap<String, int[]> gatherIndexCache_ = 
+           new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+         return size() > MAX_CACHED_GATHER_INDICES;
       }
-      
-      offset_ = offset;
-      buffer_ = buffer;
-     
-        //debugging: show double wide, warped iamge
-//        ImageStack stack = new ImageStack(doubleWidth, buffer.length / doubleWidth);
-//        stack.addSlice(null, buffer);
-//        ImagePlus doubleWide = new ImagePlus("double wide", stack);
-//        doubleWide.show();
-//        doubleWide.close();
-    }
+   };
    
-   public short getUnwarpedImageValue(int x, int y) {
-       //this gives you the single wide index in an interlaced image
-
-
-//       unwarp_ = false;
-       int warpedX;
-       if (unwarp_) {
-           warpedX = warpedIndicesFromUnwarped_[x];
-       } else {
-           warpedX = x;
-       }
-//       System.out.println(x + "\t" + warpedX);
-       
-       if (y % 2 == 1) {
-           //take second half of line mirrored
-           //x value is double wide with - warped x
-           warpedX = (PIXELS_PER_LINE - LINE_START_THROWAWAY_PIX) - warpedX;
-           warpedX += (offset_ % 2);
-       }
+   /**
+    * Single wide index in the raw interlaced buffer for an unwarped pixel
+    */
+   private static int getWarpedIndex(int x, int y, int offset, int bufferLength) {
+      int warpedX;
+      if (unwarp_) {
+         warpedX = warpedIndicesFromUnwarped_[x];
+      } else {
+         warpedX = x;
+      }
+      if (y % 2 == 1) {
+         //take second half of line mirrored
+         //x value is double wide with - warped x
+         warpedX = (PIXELS_PER_LINE - LINE_START_THROWAWAY_PIX) - warpedX;
+         warpedX += (offset % 2);
+      }
+      return Math.max(0, Math.min(bufferLength - 1,
+              warpedX + (y / 2) * (PIXELS_PER_LINE - LINE_START_THROWAWAY_PIX) + offset / 2));
+   }
 
-              
-        int warpedIndex = Math.max(0,Math.min(buffer_.length - 1, 
-                warpedX + (y/2) * (PIXELS_PER_LINE - LINE_START_THROWAWAY_PIX) + offset_ / 2));
-        
-        return (short) (buffer_[warpedIndex] & 0xff);
-    }
+   /**
+    * Table of raw buffer indices for every pixel of the unwarped image, so that
+    * frame integration can gather pixels with a single array lookup. Tables
+    * only depend on the channel offset and image geometry, so they are cached
+    * and shared between all frames and channels that use them. Only the most
+    * recently used tables are kept
+    *
+    * @return array of length width * height, indexed by x + y * width
+    */
+   public static int[] getGatherIndices(int offset, int bufferLength, int width, int height) {
+      getWidth(); //make sure LUT is initialized
+      String key = offset + "_" + bufferLength + "_" + width + "_" + height;
+      synchronized (gatherIndexCache_) {
+         int[] indices = gatherIndexCache_.get(key);
+         if (indices == null) {
+            indices = new int[width * height];
+            for (int y = 0; y < height; y++) {
+               for (int x = 0; x < width; x++) {
+                  indices[x + y * width] = getWarpedIndex(x, y, offset, bufferLength);
+               }
+            }
+            gatherIndexCache_.put(key, indices);
+         }
+         return indices;
+      }
+   }
 
    public static int getWidth() {
       if (warpedIndicesFromUnwarped_ == null) {
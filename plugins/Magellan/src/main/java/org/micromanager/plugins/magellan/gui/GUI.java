@@ -122,7 +122,7 @@ public class GUI extends javax.swing.JFrame {
       settings_ = new GlobalSettings(prefs_, this);
       new JavaLayerImageConstructor();
       this.setTitle("Micro-Magellan " + version);
-      acqDurationEstimator_ = new AcqDurationEstimator();
+      acqDurationEstimator_ = AcqDurationEstimator.getInstance();
       eng_ = new MagellanEngine(Magellan.getCore(), acqDurationEstimator_);
       multiAcqManager_ = new MultipleAcquisitionManager(this, eng_);
       covariantPairManager_ = new CovariantPairingsManager(this, multiAcqManager_);
@@ -318,6 +318,10 @@ public class GUI extends javax.swing.JFrame {
         exploreSavingNameTextField_.setText(ExploreAcqSettings.getNameFromPrefs());
         exploreZStepSpinner_.setValue(ExploreAcqSettings.getZStepFromPrefs());
         exploreTileOverlapSpinner_.setValue(ExploreAcqSettings.getExploreTileOverlapFromPrefs());
+        //load hardware sequencing settings
+        overlapHardwareMovesCheckBox_.setSelected(settings_.getBooleanInPrefs(MagellanEngine.OVERLAP_HARDWARE_MOVES_PREF, false));
+        reorderChannelsCheckBox_.setSelected(settings_.getBooleanInPrefs(MagellanEngine.REORDER_CHANNELS_PREF, false));
+        pipelineParallelCheckBox_.setSelected(settings_.getBooleanInPrefs(MagellanEngine.PIPELINE_PARALLEL_ACQUISITIONS_PREF, false));
 
         populateAcqControls(multiAcqManager_.getAcquisitionSettings(0));
         enableAcquisitionComponentsAsNeeded();
@@ -489,6 +493,10 @@ public class GUI extends javax.swing.JFrame {
             c.setEnabled(useAutofocusCheckBox_.isSelected());
         }
         autofocusInitialPositionSpinner_.setEnabled(autofocusInitialPositionCheckBox_.isSelected());
+        for (JSpinner s : new JSpinner[] {autofocusRegionXSpinner_, autofocusRegionYSpinner_,
+                autofocusRegionWidthSpinner_, autofocusRegionHeightSpinner_}) {
+            s.setEnabled(autofocusRegionCheckBox_.isSelected());
+        }
     }
 
     private void storeCurrentAcqSettings() {
@@ -548,6 +556,11 @@ public class GUI extends javax.swing.JFrame {
             settings.autoFocusZDevice_ = autofocusZDeviceComboBox_.getSelectedItem().toString();
             settings.setInitialAutofocusPosition_ = autofocusInitialPositionCheckBox_.isSelected();
             settings.initialAutofocusPosition_ = (Double) autofocusInitialPositionSpinner_.getValue();
+            settings.autofocusUseRegion_ = autofocusRegionCheckBox_.isSelected();
+            settings.autofocusRegionX_ = (Integer) autofocusRegionXSpinner_.getValue();
+            settings.autofocusRegionY_ = (Integer) autofocusRegionYSpinner_.getValue();
+            settings.autofocusRegionWidth_ = (Integer) autofocusRegionWidthSpinner_.getValue();
+            settings.autofocusRegionHeight_ = (Integer) autofocusRegionHeightSpinner_.getValue();
         }
 
         //2photon
@@ -615,6 +628,11 @@ public class GUI extends javax.swing.JFrame {
         autofocusZDeviceComboBox_.setSelectedItem(settings.autoFocusZDevice_);
         autofocusInitialPositionCheckBox_.setSelected(settings.setInitialAutofocusPosition_);
         autofocusInitialPositionSpinner_.setValue(settings.initialAutofocusPosition_);
+        autofocusRegionCheckBox_.setSelected(settings.autofocusUseRegion_);
+        autofocusRegionXSpinner_.setValue(settings.autofocusRegionX_);
+        autofocusRegionYSpinner_.setValue(settings.autofocusRegionY_);
+        autofocusRegionWidthSpinner_.setValue(settings.autofocusRegionWidth_);
+        autofocusRegionHeightSpinner_.setValue(settings.autofocusRegionHeight_);
 
         //2photon specific stuff
         frameAverageRadioButton_.setSelected(settings.imageFilterType_ == FrameIntegrationMethod.FRAME_AVERAGE);
@@ -744,6 +762,9 @@ public class GUI extends javax.swing.JFrame {
       runMultipleAcquisitionsButton_ = new javax.swing.JButton();
       intereaveButton_ = new javax.swing.JButton();
       deinterleaveButton_ = new javax.swing.JButton();
+      overlapHardwareMovesCheckBox_ = new javax.swing.JCheckBox();
+      reorderChannelsCheckBox_ = new javax.swing.JCheckBox();
+      pipelineParallelCheckBox_ = new javax.swing.JCheckBox();
       gridsPanel_ = new javax.swing.JPanel();
       jScrollPane2 = new javax.swing.JScrollPane();
       gridTable_ = new javax.swing.JTable();
@@ -873,6 +894,11 @@ public class GUI extends javax.swing.JFrame {
       autofocusChannelCombo_ = new javax.swing.JComboBox();
       autofocusInitialPositionSpinner_ = new javax.swing.JSpinner();
       autofocusInitialPositionCheckBox_ = new javax.swing.JCheckBox();
+      autofocusRegionCheckBox_ = new javax.swing.JCheckBox();
+      autofocusRegionXSpinner_ = new javax.swing.JSpinner();
+      autofocusRegionYSpinner_ = new javax.swing.JSpinner();
+      autofocusRegionWidthSpinner_ = new javax.swing.JSpinner();
+      autofocusRegionHeightSpinner_ = new javax.swing.JSpinner();
       imageFilteringTab_ = new javax.swing.JPanel();
       frameAverageRadioButton_ = new javax.swing.JRadioButton();
       rankFilterRadioButton_ = new javax.swing.JRadioButton();
@@ -1001,25 +1027,60 @@ public class GUI extends javax.swing.JFrame {
          }
       });
 
+      overlapHardwareMovesCheckBox_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      overlapHardwareMovesCheckBox_.setText("Overlap stage moves, channel changes and readout");
+      overlapHardwareMovesCheckBox_.setToolTipText("Only for hardware where stages and channel devices can safely move at the same time");
+      overlapHardwareMovesCheckBox_.addActionListener(new java.awt.event.ActionListener() {
+         public void actionPerformed(java.awt.event.ActionEvent evt) {
+            overlapHardwareMovesCheckBox_ActionPerformed(evt);
+         }
+      });
+
+      reorderChannelsCheckBox_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      reorderChannelsCheckBox_.setText("Acquire channels in outer loop when faster");
+      reorderChannelsCheckBox_.setToolTipText("Use measured channel switch and Z move times to choose the order of channels and slices at each position");
+      reorderChannelsCheckBox_.addActionListener(new java.awt.event.ActionListener() {
+         public void actionPerformed(java.awt.event.ActionEvent evt) {
+            reorderChannelsCheckBox_ActionPerformed(evt);
+         }
+      });
+
+      pipelineParallelCheckBox_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      pipelineParallelCheckBox_.setText("Pipeline parallel acquisitions");
+      pipelineParallelCheckBox_.setToolTipText("Start the next acquisition in a parallel group while images of the previous one are still being written");
+      pipelineParallelCheckBox_.addActionListener(new java.awt.event.ActionListener() {
+         public void actionPerformed(java.awt.event.ActionEvent evt) {
+            pipelineParallelCheckBox_ActionPerformed(evt);
+         }
+      });
+
       javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
       jPanel1.setLayout(jPanel1Layout);
       jPanel1Layout.setHorizontalGroup(
          jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
          .addGroup(jPanel1Layout.createSequentialGroup()
             .addContainerGap()
-            .addComponent(addAcqButton_)
-            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-            .addComponent(removeAcqButton_)
-            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-            .addComponent(moveAcqUpButton_)
-            .addGap(3, 3, 3)
-            .addComponent(moveAcqDownButton_, javax.swing.GroupLayout.PREFERRED_SIZE, 106, javax.swing.GroupLayout.PREFERRED_SIZE)
-            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-            .addComponent(intereaveButton_)
-            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-            .addComponent(deinterleaveButton_)
-            .addGap(67, 67, 67)
-            .addComponent(runMultipleAcquisitionsButton_, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+            .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+               .addGroup(jPanel1Layout.createSequentialGroup()
+                  .addComponent(addAcqButton_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(removeAcqButton_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(moveAcqUpButton_)
+                  .addGap(3, 3, 3)
+                  .addComponent(moveAcqDownButton_, javax.swing.GroupLayout.PREFERRED_SIZE, 106, javax.swing.GroupLayout.PREFERRED_SIZE)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(intereaveButton_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(deinterleaveButton_)
+                  .addGap(67, 67, 67)
+                  .addComponent(runMultipleAcquisitionsButton_, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE))
+               .addGroup(jPanel1Layout.createSequentialGroup()
+                  .addComponent(overlapHardwareMovesCheckBox_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(reorderChannelsCheckBox_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(pipelineParallelCheckBox_)))
             .addContainerGap())
       );
       jPanel1Layout.setVerticalGroup(
@@ -1033,7 +1094,12 @@ public class GUI extends javax.swing.JFrame {
                .addComponent(moveAcqDownButton_)
                .addComponent(runMultipleAcquisitionsButton_)
                .addComponent(intereaveButton_)
-               .addComponent(deinterleaveButton_)))
+               .addComponent(deinterleaveButton_))
+            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+            .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+               .addComponent(overlapHardwareMovesCheckBox_)
+               .addComponent(reorderChannelsCheckBox_)
+               .addComponent(pipelineParallelCheckBox_)))
       );
 
       javax.swing.GroupLayout multipleAcquisitionsPanelLayout = new javax.swing.GroupLayout(multipleAcquisitionsPanel);
@@ -2123,6 +2189,46 @@ public class GUI extends javax.swing.JFrame {
          }
       });
 
+      autofocusRegionCheckBox_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      autofocusRegionCheckBox_.setText("Correlate region (x, y, width, height in pixels):");
+      autofocusRegionCheckBox_.addActionListener(new java.awt.event.ActionListener() {
+         public void actionPerformed(java.awt.event.ActionEvent evt) {
+            autofocusRegionCheckBox_ActionPerformed(evt);
+         }
+      });
+
+      autofocusRegionXSpinner_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      autofocusRegionXSpinner_.setModel(new javax.swing.SpinnerNumberModel(0, 0, null, 1));
+      autofocusRegionXSpinner_.addChangeListener(new javax.swing.event.ChangeListener() {
+         public void stateChanged(javax.swing.event.ChangeEvent evt) {
+            autofocusRegionSpinner_StateChanged(evt);
+         }
+      });
+
+      autofocusRegionYSpinner_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      autofocusRegionYSpinner_.setModel(new javax.swing.SpinnerNumberModel(0, 0, null, 1));
+      autofocusRegionYSpinner_.addChangeListener(new javax.swing.event.ChangeListener() {
+         public void stateChanged(javax.swing.event.ChangeEvent evt) {
+            autofocusRegionSpinner_StateChanged(evt);
+         }
+      });
+
+      autofocusRegionWidthSpinner_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      autofocusRegionWidthSpinner_.setModel(new javax.swing.SpinnerNumberModel(0, 0, null, 1));
+      autofocusRegionWidthSpinner_.addChangeListener(new javax.swing.event.ChangeListener() {
+         public void stateChanged(javax.swing.event.ChangeEvent evt) {
+            autofocusRegionSpinner_StateChanged(evt);
+         }
+      });
+
+      autofocusRegionHeightSpinner_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      autofocusRegionHeightSpinner_.setModel(new javax.swing.SpinnerNumberModel(0, 0, null, 1));
+      autofocusRegionHeightSpinner_.addChangeListener(new javax.swing.event.ChangeListener() {
+         public void stateChanged(javax.swing.event.ChangeEvent evt) {
+            autofocusRegionSpinner_StateChanged(evt);
+         }
+      });
+
       javax.swing.GroupLayout autofocusComponentsPanel_Layout = new javax.swing.GroupLayout(autofocusComponentsPanel_);
       autofocusComponentsPanel_.setLayout(autofocusComponentsPanel_Layout);
       autofocusComponentsPanel_Layout.setHorizontalGroup(
@@ -2145,7 +2251,17 @@ public class GUI extends javax.swing.JFrame {
                .addGroup(autofocusComponentsPanel_Layout.createSequentialGroup()
                   .addComponent(autofocusInitialPositionCheckBox_)
                   .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                  .addComponent(autofocusInitialPositionSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 91, javax.swing.GroupLayout.PREFERRED_SIZE)))
+                  .addComponent(autofocusInitialPositionSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 91, javax.swing.GroupLayout.PREFERRED_SIZE))
+               .addGroup(autofocusComponentsPanel_Layout.createSequentialGroup()
+                  .addComponent(autofocusRegionCheckBox_)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(autofocusRegionXSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(autofocusRegionYSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(autofocusRegionWidthSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                  .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                  .addComponent(autofocusRegionHeightSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)))
             .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
       );
       autofocusComponentsPanel_Layout.setVerticalGroup(
@@ -2167,6 +2283,13 @@ public class GUI extends javax.swing.JFrame {
             .addGroup(autofocusComponentsPanel_Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                .addComponent(autofocusInitialPositionSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                .addComponent(autofocusInitialPositionCheckBox_))
+            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+            .addGroup(autofocusComponentsPanel_Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+               .addComponent(autofocusRegionCheckBox_)
+               .addComponent(autofocusRegionXSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+               .addComponent(autofocusRegionYSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+               .addComponent(autofocusRegionWidthSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+               .addComponent(autofocusRegionHeightSpinner_, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
             .addContainerGap(27, Short.MAX_VALUE))
       );
 
@@ -2746,6 +2869,18 @@ public class GUI extends javax.swing.JFrame {
        multipleAcqTable_.repaint();
    }//GEN-LAST:event_intereaveButton_ActionPerformed
 
+   private void overlapHardwareMovesCheckBox_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_overlapHardwareMovesCheckBox_ActionPerformed
+       settings_.storeBooleanInPrefs(MagellanEngine.OVERLAP_HARDWARE_MOVES_PREF, overlapHardwareMovesCheckBox_.isSelected());
+   }//GEN-LAST:event_overlapHardwareMovesCheckBox_ActionPerformed
+
+   private void reorderChannelsCheckBox_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_reorderChannelsCheckBox_ActionPerformed
+       settings_.storeBooleanInPrefs(MagellanEngine.REORDER_CHANNELS_PREF, reorderChannelsCheckBox_.isSelected());
+   }//GEN-LAST:event_reorderChannelsCheckBox_ActionPerformed
+
+   private void pipelineParallelCheckBox_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_pipelineParallelCheckBox_ActionPerformed
+       settings_.storeBooleanInPrefs(MagellanEngine.PIPELINE_PARALLEL_ACQUISITIONS_PREF, pipelineParallelCheckBox_.isSelected());
+   }//GEN-LAST:event_pipelineParallelCheckBox_ActionPerformed
+
    private void runMultipleAcquisitionsButton_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_runMultipleAcquisitionsButton_ActionPerformed
        if (multiAcqManager_.isRunning()) {
            multiAcqManager_.abort();
@@ -2895,6 +3030,15 @@ public class GUI extends javax.swing.JFrame {
        acquisitionSettingsChanged();
    }//GEN-LAST:event_autofocusInitialPositionCheckBox_ActionPerformed
 
+   private void autofocusRegionCheckBox_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_autofocusRegionCheckBox_ActionPerformed
+       enableAcquisitionComponentsAsNeeded();
+       acquisitionSettingsChanged();
+   }//GEN-LAST:event_autofocusRegionCheckBox_ActionPerformed
+
+   private void autofocusRegionSpinner_StateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_autofocusRegionSpinner_StateChanged
+       acquisitionSettingsChanged();
+   }//GEN-LAST:event_autofocusRegionSpinner_StateChanged
+
    private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
        new AffineGUI();
    }//GEN-LAST:event_jButton1ActionPerformed
@@ -3025,6 +3169,11 @@ public class GUI extends javax.swing.JFrame {
    private javax.swing.JSpinner autofocusInitialPositionSpinner_;
    private javax.swing.JLabel autofocusMaxDisplacementLabel_;
    private javax.swing.JSpinner autofocusMaxDisplacementSpinner_;
+   private javax.swing.JCheckBox autofocusRegionCheckBox_;
+   private javax.swing.JSpinner autofocusRegionHeightSpinner_;
+   private javax.swing.JSpinner autofocusRegionWidthSpinner_;
+   private javax.swing.JSpinner autofocusRegionXSpinner_;
+   private javax.swing.JSpinner autofocusRegionYSpinner_;
    private javax.swing.JPanel autofocusTab_l;
    private javax.swing.JComboBox autofocusZDeviceComboBox_;
    private javax.swing.JLabel autofocusZLabel_;
@@ -3126,12 +3275,15 @@ public class GUI extends javax.swing.JFrame {
    private javax.swing.JSpinner numTimePointsSpinner_;
    private javax.swing.JLabel offsetsLabel_;
    private javax.swing.JButton openDatasetButton_;
+   private javax.swing.JCheckBox overlapHardwareMovesCheckBox_;
    private javax.swing.JPanel panel2D_;
+   private javax.swing.JCheckBox pipelineParallelCheckBox_;
    private javax.swing.JScrollPane propertyPairValuesScrollpane_;
    private javax.swing.JScrollPane propertyPairingsScrollpane_;
    private javax.swing.JRadioButton rankFilterRadioButton_;
    private javax.swing.JSpinner rankSpinner_;
    private javax.swing.JButton removeAcqButton_;
+   private javax.swing.JCheckBox reorderChannelsCheckBox_;
    private javax.swing.JButton removePairingButton;
    private javax.swing.JButton runAcqButton_;
    private javax.swing.JButton runMultipleAcquisitionsButton_;
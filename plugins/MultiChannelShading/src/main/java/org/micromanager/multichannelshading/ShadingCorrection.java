@@ -0,0 +1,166 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingCorrection.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Background and flatfield correction for one combination of channel preset,
+ * binning and ROI, boiled down to a per-pixel offset and gain so that
+ * correcting an image is a single pass over primitive arrays:
+ *
+ * corrected = min(max, max(0, pixel - offset) * gain + 0.5)
+ *
+ * Instances are not modified after construction, so different parts of an
+ * image can be corrected from several threads at once.
+ */
+class ShadingCorrection {
+   private final int width_;
+   private final int height_;
+   // unsigned background values, null when there is no background image
+   private final short[] offsets_;
+   // normalized flatfield values, null when there is no flatfield image
+   private final float[] gains_;
+
+   /**
+    * @param width width of the images that will be corrected
+    * @param height height of the images that will be corrected
+    * @param offsets background values from toOffsets, or null
+    * @param gains flatfield values from toGains, or null
+    */
+   ShadingCorrection(int width, int height, short[] offsets, float[] gains) {
+      width_ = width;
+      height_ = height;
+      offsets_ = offsets;
+      gains_ = gains;
+   }
+
+   /**
+    * Converts a background image to the offsets subtracted from each pixel
+    * @param background background image matching binning and ROI
+    * @param width width of the images that will be corrected
+    * @param height height of the images that will be corrected
+    * @param bytesPerPixel bytes per pixel of the images that will be corrected
+    * @return unsigned offset of every pixel
+    * @throws ShadingException when the background does not match the images
+    */
+   static short[] toOffsets(ImageProcessor background, int width, int height,
+           int bytesPerPixel) throws ShadingException {
+      checkSize(background, "Background", width, height);
+      if (bytesPerPixel == 1 && !(background instanceof ByteProcessor)) {
+         throw new ShadingException(
+                 "Types of images to be subtracted were not compatible");
+      }
+      int nrPixels = width * height;
+      short[] offsets = new short[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         int value = (int) background.getf(i);
+         offsets[i] = (short) Math.min(0xffff, Math.max(0, value));
+      }
+      return offsets;
+   }
+
+   /**
+    * Copies a normalized flatfield image into the gains applied to each pixel
+    * @param flatField normalized flatfield matching binning and ROI
+    * @param width width of the images that will be corrected
+    * @param height height of the images that will be corrected
+    * @return gain of every pixel
+    * @throws ShadingException when the flatfield does not match the images
+    */
+   static float[] toGains(ImageProcessor flatField, int width, int height)
+           throws ShadingException {
+      checkSize(flatField, "Flatfield", width, height);
+      int nrPixels = width * height;
+      float[] gains = new float[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         gains[i] = flatField.getf(i);
+      }
+      return gains;
+   }
+
+   public boolean hasBackground() {
+      return offsets_ != null;
+   }
+
+   public boolean hasFlatField() {
+      return gains_ != null;
+   }
+
+   public int getWidth() {
+      return width_;
+   }
+
+   public int getHeight() {
+      return height_;
+   }
+
+   /**
+    * Corrects pixels [start, end) of an 8-bit image
+    * @param in original pixels
+    * @param out destination for the corrected pixels, may be the same as in
+    * @param start index of the first pixel to correct
+    * @param end index after the last pixel to correct
+    */
+   public void apply(byte[] in, byte[] out, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int value = in[i] & 0xff;
+         if (offsets_ != null) {
+            value = Math.max(0, value - (offsets_[i] & 0xffff));
+         }
+         if (gains_ != null) {
+            float newValue = value * gains_[i] + 0.5f;
+            value = newValue > 0xff ? 0xff : (int) newValue;
+         }
+         out[i] = (byte) value;
+      }
+   }
+
+   /**
+    * Corrects pixels [start, end) of a 16-bit image
+    * @param in original pixels
+    * @param out destination for the corrected pixels, may be the same as in
+    * @param start index of the first pixel to correct
+    * @param end index after the last pixel to correct
+    */
+   public void apply(short[] in, short[] out, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int value = in[i] & 0xffff;
+         if (offsets_ != null) {
+            value = Math.max(0, value - (offsets_[i] & 0xffff));
+         }
+         if (gains_ != null) {
+            float newValue = value * gains_[i] + 0.5f;
+            value = newValue > 0xffff ? 0xffff : (int) newValue;
+         }
+         out[i] = (short) value;
+      }
+   }
+
+   private static void checkSize(ImageProcessor ip, String name, int width,
+           int height) throws ShadingException {
+      if (ip.getWidth() != width || ip.getHeight() != height) {
+         throw new ShadingException(name + " image size (" + ip.getWidth()
+                 + "x" + ip.getHeight() + ") differs from image size ("
+                 + width + "x" + height + ")");
+      }
+   }
+}
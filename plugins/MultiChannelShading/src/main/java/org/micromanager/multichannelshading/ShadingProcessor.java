@@ -21,9 +21,16 @@
 
 package org.micromanager.multichannelshading;
 
-import ij.process.ImageProcessor;
-
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import mmcorej.Configuration;
 import mmcorej.PropertySetting;
@@ -46,6 +53,16 @@ public class ShadingProcessor extends Processor {
    private String channelGroup_;
    private String[] presets_;
 
+   // Do not split images in tasks of less than this number of rows
+   private static final int MIN_ROWS_PER_TASK = 64;
+   private final int nrThreads_;
+   private final ExecutorService executor_;
+   // Corrections keyed by preset, binning, ROI and image size
+   private final HashMap<String, ShadingCorrection> corrections_;
+   // Output buffers, reused since createImage copies the pixels
+   private byte[] bytePixels_;
+   private short[] shortPixels_;
+
    public ShadingProcessor(Studio studio, String channelGroup,
            String backgroundFile, String[] presets,
            String[] files) {
@@ -53,6 +70,16 @@ public class ShadingProcessor extends Processor {
       channelGroup_ = channelGroup;
       presets_ = presets;
       imageCollection_ = new ImageCollection(studio_);
+      corrections_ = new HashMap<String, ShadingCorrection>();
+      nrThreads_ = Runtime.getRuntime().availableProcessors();
+      executor_ = Executors.newFixedThreadPool(nrThreads_, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Shading correction thread");
+            t.setDaemon(true);
+            return t;
+         }
+      });
       if (backgroundFile != null && !backgroundFile.equals("")) {
          try {
             imageCollection_.setBackground(backgroundFile);
@@ -93,10 +120,6 @@ public class ShadingProcessor extends Processor {
       Metadata metadata = image.getMetadata();
       PropertyMap userData = metadata.getUserData();
 
-      Image bgSubtracted = image;
-      Image result;
-      
-      // subtract background
       Integer binning = metadata.getBinning();
       if (binning == null) {
          String msg = "MultiShadingPlugin: Image metadata did not contain Binning information.";
@@ -109,81 +132,146 @@ public class ShadingProcessor extends Processor {
          String msg = "MultiShadingPlugin: Image metadata did not list ROI.";
          studio_.alerts().postAlert(MultiChannelShading.MENUNAME, NoRoiClass.class, msg);
       }
-      ImagePlusInfo background = null;
+
+      ShadingCorrection correction = getCorrection(metadata, binning, rect,
+              width, height, image.getBytesPerPixel());
+
+      // Without background and matching flatfield there is nothing to do
+      if (!correction.hasBackground() && !correction.hasFlatField()) {
+         context.outputImage(image);
+         return;
+      }
+
+      if (userData != null) {
+         if (correction.hasBackground()) {
+            userData = userData.copy().putBoolean("Background-corrected", true).build();
+         }
+         if (correction.hasFlatField()) {
+            userData = userData.copy().putBoolean("Flatfield-corrected", true).build();
+         }
+         metadata = metadata.copy().userData(userData).build();
+      }
+
+      Object pixels = image.getRawPixels();
+      Object newPixels;
+      if (pixels instanceof byte[]) {
+         if (bytePixels_ == null || bytePixels_.length != width * height) {
+            bytePixels_ = new byte[width * height];
+         }
+         newPixels = bytePixels_;
+      } else {
+         if (shortPixels_ == null || shortPixels_.length != width * height) {
+            shortPixels_ = new short[width * height];
+         }
+         newPixels = shortPixels_;
+      }
       try {
-         background = imageCollection_.getBackground(binning, rect);
+         applyCorrection(correction, pixels, newPixels);
+      } catch (Exception e) {
+         studio_.logs().logError(e, "Error applying shading correction");
+         context.outputImage(image);
+         return;
+      }
+      // createImage copies the pixels, so the buffer can be used again for
+      // the next image
+      Image result = studio_.data().createImage(newPixels, width, height,
+              image.getBytesPerPixel(), 1, image.getCoords(), metadata);
+      context.outputImage(result);
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      executor_.shutdown();
+      corrections_.clear();
+      bytePixels_ = null;
+      shortPixels_ = null;
+   }
+
+   /**
+    * Returns the background and flatfield correction for images with the
+    * given metadata, binning, ROI and size.  Corrections are calculated once
+    * for each combination of channel preset, binning and ROI and cached.
+    */
+   private ShadingCorrection getCorrection(Metadata metadata, int binning,
+           Rectangle rect, int width, int height, int bytesPerPixel) {
+      String preset = getMatchingPreset(metadata);
+      String key = preset + "-" + binning + "-" + rect + "-" + width + "-"
+              + height + "-" + bytesPerPixel;
+      ShadingCorrection correction = corrections_.get(key);
+      if (correction != null) {
+         return correction;
+      }
+
+      short[] offsets = null;
+      try {
+         ImagePlusInfo background = imageCollection_.getBackground(binning, rect);
+         if (background != null) {
+            try {
+               offsets = ShadingCorrection.toOffsets(background.getProcessor(),
+                       width, height, bytesPerPixel);
+            } catch (ShadingException e) {
+               String msg = "Unable to subtract background";
+               studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
+                       ErrorSubtractingClass.class, msg);
+            }
+         }
       } catch (ShadingException e) {
          String msg = "Error getting background for bin mode " + binning + " and rect " + rect;
-         studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
+         studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
                  NoBackgroundForThisBinModeClass.class, msg);
       }
-      if (background != null) {
-         ImageProcessor ip = studio_.data().ij().createProcessor(image);
-         ImageProcessor ipBackground = background.getProcessor();
+
+      float[] gains = null;
+      if (preset != null) {
          try {
-            ip = ImageUtils.subtractImageProcessors(ip, ipBackground);
-            if (userData != null) {
-               userData = userData.copy().putBoolean("Background-corrected", true).build();
+            ImagePlusInfo flatField = imageCollection_.getFlatField(preset,
+                    binning, rect);
+            if (flatField != null) {
+               gains = ShadingCorrection.toGains(flatField.getProcessor(),
+                       width, height);
             }
-         } catch (ShadingException e) {
-            String msg = "Unable to subtract background";
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
-                 ErrorSubtractingClass.class, msg);
+         } catch (Exception ex) {
+            studio_.logs().logError(ex, "Error getting flatfield for " + preset);
          }
-         bgSubtracted = studio_.data().ij().createImage(ip, image.getCoords(),
-                 metadata.copy().userData(userData).build());
       }
 
-      ImagePlusInfo flatFieldImage = getMatchingFlatFieldImage(
-              metadata, binning, rect);
+      correction = new ShadingCorrection(width, height, offsets, gains);
+      corrections_.put(key, correction);
+      return correction;
+   }
 
-      // do not calculate flat field if we don't have a matching channel;
-      // just return the background-subtracted image (which is the unmodified
-      // image if we also don't have a background subtraction file).
-      if (flatFieldImage == null) {
-         context.outputImage(bgSubtracted);
-         return;
+   /**
+    * Applies the correction to all pixels, split over all cores in blocks of
+    * whole rows.
+    */
+   private void applyCorrection(final ShadingCorrection correction,
+           final Object pixels, final Object newPixels)
+           throws InterruptedException, ExecutionException {
+      final int width = correction.getWidth();
+      int height = correction.getHeight();
+      int nrTasks = Math.max(1, Math.min(nrThreads_, height / MIN_ROWS_PER_TASK));
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nrTasks);
+      for (int t = 0; t < nrTasks; t++) {
+         final int start = (int) ((long) height * t / nrTasks) * width;
+         final int end = (int) ((long) height * (t + 1) / nrTasks) * width;
+         tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               if (pixels instanceof byte[]) {
+                  correction.apply((byte[]) pixels, (byte[]) newPixels, start, end);
+               } else {
+                  correction.apply((short[]) pixels, (short[]) newPixels, start, end);
+               }
+               return null;
+            }
+         });
       }
-
-      if (userData != null) {
-         userData = userData.copy().putBoolean("Flatfield-corrected", true).build();
-         metadata = metadata.copy().userData(userData).build();
+      if (nrTasks == 1) {
+         tasks.get(0).call();
+         return;
       }
-      
-      if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
-         int length = oldPixels.length;
-         float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
-         for (int index = 0; index < length; index++) {
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x000000ff);
-            float newValue = oldPixel * flatFieldPixels[index];
-            if (newValue > 2 * Byte.MAX_VALUE) {
-               newValue = 2 * Byte.MAX_VALUE;
-            }
-            newPixels[index] = (byte) (newValue);
-         }
-         result = studio_.data().createImage(newPixels, width, height,
-                 1, 1, image.getCoords(), metadata);
-         context.outputImage(result);
-      } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) bgSubtracted.getRawPixels();
-         int length = oldPixels.length;
-         for (int index = 0; index < length; index++) {
-            // shorts are signed in java so have to do this conversion to get 
-            // the right value
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x0000ffff);
-            float newValue = (oldPixel
-                    * flatFieldImage.getProcessor().getf(index)) + 0.5f;
-            if (newValue > 2 * Short.MAX_VALUE) {
-               newValue = 2 * Short.MAX_VALUE;
-            }
-            newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
-         }
-         result = studio_.data().createImage(newPixels, width, height,
-                 2, 1, image.getCoords(), metadata);
-         context.outputImage(result);
+      for (Future<Void> f : executor_.invokeAll(tasks)) {
+         f.get();
       }
    }
 
@@ -193,10 +281,9 @@ public class ShadingProcessor extends Processor {
     * preset from the channelgroup used by the tablemodel
     *
     * @param metadata Metadata of image being processed
-    * @return matching flat field image
+    * @return name of the matching preset, or null if none matches
     */
-   ImagePlusInfo getMatchingFlatFieldImage(Metadata metadata, int binning,
-           Rectangle rect) {
+   String getMatchingPreset(Metadata metadata) {
       PropertyMap scopeData = metadata.getScopeData();
       for (String preset : presets_) {
          try {
@@ -217,7 +304,7 @@ public class ShadingProcessor extends Processor {
                }
             }
             if (presetMatch) {
-               return imageCollection_.getFlatField(preset, binning, rect);
+               return preset;
             }
          } catch (Exception ex) {
             studio_.logs().logError(ex, "Exception in tag matching");
@@ -22,6 +22,12 @@ package org.micromanager.pipelinesaver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
@@ -31,11 +37,26 @@ import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.Studio;
 
+/**
+ * Saves images while passing them on down the pipeline.  Images are written
+ * by a writer thread, so that downstream processors and the display do not
+ * wait for the disk.  At most MAX_PENDING_IMAGES images wait to be written;
+ * when the disk falls further behind, processImage blocks until there is
+ * room again.  Errors from the writer thread are rethrown by the next call to
+ * processImage, which puts the pipeline in its error state.
+ */
 public class SaverProcessor extends Processor {
+   private static final int MAX_PENDING_IMAGES = 32;
+
    private Studio studio_;
    private Datastore store_;
    private final String format_;
    private final String savePath_;
+   // A single thread keeps images in order, and the Datastore is not
+   // required to accept images from several threads at once
+   private final ExecutorService writer_;
+   private final Semaphore pendingImages_;
+   private final AtomicReference<Exception> writeError_;
 
    public SaverProcessor(Studio studio, String format, String savePath,
          boolean shouldDisplay) {
@@ -69,23 +90,84 @@ public class SaverProcessor extends Processor {
       if (shouldDisplay) {
          studio_.displays().createDisplay(store_);
       }
+
+      pendingImages_ = new Semaphore(MAX_PENDING_IMAGES);
+      writeError_ = new AtomicReference<Exception>();
+      writer_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Pipeline saver thread");
+            t.setDaemon(true);
+            return t;
+         }
+      });
    }
 
-   public void processImage(Image image, ProcessorContext context) {
+   public void processImage(final Image image, ProcessorContext context) {
+      try {
+         pendingImages_.acquire();
+         writer_.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  saveImage(image);
+               }
+               finally {
+                  pendingImages_.release();
+               }
+            }
+         });
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         studio_.logs().logError(e, "Interrupted before saving image at " + image.getCoords());
+         writeError_.compareAndSet(null, e);
+      }
+      context.outputImage(image);
+
+      Exception error = writeError_.getAndSet(null);
+      if (error != null) {
+         throw new RuntimeException("Pipeline Saver was unable to save data", error);
+      }
+   }
+
+   private void saveImage(Image image) {
       try {
          store_.putImage(image);
       }
       catch (DatastoreFrozenException e) {
          studio_.logs().logError(e, "Unable to save data: datastore is frozen");
+         writeError_.compareAndSet(null, e);
       }
       catch (DatastoreRewriteException e) {
          studio_.logs().logError(e, "Unable to save data: image already exists at " + image.getCoords());
+         writeError_.compareAndSet(null, e);
+      }
+      catch (RuntimeException e) {
+         studio_.logs().logError(e, "Unable to save image at " + image.getCoords());
+         writeError_.compareAndSet(null, e);
       }
-      context.outputImage(image);
    }
 
    @Override
    public void cleanup(ProcessorContext context) {
+      // Wait until all images are in the datastore before freezing it
+      writer_.shutdown();
+      try {
+         while (!writer_.awaitTermination(1, TimeUnit.SECONDS)) {
+            studio_.logs().logMessage("Pipeline Saver: waiting for "
+                  + (MAX_PENDING_IMAGES - pendingImages_.availablePermits())
+                  + " images to be saved");
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         studio_.logs().logError(e, "Interrupted while waiting for images to be saved");
+      }
+      Exception error = writeError_.getAndSet(null);
+      if (error != null) {
+         studio_.logs().showError(error, "Not all images could be saved to " + savePath_);
+      }
       store_.freeze();
       if (!format_.equals(SaverPlugin.RAM)) {
          store_.setSavePath(savePath_);
@@ -0,0 +1,228 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ProjectionAccumulator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+package org.micromanager.zprojector;
+
+import ij.plugin.ZProjector;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+
+/**
+ * Calculates a projection of a Z stack one plane at a time, so that the
+ * stack never has to be in memory.  Results are calculated as ImageJ's
+ * ZProjector does.  ImageJ returns 32-bit float images for average, sum and
+ * standard deviation projections, but Micro-Manager images can only hold
+ * integer pixels, so all projections have the type of the input images:
+ * values are rounded and clamped to the range of the input bit depth.
+ * Median projections need all planes at once and are not supported.
+ *
+ * Not thread safe, use one accumulator per stack.
+ */
+public class ProjectionAccumulator {
+
+   private final int method_;
+   private int width_;
+   private int height_;
+   private int bytesPerPixel_;
+   private int count_;
+   // running min or max
+   private int[] extrema_;
+   // running sum and sum of squares
+   private double[] sum_;
+   private double[] sum2_;
+   private Metadata firstMetadata_;
+
+   /**
+    * @param method One of ZProjector.MAX_METHOD, MIN_METHOD, AVG_METHOD,
+    *               SUM_METHOD or SD_METHOD
+    * @throws ZProjectorException when the method is not supported
+    */
+   public ProjectionAccumulator(int method) throws ZProjectorException {
+      if (!isSupported(method)) {
+         throw new ZProjectorException("Unsupported projection method: " + method);
+      }
+      method_ = method;
+   }
+
+   public static boolean isSupported(int method) {
+      return method == ZProjector.MAX_METHOD || method == ZProjector.MIN_METHOD
+              || method == ZProjector.AVG_METHOD || method == ZProjector.SUM_METHOD
+              || method == ZProjector.SD_METHOD;
+   }
+
+   /**
+    * Folds one plane of the stack into the projection
+    * @param image 8 or 16 bit grayscale image
+    * @throws ZProjectorException when the image can not be projected, or
+    *                             differs in size from earlier planes
+    */
+   public void add(Image image) throws ZProjectorException {
+      if (image.getNumComponents() != 1 || image.getBytesPerPixel() > 2) {
+         throw new ZProjectorException(
+                 "Can only project 8 or 16 bit grayscale images");
+      }
+      if (count_ == 0) {
+         allocate(image.getWidth(), image.getHeight(), image.getBytesPerPixel());
+         firstMetadata_ = image.getMetadata();
+      } else if (image.getWidth() != width_ || image.getHeight() != height_
+              || image.getBytesPerPixel() != bytesPerPixel_) {
+         throw new ZProjectorException("Image differs in size from the other images in the stack");
+      }
+      int nrPixels = width_ * height_;
+      Object pixels = image.getRawPixels();
+      if (pixels instanceof byte[]) {
+         byte[] p = (byte[]) pixels;
+         for (int i = 0; i < nrPixels; i++) {
+            fold(i, p[i] & 0xff);
+         }
+      } else {
+         short[] p = (short[]) pixels;
+         for (int i = 0; i < nrPixels; i++) {
+            fold(i, p[i] & 0xffff);
+         }
+      }
+      count_++;
+   }
+
+   public int getCount() {
+      return count_;
+   }
+
+   /**
+    * @return Metadata of the first plane added, null if none was added
+    */
+   public Metadata getMetadata() {
+      return firstMetadata_;
+   }
+
+   /**
+    * Creates an image of the projection of all planes added so far
+    * @param studio used to create the image
+    * @param coords coordinates of the new image
+    * @param metadata metadata of the new image
+    * @return projected image
+    * @throws ZProjectorException when no planes were added
+    */
+   public Image getProjection(Studio studio, Coords coords, Metadata metadata)
+           throws ZProjectorException {
+      if (count_ == 0) {
+         throw new ZProjectorException("No images to project");
+      }
+      int nrPixels = width_ * height_;
+      Object pixels;
+      if (bytesPerPixel_ == 1) {
+         byte[] result = new byte[nrPixels];
+         for (int i = 0; i < nrPixels; i++) {
+            result[i] = (byte) projectedValue(i, 0xff);
+         }
+         pixels = result;
+      } else {
+         short[] result = new short[nrPixels];
+         for (int i = 0; i < nrPixels; i++) {
+            result[i] = (short) projectedValue(i, 0xffff);
+         }
+         pixels = result;
+      }
+      return studio.data().createImage(pixels, width_, height_, bytesPerPixel_,
+              1, coords, metadata);
+   }
+
+   /**
+    * @param i index of the pixel
+    * @param maxValue highest value the output image can hold
+    * @return projected value of the pixel, rounded and clamped to 
+    *         0 - maxValue
+    */
+   private int projectedValue(int i, int maxValue) {
+      double value;
+      switch (method_) {
+         case ZProjector.MAX_METHOD:
+         case ZProjector.MIN_METHOD:
+            return extrema_[i];
+         case ZProjector.SUM_METHOD:
+            value = sum_[i];
+            break;
+         case ZProjector.AVG_METHOD:
+            value = sum_[i] / count_;
+            break;
+         default:
+            // standard deviation, same as ImageJ's ZProjector
+            value = 0.0;
+            if (count_ > 1) {
+               double stdDev = (count_ * sum2_[i] - sum_[i] * sum_[i]) / count_;
+               if (stdDev > 0.0) {
+                  value = Math.sqrt(stdDev / (count_ - 1.0));
+               }
+            }
+      }
+      return (int) Math.min(maxValue, Math.round(value));
+   }
+
+   private void allocate(int width, int height, int bytesPerPixel) {
+      width_ = width;
+      height_ = height;
+      bytesPerPixel_ = bytesPerPixel;
+      int nrPixels = width * height;
+      if (method_ == ZProjector.MAX_METHOD || method_ == ZProjector.MIN_METHOD) {
+         extrema_ = new int[nrPixels];
+      } else {
+         sum_ = new double[nrPixels];
+         if (method_ == ZProjector.SD_METHOD) {
+            sum2_ = new double[nrPixels];
+         }
+      }
+   }
+
+   private void fold(int i, int value) {
+      if (count_ == 0) {
+         switch (method_) {
+            case ZProjector.MAX_METHOD:
+            case ZProjector.MIN_METHOD:
+               extrema_[i] = value;
+               break;
+            case ZProjector.SD_METHOD:
+               sum2_[i] = (double) value * value;
+               sum_[i] = value;
+               break;
+            default:
+               sum_[i] = value;
+         }
+         return;
+      }
+      switch (method_) {
+         case ZProjector.MAX_METHOD:
+            if (value > extrema_[i]) {
+               extrema_[i] = value;
+            }
+            break;
+         case ZProjector.MIN_METHOD:
+            if (value < extrema_[i]) {
+               extrema_[i] = value;
+            }
+            break;
+         case ZProjector.SD_METHOD:
+            sum2_[i] += (double) value * value;
+            sum_[i] += value;
+            break;
+         default:
+            sum_[i] += value;
+      }
+   }
+}
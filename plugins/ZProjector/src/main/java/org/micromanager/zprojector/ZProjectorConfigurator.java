@@ -0,0 +1,88 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorConfigurator.java
+//PROJECT:       Micro-Manager 
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import ij.plugin.ZProjector;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+import net.miginfocom.swing.MigLayout;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.MMFrame;
+
+/**
+ * Lets the user choose the projection method of the Z Projector processor
+ */
+public class ZProjectorConfigurator extends MMFrame implements ProcessorConfigurator {
+   // ZProjector methods that can be calculated one plane at a time
+   private static final int[] METHODS = new int[] {ZProjector.MAX_METHOD,
+      ZProjector.MIN_METHOD, ZProjector.AVG_METHOD, ZProjector.SUM_METHOD,
+      ZProjector.SD_METHOD};
+
+   private final Studio studio_;
+   private final JComboBox methodBox_;
+
+   public ZProjectorConfigurator(PropertyMap settings, Studio studio) {
+      studio_ = studio;
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel("<html>This processor replaces each Z stack by its projection.</html>"), "span, wrap");
+
+      panel.add(new JLabel("Projection method: "), "split 2");
+      String[] names = new String[METHODS.length];
+      int selected = 0;
+      int method = settings.getInt(ZProjectorProcessorPlugin.PROJECTION_METHOD,
+              ZProjector.MAX_METHOD);
+      for (int i = 0; i < METHODS.length; i++) {
+         names[i] = ZProjector.METHODS[METHODS[i]];
+         if (METHODS[i] == method) {
+            selected = i;
+         }
+      }
+      methodBox_ = new JComboBox(names);
+      methodBox_.setSelectedIndex(selected);
+      panel.add(methodBox_, "wrap");
+      add(panel);
+
+      loadAndRestorePosition(300, 300);
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      PropertyMap.PropertyMapBuilder builder = studio_.data().getPropertyMapBuilder();
+      builder.putInt(ZProjectorProcessorPlugin.PROJECTION_METHOD,
+              METHODS[methodBox_.getSelectedIndex()]);
+      return builder.build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
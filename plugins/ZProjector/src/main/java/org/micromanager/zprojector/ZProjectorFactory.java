@@ -0,0 +1,46 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorFactory.java
+//PROJECT:       Micro-Manager 
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import ij.plugin.ZProjector;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Creates Z Projector processors with the projection method in the settings
+ */
+public class ZProjectorFactory implements ProcessorFactory {
+   private final PropertyMap settings_;
+   private final Studio studio_;
+
+   public ZProjectorFactory(PropertyMap settings, Studio studio) {
+      settings_ = settings;
+      studio_ = studio;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      return new ZProjectorProcessor(studio_,
+            settings_.getInt(ZProjectorProcessorPlugin.PROJECTION_METHOD,
+                    ZProjector.MAX_METHOD));
+   }
+}
@@ -20,10 +20,13 @@
 //               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
 package org.micromanager.zprojector;
 
-import ij.ImagePlus;
-import ij.ImageStack;
 import ij.plugin.ZProjector;
-import ij.process.ImageProcessor;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.SwingWorker;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
@@ -32,7 +35,6 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
-import org.micromanager.data.Metadata;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.display.DisplayWindow;
 
@@ -64,6 +66,11 @@ public class ZProjectorPluginExecutor {
    /**
     * Performs the actual creation of a new image with reduced content
     *
+    * Each (position, time, channel) combination is projected by a separate
+    * task that reads its Z planes one by one from the datastore.  At most
+    * twice the number of cores stacks are in flight, so memory use does not
+    * depend on the size of the dataset.
+    *
     * @param theWindow - original window to be copied
     * @param newName - name for the copy
     * @param projectionMethod ZProjector method
@@ -82,8 +89,8 @@ public class ZProjectorPluginExecutor {
             // TODO: provide options for disk-backed datastores
             Datastore newStore = studio_.data().createRAMDatastore();
 
-            Datastore oldStore = theWindow.getDatastore();
-            Coords oldSizeCoord = oldStore.getMaxIndices();
+            final Datastore oldStore = theWindow.getDatastore();
+            final Coords oldSizeCoord = oldStore.getMaxIndices();
             CoordsBuilder newSizeCoordsBuilder = oldSizeCoord.copy();
             newSizeCoordsBuilder.z(1);
             SummaryMetadata metadata = oldStore.getSummaryMetadata();
@@ -91,43 +98,45 @@ public class ZProjectorPluginExecutor {
             metadata = metadata.copy()
                     .intendedDimensions(newSizeCoordsBuilder.build())
                     .build();
-            Coords.CoordsBuilder cb = studio_.data().getCoordsBuilder();
+            int nrThreads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
             try {
                newStore.setSummaryMetadata(metadata);
                DisplayWindow copyDisplay = studio_.displays().createDisplay(newStore);
                copyDisplay.setCustomTitle(newName);
                studio_.displays().manage(newStore);
+               LinkedList<Future<Image>> projections = new LinkedList<Future<Image>>();
                for (int p = 0; p <= oldSizeCoord.getStagePosition(); p++) {
                   for (int t = 0; t <= oldSizeCoord.getTime(); t++) {
                      for (int c = 0; c <= oldSizeCoord.getChannel(); c++) {
-                        Coords.CoordsBuilder cbz = cb.stagePosition(p).time(t).channel(c);
-                        Image tmpImg = oldStore.getImage(cbz.z(0).build());
-                        ImageStack stack = new ImageStack(
-                                tmpImg.getWidth(), tmpImg.getHeight());
-                        Metadata imgMetadata = tmpImg.getMetadata();
-                        for (int z = 0; z <= oldSizeCoord.getZ(); z++) {
-                           Image img = oldStore.getImage(cbz.z(z).build());
-                           ImageProcessor ip
-                                   = studio_.data().getImageJConverter().createProcessor(img);
-                           stack.addSlice(ip);
+                        final Coords coords = studio_.data().getCoordsBuilder()
+                                .stagePosition(p).time(t).channel(c).z(0).build();
+                        projections.add(executor.submit(new Callable<Image>() {
+                           @Override
+                           public Image call() throws ZProjectorException {
+                              return projectStack(oldStore, coords,
+                                      oldSizeCoord.getZ(), projectionMethod);
+                           }
+                        }));
+                        // Store finished projections in order, and do not let
+                        // more stacks than needed to keep all cores busy pile up
+                        while (projections.size() >= 2 * nrThreads
+                                || (!projections.isEmpty() && projections.peek().isDone())) {
+                           putProjection(newStore, projections.poll());
                         }
-                        ImagePlus tmp = new ImagePlus("tmp", stack);
-                        ZProjector zp = new ZProjector(tmp);
-                        zp.setMethod(projectionMethod);
-                        zp.doProjection();
-                        ImagePlus projection = zp.getProjection();
-                        Image outImg = studio_.data().getImageJConverter().createImage(
-                                projection.getProcessor(), cbz.z(0).build(),
-                                imgMetadata.copy().build());
-                        newStore.putImage(outImg);
                      }
                   }
                }
+               while (!projections.isEmpty()) {
+                  putProjection(newStore, projections.poll());
+               }
 
             } catch (DatastoreFrozenException ex) {
                studio_.logs().showError("Can not add data to frozen datastore");
             } catch (DatastoreRewriteException ex) {
                studio_.logs().showError("Can not overwrite data");
+            } finally {
+               executor.shutdownNow();
             }
 
             newStore.freeze();
@@ -142,4 +151,47 @@ public class ZProjectorPluginExecutor {
 
       (new ZProjectTask()).execute();
    }
+
+   /**
+    * Projects all Z planes at the given position, time and channel
+    *
+    * @param store datastore to read the planes from
+    * @param coords coordinates of the stack, with z = 0
+    * @param maxZ highest z index in the stack
+    * @param projectionMethod ZProjector method
+    * @return projected image, at the coordinates of the stack, or null if
+    *         the stack is empty
+    * @throws ZProjectorException when the images can not be projected
+    */
+   private Image projectStack(Datastore store, Coords coords, int maxZ,
+           int projectionMethod) throws ZProjectorException {
+      ProjectionAccumulator accumulator = new ProjectionAccumulator(projectionMethod);
+      for (int z = 0; z <= maxZ; z++) {
+         Image img = store.getImage(coords.copy().z(z).build());
+         if (img != null) {
+            accumulator.add(img);
+         }
+      }
+      if (accumulator.getCount() == 0) {
+         return null;
+      }
+      return accumulator.getProjection(studio_, coords,
+              accumulator.getMetadata().copy().build());
+   }
+
+   private void putProjection(Datastore store, Future<Image> projection)
+           throws DatastoreFrozenException, DatastoreRewriteException,
+           InterruptedException {
+      try {
+         Image img = projection.get();
+         if (img != null) {
+            store.putImage(img);
+         }
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof OutOfMemoryError) {
+            throw (OutOfMemoryError) ex.getCause();
+         }
+         studio_.logs().logError(ex.getCause(), "Failed to project stack");
+      }
+   }
 }
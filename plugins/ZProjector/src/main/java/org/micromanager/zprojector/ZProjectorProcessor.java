@@ -0,0 +1,103 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessor.java
+//PROJECT:       Micro-Manager 
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import java.util.HashMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Pipeline processor that replaces each Z stack by its projection.  Planes
+ * are folded into a ProjectionAccumulator as they arrive, and the projection
+ * is output (at z = 0) as soon as the last plane of the stack came in.
+ * Images of acquisitions without Z stacks are passed through untouched.
+ */
+public class ZProjectorProcessor extends Processor {
+
+   private final Studio studio_;
+   private final int projectionMethod_;
+   private int nrSlices_ = 0;
+   // Stacks that are being acquired, keyed by their coords with z = 0
+   private final HashMap<Coords, ProjectionAccumulator> stacks_;
+
+   public ZProjectorProcessor(Studio studio, int projectionMethod) {
+      studio_ = studio;
+      projectionMethod_ = projectionMethod;
+      stacks_ = new HashMap<Coords, ProjectionAccumulator>();
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      Coords intended = summary.getIntendedDimensions();
+      if (intended == null || intended.getZ() <= 1) {
+         nrSlices_ = 0;
+         return summary;
+      }
+      nrSlices_ = intended.getZ();
+      return summary.copy().intendedDimensions(intended.copy().z(1).build())
+              .build();
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      if (nrSlices_ <= 1 || studio_.live().getIsLiveModeOn()) {
+         context.outputImage(image);
+         return;
+      }
+      Coords coords = image.getCoords().copy().z(0).build();
+      ProjectionAccumulator stack = stacks_.get(coords);
+      try {
+         if (stack == null) {
+            stack = new ProjectionAccumulator(projectionMethod_);
+            stacks_.put(coords, stack);
+         }
+         stack.add(image);
+         if (stack.getCount() == nrSlices_) {
+            stacks_.remove(coords);
+            context.outputImage(stack.getProjection(studio_, coords,
+                    stack.getMetadata()));
+         }
+      } catch (ZProjectorException ex) {
+         studio_.logs().logError(ex, "ZProjector: failed to project image");
+         stacks_.remove(coords);
+         context.outputImage(image);
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      // Project stacks that were cut short, e.g. because the acquisition
+      // was aborted
+      for (Coords coords : stacks_.keySet()) {
+         ProjectionAccumulator stack = stacks_.get(coords);
+         try {
+            context.outputImage(stack.getProjection(studio_, coords,
+                    stack.getMetadata()));
+         } catch (ZProjectorException ex) {
+            studio_.logs().logError(ex, "ZProjector: failed to project image");
+         }
+      }
+      stacks_.clear();
+   }
+}
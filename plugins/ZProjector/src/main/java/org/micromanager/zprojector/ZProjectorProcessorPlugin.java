@@ -0,0 +1,73 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessorPlugin.java
+//PROJECT:       Micro-Manager 
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Micro-Manager contributors, 2026
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * Plugin that projects Z stacks while they are being acquired
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class ZProjectorProcessorPlugin implements ProcessorPlugin, SciJavaPlugin {
+   public static final String PROJECTION_METHOD = "projectionMethod";
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new ZProjectorConfigurator(settings, studio_);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new ZProjectorFactory(settings, studio_);
+   }
+
+   @Override
+   public String getName() {
+      return "Z Projector";
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Replaces each Z stack by its projection during acquisition";
+   }
+
+   @Override
+   public String getVersion() {
+      return "Version 0.1-beta";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Regents of the University of California, 2017";
+   }
+}
@@ -0,0 +1,131 @@
+package org.micromanager.zprojector;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.ZProjector;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataManager;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class ProjectionAccumulatorTest {
+
+   private static final int WIDTH = 3;
+   private static final int HEIGHT = 2;
+   private static final int[][] PLANES = new int[][] {
+      {0, 10, 200, 3000, 40000, 65535},
+      {1, 20, 100, 4000, 50000, 65535},
+      {5, 30, 300, 1000, 60000, 65535},
+      {2, 40, 250, 2000, 10000, 65535}
+   };
+   private static final int[] METHODS = new int[] {ZProjector.MAX_METHOD,
+      ZProjector.MIN_METHOD, ZProjector.AVG_METHOD, ZProjector.SUM_METHOD,
+      ZProjector.SD_METHOD};
+
+   /**
+    * Projects a 16-bit stack with every method and compares the result with
+    * that of ImageJ's ZProjector, rounded and clamped to 16 bits
+    */
+   @Test
+   public void testAllMethods() throws ZProjectorException {
+      Studio studio = createStudio();
+      Coords coords = new DefaultCoords.Builder().z(0).build();
+      Metadata metadata = new DefaultMetadata.Builder().build();
+      for (int method : METHODS) {
+         ProjectionAccumulator accumulator = new ProjectionAccumulator(method);
+         ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+         for (int[] plane : PLANES) {
+            accumulator.add(new DefaultImage(toShorts(plane), WIDTH, HEIGHT, 2,
+                    1, coords, metadata));
+            stack.addSlice(new ShortProcessor(WIDTH, HEIGHT, toShorts(plane), null));
+         }
+         Assert.assertEquals(PLANES.length, accumulator.getCount());
+         Image projection = accumulator.getProjection(studio, coords, metadata);
+         Assert.assertEquals(2, projection.getBytesPerPixel());
+         Assert.assertEquals(WIDTH, projection.getWidth());
+         Assert.assertEquals(HEIGHT, projection.getHeight());
+
+         ZProjector zp = new ZProjector(new ImagePlus("stack", stack));
+         zp.setMethod(method);
+         zp.doProjection();
+         ImageProcessor expected = zp.getProjection().getProcessor();
+         for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+               long value = Math.min(0xffff,
+                       Math.round(expected.getPixelValue(x, y)));
+               Assert.assertEquals("Method " + method + ", pixel " + x + ", " + y,
+                       value, projection.getIntensityAt(x, y));
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testEightBitSumIsClamped() throws ZProjectorException {
+      Coords coords = new DefaultCoords.Builder().z(0).build();
+      Metadata metadata = new DefaultMetadata.Builder().build();
+      ProjectionAccumulator accumulator =
+              new ProjectionAccumulator(ZProjector.SUM_METHOD);
+      for (int i = 0; i < 3; i++) {
+         accumulator.add(new DefaultImage(new byte[] {(byte) 100, (byte) 20},
+                 2, 1, 1, 1, coords, metadata));
+      }
+      Image projection = accumulator.getProjection(createStudio(), coords,
+              metadata);
+      Assert.assertEquals(1, projection.getBytesPerPixel());
+      Assert.assertEquals(255, projection.getIntensityAt(0, 0));
+      Assert.assertEquals(60, projection.getIntensityAt(1, 0));
+   }
+
+   private static short[] toShorts(int[] values) {
+      short[] result = new short[values.length];
+      for (int i = 0; i < values.length; i++) {
+         result[i] = (short) values[i];
+      }
+      return result;
+   }
+
+   /**
+    * @return Studio that can only create images
+    */
+   private static Studio createStudio() {
+      final DataManager data = (DataManager) Proxy.newProxyInstance(
+              DataManager.class.getClassLoader(),
+              new Class<?>[] {DataManager.class},
+              new InvocationHandler() {
+                 @Override
+                 public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (!method.getName().equals("createImage") || args.length != 7) {
+                       throw new UnsupportedOperationException(method.getName());
+                    }
+                    return new DefaultImage(args[0], (Integer) args[1],
+                            (Integer) args[2], (Integer) args[3],
+                            (Integer) args[4], (Coords) args[5],
+                            (Metadata) args[6]);
+                 }
+              });
+      return (Studio) Proxy.newProxyInstance(Studio.class.getClassLoader(),
+              new Class<?>[] {Studio.class},
+              new InvocationHandler() {
+                 @Override
+                 public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("data")
+                            || method.getName().equals("getDataManager")) {
+                       return data;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                 }
+              });
+   }
+}
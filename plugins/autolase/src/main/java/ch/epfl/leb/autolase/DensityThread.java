@@ -1,10 +1,13 @@
 package ch.epfl.leb.autolase;
 
-import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Queue;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +17,11 @@ import java.util.logging.Logger;
  * to the maximum time a certain pixel is "on", or above a certain threshold. 
  * The density is calculated as a moving average (default 1s).
  * 
+ * Thresholding, accumulation and the maximum are computed in a single pass 
+ * over each frame, striped over the available cores for large frames. The 
+ * density map is sent to the map monitors at most every 
+ * mapUpdateInterval ms (default 200ms).
+ * 
  * The code only works for 2 bytes per pixel cameras for now. 
  * 
  * @author Thomas Pengo
@@ -22,6 +30,10 @@ public class DensityThread implements Runnable {
     public static final int DEFAULT_THRESHOLD = 500;
     public static final int DEFAULT_WAIT_TIME = 20;
     public static final int NUM_ELEMS = 50;
+    public static final long DEFAULT_MAP_UPDATE_INTERVAL = 200;
+    
+    // Smaller frames are not worth striping
+    private static final int MIN_PIXELS_PER_STRIPE = 64 * 1024;
     
     boolean running = true;
     boolean stopping = false;
@@ -32,9 +44,22 @@ public class DensityThread implements Runnable {
     
     int threshold = DEFAULT_THRESHOLD;
     long timeInterval = DEFAULT_WAIT_TIME;
-    int fifoNumElems = NUM_ELEMS;
+    long mapUpdateInterval = DEFAULT_MAP_UPDATE_INTERVAL;
 
-    Queue<Double> density_fifo = new ArrayDeque<Double>(fifoNumElems);
+    // Moving average of the last NUM_ELEMS densities
+    final double[] densityRing = new double[NUM_ELEMS];
+    int densityIndex = 0;
+    int densityCount = 0;
+    double densitySum = 0;
+    
+    // A_i, reused from frame to frame
+    float[] accumulator = null;
+    
+    ExecutorService executor = null;
+    int nrThreads = 1;
+    final List<Stripe> stripes = new ArrayList<Stripe>();
+    // Frame being processed by the stripes
+    short[] frame = null;
 
     List <DensityMonitor>  monitors = 
             Collections.synchronizedList(new ArrayList <DensityMonitor> ());
@@ -75,6 +100,15 @@ public class DensityThread implements Runnable {
         this.timeInterval = timeInterval;
     }
     
+    /**
+     * Sets the minimum time between two updates of the density map monitors.
+     * 
+     * @param mapUpdateInterval interval in ms, 0 to update on every frame
+     */
+    public void setMapUpdateInterval(long mapUpdateInterval) {
+        this.mapUpdateInterval = mapUpdateInterval;
+    }
+    
     public void setCamera(Camera camera) {
         this.camera = camera;
     }
@@ -103,86 +137,182 @@ public class DensityThread implements Runnable {
         return currentDensity;
     }
 
+    /**
+     * One horizontal stripe of the frame. Updates its part of the accumulator
+     * and remembers the largest value it saw.
+     */
+    private class Stripe implements Callable<Void> {
+        final int start;
+        final int end;
+        float max;
+
+        Stripe(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() {
+            max = accumulate(frame, accumulator, start, end);
+            return null;
+        }
+    }
+
+    /**
+     * A_i = (I_i > t) (timeInterval + A_i-1), for pixels [start, end).
+     * 
+     * @return max(A_i) over the pixels
+     */
+    private float accumulate(short[] image, float[] acc, int start, int end) {
+        final int t = threshold;
+        final float dt = timeInterval;
+        float max = 0;
+        for (int i=start; i<end; i++) {
+            // Pixels are unsigned
+            if ((image[i] & 0xffff) > t) {
+                float a = acc[i] + dt;
+                acc[i] = a;
+                if (a > max)
+                    max = a;
+            } else {
+                acc[i] = 0;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Updates the accumulator with the frame and returns the density measure
+     * max(A_i). Large frames are split in stripes processed in parallel.
+     */
+    private float updateAccumulator(short[] image) throws Exception {
+        if (executor == null || stripes.size() < 2)
+            return accumulate(image, accumulator, 0, image.length);
+
+        frame = image;
+        try {
+            for (Future<Void> f : executor.invokeAll(stripes))
+                f.get();
+        } finally {
+            frame = null;
+        }
+        float max = 0;
+        for (Stripe s : stripes)
+            if (s.max > max)
+                max = s.max;
+        return max;
+    }
+
+    /**
+     * (Re)allocates the accumulator and stripes for frames of the given size.
+     */
+    private void allocate(int length) {
+        accumulator = new float[length];
+        stripes.clear();
+        int nrStripes = executor == null ? 1 : 
+                Math.min(nrThreads, length / MIN_PIXELS_PER_STRIPE);
+        for (int s=0; s<nrStripes; s++)
+            stripes.add(new Stripe(
+                    (int) ((long) length * s / nrStripes),
+                    (int) ((long) length * (s+1) / nrStripes)));
+    }
+
+    /**
+     * Adds a density to the moving average and returns the new average.
+     */
+    private double addToMovingAverage(double d) {
+        if (densityCount == densityRing.length) {
+            densitySum -= densityRing[densityIndex];
+        } else {
+            densityCount++;
+        }
+        densityRing[densityIndex] = d;
+        densitySum += d;
+        densityIndex = (densityIndex + 1) % densityRing.length;
+        
+        // Recompute the sum once per turn of the ring so that rounding 
+        // errors of the running sum do not add up
+        if (densityIndex == 0) {
+            densitySum = 0;
+            for (int i=0; i<densityCount; i++)
+                densitySum += densityRing[i];
+        }
+        
+        return densitySum / densityCount;
+    }
+
     @Override
     public void run() {
-        // Current image
-        float[] accumulator = null;
+        // Frames are striped over the cores when it pays off
+        nrThreads = Runtime.getRuntime().availableProcessors();
+        if (nrThreads > 1)
+            executor = Executors.newFixedThreadPool(nrThreads, 
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "AutoLase density");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
 
         // Start timer
-        long lastTime = System.currentTimeMillis();
+        long lastMapTime = 0;
         
-        while(!stopping) {            
-            // Only works with 2 bpp
-            if (camera.getBytesPerPixel()!=2)
-                throw new UnsupportedOperationException("Only works with 16-bit images");            
-            
-            // Check if we're in sequence acquisition
-            if (running && camera.isAcquiring())
-                // Get the current image
-                try {
-                    short[] image = camera.getNewImage();
-
-                    // Reset accumulator if image size has changed
-                    if (image!=null && accumulator!=null && (image.length != accumulator.length))
-                        accumulator = null;
-                    
-                    // Threshold the image
-                    boolean[] curMask = new boolean[image.length];
-                    for (int i=0; i<curMask.length; i++)
-                        curMask[i]=image[i]>threshold;
-
-                    // Calculate accumulator
-                    if (accumulator == null) {
-                        // A_0 = I_0 > t; 
-                        accumulator = new float[image.length];
-                        for(int i=0; i<accumulator.length; i++)
-                            if (curMask[i])
-                                accumulator[i] = timeInterval;
-                    } else {
-                        // A_i = (I_i > t) (1 + A_i-1)
-                        for(int i=0; i<accumulator.length; i++)
-                            if (!curMask[i]) {
-                                accumulator[i] = 0;
-                            } else {
-                                accumulator[i]+=timeInterval;
-                            }
-                    }
+        try {
+            while(!stopping) {            
+                // Only works with 2 bpp
+                if (camera.getBytesPerPixel()!=2)
+                    throw new UnsupportedOperationException("Only works with 16-bit images");            
+                
+                // Check if we're in sequence acquisition
+                if (running && camera.isAcquiring())
+                    // Get the current image
+                    try {
+                        short[] image = camera.getNewImage();
+                        
+                        if (image!=null) {
+                            // Reset accumulator if image size has changed
+                            if (accumulator==null || image.length != accumulator.length)
+                                allocate(image.length);
 
-                    // Density measure: max(A_i)
-                    double curd = 0;
-                    for (int i=0; i<image.length; i++)
-                        if (accumulator[i]>curd)
-                            curd = accumulator[i];
-                    
-                    // Moving average estimate
-                    if (density_fifo.size() == fifoNumElems)
-                        density_fifo.remove();
-                    density_fifo.offer(curd);
+                            // Threshold, accumulate and take the max in one pass
+                            double curd = updateAccumulator(image);
 
-                    double mean_density = 0;
-                    for (Double d : density_fifo)
-                        mean_density+=d;
-                    mean_density /= density_fifo.size();
+                            // Moving average estimate
+                            currentDensity = addToMovingAverage(curd);
 
-                    currentDensity = mean_density;  
-                    
-                    for (DensityMonitor m : monitors)
-                        m.densityChanged(currentDensity);
+                            for (DensityMonitor m : monitors)
+                                m.densityChanged(currentDensity);
 
-                    for (DensityMapMonitor m : mapMonitors)
-                        m.densityMapChanged(camera.getWidth(),camera.getHeight(),accumulator);
+                            // The map is only for display, no need to send it every frame
+                            long now = System.currentTimeMillis();
+                            if (now - lastMapTime >= mapUpdateInterval) {
+                                lastMapTime = now;
+                                for (DensityMapMonitor m : mapMonitors)
+                                    m.densityMapChanged(camera.getWidth(),camera.getHeight(),accumulator);
+                            }
+                        }
 
-                } catch (Exception ex) {
+                    } catch (Exception ex) {
+                        Logger.getLogger(DensityThread.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                
+                try {
+                    Thread.sleep(timeInterval);
+                } catch (InterruptedException ex) {
                     Logger.getLogger(DensityThread.class.getName()).log(Level.SEVERE, null, ex);
+                    
+                    stopping = true;
                 }
-            
-            try {
-                Thread.sleep(timeInterval);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(DensityThread.class.getName()).log(Level.SEVERE, null, ex);
-                
-                stopping = true;
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            stripes.clear();
+            accumulator = null;
         }
         
         stopping = false;